@@ -0,0 +1,170 @@
+package exchange.core2.revelator;
+
+/**
+ * Reusable descriptor of a messages batch for Revelator.claimBatch.
+ * <p>
+ * Usage: reset, add messages (sizes and headers), claim batch, write payloads using getPayloadPosition, publish batch.
+ * <p>
+ * Not thread-safe, each publisher should have its own instance.
+ */
+public final class BatchClaim {
+
+    private final int[] payloadSizes;
+    private final long[] timestamps;
+    private final long[] correlationIds;
+    private final byte[] messageTypes;
+    private final int[] userCookies;
+    private final long[] payloadPositions;
+
+    private int messagesNum = 0;
+    private long totalPayloadSize = 0L;
+
+    // filled by claim
+    private long startPosition = -1L;
+    private long endPosition = -1L;
+    private long paddingPosition = -1L;
+
+    public BatchClaim(final int maxMessages) {
+        this.payloadSizes = new int[maxMessages];
+        this.timestamps = new long[maxMessages];
+        this.correlationIds = new long[maxMessages];
+        this.messageTypes = new byte[maxMessages];
+        this.userCookies = new int[maxMessages];
+        this.payloadPositions = new long[maxMessages];
+    }
+
+    /**
+     * Add message into the batch
+     *
+     * @return message index in the batch
+     */
+    public int add(final int payloadSize,
+                   final long timestamp,
+                   final long correlationId,
+                   final byte messageType) {
+
+        return add(payloadSize, timestamp, correlationId, messageType, 0);
+    }
+
+    /**
+     * Add message into the batch
+     *
+     * @return message index in the batch
+     */
+    public int add(final int payloadSize,
+                   final long timestamp,
+                   final long correlationId,
+                   final byte messageType,
+                   final int userCookie) {
+
+        if (messageType < 1 || messageType > Revelator.MSG_TYPE_POISON_PILL) {
+            throw new IllegalArgumentException("message type should be in range: 1.." + Revelator.MSG_TYPE_POISON_PILL);
+        }
+
+        if ((correlationId >> 56) != 0) {
+            throw new IllegalArgumentException("correlationId should be in range: 0..2^56-1");
+        }
+
+        if (payloadSize < 0) {
+            throw new IllegalArgumentException("claimed size must be >= 0");
+        }
+
+        if (messagesNum == payloadSizes.length) {
+            throw new IllegalStateException("batch capacity exceeded: " + payloadSizes.length);
+        }
+
+        final int idx = messagesNum++;
+        payloadSizes[idx] = payloadSize;
+        timestamps[idx] = timestamp;
+        correlationIds[idx] = correlationId;
+        messageTypes[idx] = messageType;
+        userCookies[idx] = userCookie;
+        totalPayloadSize += payloadSize;
+        return idx;
+    }
+
+    public void reset() {
+        messagesNum = 0;
+        totalPayloadSize = 0L;
+        startPosition = -1L;
+        endPosition = -1L;
+        paddingPosition = -1L;
+    }
+
+    /**
+     * Calculate messages layout starting from specified position.
+     * Message never crosses buffer end - padding is inserted before such message instead.
+     *
+     * @return batch end position (exclusive)
+     */
+    long layout(final long position, final long bufferSize, final long indexMask, final int headerSize) {
+
+        startPosition = position;
+        paddingPosition = -1L;
+
+        long pos = position;
+        for (int i = 0; i < messagesNum; i++) {
+            final int fullMessageSize = payloadSizes[i] + headerSize;
+            final long remainingSpace = bufferSize - (pos & indexMask);
+            if (remainingSpace < fullMessageSize) {
+                paddingPosition = pos;
+                pos += remainingSpace;
+            }
+            payloadPositions[i] = pos + headerSize;
+            pos += fullMessageSize;
+        }
+
+        endPosition = pos;
+        return pos;
+    }
+
+    public int getMessagesNum() {
+        return messagesNum;
+    }
+
+    public long getTotalPayloadSize() {
+        return totalPayloadSize;
+    }
+
+    public int getPayloadSize(final int idx) {
+        return payloadSizes[idx];
+    }
+
+    long getTimestamp(final int idx) {
+        return timestamps[idx];
+    }
+
+    long getCorrelationId(final int idx) {
+        return correlationIds[idx];
+    }
+
+    byte getMessageType(final int idx) {
+        return messageTypes[idx];
+    }
+
+    int getUserCookie(final int idx) {
+        return userCookies[idx];
+    }
+
+    /**
+     * @return offset to write message body (same as claimSingleMessage result)
+     */
+    public long getPayloadPosition(final int idx) {
+        return payloadPositions[idx];
+    }
+
+    public long getStartPosition() {
+        return startPosition;
+    }
+
+    public long getEndPosition() {
+        return endPosition;
+    }
+
+    /**
+     * @return position of zero-header padding inside the batch, or -1 if batch is not wrapped
+     */
+    public long getPaddingPosition() {
+        return paddingPosition;
+    }
+}
@@ -0,0 +1,31 @@
+package exchange.core2.revelator;
+
+/**
+ * Message header layout. First word is always [msgType:8 | correlationId:56], zero first word means padding.
+ * Last header word is always [userCookie:32 | payloadSize:32].
+ */
+public enum HeaderFormat {
+
+    /**
+     * 3 words: type+correlationId, timestamp, userCookie+size
+     */
+    STANDARD(3),
+
+    /**
+     * 2 words: type+correlationId, userCookie+size (no timestamp, processors receive 0)
+     */
+    COMPACT(2);
+
+    private final int headerSize;
+
+    HeaderFormat(final int headerSize) {
+        this.headerSize = headerSize;
+    }
+
+    /**
+     * @return header size in words
+     */
+    public int getHeaderSize() {
+        return headerSize;
+    }
+}
@@ -1,30 +1,51 @@
 package exchange.core2.revelator;
 
+import exchange.core2.revelator.buffers.RingBuffer;
 import exchange.core2.revelator.fences.IFence;
+import exchange.core2.revelator.fences.MultiProducerFence;
 import exchange.core2.revelator.fences.SingleWriterFence;
+import exchange.core2.revelator.metrics.LagMonitor;
+import exchange.core2.revelator.metrics.MessageTracer;
+import exchange.core2.revelator.metrics.RevelatorCounters;
+import exchange.core2.revelator.metrics.StageLatencyHistograms;
+import exchange.core2.revelator.metrics.jfr.JfrEventsEmitter;
+import exchange.core2.revelator.metrics.jfr.TailStrikeEvent;
 import exchange.core2.revelator.processors.IFlowProcessor;
 import exchange.core2.revelator.processors.IFlowProcessorsFactory;
-import org.agrona.BitUtil;
+import exchange.core2.revelator.waitstrategies.BlockingWaitStrategy;
+import exchange.core2.revelator.waitstrategies.IWaitStrategy;
+import jdk.internal.vm.annotation.Contended;
+import org.agrona.concurrent.status.AtomicCounter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 public final class Revelator implements AutoCloseable {
 
     private static final Logger log = LoggerFactory.getLogger(Revelator.class);
 
-    public static final int MSG_HEADER_SIZE = 3;
+    public static final int MSG_HEADER_SIZE = 3; // standard header format
     public static final byte MSG_TYPE_POISON_PILL = 31;
     public static final byte MSG_TYPE_TEST_CONTROL = 30;
+    public static final byte MSG_TYPE_SNAPSHOT = 29;
 
-    private final int bufferSize;
-    private final int indexMask;
-    private final long[] buffer;
+    public static final long CLAIM_FAILED = -1L; // tryClaim result when there is not enough space in the buffer
+
+    private final long bufferSize;
+    private final long indexMask;
+    private final RingBuffer buffer;
+
+    private final int headerSize;
+    private final boolean compactHeader;
 
     private final List<? extends IFlowProcessor> processors;
 
@@ -32,23 +53,75 @@ public final class Revelator implements AutoCloseable {
 
     private final SingleWriterFence inboundFence; // single publisher
 
+    private final MultiProducerFence sharedInboundFence; // multiple publishers (null in single publisher mode)
+
     private final IFence releasingFence;
 
+    private final IWaitStrategy publisherWaitStrategy;
+
+    private final BlockingWaitStrategy blockingWaitStrategy; // shared with processors, only for signalling
+
+    private final SingleWriterFence recoveryFence;
+
+    private final StageLatencyHistograms stageLatencyHistograms;
+
+    private final RevelatorCounters counters;
+
+    private final AtomicCounter tailStrikeCounter; // null if counters are disabled
+
+    private final JfrEventsEmitter jfrEvents; // null if disabled
+
+    private final MessageTracer messageTracer; // null if disabled
+
+    private final LagMonitor lagMonitor; // null if disabled
+    private Thread lagMonitorThread;
+
     private final List<Thread> threads = new ArrayList<>();
 
+    // in multi-producer mode fields below are accessed only through VarHandles
+
+    @Contended
     private long reservedPosition = 0L; // nextValue = single writer sequencer position in Disruptor
 
+    @Contended
     private long cachedOutboundPosition = 0L; // cachedValue = min gating sequence in Disruptor
 
     private long tailStrike = 0L;
 
+    private static final VarHandle RESERVED_POSITION;
+    private static final VarHandle CACHED_OUTBOUND_POSITION;
+    private static final VarHandle TAIL_STRIKE;
+
+    static {
+        try {
+            final MethodHandles.Lookup lookup = MethodHandles.lookup();
+            RESERVED_POSITION = lookup.findVarHandle(Revelator.class, "reservedPosition", long.class);
+            CACHED_OUTBOUND_POSITION = lookup.findVarHandle(Revelator.class, "cachedOutboundPosition", long.class);
+            TAIL_STRIKE = lookup.findVarHandle(Revelator.class, "tailStrike", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
     private CompletableFuture<Void> shutdownFuture;
 
     public static Revelator create(final int bufferSize,
                                    final IFlowProcessorsFactory flowProcessorsFactory,
                                    final ThreadFactory threadFactory) {
 
-        if (!BitUtil.isPowerOfTwo(bufferSize)) {
+        return create(
+                RevelatorParameters.builder().bufferSize(bufferSize).build(),
+                flowProcessorsFactory,
+                threadFactory);
+    }
+
+    public static Revelator create(final RevelatorParameters parameters,
+                                   final IFlowProcessorsFactory flowProcessorsFactory,
+                                   final ThreadFactory threadFactory) {
+
+        final long bufferSize = parameters.getBufferSize();
+
+        if (bufferSize <= 0 || Long.bitCount(bufferSize) != 1) {
             throw new IllegalArgumentException("Revelator buffer size must be 2^N");
         }
 
@@ -56,44 +129,132 @@ public final class Revelator implements AutoCloseable {
             throw new IllegalArgumentException("Revelator buffer size must be > 1024 bytes");
         }
 
+        if (parameters.getProducerType() == RevelatorParameters.ProducerType.MULTI && bufferSize > (1 << 30)) {
+            throw new IllegalArgumentException("Multi-producer mode supports buffer size up to 2^30");
+        }
+
 
         final SingleWriterFence inboundFence = new SingleWriterFence(); // single publisher
 
-        final int indexMask = bufferSize - 1;
+        final MultiProducerFence sharedInboundFence = parameters.getProducerType() == RevelatorParameters.ProducerType.MULTI
+                ? new MultiProducerFence((int) bufferSize)
+                : null;
 
-        final long[] buffer = new long[bufferSize];
+        final long indexMask = bufferSize - 1;
 
-        final IFlowProcessorsFactory.ProcessorsChain chain = flowProcessorsFactory.createProcessors(
-                inboundFence,
-                new RevelatorConfig(indexMask, bufferSize, buffer));
+        final RingBuffer buffer = parameters.getBufferFactory().createBuffer(bufferSize);
+
+        if (parameters.isStageLatency() && parameters.getHeaderFormat() == HeaderFormat.COMPACT) {
+            throw new IllegalArgumentException("Stage latency requires timestamp (STANDARD header format)");
+        }
 
+        final SingleWriterFence recoveryFence = new SingleWriterFence();
+        if (parameters.isRecoveryMode()) {
+            recoveryFence.setRelease(Long.MAX_VALUE);
+        }
+
+        final RevelatorCounters counters = parameters.getCountersFile() != null
+                ? RevelatorCounters.create(parameters.getCountersFile(), RevelatorCounters.DEFAULT_MAX_COUNTERS)
+                : null;
+
+        final RevelatorConfig config = new RevelatorConfig(
+                indexMask,
+                bufferSize,
+                buffer,
+                parameters.getHeaderFormat(),
+                parameters.getProcessorsWaitStrategy(),
+                new BlockingWaitStrategy(),
+                recoveryFence,
+                parameters.getSnapshotExecutor(),
+                parameters.isStageLatency() ? new StageLatencyHistograms() : null,
+                counters,
+                parameters.getTraceSampleRate() != 0
+                        ? new MessageTracer(parameters.getTraceSampleRate(), parameters.getTraceCapacity())
+                        : null,
+                parameters.getJfrEventsRate());
+
+        final IFence publishedFence = sharedInboundFence != null ? sharedInboundFence : inboundFence;
+
+        final IFlowProcessorsFactory.ProcessorsChain chain = flowProcessorsFactory.createProcessors(
+                publishedFence,
+                config);
+
+        final List<IFlowProcessor> processors = chain.getProcessors();
+
+        LagMonitor lagMonitor = null;
+        if (parameters.getLagMonitorConfig() != null) {
+            lagMonitor = new LagMonitor(
+                    parameters.getLagMonitorConfig(),
+                    publishedFence,
+                    chain.getReleasingFence(),
+                    IntStream.range(0, processors.size()).mapToObj(Revelator::processorThreadName).collect(Collectors.toList()),
+                    processors.stream().map(IFlowProcessor::getReleasingFence).collect(Collectors.toList()),
+                    buffer,
+                    bufferSize,
+                    parameters.getHeaderFormat().getHeaderSize(),
+                    counters);
+        }
 
         return new Revelator(
                 bufferSize,
                 indexMask,
                 buffer,
-                chain.getProcessors(),
+                parameters.getHeaderFormat(),
+                processors,
                 threadFactory,
                 inboundFence,
-                chain.getReleasingFence());
+                sharedInboundFence,
+                chain.getReleasingFence(),
+                config.createWaitStrategy(parameters.getPublisherWaitStrategy()),
+                config.getBlockingWaitStrategy(),
+                recoveryFence,
+                config.getStageLatencyHistograms(),
+                counters,
+                config.getMessageTracer(),
+                config.createJfrEventsEmitter("publisher"),
+                lagMonitor);
     }
 
 
-    private Revelator(final int bufferSize,
-                      final int indexMask,
-                      final long[] buffer,
+    private Revelator(final long bufferSize,
+                      final long indexMask,
+                      final RingBuffer buffer,
+                      final HeaderFormat headerFormat,
                       final List<? extends IFlowProcessor> processors,
                       final ThreadFactory threadFactory,
                       final SingleWriterFence inboundFence,
-                      final IFence outboundFence) {
+                      final MultiProducerFence sharedInboundFence,
+                      final IFence outboundFence,
+                      final IWaitStrategy publisherWaitStrategy,
+                      final BlockingWaitStrategy blockingWaitStrategy,
+                      final SingleWriterFence recoveryFence,
+                      final StageLatencyHistograms stageLatencyHistograms,
+                      final RevelatorCounters counters,
+                      final MessageTracer messageTracer,
+                      final JfrEventsEmitter jfrEvents,
+                      final LagMonitor lagMonitor) {
 
         this.bufferSize = bufferSize;
         this.indexMask = indexMask;
         this.buffer = buffer;
+        this.headerSize = headerFormat.getHeaderSize();
+        this.compactHeader = headerFormat == HeaderFormat.COMPACT;
         this.processors = processors;
         this.threadFactory = threadFactory;
         this.inboundFence = inboundFence;
+        this.sharedInboundFence = sharedInboundFence;
         this.releasingFence = outboundFence;
+        this.publisherWaitStrategy = publisherWaitStrategy;
+        this.blockingWaitStrategy = blockingWaitStrategy;
+        this.recoveryFence = recoveryFence;
+        this.stageLatencyHistograms = stageLatencyHistograms;
+        this.counters = counters;
+        this.tailStrikeCounter = counters != null
+                ? counters.newCounter("publisher tail strikes", RevelatorCounters.TYPE_PUBLISHER)
+                : null;
+        this.messageTracer = messageTracer;
+        this.jfrEvents = jfrEvents;
+        this.lagMonitor = lagMonitor;
     }
 
     public synchronized void start() {
@@ -107,7 +268,7 @@ public final class Revelator implements AutoCloseable {
         for (final IFlowProcessor processor : processors) {
 
             final Thread thread = threadFactory.newThread(processor);
-            final String threadName = "PROC-" + c; // TODO allow custom thread naming policy
+            final String threadName = processorThreadName(c); // TODO allow custom thread naming policy
             log.info("Starting processor {} (thread {})...", processor, threadName);
             thread.setName(threadName);
             thread.setDaemon(true);
@@ -115,6 +276,16 @@ public final class Revelator implements AutoCloseable {
             threads.add(thread);
             c++;
         }
+
+        if (lagMonitor != null) {
+            lagMonitorThread = new Thread(lagMonitor, "REVELATOR-LAG-MONITOR");
+            lagMonitorThread.setDaemon(true);
+            lagMonitorThread.start();
+        }
+    }
+
+    private static String processorThreadName(final int processorIdx) {
+        return "PROC-" + processorIdx;
     }
 
     public synchronized CompletableFuture<Void> stopAsync() {
@@ -122,7 +293,7 @@ public final class Revelator implements AutoCloseable {
         if (shutdownFuture == null) {
 
             final long position = claimSingleMessage(0, 0L, 0L, MSG_TYPE_POISON_PILL);
-            publish(position);
+            publish(position, position);
 
             shutdownFuture = CompletableFuture.runAsync(() -> {
                 log.debug("Stopping {} revelator threads...", threads.size());
@@ -141,8 +312,26 @@ public final class Revelator implements AutoCloseable {
         return shutdownFuture;
     }
 
+    /**
+     * Request all handlers to make state snapshot.
+     * Snapshot control message is published into the ring, so every processor takes snapshot at the same globalOffset
+     * (after processing all previous messages, before processing any next message).
+     * Snapshot message is journaled like any other message, so it also marks journal position for replay.
+     * <p>
+     * In single publisher mode should be called from publisher thread.
+     *
+     * @param snapshotId - snapshot identifier (0..2^56-1), passed to handlers
+     */
+    public void requestSnapshot(final long snapshotId) {
+        final long claimSeq = claimSingleMessage(0, 0L, snapshotId, MSG_TYPE_SNAPSHOT);
+        publish(claimSeq, claimSeq);
+    }
+
     /**
      * Claim space for single message
+     * <p>
+     * In multi-producer mode can be called from any thread, but the message should be published
+     * using {@link #publish(long, long)} method.
      *
      * @param claimingPayloadSize
      * @return offset to write message body
@@ -152,19 +341,26 @@ public final class Revelator implements AutoCloseable {
                                    final long correlationId,
                                    final byte messageType) {
 
-        if (messageType < 1 || messageType > MSG_TYPE_POISON_PILL) {
-            throw new IllegalArgumentException("message type should be in range: 1.." + MSG_TYPE_POISON_PILL);
-        }
+        return claimSingleMessage(claimingPayloadSize, timestamp, correlationId, messageType, 0);
+    }
 
-        if ((correlationId >> 56) != 0) {
-            throw new IllegalArgumentException("correlationId should be in range: 0..2^56-1");
-        }
+    /**
+     * Claim space for single message
+     *
+     * @param timestamp  - ignored for COMPACT header format
+     * @param userCookie - custom 4 bytes value passed to the handlers along with the message header
+     * @return offset to write message body
+     */
+    public long claimSingleMessage(final int claimingPayloadSize,
+                                   final long timestamp,
+                                   final long correlationId,
+                                   final byte messageType,
+                                   final int userCookie) {
 
-        // calculate expected message size
-        final int fullMessageSize = claimingPayloadSize + MSG_HEADER_SIZE;
+        final int fullMessageSize = validateClaim(claimingPayloadSize, correlationId, messageType);
 
-        if (claimingPayloadSize < 0 || fullMessageSize > bufferSize) {
-            throw new IllegalArgumentException("claimed size must be >= 0 and < bufferSize");
+        if (sharedInboundFence != null) {
+            return claimSharedMessage(fullMessageSize, claimingPayloadSize, timestamp, correlationId, messageType, userCookie);
         }
 
         long msgStartSequence = reservedPosition;
@@ -172,7 +368,7 @@ public final class Revelator implements AutoCloseable {
         final long wrapPoint = this.reservedPosition - bufferSize;
 
         // check if new message can fit into remaining buffer
-        int index = (int) (msgStartSequence & indexMask);
+        long index = msgStartSequence & indexMask;
         final long remainingSpaceBytes = bufferSize - index;
         if (remainingSpaceBytes < fullMessageSize) {
             // can not fit - write empty message that will be ignored by headers
@@ -184,7 +380,7 @@ public final class Revelator implements AutoCloseable {
             // there is always at least 8 bytes available due to alignment (only need to check wrap point before writing)
             // so we check wrap point for claimed message (just to do it once)
             wrapPointCheckWaitUpdate(msgStartSequence, wrapPoint + remainingSpaceBytes);
-            buffer[index] = 0L;
+            buffer.putLong(index, 0L);
 
             index = 0;
             msgStartSequence += remainingSpaceBytes;
@@ -200,21 +396,419 @@ public final class Revelator implements AutoCloseable {
 //        log.debug("WRITING HEADER correlationId={}", correlationId);
 
         // write header
+        writeHeader(index, claimingPayloadSize, timestamp, correlationId, messageType, userCookie);
+
+        final long payloadStartSeq = msgStartSequence + headerSize;
+
+//        log.debug("WRITING HEADER DONE payloadStartSeq={} index={} claimingPayloadSize={}",
+//                payloadStartSeq, payloadStartSeq & indexMask, claimingPayloadSize);
+
+        return payloadStartSeq;
+    }
+
+    /**
+     * Non-blocking version of {@link #claimSingleMessage(int, long, long, byte)}
+     *
+     * @return offset to write message body, or CLAIM_FAILED if there is not enough space because processors are behind
+     */
+    public long tryClaimSingleMessage(final int claimingPayloadSize,
+                                      final long timestamp,
+                                      final long correlationId,
+                                      final byte messageType) {
+
+        return tryClaimSingleMessage(claimingPayloadSize, timestamp, correlationId, messageType, 0);
+    }
+
+    /**
+     * Non-blocking version of {@link #claimSingleMessage(int, long, long, byte, int)}.
+     * Nothing is reserved (including padding) if the message does not fit.
+     * <p>
+     * In multi-producer mode can still retry when CAS fails because of other publishers, but never waits for processors.
+     *
+     * @return offset to write message body, or CLAIM_FAILED if there is not enough space because processors are behind
+     */
+    public long tryClaimSingleMessage(final int claimingPayloadSize,
+                                      final long timestamp,
+                                      final long correlationId,
+                                      final byte messageType,
+                                      final int userCookie) {
+
+        final int fullMessageSize = validateClaim(claimingPayloadSize, correlationId, messageType);
+
+        final long msgStartSequence;
+
+        if (sharedInboundFence != null) {
+
+            long currentPosition;
+            long msgStart;
+
+            while (true) {
+                currentPosition = (long) RESERVED_POSITION.getVolatile(this);
+
+                final long remainingSpace = bufferSize - (currentPosition & indexMask);
+                msgStart = (remainingSpace < fullMessageSize) ? currentPosition + remainingSpace : currentPosition;
+
+                if (!sharedTryWrapPointCheck(currentPosition, msgStart + fullMessageSize - bufferSize)) {
+                    return CLAIM_FAILED;
+                }
+
+                if (RESERVED_POSITION.compareAndSet(this, currentPosition, msgStart + fullMessageSize)) {
+                    break;
+                }
+            }
+
+            if (msgStart != currentPosition) {
+                buffer.putLong(currentPosition & indexMask, 0L);
+                sharedInboundFence.publish(currentPosition, msgStart);
+            }
+
+            msgStartSequence = msgStart;
+
+        } else {
+
+            final long currentPosition = reservedPosition;
+
+            final long remainingSpace = bufferSize - (currentPosition & indexMask);
+            msgStartSequence = (remainingSpace < fullMessageSize) ? currentPosition + remainingSpace : currentPosition;
+
+            if (!tryWrapPointCheckUpdate(currentPosition, msgStartSequence + fullMessageSize - bufferSize)) {
+                return CLAIM_FAILED;
+            }
+
+            if (msgStartSequence != currentPosition) {
+                buffer.putLong(currentPosition & indexMask, 0L);
+            }
+
+            reservedPosition = msgStartSequence + fullMessageSize;
+        }
+
+        writeHeader(msgStartSequence & indexMask, claimingPayloadSize, timestamp, correlationId, messageType, userCookie);
+
+        return msgStartSequence + headerSize;
+    }
+
+    /**
+     * Estimation of space (in words, including headers) that can be claimed without waiting,
+     * by one or several messages, taking into account padding which may be required at the end of the buffer.
+     * Based on cached processors position, so it can only be lower than actual value, never higher.
+     * Cached position is refreshed only by successful claims reaching beyond it.
+     */
+    public long remainingCapacity() {
+        final long reserved = (long) RESERVED_POSITION.getOpaque(this);
+        final long cachedOutbound = (long) CACHED_OUTBOUND_POSITION.getOpaque(this);
+        final long free = Math.max(0L, bufferSize - (reserved - cachedOutbound));
+        final long tail = bufferSize - (reserved & indexMask);
+        // messages either fit into the tail (no padding), or the whole tail is padded
+        return Math.max(Math.min(tail, free), free - tail);
+    }
+
+    /**
+     * @return full message size (including header)
+     */
+    private int validateClaim(final int claimingPayloadSize,
+                              final long correlationId,
+                              final byte messageType) {
+
+        if (messageType < 1 || messageType > MSG_TYPE_POISON_PILL) {
+            throw new IllegalArgumentException("message type should be in range: 1.." + MSG_TYPE_POISON_PILL);
+        }
+
+        if ((correlationId >> 56) != 0) {
+            throw new IllegalArgumentException("correlationId should be in range: 0..2^56-1");
+        }
+
+        // calculate expected message size
+        final int fullMessageSize = claimingPayloadSize + headerSize;
+
+        if (claimingPayloadSize < 0 || fullMessageSize > bufferSize) {
+            throw new IllegalArgumentException("claimed size must be >= 0 and < bufferSize");
+        }
+
+        return fullMessageSize;
+    }
+
+    /**
+     * Multi-producer version of the claim: reserves space using CAS,
+     * padding (if any) is published immediately, so it never blocks consumers.
+     */
+    private long claimSharedMessage(final int fullMessageSize,
+                                    final int claimingPayloadSize,
+                                    final long timestamp,
+                                    final long correlationId,
+                                    final byte messageType,
+                                    final int userCookie) {
+
+        long currentPosition;
+        long msgStartSequence;
+
+        while (true) {
+            currentPosition = (long) RESERVED_POSITION.getVolatile(this);
+
+            // check if new message can fit into remaining buffer, otherwise claim padding as well
+            final long remainingSpace = bufferSize - (currentPosition & indexMask);
+            msgStartSequence = (remainingSpace < fullMessageSize) ? currentPosition + remainingSpace : currentPosition;
+
+            final long wrapPoint = msgStartSequence + fullMessageSize - bufferSize;
+
+            if (sharedWrapPointCheck(currentPosition, wrapPoint)
+                    && RESERVED_POSITION.compareAndSet(this, currentPosition, msgStartSequence + fullMessageSize)) {
+                break;
+            }
+        }
+
+        if (msgStartSequence != currentPosition) {
+            // write 0 message, indicating that reader should start from buffer
+            buffer.putLong(currentPosition & indexMask, 0L);
+            sharedInboundFence.publish(currentPosition, msgStartSequence);
+        }
+
+        writeHeader(msgStartSequence & indexMask, claimingPayloadSize, timestamp, correlationId, messageType, userCookie);
+
+        return msgStartSequence + headerSize;
+    }
+
+    /**
+     * Claim space for all messages of the batch with a single wrap point check, and write their headers.
+     * Padding (zero header) is inserted inside the batch if some message does not fit into remaining buffer space.
+     * <p>
+     * Positions to write messages bodies can be obtained using {@link BatchClaim#getPayloadPosition(int)}.
+     * Whole batch becomes visible for processors at once, after calling {@link #publishBatch(BatchClaim)}.
+     */
+    public void claimBatch(final BatchClaim batch) {
+
+        final int messagesNum = batch.getMessagesNum();
+        if (messagesNum == 0) {
+            throw new IllegalArgumentException("batch is empty");
+        }
+
+        // padding is always smaller than the batch itself, so claimed region never exceeds buffer size
+        if (batch.getTotalPayloadSize() + (long) messagesNum * headerSize > bufferSize >> 1) {
+            throw new IllegalArgumentException("batch size must be < bufferSize/2");
+        }
+
+        if (sharedInboundFence == null) {
+
+            final long batchStartSequence = reservedPosition;
+            final long batchEndSequence = batch.layout(batchStartSequence, bufferSize, indexMask, headerSize);
+            wrapPointCheckWaitUpdate(batchStartSequence, batchEndSequence - bufferSize);
+            reservedPosition = batchEndSequence;
+
+        } else {
+
+            while (true) {
+                final long currentPosition = (long) RESERVED_POSITION.getVolatile(this);
+                final long batchEndSequence = batch.layout(currentPosition, bufferSize, indexMask, headerSize);
+
+                if (sharedWrapPointCheck(currentPosition, batchEndSequence - bufferSize)
+                        && RESERVED_POSITION.compareAndSet(this, currentPosition, batchEndSequence)) {
+                    break;
+                }
+            }
+        }
+
+        final long paddingPosition = batch.getPaddingPosition();
+        if (paddingPosition != -1L) {
+            // write 0 message, indicating that reader should start from buffer
+            buffer.putLong(paddingPosition & indexMask, 0L);
+        }
+
+        for (int i = 0; i < messagesNum; i++) {
+            writeHeader(
+                    (batch.getPayloadPosition(i) - headerSize) & indexMask,
+                    batch.getPayloadSize(i),
+                    batch.getTimestamp(i),
+                    batch.getCorrelationId(i),
+                    batch.getMessageType(i),
+                    batch.getUserCookie(i));
+        }
+    }
+
+    /**
+     * Claim contiguous region for already formatted messages (headers included), for example replayed from journal.
+     * Padding is inserted before the region if it does not fit into remaining buffer space.
+     * Caller is responsible for splitting data by message boundaries.
+     *
+     * @param words region size (should be &lt;= bufferSize/2)
+     * @return region start position
+     */
+    public long claimRawBlock(final int words) {
+
+        if (words <= 0 || words > bufferSize >> 1) {
+            throw new IllegalArgumentException("raw block size must be > 0 and <= bufferSize/2");
+        }
+
+        if (sharedInboundFence == null) {
+
+            final long currentPosition = reservedPosition;
+            final long remainingSpace = bufferSize - (currentPosition & indexMask);
+            final long blockStartSequence = (remainingSpace < words) ? currentPosition + remainingSpace : currentPosition;
+
+            wrapPointCheckWaitUpdate(currentPosition, blockStartSequence + words - bufferSize);
+            reservedPosition = blockStartSequence + words;
+
+            if (blockStartSequence != currentPosition) {
+                buffer.putLong(currentPosition & indexMask, 0L);
+            }
+
+            return blockStartSequence;
+
+        } else {
+
+            long currentPosition;
+            long blockStartSequence;
+
+            while (true) {
+                currentPosition = (long) RESERVED_POSITION.getVolatile(this);
+                final long remainingSpace = bufferSize - (currentPosition & indexMask);
+                blockStartSequence = (remainingSpace < words) ? currentPosition + remainingSpace : currentPosition;
+
+                if (sharedWrapPointCheck(currentPosition, blockStartSequence + words - bufferSize)
+                        && RESERVED_POSITION.compareAndSet(this, currentPosition, blockStartSequence + words)) {
+                    break;
+                }
+            }
+
+            if (blockStartSequence != currentPosition) {
+                buffer.putLong(currentPosition & indexMask, 0L);
+                sharedInboundFence.publish(currentPosition, blockStartSequence);
+            }
+
+            return blockStartSequence;
+        }
+    }
+
+    /**
+     * Copy formatted messages into region claimed by {@link #claimRawBlock(int)}
+     */
+    public void writeRawBlock(final long blockStartSequence,
+                              final Object srcBase,
+                              final long srcAddress,
+                              final int words) {
+
+        buffer.putBlock(blockStartSequence & indexMask, srcBase, srcAddress, words);
+    }
+
+    /**
+     * Publish region claimed by {@link #claimRawBlock(int)}
+     */
+    public void publishRawBlock(final long blockStartSequence, final long blockEndSequence) {
+        if (sharedInboundFence != null) {
+            sharedInboundFence.publish(blockStartSequence, blockEndSequence);
+        } else {
+            inboundFence.setRelease(blockEndSequence);
+        }
+        blockingWaitStrategy.signalAllWhenBlocking();
+    }
+
+    /**
+     * Finish recovery mode - side-effecting handlers will process all messages claimed after this call.
+     * Should be called after all recovered messages are published, but before publishing any new messages.
+     */
+    public void completeRecovery() {
+        final long position = (long) RESERVED_POSITION.getVolatile(this);
+        log.info("Recovery completed at position {}", position);
+        recoveryFence.setRelease(position);
+    }
+
+    /**
+     * Publish all messages of claimed batch (single release store).
+     */
+    public void publishBatch(final BatchClaim batch) {
+        if (sharedInboundFence != null) {
+            sharedInboundFence.publish(batch.getStartPosition(), batch.getEndPosition());
+        } else {
+            inboundFence.setRelease(batch.getEndPosition());
+        }
+        blockingWaitStrategy.signalAllWhenBlocking();
+    }
+
+    private void writeHeader(final long index,
+                             final int payloadSize,
+                             final long timestamp,
+                             final long correlationId,
+                             final byte messageType,
+                             final int userCookie) {
 
         final long msgTypeEncoded = ((long) messageType) << 56;
+        final long sizeEncoded = ((long) userCookie << 32) | payloadSize;
 
-        // TODO put UserCookie (4bytes), size (2bytes - 512K max msg size)
+        buffer.putLong(index, msgTypeEncoded | correlationId);
+        if (compactHeader) {
+            buffer.putLong(index + 1, sizeEncoded);
+        } else {
+            buffer.putLong(index + 1, timestamp);
+            buffer.putLong(index + 2, sizeEncoded);
+        }
+    }
 
-        buffer[index] = msgTypeEncoded | correlationId;
-        buffer[index + 1] = timestamp;
-        buffer[index + 2] = claimingPayloadSize;
+    /**
+     * Multi-producer wrap point check.
+     *
+     * @return true if there is enough space for claiming, false if caller should re-read reserved position and try again
+     */
+    private boolean sharedWrapPointCheck(final long currentPosition, final long wrapPoint) {
 
-        final long payloadStartSeq = msgStartSequence + MSG_HEADER_SIZE;
+        if (sharedTryWrapPointCheck(currentPosition, wrapPoint)) {
+            return true;
+        }
 
-//        log.debug("WRITING HEADER DONE payloadStartSeq={} index={} claimingPayloadSize={}",
-//                payloadStartSeq, payloadStartSeq & indexMask, claimingPayloadSize);
+        final TailStrikeEvent tailStrikeEvent = jfrEvents != null ? jfrEvents.beginTailStrike() : null;
+        final long released = tailStrikeEvent != null ? releasingFence.getAcquire(currentPosition) : 0L;
+        publisherWaitStrategy.waitFor(wrapPoint - 1, releasingFence);
+        if (tailStrikeEvent != null) {
+            jfrEvents.commitTailStrike(tailStrikeEvent, (double) (currentPosition - released) / bufferSize, wrapPoint - released);
+        }
+        TAIL_STRIKE.getAndAdd(this, 1L);
+        if (tailStrikeCounter != null) {
+            tailStrikeCounter.increment();
+        }
+        return false;
+    }
 
-        return payloadStartSeq;
+    /**
+     * Multi-producer wrap point check without waiting.
+     *
+     * @return true if there is enough space for claiming
+     */
+    private boolean sharedTryWrapPointCheck(final long currentPosition, final long wrapPoint) {
+
+        final long cachedOutbound = (long) CACHED_OUTBOUND_POSITION.getAcquire(this);
+
+        if (wrapPoint > cachedOutbound) {
+
+            final long minSequence = Math.min(releasingFence.getAcquire(cachedOutbound), currentPosition);
+            if (wrapPoint > minSequence) {
+                return false;
+            }
+
+            CACHED_OUTBOUND_POSITION.setRelease(this, minSequence);
+        }
+
+        return true;
+    }
+
+    /**
+     * Single publisher wrap point check without waiting.
+     *
+     * @return true if there is enough space for claiming
+     */
+    private boolean tryWrapPointCheckUpdate(final long msgStartSequence, final long wrapPoint) {
+
+        if (wrapPoint > cachedOutboundPosition) {
+
+            // let processors progress
+            inboundFence.setVolatile(msgStartSequence);  // StoreLoad fence
+            blockingWaitStrategy.signalAllWhenBlocking();
+
+            final long minSequence = Math.min(releasingFence.getAcquire(cachedOutboundPosition), msgStartSequence);
+            if (wrapPoint > minSequence) {
+                return false;
+            }
+
+            cachedOutboundPosition = minSequence;
+        }
+
+        return true;
     }
 
     private void wrapPointCheckWaitUpdate(long msgStartSequence, long wrapPoint) {
@@ -233,15 +827,24 @@ public final class Revelator implements AutoCloseable {
             // let processors progress (todo can try do once only if discovered tailFence sill not behind wrap point?)
 //            log.debug("setVolatile msgStartSequence={}",msgStartSequence);
             inboundFence.setVolatile(msgStartSequence);  // StoreLoad fence
+            blockingWaitStrategy.signalAllWhenBlocking();
 
 //            log.debug(" tailFence.getVolatile()={}",tailFence.getVolatile());
-            long minSequence;
-            while (wrapPoint > (minSequence = Math.min(releasingFence.getAcquire(cachedOutboundPosition), msgStartSequence))) {
-                LockSupport.parkNanos(1L); // TODO: Use waitStrategy to spin? (can cause starvation)
-//                Thread.onSpinWait();
-//                Thread.yield();
-
-                tailStrike++;
+            long minSequence = Math.min(releasingFence.getAcquire(cachedOutboundPosition), msgStartSequence);
+            if (wrapPoint > minSequence) {
+                final TailStrikeEvent tailStrikeEvent = jfrEvents != null ? jfrEvents.beginTailStrike() : null;
+                final long released = minSequence;
+                do {
+                    publisherWaitStrategy.waitFor(wrapPoint - 1, releasingFence);
+                    tailStrike++;
+                    // publisher is waiting anyway
+                    if (tailStrikeCounter != null) {
+                        tailStrikeCounter.setOrdered(tailStrike);
+                    }
+                } while (wrapPoint > (minSequence = Math.min(releasingFence.getAcquire(cachedOutboundPosition), msgStartSequence)));
+                if (tailStrikeEvent != null) {
+                    jfrEvents.commitTailStrike(tailStrikeEvent, (double) (msgStartSequence - released) / bufferSize, wrapPoint - released);
+                }
             }
 
             cachedOutboundPosition = minSequence;
@@ -249,49 +852,124 @@ public final class Revelator implements AutoCloseable {
     }
 
     public void writeLongData(long sequence, int offset, long value) {
-        final int idx = (int) sequence & indexMask;
-        buffer[idx + offset] = value;
+        final long idx = sequence & indexMask;
+        buffer.putLong(idx + offset, value);
     }
 
 
     public void writeLongData(long sequence, int offset, long value0, long value1, long value2, long value3, long value4, long value5) {
-        final int pos = ((int) sequence & indexMask) + offset;
-        buffer[pos] = value0;
-        buffer[pos + 1] = value1;
-        buffer[pos + 2] = value2;
-        buffer[pos + 3] = value3;
-        buffer[pos + 4] = value4;
-        buffer[pos + 5] = value5;
+        final long pos = (sequence & indexMask) + offset;
+        buffer.putLong(pos, value0);
+        buffer.putLong(pos + 1, value1);
+        buffer.putLong(pos + 2, value2);
+        buffer.putLong(pos + 3, value3);
+        buffer.putLong(pos + 4, value4);
+        buffer.putLong(pos + 5, value5);
     }
 
 
-    public void writeLongDataUnsafe(int index, long value) {
-        buffer[index] = value;
+    public void writeLongDataUnsafe(long index, long value) {
+        buffer.putLong(index, value);
     }
 
 
     public void publish(long positionPlusSize) {
 //        log.debug("PUBLISH positionPlusSize={}", positionPlusSize);
+        if (sharedInboundFence != null) {
+            throw new IllegalStateException("Multi-producer mode: use publish(claimSeq, positionPlusSize)");
+        }
         inboundFence.setRelease(positionPlusSize);
-        // todo waitStrategy.signalAllWhenBlocking();
+        blockingWaitStrategy.signalAllWhenBlocking();
     }
 
+    /**
+     * Publish claimed message. Works in both single and multi-producer modes.
+     *
+     * @param claimSeq         - value returned by claimSingleMessage
+     * @param positionPlusSize - claimSeq + payload size
+     */
+    public void publish(long claimSeq, long positionPlusSize) {
+        if (sharedInboundFence != null) {
+            sharedInboundFence.publish(claimSeq - headerSize, positionPlusSize);
+        } else {
+            inboundFence.setRelease(positionPlusSize);
+        }
+        blockingWaitStrategy.signalAllWhenBlocking();
+    }
 
-    public int getBufferSize() {
+
+    public long getBufferSize() {
         return bufferSize;
     }
 
-    public int getIndexMask() {
+    public long getIndexMask() {
         return indexMask;
     }
 
+    public RingBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * @return message header size in words (depends on header format)
+     */
+    public int getHeaderSize() {
+        return headerSize;
+    }
+
+    /**
+     * @return per-stage latency recorders, null if not enabled (RevelatorParameters.stageLatency)
+     */
+    public StageLatencyHistograms getStageLatencyHistograms() {
+        return stageLatencyHistograms;
+    }
+
+    /**
+     * @return shared-memory counters, null if not enabled (RevelatorParameters.countersFile)
+     */
+    public RevelatorCounters getCounters() {
+        return counters;
+    }
+
+    /**
+     * @return sampled messages tracer, null if not enabled (RevelatorParameters.messageTracing)
+     */
+    public MessageTracer getMessageTracer() {
+        return messageTracer;
+    }
+
+    /**
+     * @return lag monitor, null if not enabled (RevelatorParameters.lagMonitor)
+     */
+    public LagMonitor getLagMonitor() {
+        return lagMonitor;
+    }
+
     public long getTailStrike() {
-        return tailStrike;
+        return (long) TAIL_STRIKE.getOpaque(this);
     }
 
+    /**
+     * Stops processors (if started) and releases ring buffer memory.
+     */
     @Override
     public void close() throws Exception {
 
+        if (!threads.isEmpty()) {
+            stopAsync().join();
+        }
 
+        // monitor reads the ring buffer - should be stopped before releasing memory
+        if (lagMonitorThread != null) {
+            lagMonitor.stop();
+            LockSupport.unpark(lagMonitorThread);
+            lagMonitorThread.join();
+        }
+
+        buffer.close();
+
+        if (counters != null) {
+            counters.close();
+        }
     }
 }
@@ -1,29 +1,178 @@
 package exchange.core2.revelator;
 
+import exchange.core2.revelator.buffers.RingBuffer;
+import exchange.core2.revelator.fences.IFence;
+import exchange.core2.revelator.metrics.MessageTracer;
+import exchange.core2.revelator.metrics.RevelatorCounters;
+import exchange.core2.revelator.metrics.StageLatencyHistograms;
+import exchange.core2.revelator.metrics.jfr.JfrEventsEmitter;
+import exchange.core2.revelator.waitstrategies.BlockingWaitStrategy;
+import exchange.core2.revelator.waitstrategies.BusySpinWaitStrategy;
+import exchange.core2.revelator.waitstrategies.IWaitStrategy;
+import exchange.core2.revelator.waitstrategies.ProgressiveParkWaitStrategy;
+import exchange.core2.revelator.waitstrategies.SpinYieldWaitStrategy;
+import exchange.core2.revelator.waitstrategies.WaitStrategyType;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class RevelatorConfig {
 
-    private final int indexMask;
-    private final int bufferSize;
-    private final long[] buffer;
+    private final long indexMask;
+    private final long bufferSize;
+    private final RingBuffer buffer;
+    private final HeaderFormat headerFormat;
+
+    private final WaitStrategyType defaultWaitStrategyType;
+    private final BlockingWaitStrategy blockingWaitStrategy;
+
+    private final IFence recoveryFence;
+
+    private final Executor snapshotExecutor;
+
+    private final StageLatencyHistograms stageLatencyHistograms;
+
+    private final RevelatorCounters counters;
+
+    private final MessageTracer messageTracer;
+
+    private final int jfrEventsRate;
 
-    public RevelatorConfig(final int indexMask,
-                           final int bufferSize,
-                           final long[] buffer) {
+    private final AtomicInteger processorsCounter = new AtomicInteger();
+
+    public RevelatorConfig(final long indexMask,
+                           final long bufferSize,
+                           final RingBuffer buffer,
+                           final HeaderFormat headerFormat,
+                           final WaitStrategyType defaultWaitStrategyType,
+                           final BlockingWaitStrategy blockingWaitStrategy,
+                           final IFence recoveryFence,
+                           final Executor snapshotExecutor,
+                           final StageLatencyHistograms stageLatencyHistograms,
+                           final RevelatorCounters counters,
+                           final MessageTracer messageTracer,
+                           final int jfrEventsRate) {
 
         this.indexMask = indexMask;
         this.bufferSize = bufferSize;
         this.buffer = buffer;
+        this.headerFormat = headerFormat;
+        this.defaultWaitStrategyType = defaultWaitStrategyType;
+        this.blockingWaitStrategy = blockingWaitStrategy;
+        this.recoveryFence = recoveryFence;
+        this.snapshotExecutor = snapshotExecutor;
+        this.stageLatencyHistograms = stageLatencyHistograms;
+        this.counters = counters;
+        this.messageTracer = messageTracer;
+        this.jfrEventsRate = jfrEventsRate;
     }
 
-    public int getIndexMask() {
+    public long getIndexMask() {
         return indexMask;
     }
 
-    public int getBufferSize() {
+    public long getBufferSize() {
         return bufferSize;
     }
 
-    public long[] getBuffer() {
+    public RingBuffer getBuffer() {
         return buffer;
     }
+
+    public HeaderFormat getHeaderFormat() {
+        return headerFormat;
+    }
+
+    /**
+     * @return message header size in words
+     */
+    public int getHeaderSize() {
+        return headerFormat.getHeaderSize();
+    }
+
+    public WaitStrategyType getDefaultWaitStrategyType() {
+        return defaultWaitStrategyType;
+    }
+
+    /**
+     * Shared blocking strategy - processors should call signalAllWhenBlocking after releasing messages
+     */
+    public BlockingWaitStrategy getBlockingWaitStrategy() {
+        return blockingWaitStrategy;
+    }
+
+    /**
+     * Recovery boundary - side-effecting handlers should skip messages with offset below this value
+     * (processors treat message as new if position &gt;= recoveryFence).
+     * <ul>
+     * <li>not in recovery mode - initial SingleWriterFence value (-1), so every message passes;</li>
+     * <li>while recovery is in progress - Long.MAX_VALUE, so every message is skipped;</li>
+     * <li>after completeRecovery() - position reserved by publisher at that moment.</li>
+     * </ul>
+     * Processors should read it once per batch, after reading inbound fence.
+     */
+    public IFence getRecoveryFence() {
+        return recoveryFence;
+    }
+
+    /**
+     * Executor for snapshot tasks returned by handlers
+     */
+    public Executor getSnapshotExecutor() {
+        return snapshotExecutor;
+    }
+
+    /**
+     * Stage latency recorders registry, null if latency recording is disabled.
+     * Processors should register their stages once, when created.
+     */
+    public StageLatencyHistograms getStageLatencyHistograms() {
+        return stageLatencyHistograms;
+    }
+
+    /**
+     * Shared-memory counters, null if disabled.
+     * Processors should allocate their counters once, when created.
+     */
+    public RevelatorCounters getCounters() {
+        return counters;
+    }
+
+    /**
+     * Sampled messages tracer, null if disabled.
+     * Processors should register their stages once, when created.
+     */
+    public MessageTracer getMessageTracer() {
+        return messageTracer;
+    }
+
+    /**
+     * JFR events emitter for a processor, null if JFR events are disabled.
+     * Processors should create it once, when created.
+     */
+    public JfrEventsEmitter createJfrEventsEmitter(final String processorName) {
+        return jfrEventsRate != 0 ? new JfrEventsEmitter(processorName, jfrEventsRate) : null;
+    }
+
+    /**
+     * Unique processor name (used for metrics), like 'simple-0', 'pipelined-1'
+     */
+    public String createProcessorName(final String processorType) {
+        return processorType + "-" + processorsCounter.getAndIncrement();
+    }
+
+    public IWaitStrategy createWaitStrategy(final WaitStrategyType type) {
+        switch (type) {
+            case BUSY_SPIN:
+                return new BusySpinWaitStrategy();
+            case SPIN_THEN_YIELD:
+                return new SpinYieldWaitStrategy();
+            case PROGRESSIVE_PARK:
+                return new ProgressiveParkWaitStrategy();
+            case BLOCKING:
+                return blockingWaitStrategy;
+            default:
+                throw new IllegalArgumentException("Unsupported wait strategy: " + type);
+        }
+    }
 }
@@ -0,0 +1,304 @@
+package exchange.core2.revelator;
+
+import exchange.core2.revelator.buffers.IRingBufferFactory;
+import exchange.core2.revelator.buffers.RingBufferFactories;
+import exchange.core2.revelator.metrics.LagMonitorConfig;
+import exchange.core2.revelator.waitstrategies.WaitStrategyType;
+
+import java.nio.file.Path;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+public final class RevelatorParameters {
+
+    private final long bufferSize;
+    private final ProducerType producerType;
+    private final IRingBufferFactory bufferFactory;
+    private final WaitStrategyType publisherWaitStrategy;
+    private final WaitStrategyType processorsWaitStrategy;
+    private final HeaderFormat headerFormat;
+    private final boolean recoveryMode;
+    private final Executor snapshotExecutor;
+    private final boolean stageLatency;
+    private final Path countersFile;
+    private final LagMonitorConfig lagMonitorConfig;
+    private final int traceSampleRate;
+    private final int traceCapacity;
+    private final int jfrEventsRate;
+
+    private RevelatorParameters(final long bufferSize,
+                                final ProducerType producerType,
+                                final IRingBufferFactory bufferFactory,
+                                final WaitStrategyType publisherWaitStrategy,
+                                final WaitStrategyType processorsWaitStrategy,
+                                final HeaderFormat headerFormat,
+                                final boolean recoveryMode,
+                                final Executor snapshotExecutor,
+                                final boolean stageLatency,
+                                final Path countersFile,
+                                final LagMonitorConfig lagMonitorConfig,
+                                final int traceSampleRate,
+                                final int traceCapacity,
+                                final int jfrEventsRate) {
+
+        this.bufferSize = bufferSize;
+        this.producerType = producerType;
+        this.bufferFactory = bufferFactory;
+        this.publisherWaitStrategy = publisherWaitStrategy;
+        this.processorsWaitStrategy = processorsWaitStrategy;
+        this.headerFormat = headerFormat;
+        this.recoveryMode = recoveryMode;
+        this.snapshotExecutor = snapshotExecutor;
+        this.stageLatency = stageLatency;
+        this.countersFile = countersFile;
+        this.lagMonitorConfig = lagMonitorConfig;
+        this.traceSampleRate = traceSampleRate;
+        this.traceCapacity = traceCapacity;
+        this.jfrEventsRate = jfrEventsRate;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public long getBufferSize() {
+        return bufferSize;
+    }
+
+    public ProducerType getProducerType() {
+        return producerType;
+    }
+
+    public IRingBufferFactory getBufferFactory() {
+        return bufferFactory;
+    }
+
+    public WaitStrategyType getPublisherWaitStrategy() {
+        return publisherWaitStrategy;
+    }
+
+    public WaitStrategyType getProcessorsWaitStrategy() {
+        return processorsWaitStrategy;
+    }
+
+    public HeaderFormat getHeaderFormat() {
+        return headerFormat;
+    }
+
+    public boolean isRecoveryMode() {
+        return recoveryMode;
+    }
+
+    public Executor getSnapshotExecutor() {
+        return snapshotExecutor;
+    }
+
+    public boolean isStageLatency() {
+        return stageLatency;
+    }
+
+    public Path getCountersFile() {
+        return countersFile;
+    }
+
+    public LagMonitorConfig getLagMonitorConfig() {
+        return lagMonitorConfig;
+    }
+
+    /**
+     * @return trace 1 of N messages, 0 - tracing disabled
+     */
+    public int getTraceSampleRate() {
+        return traceSampleRate;
+    }
+
+    public int getTraceCapacity() {
+        return traceCapacity;
+    }
+
+    /**
+     * @return max JFR events per second (per processor and event type), 0 - JFR events disabled
+     */
+    public int getJfrEventsRate() {
+        return jfrEventsRate;
+    }
+
+    @Override
+    public String toString() {
+        return "RevelatorParameters{" +
+                "bufferSize=" + bufferSize +
+                ", producerType=" + producerType +
+                ", publisherWaitStrategy=" + publisherWaitStrategy +
+                ", processorsWaitStrategy=" + processorsWaitStrategy +
+                ", headerFormat=" + headerFormat +
+                ", recoveryMode=" + recoveryMode +
+                ", stageLatency=" + stageLatency +
+                ", countersFile=" + countersFile +
+                ", lagMonitorConfig=" + lagMonitorConfig +
+                ", traceSampleRate=" + traceSampleRate +
+                ", traceCapacity=" + traceCapacity +
+                ", jfrEventsRate=" + jfrEventsRate +
+                '}';
+    }
+
+    public enum ProducerType {
+
+        /**
+         * Only one thread can claim and publish messages (plain fields, no CAS).
+         */
+        SINGLE,
+
+        /**
+         * Any number of threads can claim and publish messages concurrently.
+         * Claiming is CAS-based, publication is tracked per message, so consumers only see fully written messages.
+         */
+        MULTI
+    }
+
+    public static final class Builder {
+
+        private long bufferSize = 4 * 1024 * 1024;
+        private ProducerType producerType = ProducerType.SINGLE;
+        private IRingBufferFactory bufferFactory = RingBufferFactories.onHeap();
+        private WaitStrategyType publisherWaitStrategy = WaitStrategyType.PROGRESSIVE_PARK;
+        private WaitStrategyType processorsWaitStrategy = WaitStrategyType.BUSY_SPIN;
+        private HeaderFormat headerFormat = HeaderFormat.STANDARD;
+        private boolean recoveryMode = false;
+        private Executor snapshotExecutor = ForkJoinPool.commonPool();
+        private boolean stageLatency = false;
+        private Path countersFile = null;
+        private LagMonitorConfig lagMonitorConfig = null;
+        private int traceSampleRate = 0;
+        private int traceCapacity = 0;
+        private int jfrEventsRate = 0;
+
+        private Builder() {
+        }
+
+        /**
+         * @param bufferSize ring buffer size in words (2^N)
+         */
+        public Builder bufferSize(final long bufferSize) {
+            this.bufferSize = bufferSize;
+            return this;
+        }
+
+        public Builder producerType(final ProducerType producerType) {
+            this.producerType = producerType;
+            return this;
+        }
+
+        /**
+         * @param bufferFactory ring buffer memory backend (see RingBufferFactories)
+         */
+        public Builder bufferFactory(final IRingBufferFactory bufferFactory) {
+            this.bufferFactory = bufferFactory;
+            return this;
+        }
+
+        /**
+         * @param publisherWaitStrategy how publisher waits for processors when buffer is full (tail strike)
+         */
+        public Builder publisherWaitStrategy(final WaitStrategyType publisherWaitStrategy) {
+            this.publisherWaitStrategy = publisherWaitStrategy;
+            return this;
+        }
+
+        /**
+         * @param processorsWaitStrategy default strategy for processors waiting for new messages
+         *                               (can be overridden per processor)
+         */
+        public Builder processorsWaitStrategy(final WaitStrategyType processorsWaitStrategy) {
+            this.processorsWaitStrategy = processorsWaitStrategy;
+            return this;
+        }
+
+        /**
+         * @param headerFormat messages header layout (COMPACT saves one word per message, but does not carry timestamp)
+         */
+        public Builder headerFormat(final HeaderFormat headerFormat) {
+            this.headerFormat = headerFormat;
+            return this;
+        }
+
+        /**
+         * @param recoveryMode start in recovery mode - side-effecting handlers skip all messages
+         *                     until Revelator.completeRecovery is called (see JournalReplayer)
+         */
+        public Builder recoveryMode(final boolean recoveryMode) {
+            this.recoveryMode = recoveryMode;
+            return this;
+        }
+
+        /**
+         * @param snapshotExecutor executes snapshot serialization tasks returned by handlers (off processor threads)
+         */
+        public Builder snapshotExecutor(final Executor snapshotExecutor) {
+            this.snapshotExecutor = snapshotExecutor;
+            return this;
+        }
+
+        /**
+         * @param stageLatency record time from publishing to processing in every stage (see StageLatencyHistograms),
+         *                     message timestamp should be System.nanoTime() of the publisher (STANDARD header only)
+         */
+        public Builder stageLatency(final boolean stageLatency) {
+            this.stageLatency = stageLatency;
+            return this;
+        }
+
+        /**
+         * @param countersFile publish publisher and processors counters into memory-mapped file (see RevelatorCounters),
+         *                     null - disabled
+         */
+        public Builder countersFile(final Path countersFile) {
+            this.countersFile = countersFile;
+            return this;
+        }
+
+        /**
+         * @param lagMonitorConfig run lag monitor thread sampling processors fences (see LagMonitor), null - disabled
+         */
+        public Builder lagMonitor(final LagMonitorConfig lagMonitorConfig) {
+            this.lagMonitorConfig = lagMonitorConfig;
+            return this;
+        }
+
+        /**
+         * @param sampleRate trace 1 of sampleRate messages, selected by correlationId (2^N), see MessageTracer
+         * @param capacity   traces kept per stage (2^N)
+         */
+        public Builder messageTracing(final int sampleRate, final int capacity) {
+            this.traceSampleRate = sampleRate;
+            this.traceCapacity = capacity;
+            return this;
+        }
+
+        /**
+         * @param maxEventsPerSecond emit JFR events (batches, idle periods, stage misses, tail strikes),
+         *                           rate-limited per processor and event type, 0 - disabled (see JfrEventsEmitter)
+         */
+        public Builder jfrEvents(final int maxEventsPerSecond) {
+            this.jfrEventsRate = maxEventsPerSecond;
+            return this;
+        }
+
+        public RevelatorParameters build() {
+            return new RevelatorParameters(
+                    bufferSize,
+                    producerType,
+                    bufferFactory,
+                    publisherWaitStrategy,
+                    processorsWaitStrategy,
+                    headerFormat,
+                    recoveryMode,
+                    snapshotExecutor,
+                    stageLatency,
+                    countersFile,
+                    lagMonitorConfig,
+                    traceSampleRate,
+                    traceCapacity,
+                    jfrEventsRate);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package exchange.core2.revelator;
 
+import exchange.core2.revelator.buffers.RingBuffer;
 import exchange.core2.revelator.processors.ProcessorsFactories;
 import exchange.core2.revelator.utils.AffinityThreadFactory;
 import exchange.core2.revelator.utils.LatencyTools;
@@ -39,7 +40,7 @@ public final class RevelatorTester {
 
             log.debug("Starting publisher on core: {}", lock.cpuId());
 
-            final int indexMask = r.getIndexMask();
+            final long indexMask = r.getIndexMask();
 
             for (int tps = 1_000_000; tps <= 100_000_000; tps += 200_000 + (rand.nextInt(10000) - 5000)) {
 
@@ -81,7 +82,7 @@ public final class RevelatorTester {
 //            log.debug("request {}...", i);
                     final long claimSeq = r.claimSingleMessage(testMsgSize, plannedTimestampPs, correlationId, (byte) 1);
 
-                    final int index = (int) (claimSeq & indexMask);
+                    final long index = claimSeq & indexMask;
 
 
 //                    log.debug("WRITE correlationId: {}", correlationId);
@@ -146,13 +147,14 @@ public final class RevelatorTester {
     }
 
 
-    private static void handleMessage(long[] buffer,
-                                      int index,
+    private static void handleMessage(RingBuffer buffer,
+                                      long index,
                                       int msgSize,
                                       long timestamp,
                                       long globalOffset,
                                       long correlationId,
-                                      byte msgType) {
+                                      byte msgType,
+                                      int userCookie) {
 
 //        log.debug("Handle message bufAddr={} offset={} msgSize={}", bufAddr, offset, msgSize);
 
@@ -169,7 +171,7 @@ public final class RevelatorTester {
 
             long x = 0;
             for (int k = 0; k < testMsgSize; k++) {
-                final long data = buffer[index + k];
+                final long data = buffer.getLong(index + k);
                 x += data;
 //                log.debug("READ data[{}]: {}", k, data);
             }
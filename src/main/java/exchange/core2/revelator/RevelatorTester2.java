@@ -1,181 +1,68 @@
 package exchange.core2.revelator;
 
-import exchange.core2.revelator.processors.ProcessorsFactories;
-import exchange.core2.revelator.utils.AffinityThreadFactory;
-import exchange.core2.revelator.utils.LatencyTesterModule;
-import jdk.internal.vm.annotation.Contended;
-import net.openhft.affinity.AffinityLock;
-import org.HdrHistogram.SingleWriterRecorder;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
+import exchange.core2.revelator.loadtest.ArrivalMode;
+import exchange.core2.revelator.loadtest.BurstProfiles;
+import exchange.core2.revelator.loadtest.LoadTestConfig;
+import exchange.core2.revelator.loadtest.LoadTestHarness;
+import exchange.core2.revelator.loadtest.LoadTestTopology;
+import exchange.core2.revelator.loadtest.MessageSizeDistributions;
+import exchange.core2.revelator.waitstrategies.WaitStrategyType;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
 
-public final class RevelatorTester2 implements LatencyTesterModule.TestingHandler {
-
-    private static final Logger log = LoggerFactory.getLogger(RevelatorTester2.class);
-
-    public static void main(String[] args) throws InterruptedException {
-
-        RevelatorTester2 revelatorTester = new RevelatorTester2();
-        revelatorTester.runTest();
-    }
-
-    public RevelatorTester2() {
-
-        final AffinityThreadFactory atf = new AffinityThreadFactory(
-                AffinityThreadFactory.ThreadAffinityMode.AFFINITY_LOGICAL_CORE);
-
-        this.revelator = Revelator.create(
-                bufferSizeTest,
-                ProcessorsFactories.single(this::handleMessage),
-                atf);
-
-    }
-
-    public void runTest() {
-
-        revelator.start();
-
-
-        LatencyTesterModule latencyTesterModule = new LatencyTesterModule();
-
-        hdrRecorder = latencyTesterModule.getHdrRecorder();
-
-        try (final AffinityLock lock = AffinityLock.acquireLock()) {
-
-            log.debug("Starting publisher on core: {}", lock.cpuId());
-
-            final int iterationsPerTestCycle = 1_000_000;
-            latencyTesterModule.performTests(
-                    iterationsPerTestCycle, 1_000_000, 80_000_000, 500_000, 20_000, this);
-        }
-
-    }
-
-    @Override
-    public void initializeIteration(long startTimeNs2, Runnable lastMessageNotifier) {
-        startTimeNs = startTimeNs2;
-        expectedXorData = 0L;
-        xorData = 0L;
-        tailStrikesInitial = revelator.getTailStrike();
-        this.lastMessageNotifier = lastMessageNotifier;
-    }
-
-    @Override
-    public void sendMessage(final long plannedTimestampPs, final int i) {
-
-        final long correlationId = plannedTimestampPs & 0x00FF_FFFF_FFFF_FFFFL;
-        final long claimSeq = revelator.claimSingleMessage(testMsgSize, plannedTimestampPs, correlationId, (byte) 1);
-
-//        revelator.writeLongData(claimSeq, 0, i, i + 1, i + 2, i + 3, i + 4, i + 5);
-//        long x = i * 6L + 15;
-
-        long x = 0;
-        for (int k = 0; k < testMsgSize; k++) {
-            revelator.writeLongData(claimSeq, k, i);
-            x += i;
-        }
-
-
-        expectedXorData = x + (expectedXorData ^ correlationId);
-        revelator.publish(claimSeq + testMsgSize);
-    }
-
-    public void sendFinal(long plannedTimestampPs) {
-
-        final long claim = revelator.claimSingleMessage(8, plannedTimestampPs, 0, END_BATCH_MARKER);
-        revelator.writeLongData(claim, 0, 0);
-        revelator.publish(claim + 8);
-    }
-
-    @Override
-    public void createReport(String tag,
-                             final Map<String, String> latencyReportFast,
-                             long nanoTimeRequestsCounter) {
-
-        long tailStrikes = revelator.getTailStrike() - tailStrikesInitial;
-
-        log.info("{} {} nanotimes={} tailStrikes={}", tag, latencyReportFast, nanoTimeRequestsCounter, tailStrikes);
-
-        if (xorData != expectedXorData) {
-            throw new IllegalStateException("Inconsistent messages");
-//                    log.debug("Inconsistent messages XOR:{} processedMessages:{}", xorData, processedMessages);
-//                } else {
-//                    log.debug("XOR:{} processedMessages:{}", xorData, processedMessages);
-        }
-
-    }
-
-    private void handleMessage(long[] buffer,
-                               int index,
-                               int msgSize,
-                               long timestamp,
-                               long globalOffset,
-                               long correlationId,
-                               byte msgType) {
-
-//        log.debug("Handle message bufAddr={} offset={} msgSize={}", bufAddr, offset, msgSize);
-
-//        double a =  0.0001;
-//        avgBatch = avgBatch * (1.0 - a) + msgSize * a;
-
-        if (msgType == END_BATCH_MARKER) {
-//            log.debug("END_MARKER MESSAGE msgSize={}", msgSize);
-
-            lastMessageNotifier.run();
-        } else {
-
-//            log.debug("READ correlationId: {}", correlationId);
-
-            long x = 0;
-            for (int k = 0; k < testMsgSize; k++) {
-                final long data = buffer[index + k];
-                x += data;
-//                log.debug("READ data[{}]: {}", k, data);
-            }
-
-            xorData = x + (xorData ^ correlationId);
-
-//            log.debug("xorData : {}", xorData);
-//                processedMessages++;
-
-//                if ((msg & (0x1F << 6)) == 0) {
-//                if (cx++ == 3) {
-            if (cx++ == 32) {
-                cx = 0;
-                final long latency = System.nanoTime() - startTimeNs - (timestamp >> 10);
-                hdrRecorder.recordValue(latency);
+/**
+ * Runs LoadTestHarness from command line, arguments are key=value pairs (all optional):
+ * <pre>
+ * topology=SINGLE|PARALLEL|CHAIN|PIPELINED|SHARDED  workers=2
+ * msgSize=6 (or range: msgSize=2-32)  burst=1  arrival=FIXED_RATE|OPEN_LOOP
+ * minTps=1000000  maxTps=80000000  tpsStep=500000  messages=1000000  sampleRate=32
+ * bufferSize=4194304  wait=BUSY_SPIN  affinity=true  seed=1  out=directory
+ * </pre>
+ */
+public final class RevelatorTester2 {
+
+    public static void main(String[] args) throws Exception {
+
+        final Map<String, String> params = new HashMap<>();
+        for (final String arg : args) {
+            final int idx = arg.indexOf('=');
+            if (idx <= 0) {
+                throw new IllegalArgumentException("Expected key=value argument: " + arg);
             }
+            params.put(arg.substring(0, idx), arg.substring(idx + 1));
         }
-    }
-
-    private final Revelator revelator;
-
-    @Contended
-    private Runnable lastMessageNotifier;
-
-    @Contended
-    private SingleWriterRecorder hdrRecorder;
-
-
-    final static int testMsgSize = 6; // can be 0
-    final static int bufferSizeTest = 4 * 1024 * 1024;
-
-    @Contended
-    long expectedXorData = 0L;
-
-    @Contended
-    long xorData = 0L;
-
-    long tailStrikesInitial;
-
-    int cx = 0;
-
-    @Contended
-    long startTimeNs = 0L;
-
-    final static byte END_BATCH_MARKER = (byte) 7;
-
 
+        final String msgSize = params.getOrDefault("msgSize", "6");
+        final int rangeIdx = msgSize.indexOf('-');
+        final int burst = Integer.parseInt(params.getOrDefault("burst", "1"));
+
+        final LoadTestConfig config = LoadTestConfig.builder()
+                .topology(
+                        LoadTestTopology.valueOf(params.getOrDefault("topology", "SINGLE").toUpperCase(Locale.ROOT)),
+                        Integer.parseInt(params.getOrDefault("workers", "2")))
+                .messageSize(rangeIdx > 0
+                        ? MessageSizeDistributions.uniform(
+                        Integer.parseInt(msgSize.substring(0, rangeIdx)),
+                        Integer.parseInt(msgSize.substring(rangeIdx + 1)))
+                        : MessageSizeDistributions.fixed(Integer.parseInt(msgSize)))
+                .burstProfile(burst > 1 ? BurstProfiles.bursts(burst) : BurstProfiles.steady())
+                .arrivalMode(ArrivalMode.valueOf(params.getOrDefault("arrival", "FIXED_RATE").toUpperCase(Locale.ROOT)))
+                .tpsRamp(
+                        Integer.parseInt(params.getOrDefault("minTps", "1000000")),
+                        Integer.parseInt(params.getOrDefault("maxTps", "80000000")),
+                        Integer.parseInt(params.getOrDefault("tpsStep", "500000")))
+                .messagesPerStep(Integer.parseInt(params.getOrDefault("messages", "1000000")))
+                .latencySampleRate(Integer.parseInt(params.getOrDefault("sampleRate", "32")))
+                .bufferSize(Long.parseLong(params.getOrDefault("bufferSize", String.valueOf(4 * 1024 * 1024))))
+                .processorsWaitStrategy(WaitStrategyType.valueOf(params.getOrDefault("wait", "BUSY_SPIN").toUpperCase(Locale.ROOT)))
+                .threadAffinity(Boolean.parseBoolean(params.getOrDefault("affinity", "true")))
+                .seed(Long.parseLong(params.getOrDefault("seed", "1")))
+                .outputDir(params.containsKey("out") ? Path.of(params.get("out")) : null)
+                .build();
+
+        new LoadTestHarness(config).run();
+    }
 }
@@ -0,0 +1,10 @@
+package exchange.core2.revelator.buffers;
+
+public interface IRingBufferFactory {
+
+    /**
+     * @param size buffer size in words (2^N)
+     */
+    RingBuffer createBuffer(long size);
+
+}
@@ -0,0 +1,172 @@
+package exchange.core2.revelator.buffers;
+
+import org.agrona.BufferUtil;
+import org.agrona.IoUtil;
+import org.agrona.UnsafeAccess;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+/**
+ * Revelator ring buffer memory region (array of 8-bytes words).
+ * <p>
+ * Memory is always accessed by (base object, address) pair, the same way for all backends:
+ * for on-heap array base object is the array itself and address is relative to the array,
+ * for off-heap and memory-mapped regions base object is null and address is absolute.
+ * <p>
+ * Accessors do not perform any bounds checks.
+ * <p>
+ * Memory is accessed through Agrona UnsafeAccess, as UnsafeBuffer is limited to 2GB regions.
+ */
+public final class RingBuffer implements AutoCloseable {
+
+    private static final long ARRAY_LONG_BASE_OFFSET = UnsafeAccess.UNSAFE.arrayBaseOffset(long[].class);
+
+    private static final int CACHE_LINE_SIZE = 64;
+
+    private final Object baseObject;
+    private final long baseAddress;
+    private final long size;
+    private final Runnable deallocator;
+
+    private boolean closed = false;
+
+    private RingBuffer(final Object baseObject,
+                       final long baseAddress,
+                       final long size,
+                       final Runnable deallocator) {
+
+        this.baseObject = baseObject;
+        this.baseAddress = baseAddress;
+        this.size = size;
+        this.deallocator = deallocator;
+    }
+
+    /**
+     * Plain long[] array (size is limited to 2^30 words)
+     */
+    public static RingBuffer allocateOnHeap(final long size) {
+
+        if (size > (1 << 30)) {
+            throw new IllegalArgumentException("on-heap buffer size must be <= 2^30 words");
+        }
+
+        final long[] array = new long[(int) size];
+        return new RingBuffer(array, ARRAY_LONG_BASE_OFFSET, size, () -> {
+        });
+    }
+
+    /**
+     * Native memory region, allocated using Unsafe, aligned to cache line.
+     *
+     * @param preTouch - fill memory with zeros, so all pages are committed before start
+     */
+    public static RingBuffer allocateOffHeap(final long size,
+                                             final boolean preTouch) {
+
+        final long bytes = size << 3;
+        final long rawAddress = UnsafeAccess.UNSAFE.allocateMemory(bytes + CACHE_LINE_SIZE);
+        final long address = (rawAddress + CACHE_LINE_SIZE - 1) & -CACHE_LINE_SIZE;
+
+        if (preTouch) {
+            UnsafeAccess.UNSAFE.setMemory(address, bytes, (byte) 0);
+        }
+
+        return new RingBuffer(null, address, size, () -> UnsafeAccess.UNSAFE.freeMemory(rawAddress));
+    }
+
+    /**
+     * Memory-mapped file region. File is created (or resized) if necessary.
+     * <p>
+     * Mapping regions larger than 2GB relies on JDK internals and requires --add-opens java.base/sun.nio.ch=ALL-UNNAMED
+     *
+     * @param preTouch - write every page, so all pages are mapped before start
+     */
+    public static RingBuffer mapFile(final Path file,
+                                     final long size,
+                                     final boolean preTouch) {
+
+        final long bytes = size << 3;
+
+        try (final RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+
+            raf.setLength(bytes);
+            final FileChannel channel = raf.getChannel();
+
+            final RingBuffer ringBuffer;
+            if (bytes <= Integer.MAX_VALUE) {
+                final MappedByteBuffer mappedBuffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+                ringBuffer = new RingBuffer(null, BufferUtil.address(mappedBuffer), size, () -> IoUtil.unmap(mappedBuffer));
+            } else {
+                final long address = IoUtil.map(channel, FileChannel.MapMode.READ_WRITE, 0, bytes);
+                ringBuffer = new RingBuffer(null, address, size, () -> IoUtil.unmap(channel, address, bytes));
+            }
+
+            if (preTouch) {
+                final int pageSize = UnsafeAccess.UNSAFE.pageSize();
+                for (long offset = 0; offset < bytes; offset += pageSize) {
+                    UnsafeAccess.UNSAFE.putLong(ringBuffer.baseAddress + offset, 0L);
+                }
+            }
+
+            return ringBuffer;
+
+        } catch (final IOException ex) {
+            throw new UncheckedIOException("Can not map file " + file, ex);
+        }
+    }
+
+    public long getLong(final long index) {
+        return UnsafeAccess.UNSAFE.getLong(baseObject, baseAddress + (index << 3));
+    }
+
+    public void putLong(final long index, final long value) {
+        UnsafeAccess.UNSAFE.putLong(baseObject, baseAddress + (index << 3), value);
+    }
+
+    /**
+     * Copy words from another memory region (no bounds checks, region should not cross buffer end)
+     *
+     * @param srcBase    - source base object (null for absolute address)
+     * @param srcAddress - source address
+     */
+    public void putBlock(final long index, final Object srcBase, final long srcAddress, final long words) {
+        UnsafeAccess.UNSAFE.copyMemory(srcBase, srcAddress, baseObject, baseAddress + (index << 3), words << 3);
+    }
+
+    /**
+     * Base object for Unsafe access (null for off-heap and memory-mapped buffers)
+     */
+    public Object getBaseObject() {
+        return baseObject;
+    }
+
+    /**
+     * Address of the word for Unsafe access (relative to base object if it is not null)
+     */
+    public long getAddress(final long index) {
+        return baseAddress + (index << 3);
+    }
+
+    /**
+     * @return buffer size in words
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Release memory (only first call has effect). Buffer must not be accessed after closing.
+     */
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            deallocator.run();
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package exchange.core2.revelator.buffers;
+
+import java.nio.file.Path;
+
+public class RingBufferFactories {
+
+    public static IRingBufferFactory onHeap() {
+        return RingBuffer::allocateOnHeap;
+    }
+
+    public static IRingBufferFactory offHeap(final boolean preTouch) {
+        return size -> RingBuffer.allocateOffHeap(size, preTouch);
+    }
+
+    public static IRingBufferFactory mappedFile(final Path file, final boolean preTouch) {
+        return size -> RingBuffer.mapFile(file, size, preTouch);
+    }
+
+}
@@ -15,7 +15,7 @@ public final class AggregatingMinFence implements IFence {
 
     private final IFence[] fences;
 
-    // TODO remember last rejected fence and start check from that number (such implementation is not thread safe though)
+    // see CachingMinFence (remembers last rejected fence, single consumer) and MinFenceTree (maintained by writers)
 
     @Override
     public long getAcquire(final long lastKnown) {
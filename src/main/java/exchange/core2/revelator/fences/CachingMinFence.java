@@ -0,0 +1,95 @@
+package exchange.core2.revelator.fences;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Minimum of fences for wide fan-in, remembering last known value of each fence and the laggard (the least progressed one).
+ * <p>
+ * Fences only move forward, so last known value is a safe lower bound: fence is only re-read if its known value
+ * limits the result. Laggard is checked first - if it did not progress there is nothing to scan.
+ * When fences progress evenly it takes ~1 read per call instead of reading all fences.
+ * <p>
+ * Not thread-safe.
+ * Each consumer should have its own copy.
+ */
+public final class CachingMinFence implements IFence {
+
+    private final IFence[] fences;
+
+    private final long[] lastKnown;
+
+    private int laggard = 0;
+
+    public CachingMinFence(final IFence[] fences) {
+        if (fences.length == 0) {
+            throw new IllegalArgumentException("At least one fence required");
+        }
+        this.fences = fences;
+        this.lastKnown = new long[fences.length];
+        Arrays.fill(lastKnown, Long.MIN_VALUE);
+    }
+
+    public CachingMinFence(final List<? extends IFence> fences) {
+        this(fences.toArray(IFence[]::new));
+    }
+
+    @Override
+    public long getAcquire(final long lastKnownMin) {
+
+        final int laggardIdx = laggard;
+        long min = fences[laggardIdx].getAcquire(lastKnownMin);
+        lastKnown[laggardIdx] = min;
+
+        if (min <= lastKnownMin) {
+            // laggard did not progress - no progress can be made anyway
+            return min;
+        }
+
+        int minIdx = laggardIdx;
+
+        for (int i = 0; i < fences.length; i++) {
+
+            // known value is not limiting result - no need to read fence
+            if (i == laggardIdx || lastKnown[i] >= min) {
+                continue;
+            }
+
+            final long seq = fences[i].getAcquire(lastKnownMin);
+            lastKnown[i] = seq;
+
+            if (seq < min) {
+                min = seq;
+                minIdx = i;
+                if (seq <= lastKnownMin) {
+                    break;
+                }
+            }
+        }
+
+        laggard = minIdx;
+        return min;
+    }
+
+    @Override
+    public long getVolatile() {
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < fences.length; i++) {
+            final long seq = fences[i].getVolatile();
+            lastKnown[i] = seq;
+            min = Math.min(min, seq);
+        }
+        return min;
+    }
+
+    @Override
+    public long getOpaque() {
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < fences.length; i++) {
+            final long seq = fences[i].getOpaque();
+            lastKnown[i] = seq;
+            min = Math.min(min, seq);
+        }
+        return min;
+    }
+}
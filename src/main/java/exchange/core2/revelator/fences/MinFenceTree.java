@@ -0,0 +1,141 @@
+package exchange.core2.revelator.fences;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Minimum of many SingleWriterFences, aggregated hierarchically by the writers.
+ * <p>
+ * Fences are split into groups of fanOut, each group has a node holding minimum of the group, nodes are grouped again
+ * until a single root left. After releasing new value writer recalculates minimum of its group and raises the node
+ * (going up while nodes are raised). Consumers read the root only, so consumer cost does not depend on fan-in,
+ * writers pay ~fanOut reads per level instead (once per released batch).
+ * <p>
+ * Node value is always a lower bound of its subtree minimum, so it is safe to use as a fence.
+ * Thread-safe for consumers. Fences can only belong to a single tree and should be attached before processors are started.
+ */
+public final class MinFenceTree implements IFence {
+
+    // 128 bytes between nodes - avoid false sharing between groups (including adjacent lines prefetch)
+    private static final int PAD = 16;
+
+    private static final VarHandle NODES = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final SingleWriterFence[] leaves;
+    private final int fanOut;
+
+    // nodes of all levels: levels[0] aggregates leaves, last level is a single root
+    private final long[][] levels;
+    private final long[] root;
+
+    public MinFenceTree(final List<SingleWriterFence> fences, final int fanOut) {
+
+        if (fanOut < 2) {
+            throw new IllegalArgumentException("fanOut should be at least 2");
+        }
+        if (fences.isEmpty()) {
+            throw new IllegalArgumentException("At least one fence required");
+        }
+
+        this.leaves = fences.toArray(SingleWriterFence[]::new);
+        this.fanOut = fanOut;
+
+        final List<long[]> levelsList = new ArrayList<>();
+        int size = leaves.length;
+        do {
+            size = (size + fanOut - 1) / fanOut;
+            final long[] nodes = new long[size * PAD];
+            for (int i = 0; i < size; i++) {
+                nodes[i * PAD] = -1L;
+            }
+            levelsList.add(nodes);
+        } while (size > 1);
+
+        this.levels = levelsList.toArray(long[][]::new);
+        this.root = levels[levels.length - 1];
+
+        for (int i = 0; i < leaves.length; i++) {
+            leaves[i].attachTree(this, i);
+        }
+
+        // fences could have progressed before attaching
+        for (int i = 0; i < leaves.length; i += fanOut) {
+            onLeafReleased(i);
+        }
+    }
+
+    /**
+     * Called by the writer of the leaf fence after releasing new value
+     */
+    void onLeafReleased(final int leafIdx) {
+
+        // writers of the same group must see each others last values, otherwise group node can get stuck behind
+        VarHandle.fullFence();
+
+        int idx = leafIdx;
+        for (int level = 0; level < levels.length; level++) {
+
+            final int group = idx / fanOut;
+            final int from = group * fanOut;
+
+            final long min = level == 0
+                    ? leavesMin(from, Math.min(from + fanOut, leaves.length))
+                    : nodesMin(levels[level - 1], from, Math.min(from + fanOut, levels[level - 1].length / PAD));
+
+            if (!raise(levels[level], group * PAD, min)) {
+                // node not changed - upper levels not affected
+                return;
+            }
+
+            idx = group;
+        }
+    }
+
+    private long leavesMin(final int from, final int to) {
+        long min = Long.MAX_VALUE;
+        for (int i = from; i < to; i++) {
+            min = Math.min(min, leaves[i].getVolatile());
+        }
+        return min;
+    }
+
+    private static long nodesMin(final long[] nodes, final int from, final int to) {
+        long min = Long.MAX_VALUE;
+        for (int i = from; i < to; i++) {
+            min = Math.min(min, (long) NODES.getVolatile(nodes, i * PAD));
+        }
+        return min;
+    }
+
+    private static boolean raise(final long[] nodes, final int index, final long value) {
+        long current;
+        do {
+            current = (long) NODES.getVolatile(nodes, index);
+            if (current >= value) {
+                return false;
+            }
+        } while (!NODES.compareAndSet(nodes, index, current, value));
+        return true;
+    }
+
+    @Override
+    public long getAcquire(final long lastKnown) {
+        return (long) NODES.getAcquire(root, 0);
+    }
+
+    @Override
+    public long getVolatile() {
+        return (long) NODES.getVolatile(root, 0);
+    }
+
+    @Override
+    public long getOpaque() {
+        return (long) NODES.getOpaque(root, 0);
+    }
+
+    public int getLevels() {
+        return levels.length;
+    }
+}
@@ -0,0 +1,97 @@
+package exchange.core2.revelator.fences;
+
+import jdk.internal.vm.annotation.Contended;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Inbound fence for multiple concurrent publishers.
+ * <p>
+ * Every publisher marks its own message as published by storing message end position into the slot of message start
+ * (publication markers table is the same size as ring buffer). Readers advance the fence only over continuously
+ * published region, so message never becomes visible while any message claimed before it is still being written.
+ * <p>
+ * Stale marker from previous buffer cycle is always less or equal than current position (message can not be larger
+ * than the buffer), so markers do not need to be cleaned up. Marker from the next buffer cycle (can only be observed by
+ * a reader which does not gate publishers) ends more than bufferSize ahead of current position, so it is ignored too.
+ * <p>
+ * Thread-safe, can be shared between any number of publishers and consumers.
+ */
+public final class MultiProducerFence implements IFence {
+
+    private static final VarHandle MARKERS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle CURSOR;
+
+    static {
+        try {
+            CURSOR = MethodHandles.lookup().findVarHandle(MultiProducerFence.class, "cursor", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final long[] publishedMarkers;
+    private final int bufferSize;
+    private final int indexMask;
+
+    // last known end of continuously published region (only moves forward)
+    @Contended
+    private volatile long cursor = 0L;
+
+    public MultiProducerFence(final int bufferSize) {
+        this.publishedMarkers = new long[bufferSize];
+        this.bufferSize = bufferSize;
+        this.indexMask = bufferSize - 1;
+    }
+
+    /**
+     * Mark region [msgStartSeq, msgEndSeq) as published (release-mode store).
+     * All writes into that region should be done before calling this method.
+     *
+     * @param msgStartSeq - position of message header (or padding) start
+     * @param msgEndSeq   - position after the message end
+     */
+    public void publish(final long msgStartSeq, final long msgEndSeq) {
+        MARKERS.setRelease(publishedMarkers, (int) msgStartSeq & indexMask, msgEndSeq);
+    }
+
+    @Override
+    public long getAcquire(final long lastKnown) {
+
+        final long start = (long) CURSOR.getAcquire(this);
+
+        long position = start;
+        long end;
+        // marker of the message starting at position ends within (position, position + bufferSize]
+        while ((end = (long) MARKERS.getAcquire(publishedMarkers, (int) position & indexMask)) > position
+                && end - position <= bufferSize) {
+            position = end;
+        }
+
+        if (position != start) {
+            // help other readers - move cursor forward (unless somebody already moved it further)
+            long current = start;
+            while (current < position && !CURSOR.weakCompareAndSet(this, current, position)) {
+                current = (long) CURSOR.getVolatile(this);
+            }
+        }
+
+        return position;
+    }
+
+    @Override
+    public long getVolatile() {
+        VarHandle.fullFence();
+        return getAcquire(Long.MIN_VALUE);
+    }
+
+    /**
+     * Does not scan publication markers, so can return a bit outdated value (useful for monitoring).
+     */
+    @Override
+    public long getOpaque() {
+        return (long) CURSOR.getOpaque(this);
+    }
+
+}
@@ -53,4 +53,82 @@ public final class ShardedFence {
         return seq;
     }
 
+    /**
+     * Minimum position of all shards (for messages which are not owned by a single shard, like control messages)
+     */
+    public long getForAll() {
+
+        long min = Long.MAX_VALUE;
+        for (int fenceId = 0; fenceId < fences.length; fenceId++) {
+            final long seq = fences[fenceId].getAcquire(lastKnown[fenceId]);
+            lastKnown[fenceId] = seq;
+            min = Math.min(min, seq);
+        }
+        return min;
+    }
+
+    /**
+     * Fence view of the shard owning given id, so wait strategies can wait for it.
+     * Returned instance is reused - the view is valid until the next call.
+     */
+    public IFence viewForId(final long id) {
+        idView.id = id;
+        return idView;
+    }
+
+    /**
+     * Fence view of the minimum position of all shards (see getForAll), so wait strategies can wait for it.
+     */
+    public IFence viewForAll() {
+        return allView;
+    }
+
+    private final IdView idView = new IdView();
+
+    private final IFence allView = new IFence() {
+
+        @Override
+        public long getAcquire(final long lastKnown) {
+            return getForAll();
+        }
+
+        @Override
+        public long getVolatile() {
+            long min = Long.MAX_VALUE;
+            for (final IFence fence : fences) {
+                min = Math.min(min, fence.getVolatile());
+            }
+            return min;
+        }
+
+        @Override
+        public long getOpaque() {
+            long min = Long.MAX_VALUE;
+            for (final IFence fence : fences) {
+                min = Math.min(min, fence.getOpaque());
+            }
+            return min;
+        }
+    };
+
+    private final class IdView implements IFence {
+
+        private long id;
+
+        @Override
+        public long getAcquire(final long lastKnown) {
+            return getForId(id);
+        }
+
+        @Override
+        public long getVolatile() {
+            return fences[shardFunction.applyAsInt(id)].getVolatile();
+        }
+
+        @Override
+        public long getOpaque() {
+            return fences[shardFunction.applyAsInt(id)].getOpaque();
+        }
+    }
+
 }
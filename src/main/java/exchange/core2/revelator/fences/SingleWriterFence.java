@@ -15,6 +15,10 @@ public final class SingleWriterFence implements IFence {
     protected volatile long value = -1;
 
 
+    // optional aggregation maintained by the writer
+    private MinFenceTree tree = null;
+    private int treeLeafIdx;
+
     private static final VarHandle VALUE;
 
     static {
@@ -54,6 +58,9 @@ public final class SingleWriterFence implements IFence {
      */
     public void setRelease(final long value) {
         VALUE.setRelease(this, value);
+        if (tree != null) {
+            tree.onLeafReleased(treeLeafIdx);
+        }
     }
 
     /**
@@ -66,6 +73,17 @@ public final class SingleWriterFence implements IFence {
      */
     public void setVolatile(final long value) {
         VALUE.setVolatile(this, value);
+        if (tree != null) {
+            tree.onLeafReleased(treeLeafIdx);
+        }
+    }
+
+    void attachTree(final MinFenceTree tree, final int leafIdx) {
+        if (this.tree != null) {
+            throw new IllegalStateException("Fence is already attached to another tree");
+        }
+        this.tree = tree;
+        this.treeLeafIdx = leafIdx;
     }
 
 
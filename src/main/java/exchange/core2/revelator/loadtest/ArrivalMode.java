@@ -0,0 +1,19 @@
+package exchange.core2.revelator.loadtest;
+
+/**
+ * How messages arrival times are planned. In both modes publisher never waits for processing results,
+ * and latency is measured from planned arrival time, so publisher stalls (tail strikes) are included into latency.
+ */
+public enum ArrivalMode {
+
+    /**
+     * Constant intervals (shaped by burst profile)
+     */
+    FIXED_RATE,
+
+    /**
+     * Poisson process - exponentially distributed intervals (shaped by burst profile) with the same mean rate,
+     * models many independent clients
+     */
+    OPEN_LOOP
+}
@@ -0,0 +1,49 @@
+package exchange.core2.revelator.loadtest;
+
+public final class BurstProfiles {
+
+    private BurstProfiles() {
+    }
+
+    /**
+     * @return evenly spaced messages
+     */
+    public static IBurstProfile steady() {
+        return messageIdx -> 1.0;
+    }
+
+    /**
+     * @param burstMessages messages arriving at the same time
+     * @return groups of messages arriving together (like market data packets), followed by a pause
+     */
+    public static IBurstProfile bursts(final int burstMessages) {
+
+        if (burstMessages < 1) {
+            throw new IllegalArgumentException("burstMessages must be > 0");
+        }
+
+        return messageIdx -> (messageIdx % burstMessages == burstMessages - 1) ? burstMessages : 0.0;
+    }
+
+    /**
+     * @param periodMessages      messages in one period
+     * @param spikeMessages       messages arriving faster at the start of each period
+     * @param spikeRateMultiplier spike rate relative to mean rate (&gt; 1)
+     * @return periodic spikes of rate (like market open), remaining messages arrive slower to keep mean rate
+     */
+    public static IBurstProfile spikes(final int periodMessages, final int spikeMessages, final double spikeRateMultiplier) {
+
+        if (spikeMessages < 1 || spikeMessages >= periodMessages) {
+            throw new IllegalArgumentException("spikeMessages must be > 0 and < periodMessages");
+        }
+
+        if (spikeRateMultiplier <= 1.0) {
+            throw new IllegalArgumentException("spikeRateMultiplier must be > 1");
+        }
+
+        final double spikeFactor = 1.0 / spikeRateMultiplier;
+        final double calmFactor = (periodMessages - spikeMessages * spikeFactor) / (periodMessages - spikeMessages);
+
+        return messageIdx -> (messageIdx % periodMessages < spikeMessages) ? spikeFactor : calmFactor;
+    }
+}
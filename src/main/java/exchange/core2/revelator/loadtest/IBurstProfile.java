@@ -0,0 +1,13 @@
+package exchange.core2.revelator.loadtest;
+
+public interface IBurstProfile {
+
+    /**
+     * Called when test step is prepared (not while publishing).
+     * Factors should average to 1.0 over the profile period, so the target rate is preserved.
+     *
+     * @param messageIdx message index in the test step
+     * @return interval after the message relative to mean interval (0 - next message arrives at the same time)
+     */
+    double intervalFactor(int messageIdx);
+}
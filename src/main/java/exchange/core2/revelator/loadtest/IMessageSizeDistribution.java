@@ -0,0 +1,13 @@
+package exchange.core2.revelator.loadtest;
+
+import java.util.Random;
+
+public interface IMessageSizeDistribution {
+
+    /**
+     * Called when test step is prepared (not while publishing)
+     *
+     * @return payload size in words
+     */
+    int nextSize(Random random);
+}
@@ -0,0 +1,291 @@
+package exchange.core2.revelator.loadtest;
+
+import exchange.core2.revelator.waitstrategies.WaitStrategyType;
+
+import java.nio.file.Path;
+
+public final class LoadTestConfig {
+
+    private final LoadTestTopology topology;
+    private final int workers;
+    private final long bufferSize;
+    private final WaitStrategyType processorsWaitStrategy;
+    private final boolean threadAffinity;
+    private final IMessageSizeDistribution messageSize;
+    private final IBurstProfile burstProfile;
+    private final ArrivalMode arrivalMode;
+    private final int minTps;
+    private final int maxTps;
+    private final int tpsIncrement;
+    private final int messagesPerStep;
+    private final int latencySampleRate;
+    private final long seed;
+    private final Path outputDir;
+
+    private LoadTestConfig(final LoadTestTopology topology,
+                           final int workers,
+                           final long bufferSize,
+                           final WaitStrategyType processorsWaitStrategy,
+                           final boolean threadAffinity,
+                           final IMessageSizeDistribution messageSize,
+                           final IBurstProfile burstProfile,
+                           final ArrivalMode arrivalMode,
+                           final int minTps,
+                           final int maxTps,
+                           final int tpsIncrement,
+                           final int messagesPerStep,
+                           final int latencySampleRate,
+                           final long seed,
+                           final Path outputDir) {
+
+        this.topology = topology;
+        this.workers = workers;
+        this.bufferSize = bufferSize;
+        this.processorsWaitStrategy = processorsWaitStrategy;
+        this.threadAffinity = threadAffinity;
+        this.messageSize = messageSize;
+        this.burstProfile = burstProfile;
+        this.arrivalMode = arrivalMode;
+        this.minTps = minTps;
+        this.maxTps = maxTps;
+        this.tpsIncrement = tpsIncrement;
+        this.messagesPerStep = messagesPerStep;
+        this.latencySampleRate = latencySampleRate;
+        this.seed = seed;
+        this.outputDir = outputDir;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public LoadTestTopology getTopology() {
+        return topology;
+    }
+
+    /**
+     * @return number of workers (stages for PIPELINED, shards for SHARDED), ignored for SINGLE
+     */
+    public int getWorkers() {
+        return workers;
+    }
+
+    public long getBufferSize() {
+        return bufferSize;
+    }
+
+    public WaitStrategyType getProcessorsWaitStrategy() {
+        return processorsWaitStrategy;
+    }
+
+    public boolean isThreadAffinity() {
+        return threadAffinity;
+    }
+
+    public IMessageSizeDistribution getMessageSize() {
+        return messageSize;
+    }
+
+    public IBurstProfile getBurstProfile() {
+        return burstProfile;
+    }
+
+    public ArrivalMode getArrivalMode() {
+        return arrivalMode;
+    }
+
+    public int getMinTps() {
+        return minTps;
+    }
+
+    public int getMaxTps() {
+        return maxTps;
+    }
+
+    public int getTpsIncrement() {
+        return tpsIncrement;
+    }
+
+    public int getMessagesPerStep() {
+        return messagesPerStep;
+    }
+
+    public int getLatencySampleRate() {
+        return latencySampleRate;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public Path getOutputDir() {
+        return outputDir;
+    }
+
+    @Override
+    public String toString() {
+        return "LoadTestConfig{" +
+                "topology=" + topology +
+                ", workers=" + workers +
+                ", bufferSize=" + bufferSize +
+                ", processorsWaitStrategy=" + processorsWaitStrategy +
+                ", threadAffinity=" + threadAffinity +
+                ", arrivalMode=" + arrivalMode +
+                ", minTps=" + minTps +
+                ", maxTps=" + maxTps +
+                ", tpsIncrement=" + tpsIncrement +
+                ", messagesPerStep=" + messagesPerStep +
+                ", latencySampleRate=" + latencySampleRate +
+                ", seed=" + seed +
+                ", outputDir=" + outputDir +
+                '}';
+    }
+
+    public static final class Builder {
+
+        private LoadTestTopology topology = LoadTestTopology.SINGLE;
+        private int workers = 2;
+        private long bufferSize = 4 * 1024 * 1024;
+        private WaitStrategyType processorsWaitStrategy = WaitStrategyType.BUSY_SPIN;
+        private boolean threadAffinity = false;
+        private IMessageSizeDistribution messageSize = MessageSizeDistributions.fixed(6);
+        private IBurstProfile burstProfile = BurstProfiles.steady();
+        private ArrivalMode arrivalMode = ArrivalMode.FIXED_RATE;
+        private int minTps = 1_000_000;
+        private int maxTps = 10_000_000;
+        private int tpsIncrement = 1_000_000;
+        private int messagesPerStep = 1_000_000;
+        private int latencySampleRate = 1;
+        private long seed = 1L;
+        private Path outputDir = null;
+
+        private Builder() {
+        }
+
+        /**
+         * @param workers number of workers (stages for PIPELINED, shards for SHARDED), ignored for SINGLE
+         */
+        public Builder topology(final LoadTestTopology topology, final int workers) {
+            this.topology = topology;
+            this.workers = workers;
+            return this;
+        }
+
+        /**
+         * @param bufferSize ring buffer size in words (2^N)
+         */
+        public Builder bufferSize(final long bufferSize) {
+            this.bufferSize = bufferSize;
+            return this;
+        }
+
+        public Builder processorsWaitStrategy(final WaitStrategyType processorsWaitStrategy) {
+            this.processorsWaitStrategy = processorsWaitStrategy;
+            return this;
+        }
+
+        /**
+         * @param threadAffinity pin processors and publisher to logical cores
+         */
+        public Builder threadAffinity(final boolean threadAffinity) {
+            this.threadAffinity = threadAffinity;
+            return this;
+        }
+
+        /**
+         * @param messageSize payload sizes distribution (see MessageSizeDistributions)
+         */
+        public Builder messageSize(final IMessageSizeDistribution messageSize) {
+            this.messageSize = messageSize;
+            return this;
+        }
+
+        /**
+         * @param burstProfile shape of arrival intervals (see BurstProfiles)
+         */
+        public Builder burstProfile(final IBurstProfile burstProfile) {
+            this.burstProfile = burstProfile;
+            return this;
+        }
+
+        public Builder arrivalMode(final ArrivalMode arrivalMode) {
+            this.arrivalMode = arrivalMode;
+            return this;
+        }
+
+        /**
+         * Each test step publishes messages at target rate, rate grows from minTps to maxTps (inclusive)
+         */
+        public Builder tpsRamp(final int minTps, final int maxTps, final int tpsIncrement) {
+            this.minTps = minTps;
+            this.maxTps = maxTps;
+            this.tpsIncrement = tpsIncrement;
+            return this;
+        }
+
+        public Builder messagesPerStep(final int messagesPerStep) {
+            this.messagesPerStep = messagesPerStep;
+            return this;
+        }
+
+        /**
+         * @param latencySampleRate record latency of 1 of N messages (2^N)
+         */
+        public Builder latencySampleRate(final int latencySampleRate) {
+            this.latencySampleRate = latencySampleRate;
+            return this;
+        }
+
+        /**
+         * @param seed random seed for message sizes and arrival intervals (steps are reproducible)
+         */
+        public Builder seed(final long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        /**
+         * @param outputDir directory for HdrHistogram log and CSV summary, null - only log results
+         */
+        public Builder outputDir(final Path outputDir) {
+            this.outputDir = outputDir;
+            return this;
+        }
+
+        public LoadTestConfig build() {
+
+            if (workers < 1) {
+                throw new IllegalArgumentException("workers must be > 0");
+            }
+
+            if (minTps <= 0 || maxTps < minTps || tpsIncrement <= 0) {
+                throw new IllegalArgumentException("invalid tps ramp");
+            }
+
+            if (messagesPerStep <= 0) {
+                throw new IllegalArgumentException("messagesPerStep must be > 0");
+            }
+
+            if (latencySampleRate < 1 || Integer.bitCount(latencySampleRate) != 1) {
+                throw new IllegalArgumentException("latencySampleRate must be 2^N");
+            }
+
+            return new LoadTestConfig(
+                    topology,
+                    workers,
+                    bufferSize,
+                    processorsWaitStrategy,
+                    threadAffinity,
+                    messageSize,
+                    burstProfile,
+                    arrivalMode,
+                    minTps,
+                    maxTps,
+                    tpsIncrement,
+                    messagesPerStep,
+                    latencySampleRate,
+                    seed,
+                    outputDir);
+        }
+    }
+}
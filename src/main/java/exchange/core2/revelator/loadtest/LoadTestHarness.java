@@ -0,0 +1,392 @@
+package exchange.core2.revelator.loadtest;
+
+import exchange.core2.revelator.Revelator;
+import exchange.core2.revelator.RevelatorParameters;
+import exchange.core2.revelator.buffers.RingBuffer;
+import exchange.core2.revelator.processors.IFlowProcessorsFactory;
+import exchange.core2.revelator.processors.ProcessorsFactories;
+import exchange.core2.revelator.processors.pipelined.PipelinedFlowSession;
+import exchange.core2.revelator.processors.pipelined.PipelinedStageHandler;
+import exchange.core2.revelator.processors.simple.SimpleMessageHandler;
+import exchange.core2.revelator.utils.AffinityThreadFactory;
+import net.openhft.affinity.AffinityLock;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+import org.HdrHistogram.Recorder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.LongToIntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Load test: publishes messages at growing target rate (one step per rate) into configured topology,
+ * and measures latency from planned arrival time to processing by the last worker.
+ * Message sizes and arrival times are prepared before each step, publisher only spins until planned time.
+ * <p>
+ * If outputDir is configured, writes latency.hlog (HdrHistogram log, interval histogram tagged 'step-N' per step)
+ * and summary.csv (row per step).
+ */
+public final class LoadTestHarness {
+
+    private static final Logger log = LoggerFactory.getLogger(LoadTestHarness.class);
+
+    public static final String HISTOGRAM_LOG_FILE = "latency.hlog";
+    public static final String SUMMARY_FILE = "summary.csv";
+
+    private static final byte MSG_TYPE_DATA = 1;
+    private static final byte MSG_TYPE_STEP_END = 7;
+
+    private static final long STEP_END_CORRELATION_BASE = 1L << 40;
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99};
+
+    private final LoadTestConfig config;
+
+    private final Recorder recorder = new Recorder(3);
+    private final long sampleMask;
+
+    // each shard should receive own step end marker
+    private final long[] stepEndCorrelationIds;
+
+    private volatile CountDownLatch stepLatch;
+
+    // set before processors are started
+    private RingBuffer buffer;
+
+    public LoadTestHarness(final LoadTestConfig config) {
+        this.config = config;
+        this.sampleMask = config.getLatencySampleRate() - 1;
+        this.stepEndCorrelationIds = createStepEndCorrelationIds(
+                config.getTopology() == LoadTestTopology.SHARDED ? config.getWorkers() : 1);
+    }
+
+    /**
+     * Run all steps
+     *
+     * @return results of each step
+     */
+    public List<LoadTestStepResult> run() throws IOException, InterruptedException {
+
+        log.info("Starting load test {}", config);
+
+        final AffinityThreadFactory threadFactory = new AffinityThreadFactory(config.isThreadAffinity()
+                ? AffinityThreadFactory.ThreadAffinityMode.AFFINITY_LOGICAL_CORE
+                : AffinityThreadFactory.ThreadAffinityMode.NO_AFFINITY);
+
+        final Revelator revelator = Revelator.create(
+                RevelatorParameters.builder()
+                        .bufferSize(config.getBufferSize())
+                        .processorsWaitStrategy(config.getProcessorsWaitStrategy())
+                        .build(),
+                createTopology(),
+                threadFactory);
+
+        buffer = revelator.getBuffer();
+
+        final List<LoadTestStepResult> results = new ArrayList<>();
+
+        HistogramLogWriter histogramLog = null;
+        PrintStream summary = null;
+
+        try {
+            if (config.getOutputDir() != null) {
+                Files.createDirectories(config.getOutputDir());
+
+                final long startTimeMs = System.currentTimeMillis();
+                histogramLog = new HistogramLogWriter(config.getOutputDir().resolve(HISTOGRAM_LOG_FILE).toFile());
+                histogramLog.outputComment(config.toString());
+                histogramLog.outputLogFormatVersion();
+                histogramLog.outputStartTime(startTimeMs);
+                histogramLog.setBaseTime(startTimeMs);
+                histogramLog.outputLegend();
+
+                summary = new PrintStream(config.getOutputDir().resolve(SUMMARY_FILE).toFile());
+                summary.println(createSummaryHeader());
+            }
+
+            revelator.start();
+
+            final AffinityLock lock = config.isThreadAffinity() ? AffinityLock.acquireLock() : null;
+            try {
+                int step = 0;
+                for (int tps = config.getMinTps(); tps <= config.getMaxTps(); tps += config.getTpsIncrement()) {
+
+                    final LoadTestStepResult result = runStep(revelator, step, tps);
+                    log.info("{}", result);
+                    results.add(result);
+
+                    if (histogramLog != null) {
+                        histogramLog.outputIntervalHistogram(result.getLatency());
+                        summary.println(createSummaryRow(result));
+                        summary.flush();
+                    }
+
+                    step++;
+                }
+            } finally {
+                if (lock != null) {
+                    lock.release();
+                }
+            }
+
+        } finally {
+            try {
+                revelator.close();
+            } catch (final Exception ex) {
+                log.warn("Failed to stop revelator", ex);
+            }
+            if (histogramLog != null) {
+                histogramLog.close();
+            }
+            if (summary != null) {
+                summary.close();
+            }
+        }
+
+        return results;
+    }
+
+    private LoadTestStepResult runStep(final Revelator revelator,
+                                       final int step,
+                                       final int tps) throws InterruptedException {
+
+        final int messagesNum = config.getMessagesPerStep();
+
+        // prepare step (same seed - same traffic for every build)
+        final Random random = new Random(config.getSeed() + step);
+        final int[] sizes = new int[messagesNum];
+        final long[] plannedOffsetsNs = new long[messagesNum];
+        final IMessageSizeDistribution messageSize = config.getMessageSize();
+        final IBurstProfile burstProfile = config.getBurstProfile();
+        final boolean openLoop = config.getArrivalMode() == ArrivalMode.OPEN_LOOP;
+        final double meanIntervalNs = 1_000_000_000.0 / tps;
+        double plannedNs = 0.0;
+        for (int i = 0; i < messagesNum; i++) {
+            sizes[i] = messageSize.nextSize(random);
+            plannedOffsetsNs[i] = (long) plannedNs;
+            final double interval = burstProfile.intervalFactor(i) * meanIntervalNs;
+            plannedNs += openLoop ? -Math.log(1.0 - random.nextDouble()) * interval : interval;
+        }
+
+        final CountDownLatch latch = new CountDownLatch(getTerminalHandlersNum());
+        stepLatch = latch;
+        recorder.reset();
+        final long tailStrikesBefore = revelator.getTailStrike();
+
+        final long startNs = System.nanoTime();
+        long lastKnownNs = startNs;
+
+        for (int i = 0; i < messagesNum; i++) {
+
+            final long plannedTimestamp = startNs + plannedOffsetsNs[i];
+
+            // spin until it is time to send next message
+            while (plannedTimestamp > lastKnownNs) {
+                lastKnownNs = System.nanoTime();
+            }
+
+            final int size = sizes[i];
+            final long claimSeq = revelator.claimSingleMessage(size, plannedTimestamp, i, MSG_TYPE_DATA);
+            for (int k = 0; k < size; k++) {
+                revelator.writeLongData(claimSeq, k, i);
+            }
+            revelator.publish(claimSeq + size);
+        }
+
+        final long publishingTimeNs = System.nanoTime() - startNs;
+
+        for (final long correlationId : stepEndCorrelationIds) {
+            final long claimSeq = revelator.claimSingleMessage(0, System.nanoTime(), correlationId, MSG_TYPE_STEP_END);
+            revelator.publish(claimSeq);
+        }
+
+        latch.await();
+
+        final Histogram histogram = recorder.getIntervalHistogram();
+        histogram.setTag("step-" + step);
+
+        return new LoadTestStepResult(
+                step,
+                tps,
+                messagesNum * 1_000_000_000.0 / Math.max(publishingTimeNs, 1L),
+                messagesNum,
+                revelator.getTailStrike() - tailStrikesBefore,
+                histogram);
+    }
+
+    private IFlowProcessorsFactory createTopology() {
+
+        final int workers = config.getWorkers();
+
+        switch (config.getTopology()) {
+            case SINGLE:
+                return ProcessorsFactories.single(createHandler(true));
+
+            case PARALLEL:
+                return ProcessorsFactories.parallel(IntStream.range(0, workers)
+                        .mapToObj(i -> createHandler(true))
+                        .collect(Collectors.toList()));
+
+            case CHAIN:
+                return ProcessorsFactories.chain(IntStream.range(0, workers)
+                        .mapToObj(i -> createHandler(i == workers - 1))
+                        .collect(Collectors.toList()));
+
+            case PIPELINED:
+                return ProcessorsFactories.pipelined(IntStream.range(0, workers)
+                                .mapToObj(i -> (PipelinedStageHandler<PipelinedFlowSession>) new LoadTestStage(i == workers - 1))
+                                .collect(Collectors.toList()),
+                        PipelinedFlowSession::new);
+
+            case SHARDED:
+                return ProcessorsFactories.sharded(
+                        shardFunction(workers),
+                        IntStream.range(0, workers)
+                                .mapToObj(i -> createHandler(true))
+                                .collect(Collectors.toList()));
+
+            default:
+                throw new IllegalArgumentException("Unsupported topology: " + config.getTopology());
+        }
+    }
+
+    private int getTerminalHandlersNum() {
+        final LoadTestTopology topology = config.getTopology();
+        return (topology == LoadTestTopology.PARALLEL || topology == LoadTestTopology.SHARDED) ? config.getWorkers() : 1;
+    }
+
+    private SimpleMessageHandler createHandler(final boolean terminal) {
+        return new LoadTestHandler(terminal);
+    }
+
+    private void onMessageProcessed(final long timestamp, final long correlationId, final byte msgType) {
+        if (msgType == MSG_TYPE_STEP_END) {
+            stepLatch.countDown();
+        } else if (msgType == MSG_TYPE_DATA && (correlationId & sampleMask) == 0) {
+            recorder.recordValue(Math.max(System.nanoTime() - timestamp, 0L));
+        }
+    }
+
+    /**
+     * correlationId is a message index in the step - spread neighbours across shards independently of sampling
+     */
+    private static LongToIntFunction shardFunction(final int shards) {
+        return correlationId -> (int) (((correlationId * 0x9E3779B97F4A7C15L) >>> 33) % shards);
+    }
+
+    private long[] createStepEndCorrelationIds(final int shards) {
+        final LongToIntFunction shardFunction = shardFunction(shards);
+        final long[] correlationIds = new long[shards];
+        int found = 0;
+        for (long correlationId = STEP_END_CORRELATION_BASE; found < shards; correlationId++) {
+            final int shard = shardFunction.applyAsInt(correlationId);
+            if (correlationIds[shard] == 0L) {
+                correlationIds[shard] = correlationId;
+                found++;
+            }
+        }
+        return correlationIds;
+    }
+
+    private static String createSummaryHeader() {
+        final StringBuilder sb = new StringBuilder("step,targetTps,achievedTps,messages,tailStrikes,samples");
+        for (final double p : PERCENTILES) {
+            sb.append(",p").append(p).append("_ns");
+        }
+        return sb.append(",max_ns").toString();
+    }
+
+    private static String createSummaryRow(final LoadTestStepResult result) {
+        final Histogram latency = result.getLatency();
+        final StringBuilder sb = new StringBuilder()
+                .append(result.getStep()).append(',')
+                .append(result.getTargetTps()).append(',')
+                .append(Math.round(result.getAchievedTps())).append(',')
+                .append(result.getMessages()).append(',')
+                .append(result.getTailStrikes()).append(',')
+                .append(latency.getTotalCount());
+        for (final double p : PERCENTILES) {
+            sb.append(',').append(latency.getValueAtPercentile(p));
+        }
+        return sb.append(',').append(latency.getMaxValue()).toString();
+    }
+
+    /**
+     * Reads whole payload (like deserialization would), last handler records latency
+     */
+    private final class LoadTestHandler implements SimpleMessageHandler {
+
+        private final boolean terminal;
+        private long checksum = 0L;
+
+        private LoadTestHandler(final boolean terminal) {
+            this.terminal = terminal;
+        }
+
+        @Override
+        public void handleMessage(final RingBuffer buffer,
+                                  final long index,
+                                  final int msgSize,
+                                  final long timestamp,
+                                  final long globalOffset,
+                                  final long correlationId,
+                                  final byte msgType,
+                                  final int userCookie) {
+
+            for (int k = 0; k < msgSize; k++) {
+                checksum += buffer.getLong(index + k);
+            }
+
+            if (terminal) {
+                onMessageProcessed(timestamp, correlationId, msgType);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "LoadTestHandler{terminal=" + terminal + ", checksum=" + checksum + '}';
+        }
+    }
+
+    private final class LoadTestStage implements PipelinedStageHandler<PipelinedFlowSession> {
+
+        private final boolean terminal;
+        private long checksum = 0L;
+
+        private LoadTestStage(final boolean terminal) {
+            this.terminal = terminal;
+        }
+
+        @Override
+        public boolean process(final PipelinedFlowSession session) {
+
+            for (int k = 0; k < session.payloadSize; k++) {
+                checksum += buffer.getLong(session.bufferIndex + k);
+            }
+
+            if (terminal) {
+                onMessageProcessed(session.timestamp, session.correlationId, session.messageType);
+            }
+            return true;
+        }
+
+        @Override
+        public int getHitWorkWeight() {
+            return 1;
+        }
+
+        @Override
+        public String toString() {
+            return "LoadTestStage{terminal=" + terminal + ", checksum=" + checksum + '}';
+        }
+    }
+}
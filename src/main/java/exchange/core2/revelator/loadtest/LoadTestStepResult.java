@@ -0,0 +1,70 @@
+package exchange.core2.revelator.loadtest;
+
+import exchange.core2.revelator.utils.LatencyTools;
+import org.HdrHistogram.Histogram;
+
+public final class LoadTestStepResult {
+
+    private final int step;
+    private final int targetTps;
+    private final double achievedTps;
+    private final int messages;
+    private final long tailStrikes;
+    private final Histogram latency;
+
+    public LoadTestStepResult(final int step,
+                              final int targetTps,
+                              final double achievedTps,
+                              final int messages,
+                              final long tailStrikes,
+                              final Histogram latency) {
+
+        this.step = step;
+        this.targetTps = targetTps;
+        this.achievedTps = achievedTps;
+        this.messages = messages;
+        this.tailStrikes = tailStrikes;
+        this.latency = latency;
+    }
+
+    public int getStep() {
+        return step;
+    }
+
+    public int getTargetTps() {
+        return targetTps;
+    }
+
+    /**
+     * @return publishing rate (can be below target if publisher was blocked by processors)
+     */
+    public double getAchievedTps() {
+        return achievedTps;
+    }
+
+    public int getMessages() {
+        return messages;
+    }
+
+    public long getTailStrikes() {
+        return tailStrikes;
+    }
+
+    /**
+     * @return latency from planned arrival time to processing (sampled), nanoseconds
+     */
+    public Histogram getLatency() {
+        return latency;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("step %d: %.3f -> %.3f MT/s %.0f%% tailStrikes=%d %s",
+                step,
+                targetTps / 1_000_000.0,
+                achievedTps / 1_000_000.0,
+                achievedTps / targetTps * 100.0,
+                tailStrikes,
+                LatencyTools.createLatencyReportFast(latency));
+    }
+}
@@ -0,0 +1,29 @@
+package exchange.core2.revelator.loadtest;
+
+public enum LoadTestTopology {
+
+    /**
+     * Single processor
+     */
+    SINGLE,
+
+    /**
+     * Workers processing every message in parallel (latency is recorded by each worker)
+     */
+    PARALLEL,
+
+    /**
+     * Workers processing every message one after another (latency is recorded by the last worker)
+     */
+    CHAIN,
+
+    /**
+     * Single pipelined processor with a stage per worker (latency is recorded by the last stage)
+     */
+    PIPELINED,
+
+    /**
+     * Workers processing only messages of their own shard
+     */
+    SHARDED
+}
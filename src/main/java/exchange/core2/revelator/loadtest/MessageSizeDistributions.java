@@ -0,0 +1,75 @@
+package exchange.core2.revelator.loadtest;
+
+import java.util.Arrays;
+
+public final class MessageSizeDistributions {
+
+    private MessageSizeDistributions() {
+    }
+
+    public static IMessageSizeDistribution fixed(final int size) {
+        checkSize(size);
+        return random -> size;
+    }
+
+    /**
+     * @return sizes uniformly distributed between minSize and maxSize (inclusive)
+     */
+    public static IMessageSizeDistribution uniform(final int minSize, final int maxSize) {
+        checkSize(minSize);
+        checkSize(maxSize);
+        if (minSize > maxSize) {
+            throw new IllegalArgumentException("minSize > maxSize");
+        }
+        return random -> minSize + random.nextInt(maxSize - minSize + 1);
+    }
+
+    /**
+     * @param largeFraction fraction of large messages (0..1)
+     * @return mostly small messages with some large ones (like orders and occasional bulk requests)
+     */
+    public static IMessageSizeDistribution bimodal(final int smallSize, final int largeSize, final double largeFraction) {
+        return weighted(new int[]{smallSize, largeSize}, new double[]{1.0 - largeFraction, largeFraction});
+    }
+
+    /**
+     * @param sizes   payload sizes in words
+     * @param weights relative frequency of each size (for example - observed in production)
+     */
+    public static IMessageSizeDistribution weighted(final int[] sizes, final double[] weights) {
+
+        if (sizes.length == 0 || sizes.length != weights.length) {
+            throw new IllegalArgumentException("sizes and weights should have the same non-zero length");
+        }
+        Arrays.stream(sizes).forEach(MessageSizeDistributions::checkSize);
+
+        final double total = Arrays.stream(weights).sum();
+        if (total <= 0.0 || Arrays.stream(weights).anyMatch(w -> w < 0.0)) {
+            throw new IllegalArgumentException("weights should be non-negative with positive sum");
+        }
+
+        final double[] cumulative = new double[weights.length];
+        double sum = 0.0;
+        for (int i = 0; i < weights.length; i++) {
+            sum += weights[i] / total;
+            cumulative[i] = sum;
+        }
+
+        final int[] sizesCopy = sizes.clone();
+        return random -> {
+            final double x = random.nextDouble();
+            for (int i = 0; i < cumulative.length - 1; i++) {
+                if (x < cumulative[i]) {
+                    return sizesCopy[i];
+                }
+            }
+            return sizesCopy[sizesCopy.length - 1];
+        };
+    }
+
+    private static void checkSize(final int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("message size can not be negative");
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package exchange.core2.revelator.metrics;
+
+import org.agrona.concurrent.status.CountersReader;
+
+import java.nio.file.Path;
+import java.time.LocalTime;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Command line tool printing counters of a running Revelator:
+ * <pre>
+ * java -cp revelator.jar exchange.core2.revelator.metrics.CountersPrinter /dev/shm/revelator.counters [intervalMs]
+ * </pre>
+ * Reads mapped counters file only, running instance is not affected.
+ */
+public final class CountersPrinter {
+
+    public static void main(final String[] args) throws InterruptedException {
+
+        if (args.length < 1) {
+            System.err.println("Usage: CountersPrinter <counters file> [intervalMs]");
+            System.exit(1);
+        }
+
+        final CountersReader reader = RevelatorCounters.mapReader(Path.of(args[0]));
+        final long intervalMs = args.length > 1 ? Long.parseLong(args[1]) : 1000L;
+
+        final Map<Integer, Long> previousValues = new HashMap<>();
+
+        while (true) {
+            final StringBuilder sb = new StringBuilder();
+            sb.append("--- ").append(LocalTime.now()).append('\n');
+            reader.forEach((value, counterId, label) -> {
+                final Long previous = previousValues.put(counterId, value);
+                sb.append(String.format("%4d: %,20d", counterId, value));
+                if (previous != null) {
+                    sb.append(String.format(" %+,15d", value - previous));
+                }
+                sb.append(" - ").append(label).append('\n');
+            });
+            System.out.print(sb);
+            Thread.sleep(intervalMs);
+        }
+    }
+}
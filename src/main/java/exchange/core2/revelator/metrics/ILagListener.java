@@ -0,0 +1,20 @@
+package exchange.core2.revelator.metrics;
+
+/**
+ * Threshold callbacks of LagMonitor, called from monitor thread.
+ * Each callback is called once when value crosses threshold, and re-armed after value drops below half of threshold.
+ */
+public interface ILagListener {
+
+    /**
+     * Stage backlog exceeded LagMonitorConfig stage backlog threshold
+     */
+    default void onStageBacklog(LagSample.StageLag stageLag, LagSample sample) {
+    }
+
+    /**
+     * Ring occupancy exceeded LagMonitorConfig ring occupancy threshold - publisher is about to tail-strike
+     */
+    default void onRingOccupancy(LagSample sample) {
+    }
+}
@@ -0,0 +1,266 @@
+package exchange.core2.revelator.metrics;
+
+import exchange.core2.revelator.buffers.RingBuffer;
+import exchange.core2.revelator.fences.IFence;
+import org.agrona.concurrent.status.AtomicCounter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Out of band lag monitor (enabled by RevelatorParameters.lagMonitor).
+ * Periodically reads inbound fence, releasing fence of every processor and releasing fence of the topology
+ * (opaque reads only, processors are not affected) and derives per-processor backlog, ring occupancy and drain rates.
+ * <p>
+ * Fences only give positions in words. Backlog in messages is estimated using recent average message size:
+ * monitor walks headers of messages published since previous sample (most recent part of the ring,
+ * which can not be overwritten until publisher wraps around it).
+ * <p>
+ * Latest sample is available through getLastSample(), and, if counters are enabled, published as gauges.
+ */
+public final class LagMonitor implements Runnable {
+
+    private static final Logger log = LoggerFactory.getLogger(LagMonitor.class);
+
+    private static final int MAX_WALK_MESSAGES = 4096;
+    private static final double AVERAGE_SIZE_SMOOTHING = 0.25;
+
+    private final LagMonitorConfig config;
+    private final ILagListener listener;
+
+    private final IFence inboundFence;
+    private final IFence releasingFence;
+    private final String[] stageNames;
+    private final IFence[] stageFences;
+    private final int stagesNum;
+
+    private final RingBuffer buffer;
+    private final long bufferSize;
+    private final long indexMask;
+    private final int headerSize;
+
+    // null if counters are disabled
+    private final AtomicCounter occupancyCounter;
+    private final AtomicCounter[] backlogWordsCounters;
+    private final AtomicCounter[] backlogMessagesCounters;
+    private final AtomicCounter[] timeToDrainCounters;
+
+    // sampling state (guarded by this)
+    private long walkPosition = 0L;
+    private double averageMessageSize = 0.0;
+    private long lastSampleNs = 0L;
+    private long lastInbound = 0L;
+    private final long[] lastStagePositions;
+    private boolean occupancyAlarm = false;
+    private final boolean[] backlogAlarms;
+
+    private volatile LagSample lastSample;
+    private volatile boolean running = true;
+
+    public LagMonitor(final LagMonitorConfig config,
+                      final IFence inboundFence,
+                      final IFence releasingFence,
+                      final List<String> stageNames,
+                      final List<? extends IFence> stageFences,
+                      final RingBuffer buffer,
+                      final long bufferSize,
+                      final int headerSize,
+                      final RevelatorCounters counters) {
+
+        this.config = config;
+        this.listener = config.getListener();
+        this.inboundFence = inboundFence;
+        this.releasingFence = releasingFence;
+        this.stageNames = stageNames.toArray(new String[0]);
+        this.stageFences = stageFences.toArray(new IFence[0]);
+        this.stagesNum = this.stageFences.length;
+        this.buffer = buffer;
+        this.bufferSize = bufferSize;
+        this.indexMask = bufferSize - 1;
+        this.headerSize = headerSize;
+        this.lastStagePositions = new long[stagesNum];
+        this.backlogAlarms = new boolean[stagesNum];
+
+        if (counters != null) {
+            this.occupancyCounter = counters.newCounter("ring occupancy permille", RevelatorCounters.TYPE_MONITOR);
+            this.backlogWordsCounters = new AtomicCounter[stagesNum];
+            this.backlogMessagesCounters = new AtomicCounter[stagesNum];
+            this.timeToDrainCounters = new AtomicCounter[stagesNum];
+            for (int i = 0; i < stagesNum; i++) {
+                backlogWordsCounters[i] = counters.newCounter(this.stageNames[i] + " backlog words", RevelatorCounters.TYPE_MONITOR);
+                backlogMessagesCounters[i] = counters.newCounter(this.stageNames[i] + " backlog messages", RevelatorCounters.TYPE_MONITOR);
+                timeToDrainCounters[i] = counters.newCounter(this.stageNames[i] + " time to drain us", RevelatorCounters.TYPE_MONITOR);
+            }
+        } else {
+            this.occupancyCounter = null;
+            this.backlogWordsCounters = null;
+            this.backlogMessagesCounters = null;
+            this.timeToDrainCounters = null;
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                sample();
+            } catch (final Exception ex) {
+                log.warn("Lag monitor sampling failed", ex);
+            }
+            LockSupport.parkNanos(this, config.getIntervalNs());
+        }
+    }
+
+    /**
+     * Take sample immediately (normally called by monitor thread)
+     */
+    public synchronized LagSample sample() {
+
+        final long nowNs = System.nanoTime();
+
+        // reading inbound first, so processors positions can only be ahead of it
+        final long inbound = Math.max(inboundFence.getOpaque(), 0L);
+        final long released = Math.max(releasingFence.getOpaque(), 0L);
+
+        updateAverageMessageSize(inbound);
+
+        final double intervalSec = lastSampleNs == 0L ? 0.0 : (nowNs - lastSampleNs) / 1e9;
+        final double publishRate = intervalSec > 0.0 ? (inbound - lastInbound) / intervalSec : 0.0;
+        final double occupancy = Math.min(Math.max(inbound - released, 0L) / (double) bufferSize, 1.0);
+
+        final List<LagSample.StageLag> stages = new ArrayList<>(stagesNum);
+        for (int i = 0; i < stagesNum; i++) {
+
+            final long position = Math.max(stageFences[i].getOpaque(), 0L);
+            final long backlog = Math.max(inbound - position, 0L);
+            final long backlogMessages = averageMessageSize > 0.0 ? Math.round(backlog / averageMessageSize) : 0L;
+
+            final double stageRate = intervalSec > 0.0 ? (position - lastStagePositions[i]) / intervalSec : 0.0;
+            final double drainRate = stageRate - publishRate;
+
+            final long timeToDrainNs;
+            if (backlog == 0L) {
+                timeToDrainNs = 0L;
+            } else if (drainRate > 0.0) {
+                timeToDrainNs = (long) Math.min(backlog / drainRate * 1e9, Long.MAX_VALUE - 1);
+            } else {
+                timeToDrainNs = Long.MAX_VALUE;
+            }
+
+            stages.add(new LagSample.StageLag(stageNames[i], position, backlog, backlogMessages, drainRate, timeToDrainNs));
+            lastStagePositions[i] = position;
+
+            if (backlogWordsCounters != null) {
+                backlogWordsCounters[i].setOrdered(backlog);
+                backlogMessagesCounters[i].setOrdered(backlogMessages);
+                timeToDrainCounters[i].setOrdered(timeToDrainNs == Long.MAX_VALUE ? -1L : timeToDrainNs / 1000L);
+            }
+        }
+
+        if (occupancyCounter != null) {
+            occupancyCounter.setOrdered(Math.round(occupancy * 1000.0));
+        }
+
+        final LagSample sample = new LagSample(nowNs, inbound, released, occupancy, publishRate, averageMessageSize, List.copyOf(stages));
+
+        lastSampleNs = nowNs;
+        lastInbound = inbound;
+        lastSample = sample;
+
+        checkThresholds(sample);
+
+        return sample;
+    }
+
+    /**
+     * @return latest sample, null if no samples taken yet
+     */
+    public LagSample getLastSample() {
+        return lastSample;
+    }
+
+    /**
+     * Stop monitor thread (after current sample is completed)
+     */
+    public void stop() {
+        running = false;
+    }
+
+    private void updateAverageMessageSize(final long inbound) {
+
+        if (inbound - walkPosition > bufferSize / 2) {
+            // too far behind publisher - start from current position
+            walkPosition = inbound;
+            return;
+        }
+
+        long position = walkPosition;
+        long messages = 0L;
+        long words = 0L;
+
+        while (position < inbound && messages < MAX_WALK_MESSAGES) {
+
+            final long index = position & indexMask;
+            if (index + headerSize > bufferSize) {
+                // tail shorter than a header is always padding until end of the buffer
+                position = (position | indexMask) + 1;
+                continue;
+            }
+
+            final long header1 = buffer.getLong(index);
+            if (header1 == 0L) {
+                // padding until end of the buffer
+                position = (position | indexMask) + 1;
+                continue;
+            }
+
+            final long messageSize = headerSize + (int) buffer.getLong(index + headerSize - 1);
+            if (messageSize < headerSize || position + messageSize > inbound) {
+                position = inbound;
+                break;
+            }
+
+            position += messageSize;
+            words += messageSize;
+            messages++;
+        }
+
+        walkPosition = position;
+
+        if (messages != 0L) {
+            final double size = (double) words / messages;
+            averageMessageSize = averageMessageSize == 0.0
+                    ? size
+                    : averageMessageSize * (1.0 - AVERAGE_SIZE_SMOOTHING) + size * AVERAGE_SIZE_SMOOTHING;
+        }
+    }
+
+    private void checkThresholds(final LagSample sample) {
+
+        final double occupancyThreshold = config.getRingOccupancyThreshold();
+        if (occupancyThreshold > 0.0) {
+            if (!occupancyAlarm && sample.getRingOccupancy() >= occupancyThreshold) {
+                occupancyAlarm = true;
+                listener.onRingOccupancy(sample);
+            } else if (occupancyAlarm && sample.getRingOccupancy() < occupancyThreshold / 2) {
+                occupancyAlarm = false;
+            }
+        }
+
+        final long backlogThreshold = config.getStageBacklogThreshold();
+        if (backlogThreshold > 0L) {
+            for (int i = 0; i < stagesNum; i++) {
+                final LagSample.StageLag stageLag = sample.getStages().get(i);
+                if (!backlogAlarms[i] && stageLag.getBacklogWords() >= backlogThreshold) {
+                    backlogAlarms[i] = true;
+                    listener.onStageBacklog(stageLag, sample);
+                } else if (backlogAlarms[i] && stageLag.getBacklogWords() < backlogThreshold / 2) {
+                    backlogAlarms[i] = false;
+                }
+            }
+        }
+    }
+}
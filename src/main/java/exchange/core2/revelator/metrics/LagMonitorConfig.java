@@ -0,0 +1,112 @@
+package exchange.core2.revelator.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+public final class LagMonitorConfig {
+
+    private final long intervalNs;
+    private final long stageBacklogThreshold;
+    private final double ringOccupancyThreshold;
+    private final ILagListener listener;
+
+    private LagMonitorConfig(final long intervalNs,
+                             final long stageBacklogThreshold,
+                             final double ringOccupancyThreshold,
+                             final ILagListener listener) {
+
+        this.intervalNs = intervalNs;
+        this.stageBacklogThreshold = stageBacklogThreshold;
+        this.ringOccupancyThreshold = ringOccupancyThreshold;
+        this.listener = listener;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public long getIntervalNs() {
+        return intervalNs;
+    }
+
+    /**
+     * @return stage backlog (words) triggering listener, 0 - disabled
+     */
+    public long getStageBacklogThreshold() {
+        return stageBacklogThreshold;
+    }
+
+    /**
+     * @return ring occupancy (0..1) triggering listener, 0 - disabled
+     */
+    public double getRingOccupancyThreshold() {
+        return ringOccupancyThreshold;
+    }
+
+    public ILagListener getListener() {
+        return listener;
+    }
+
+    @Override
+    public String toString() {
+        return "LagMonitorConfig{" +
+                "intervalNs=" + intervalNs +
+                ", stageBacklogThreshold=" + stageBacklogThreshold +
+                ", ringOccupancyThreshold=" + ringOccupancyThreshold +
+                '}';
+    }
+
+    public static final class Builder {
+
+        private long intervalNs = TimeUnit.MILLISECONDS.toNanos(10);
+        private long stageBacklogThreshold = 0L;
+        private double ringOccupancyThreshold = 0.0;
+        private ILagListener listener = new ILagListener() {
+        };
+
+        private Builder() {
+        }
+
+        /**
+         * @param interval sampling interval
+         */
+        public Builder interval(final long interval, final TimeUnit timeUnit) {
+            final long nanos = timeUnit.toNanos(interval);
+            if (nanos < 1) {
+                throw new IllegalArgumentException("interval should be positive");
+            }
+            this.intervalNs = nanos;
+            return this;
+        }
+
+        /**
+         * @param words stage backlog triggering ILagListener.onStageBacklog, 0 - disabled
+         */
+        public Builder stageBacklogThreshold(final long words) {
+            if (words < 0) {
+                throw new IllegalArgumentException("threshold should not be negative");
+            }
+            this.stageBacklogThreshold = words;
+            return this;
+        }
+
+        /**
+         * @param occupancy part of the ring (0..1) used by unreleased messages triggering ILagListener.onRingOccupancy, 0 - disabled
+         */
+        public Builder ringOccupancyThreshold(final double occupancy) {
+            if (occupancy < 0.0 || occupancy > 1.0) {
+                throw new IllegalArgumentException("occupancy should be in range [0, 1]");
+            }
+            this.ringOccupancyThreshold = occupancy;
+            return this;
+        }
+
+        public Builder listener(final ILagListener listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        public LagMonitorConfig build() {
+            return new LagMonitorConfig(intervalNs, stageBacklogThreshold, ringOccupancyThreshold, listener);
+        }
+    }
+}
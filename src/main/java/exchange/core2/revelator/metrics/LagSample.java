@@ -0,0 +1,170 @@
+package exchange.core2.revelator.metrics;
+
+import exchange.core2.revelator.utils.LatencyTools;
+
+import java.util.List;
+
+/**
+ * Single LagMonitor sample (immutable).
+ * Positions are global offsets in words, rates are measured between this and previous samples.
+ */
+public final class LagSample {
+
+    private final long timestampNs;
+    private final long inboundPosition;
+    private final long releasedPosition;
+    private final double ringOccupancy;
+    private final double publishRate;
+    private final double averageMessageSize;
+    private final List<StageLag> stages;
+
+    LagSample(final long timestampNs,
+              final long inboundPosition,
+              final long releasedPosition,
+              final double ringOccupancy,
+              final double publishRate,
+              final double averageMessageSize,
+              final List<StageLag> stages) {
+
+        this.timestampNs = timestampNs;
+        this.inboundPosition = inboundPosition;
+        this.releasedPosition = releasedPosition;
+        this.ringOccupancy = ringOccupancy;
+        this.publishRate = publishRate;
+        this.averageMessageSize = averageMessageSize;
+        this.stages = stages;
+    }
+
+    /**
+     * @return System.nanoTime() when sample was taken
+     */
+    public long getTimestampNs() {
+        return timestampNs;
+    }
+
+    /**
+     * @return published position (inbound fence)
+     */
+    public long getInboundPosition() {
+        return inboundPosition;
+    }
+
+    /**
+     * @return position released by the whole topology (publisher can not go further than this + buffer size)
+     */
+    public long getReleasedPosition() {
+        return releasedPosition;
+    }
+
+    /**
+     * @return part of the ring (0..1) occupied by unreleased messages
+     */
+    public double getRingOccupancy() {
+        return ringOccupancy;
+    }
+
+    /**
+     * @return words per second
+     */
+    public double getPublishRate() {
+        return publishRate;
+    }
+
+    /**
+     * @return recent average message size (words, including header), 0 if nothing was published yet
+     */
+    public double getAverageMessageSize() {
+        return averageMessageSize;
+    }
+
+    /**
+     * @return lag of every processor, in processors order
+     */
+    public List<StageLag> getStages() {
+        return stages;
+    }
+
+    @Override
+    public String toString() {
+        return "LagSample{" +
+                "inbound=" + inboundPosition +
+                ", released=" + releasedPosition +
+                ", occupancy=" + String.format("%.3f", ringOccupancy) +
+                ", publishRate=" + (long) publishRate +
+                ", stages=" + stages +
+                '}';
+    }
+
+    public static final class StageLag {
+
+        private final String name;
+        private final long position;
+        private final long backlogWords;
+        private final long backlogMessages;
+        private final double drainRate;
+        private final long timeToDrainNs;
+
+        StageLag(final String name,
+                 final long position,
+                 final long backlogWords,
+                 final long backlogMessages,
+                 final double drainRate,
+                 final long timeToDrainNs) {
+
+            this.name = name;
+            this.position = position;
+            this.backlogWords = backlogWords;
+            this.backlogMessages = backlogMessages;
+            this.drainRate = drainRate;
+            this.timeToDrainNs = timeToDrainNs;
+        }
+
+        /**
+         * @return processor thread name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return position released by the processor
+         */
+        public long getPosition() {
+            return position;
+        }
+
+        /**
+         * @return published but not yet released by the processor
+         */
+        public long getBacklogWords() {
+            return backlogWords;
+        }
+
+        /**
+         * @return backlog estimation based on recent average message size
+         */
+        public long getBacklogMessages() {
+            return backlogMessages;
+        }
+
+        /**
+         * @return backlog change rate (words per second), positive when processor is faster than publisher
+         */
+        public double getDrainRate() {
+            return drainRate;
+        }
+
+        /**
+         * @return expected time to process whole backlog at current rates, 0 if no backlog, Long.MAX_VALUE if backlog is not decreasing
+         */
+        public long getTimeToDrainNs() {
+            return timeToDrainNs;
+        }
+
+        @Override
+        public String toString() {
+            return name + "{backlog=" + backlogWords + "w/" + backlogMessages + "msg"
+                    + ", drain=" + (timeToDrainNs == Long.MAX_VALUE ? "never" : LatencyTools.formatNanos(timeToDrainNs)) + '}';
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package exchange.core2.revelator.metrics;
+
+import java.util.Arrays;
+
+/**
+ * Path of a single sampled message through the stages (collected by MessageTracer).
+ * Stages are in registration order, stages which did not process the message (yet) have -1 times.
+ */
+public final class MessageTrace {
+
+    private final long globalOffset;
+    private final long correlationId;
+    private final long timestamp;
+    private final long[] entryNs;
+    private final long[] exitNs;
+
+    MessageTrace(final long globalOffset,
+                 final long correlationId,
+                 final long timestamp,
+                 final int stagesNum) {
+
+        this.globalOffset = globalOffset;
+        this.correlationId = correlationId;
+        this.timestamp = timestamp;
+        this.entryNs = new long[stagesNum];
+        this.exitNs = new long[stagesNum];
+        Arrays.fill(entryNs, -1L);
+        Arrays.fill(exitNs, -1L);
+    }
+
+    void setStage(final int stageIdx, final long entry, final long exit) {
+        entryNs[stageIdx] = entry;
+        exitNs[stageIdx] = exit;
+    }
+
+    public long getGlobalOffset() {
+        return globalOffset;
+    }
+
+    public long getCorrelationId() {
+        return correlationId;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public int getStagesNum() {
+        return entryNs.length;
+    }
+
+    public boolean isTraced(final int stageIdx) {
+        return exitNs[stageIdx] != -1L;
+    }
+
+    public long getEntryNs(final int stageIdx) {
+        return entryNs[stageIdx];
+    }
+
+    public long getExitNs(final int stageIdx) {
+        return exitNs[stageIdx];
+    }
+
+    /**
+     * @return time spent inside the stage, -1 if not traced
+     */
+    public long getServiceTimeNs(final int stageIdx) {
+        return isTraced(stageIdx) ? exitNs[stageIdx] - entryNs[stageIdx] : -1L;
+    }
+
+    /**
+     * @return first entry of any stage, -1 if no stages traced
+     */
+    public long getFirstEntryNs() {
+        long first = Long.MAX_VALUE;
+        for (int i = 0; i < entryNs.length; i++) {
+            if (isTraced(i)) {
+                first = Math.min(first, entryNs[i]);
+            }
+        }
+        return first == Long.MAX_VALUE ? -1L : first;
+    }
+
+    /**
+     * @return last exit of any stage, -1 if no stages traced
+     */
+    public long getLastExitNs() {
+        long last = -1L;
+        for (final long exit : exitNs) {
+            last = Math.max(last, exit);
+        }
+        return last;
+    }
+
+    /**
+     * @return true if all stages processed the message
+     */
+    public boolean isComplete() {
+        for (int i = 0; i < exitNs.length; i++) {
+            if (!isTraced(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
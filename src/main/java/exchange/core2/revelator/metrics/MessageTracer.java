@@ -0,0 +1,176 @@
+package exchange.core2.revelator.metrics;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Sampled end-to-end tracing (enabled by RevelatorParameters.messageTracing).
+ * Messages with (correlationId &amp; (sampleRate - 1)) == 0 are traced: every stage records its entry and exit time
+ * into its own preallocated StageTraceRing. Collector joins records of all stages by message globalOffset,
+ * so slow messages can be broken down into time spent in each stage and between stages.
+ * <p>
+ * Processors check sampling condition with a single branch (sampleMask/sampleMatch never match when disabled).
+ */
+public final class MessageTracer {
+
+    private final long sampleMask;
+    private final int capacity;
+
+    private final List<StageTraceRing> stages = new ArrayList<>();
+
+    /**
+     * @param sampleRate trace 1 of sampleRate messages (2^N)
+     * @param capacity   traces kept per stage (2^N)
+     */
+    public MessageTracer(final int sampleRate, final int capacity) {
+
+        if (sampleRate < 1 || Integer.bitCount(sampleRate) != 1) {
+            throw new IllegalArgumentException("sampleRate must be 2^N");
+        }
+
+        if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be 2^N");
+        }
+
+        this.sampleMask = sampleRate - 1;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Message should be traced if (correlationId &amp; sampleMask) == sampleMatch
+     */
+    public static long sampleMask(final MessageTracer tracer) {
+        return tracer != null ? tracer.sampleMask : 0L;
+    }
+
+    /**
+     * Message should be traced if (correlationId &amp; sampleMask) == sampleMatch
+     */
+    public static long sampleMatch(final MessageTracer tracer) {
+        return tracer != null ? 0L : 1L;
+    }
+
+    /**
+     * Should be called while creating processors
+     */
+    public synchronized StageTraceRing registerStage(final String stageName) {
+        final StageTraceRing ring = new StageTraceRing(stageName, capacity);
+        stages.add(ring);
+        return ring;
+    }
+
+    public synchronized List<String> getStageNames() {
+        return stages.stream().map(StageTraceRing::getStageName).collect(Collectors.toList());
+    }
+
+    /**
+     * Join traces currently available in all stages rings (can be called while processors are running).
+     *
+     * @return traces ordered by globalOffset
+     */
+    public synchronized List<MessageTrace> collect() {
+
+        final int stagesNum = stages.size();
+        final Map<Long, MessageTrace> traces = new HashMap<>();
+        final long[] record = new long[StageTraceRing.RECORD_SIZE];
+
+        for (int stageIdx = 0; stageIdx < stagesNum; stageIdx++) {
+            final StageTraceRing ring = stages.get(stageIdx);
+            for (int slot = 0; slot < ring.getCapacity(); slot++) {
+                if (ring.read(slot, record)) {
+                    final MessageTrace trace = traces.computeIfAbsent(record[0], offset -> createTrace(offset, record, stagesNum));
+                    trace.setStage(stageIdx, record[3], record[4]);
+                }
+            }
+        }
+
+        return traces.values().stream()
+                .sorted(Comparator.comparingLong(MessageTrace::getGlobalOffset))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Write traces as CSV: offset, correlationId, timestamp, total time (first entry to last exit),
+     * then for each stage - its entry relative to first entry, and time spent in the stage (empty if not traced)
+     */
+    public void writeCsv(final List<MessageTrace> traces, final PrintStream out) {
+
+        final StringBuilder sb = new StringBuilder("globalOffset,correlationId,timestamp,total_ns");
+        for (final String stageName : getStageNames()) {
+            sb.append(',').append(stageName).append("_start_ns,").append(stageName).append("_service_ns");
+        }
+        out.println(sb);
+
+        for (final MessageTrace trace : traces) {
+            sb.setLength(0);
+            final long firstEntry = trace.getFirstEntryNs();
+            sb.append(trace.getGlobalOffset()).append(',')
+                    .append(trace.getCorrelationId()).append(',')
+                    .append(trace.getTimestamp()).append(',')
+                    .append(trace.getLastExitNs() - firstEntry);
+            for (int i = 0; i < trace.getStagesNum(); i++) {
+                sb.append(',');
+                if (trace.isTraced(i)) {
+                    sb.append(trace.getEntryNs(i) - firstEntry).append(',').append(trace.getServiceTimeNs(i));
+                } else {
+                    sb.append(',');
+                }
+            }
+            out.println(sb);
+        }
+        out.flush();
+    }
+
+    /**
+     * @return service time histogram of each stage, and 'total' histogram (first entry to last exit of complete traces)
+     */
+    public Map<String, Histogram> createHistograms(final List<MessageTrace> traces) {
+
+        final List<String> stageNames = getStageNames();
+        final Map<String, Histogram> histograms = new LinkedHashMap<>();
+        for (final String stageName : stageNames) {
+            histograms.put(stageName, createHistogram(stageName));
+        }
+        final Histogram total = createHistogram("total");
+
+        for (final MessageTrace trace : traces) {
+            for (int i = 0; i < trace.getStagesNum(); i++) {
+                if (trace.isTraced(i)) {
+                    histograms.get(stageNames.get(i)).recordValue(trace.getServiceTimeNs(i));
+                }
+            }
+            if (trace.isComplete()) {
+                total.recordValue(trace.getLastExitNs() - trace.getFirstEntryNs());
+            }
+        }
+
+        histograms.put("total", total);
+        return histograms;
+    }
+
+    /**
+     * Write histograms (see createHistograms) into HdrHistogram log, tagged with stage names
+     */
+    public void writeHistograms(final List<MessageTrace> traces, final HistogramLogWriter logWriter) {
+        createHistograms(traces).values().forEach(logWriter::outputIntervalHistogram);
+    }
+
+    private static Histogram createHistogram(final String tag) {
+        final Histogram histogram = new Histogram(3);
+        histogram.setTag(tag);
+        return histogram;
+    }
+
+    private static MessageTrace createTrace(final long globalOffset, final long[] record, final int stagesNum) {
+        return new MessageTrace(globalOffset, record[1], record[2], stagesNum);
+    }
+}
@@ -0,0 +1,39 @@
+package exchange.core2.revelator.metrics;
+
+import org.agrona.concurrent.status.AtomicCounter;
+
+/**
+ * Common counters of a processor. Processor accumulates values in its own fields
+ * and publishes them from time to time (single writer, ordered stores only).
+ */
+public final class ProcessorCounters {
+
+    private final AtomicCounter messages;
+    private final AtomicCounter batches;
+    private final AtomicCounter maxBatchSize;
+    private final AtomicCounter idleSpins;
+
+    public ProcessorCounters(final RevelatorCounters counters, final String processorName) {
+        this.messages = counters.newCounter(processorName + " messages", RevelatorCounters.TYPE_PROCESSOR);
+        this.batches = counters.newCounter(processorName + " batches", RevelatorCounters.TYPE_PROCESSOR);
+        this.maxBatchSize = counters.newCounter(processorName + " max batch size", RevelatorCounters.TYPE_PROCESSOR);
+        this.idleSpins = counters.newCounter(processorName + " idle spins", RevelatorCounters.TYPE_PROCESSOR);
+    }
+
+    /**
+     * @param messagesTotal  messages processed since start
+     * @param batchesTotal   batches received since start
+     * @param maxBatch       largest batch (messages)
+     * @param idleSpinsTotal unsuccessful waits for new messages since start
+     */
+    public void update(final long messagesTotal,
+                       final long batchesTotal,
+                       final long maxBatch,
+                       final long idleSpinsTotal) {
+
+        messages.setOrdered(messagesTotal);
+        batches.setOrdered(batchesTotal);
+        maxBatchSize.setOrdered(maxBatch);
+        idleSpins.setOrdered(idleSpinsTotal);
+    }
+}
@@ -0,0 +1,116 @@
+package exchange.core2.revelator.metrics;
+
+import org.agrona.IoUtil;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.agrona.concurrent.status.AtomicCounter;
+import org.agrona.concurrent.status.CountersManager;
+import org.agrona.concurrent.status.CountersReader;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Counters of publisher and processors in a memory-mapped file, so they can be read live by another process
+ * (see CountersPrinter) without any interaction with Revelator threads.
+ * <p>
+ * File layout: header (version, metadata length, values length), Agrona counters metadata, counters values.
+ * Each counter has single writer, which updates it with ordered store (no fences on the hot path),
+ * usually once per batch, so values are slightly behind in-process state.
+ * Counters are monotonic (except maximums and gauges) - readers should calculate deltas themselves.
+ */
+public final class RevelatorCounters implements AutoCloseable {
+
+    public static final int FILE_VERSION = 1;
+
+    public static final int DEFAULT_MAX_COUNTERS = 1024;
+
+    // counter type ids
+    public static final int TYPE_PUBLISHER = 1;
+    public static final int TYPE_PROCESSOR = 2;
+    public static final int TYPE_STAGE = 3;
+    public static final int TYPE_MONITOR = 4;
+
+    private static final int HEADER_LENGTH = 128;
+    private static final int VERSION_OFFSET = 0;
+    private static final int METADATA_LENGTH_OFFSET = 4;
+    private static final int VALUES_LENGTH_OFFSET = 8;
+
+    private final MappedByteBuffer mappedBuffer;
+    private final CountersManager countersManager;
+
+    private RevelatorCounters(final MappedByteBuffer mappedBuffer, final CountersManager countersManager) {
+        this.mappedBuffer = mappedBuffer;
+        this.countersManager = countersManager;
+    }
+
+    /**
+     * Create new counters file (existing file is overwritten)
+     */
+    public static RevelatorCounters create(final Path file, final int maxCounters) {
+
+        final int metadataLength = maxCounters * CountersReader.METADATA_LENGTH;
+        final int valuesLength = maxCounters * CountersReader.COUNTER_LENGTH;
+
+        try {
+            // mapNewFile refuses to open existing file (e.g. left by previous run)
+            Files.deleteIfExists(file);
+        } catch (final IOException ex) {
+            throw new UncheckedIOException("Can not delete existing counters file " + file, ex);
+        }
+
+        final MappedByteBuffer mappedBuffer = IoUtil.mapNewFile(file.toFile(), HEADER_LENGTH + metadataLength + valuesLength);
+
+        final UnsafeBuffer header = new UnsafeBuffer(mappedBuffer, 0, HEADER_LENGTH);
+        header.putInt(METADATA_LENGTH_OFFSET, metadataLength);
+        header.putInt(VALUES_LENGTH_OFFSET, valuesLength);
+        header.putIntOrdered(VERSION_OFFSET, FILE_VERSION);
+
+        final CountersManager countersManager = new CountersManager(
+                new UnsafeBuffer(mappedBuffer, HEADER_LENGTH, metadataLength),
+                new UnsafeBuffer(mappedBuffer, HEADER_LENGTH + metadataLength, valuesLength));
+
+        return new RevelatorCounters(mappedBuffer, countersManager);
+    }
+
+    /**
+     * Map counters reader over existing counters file.
+     * Mapping is kept until buffer is garbage collected.
+     */
+    public static CountersReader mapReader(final Path file) {
+
+        final MappedByteBuffer mappedBuffer = IoUtil.mapExistingFile(file.toFile(), "revelator counters");
+
+        final UnsafeBuffer header = new UnsafeBuffer(mappedBuffer, 0, HEADER_LENGTH);
+        final int version = header.getIntVolatile(VERSION_OFFSET);
+        if (version != FILE_VERSION) {
+            IoUtil.unmap(mappedBuffer);
+            throw new IllegalStateException("Unsupported counters file version: " + version + " (expected " + FILE_VERSION + ")");
+        }
+
+        final int metadataLength = header.getInt(METADATA_LENGTH_OFFSET);
+        final int valuesLength = header.getInt(VALUES_LENGTH_OFFSET);
+
+        return new CountersReader(
+                new UnsafeBuffer(mappedBuffer, HEADER_LENGTH, metadataLength),
+                new UnsafeBuffer(mappedBuffer, HEADER_LENGTH + metadataLength, valuesLength));
+    }
+
+    /**
+     * Allocate new counter. Should be called while creating processors (not thread-safe).
+     */
+    public AtomicCounter newCounter(final String label, final int typeId) {
+        return countersManager.newCounter(label, typeId);
+    }
+
+    public CountersReader getReader() {
+        return countersManager;
+    }
+
+    @Override
+    public void close() {
+        IoUtil.unmap(mappedBuffer);
+    }
+}
@@ -0,0 +1,63 @@
+package exchange.core2.revelator.metrics;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-stage latency recorders of all processors of a Revelator instance (enabled by RevelatorParameters.stageLatency).
+ * Each processor registers its recorders when created, then periodically some reporting thread
+ * takes interval histograms or writes them into HdrHistogram interval log (one tagged histogram per stage).
+ * <p>
+ * Latency of the stage is measured from message publishing, so it includes all preceding stages -
+ * the stage responsible for tail latency is the one where percentile jumps.
+ */
+public final class StageLatencyHistograms {
+
+    private final List<StageLatencyRecorder> recorders = new ArrayList<>();
+
+    /**
+     * @param processorName unique processor name (see RevelatorConfig.createProcessorName)
+     * @param stages        number of stages of the processor (1 for simple processors)
+     * @return recorders in stages order, named like 'simple-0' or 'pipelined-1.2'
+     */
+    public synchronized StageLatencyRecorder[] register(final String processorName, final int stages) {
+
+        final StageLatencyRecorder[] registered = new StageLatencyRecorder[stages];
+        for (int i = 0; i < stages; i++) {
+            final String stageName = stages == 1 ? processorName : processorName + "." + i;
+            registered[i] = new StageLatencyRecorder(stageName);
+            recorders.add(registered[i]);
+        }
+        return registered;
+    }
+
+    public synchronized List<StageLatencyRecorder> getRecorders() {
+        return new ArrayList<>(recorders);
+    }
+
+    /**
+     * @return interval histograms of all stages by stage name (reused by next call)
+     */
+    public synchronized Map<String, Histogram> getIntervalHistograms() {
+        final Map<String, Histogram> histograms = new LinkedHashMap<>();
+        for (final StageLatencyRecorder recorder : recorders) {
+            histograms.put(recorder.getStageName(), recorder.getIntervalHistogram());
+        }
+        return histograms;
+    }
+
+    /**
+     * Write interval histograms of all stages into the log, each histogram is tagged with stage name.
+     * Writer should be initialized by caller (format version, start time, legend).
+     */
+    public synchronized void writeIntervalHistograms(final HistogramLogWriter logWriter) {
+        for (final StageLatencyRecorder recorder : recorders) {
+            logWriter.outputIntervalHistogram(recorder.getIntervalHistogram());
+        }
+    }
+}
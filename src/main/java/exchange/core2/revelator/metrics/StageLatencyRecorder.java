@@ -0,0 +1,52 @@
+package exchange.core2.revelator.metrics;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.SingleWriterRecorder;
+
+/**
+ * Time from message publishing (header timestamp, System.nanoTime() of the publisher) until stage processed it.
+ * Recorded by single processor thread only, interval histograms can be taken from any thread.
+ */
+public final class StageLatencyRecorder {
+
+    private static final long HIGHEST_TRACKABLE_VALUE = Integer.MAX_VALUE;
+
+    private final String stageName;
+    private final SingleWriterRecorder recorder = new SingleWriterRecorder(HIGHEST_TRACKABLE_VALUE, 2);
+
+    private Histogram intervalHistogram;
+
+    StageLatencyRecorder(final String stageName) {
+        this.stageName = stageName;
+    }
+
+    /**
+     * Called from processor thread after message is processed (allocation-free)
+     *
+     * @param timestamp message header timestamp
+     */
+    public void record(final long timestamp) {
+        final long latency = System.nanoTime() - timestamp;
+        if (latency >= 0) {
+            recorder.recordValue(Math.min(latency, HIGHEST_TRACKABLE_VALUE));
+        }
+    }
+
+    /**
+     * Latencies recorded since previous call. Returned histogram is reused by next call.
+     */
+    public synchronized Histogram getIntervalHistogram() {
+        intervalHistogram = recorder.getIntervalHistogram(intervalHistogram);
+        intervalHistogram.setTag(stageName);
+        return intervalHistogram;
+    }
+
+    public String getStageName() {
+        return stageName;
+    }
+
+    @Override
+    public String toString() {
+        return "StageLatencyRecorder{" + stageName + '}';
+    }
+}
@@ -0,0 +1,88 @@
+package exchange.core2.revelator.metrics;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Preallocated ring of sampled messages traces of a single stage. Written by processor thread only (allocation-free),
+ * old records are overwritten. Records are read by MessageTracer using seqlock-like validation of the record key.
+ */
+public final class StageTraceRing {
+
+    static final int RECORD_SIZE = 5; // key (globalOffset), correlationId, timestamp, entryNs, exitNs
+
+    private static final long INVALID_KEY = -1L;
+
+    private static final VarHandle RECORDS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final String stageName;
+    private final long[] records;
+    private final int mask;
+
+    private long cursor = 0L;
+
+    StageTraceRing(final String stageName, final int capacity) {
+        this.stageName = stageName;
+        this.records = new long[capacity * RECORD_SIZE];
+        this.mask = capacity - 1;
+        for (int i = 0; i < capacity; i++) {
+            records[i * RECORD_SIZE] = INVALID_KEY;
+        }
+    }
+
+    /**
+     * @param globalOffset  message end offset (key joining records of different stages)
+     * @param correlationId message correlationId
+     * @param timestamp     message header timestamp
+     * @param entryNs       System.nanoTime() when stage started processing
+     * @param exitNs        System.nanoTime() when stage completed processing
+     */
+    public void record(final long globalOffset,
+                       final long correlationId,
+                       final long timestamp,
+                       final long entryNs,
+                       final long exitNs) {
+
+        final int base = (int) (cursor++ & mask) * RECORD_SIZE;
+
+        records[base] = INVALID_KEY;
+        VarHandle.storeStoreFence();
+        records[base + 1] = correlationId;
+        records[base + 2] = timestamp;
+        records[base + 3] = entryNs;
+        records[base + 4] = exitNs;
+        RECORDS.setRelease(records, base, globalOffset);
+    }
+
+    String getStageName() {
+        return stageName;
+    }
+
+    int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Copy record into target array (RECORD_SIZE words)
+     *
+     * @return false if slot is empty or was modified while reading
+     */
+    boolean read(final int slot, final long[] target) {
+
+        final int base = slot * RECORD_SIZE;
+
+        final long key = (long) RECORDS.getAcquire(records, base);
+        if (key == INVALID_KEY) {
+            return false;
+        }
+
+        target[0] = key;
+        target[1] = records[base + 1];
+        target[2] = records[base + 2];
+        target[3] = records[base + 3];
+        target[4] = records[base + 4];
+
+        VarHandle.loadLoadFence();
+        return (long) RECORDS.getAcquire(records, base) == key;
+    }
+}
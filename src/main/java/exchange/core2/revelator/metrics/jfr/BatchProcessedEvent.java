@@ -0,0 +1,28 @@
+package exchange.core2.revelator.metrics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Batch of messages processed by a processor (event duration - from first message to releasing the batch)
+ */
+@Name("exchange.core2.revelator.BatchProcessed")
+@Label("Batch Processed")
+@Category("Revelator")
+@Description("Batch of messages handled and released by a processor")
+@StackTrace(false)
+public final class BatchProcessedEvent extends jdk.jfr.Event {
+
+    @Label("Processor")
+    public String processor;
+
+    @Label("Messages")
+    public long messages;
+
+    @Label("Words")
+    @Description("Batch size in 8-byte words, including headers and padding")
+    public long words;
+}
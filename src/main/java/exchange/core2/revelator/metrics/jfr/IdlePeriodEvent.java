@@ -0,0 +1,31 @@
+package exchange.core2.revelator.metrics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Processor was waiting for new messages at least JfrEventsEmitter.IDLE_THRESHOLD_NS.
+ * Committed when the wait is over (event is created only for long waits), idleTime holds its length.
+ */
+@Name("exchange.core2.revelator.IdlePeriod")
+@Label("Idle Period")
+@Category("Revelator")
+@Description("Processor waiting for new messages")
+@StackTrace(false)
+public final class IdlePeriodEvent extends jdk.jfr.Event {
+
+    @Label("Processor")
+    public String processor;
+
+    @Label("Idle Time")
+    @Timespan(Timespan.NANOSECONDS)
+    public long idleTime;
+
+    @Label("Spins")
+    @Description("Wait strategy polls which did not find new messages")
+    public long spins;
+}
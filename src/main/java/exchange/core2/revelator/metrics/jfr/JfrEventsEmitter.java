@@ -0,0 +1,185 @@
+package exchange.core2.revelator.metrics.jfr;
+
+import jdk.jfr.EventType;
+
+/**
+ * Emits Revelator JFR events on behalf of a single processor (or publisher), enabled by RevelatorParameters.jfrEvents.
+ * Each event type is rate-limited independently, so a busy processor can not flood the recording.
+ * <p>
+ * Events are allocated only when JFR recording has the event type enabled and rate limit allows,
+ * otherwise begin methods return null (no allocation, no timestamps).
+ * Idle periods are timed by the emitter, and the rate limit is only checked for periods above IDLE_THRESHOLD_NS.
+ * Processors keep emitter field null if JFR events are disabled, so disabled cost is a null check.
+ * <p>
+ * Not thread-safe: publisher emitter can be shared by producer threads in multi-producer mode -
+ * racing on rate limiter state may only let few extra events through.
+ */
+public final class JfrEventsEmitter {
+
+    public static final long NOT_RECORDING = Long.MIN_VALUE;
+
+    // idle periods shorter than this are not reported
+    public static final long IDLE_THRESHOLD_NS = 100_000L;
+
+    private static final EventType BATCH_PROCESSED = EventType.getEventType(BatchProcessedEvent.class);
+    private static final EventType IDLE_PERIOD = EventType.getEventType(IdlePeriodEvent.class);
+    private static final EventType STAGE_MISSES = EventType.getEventType(StageMissesEvent.class);
+    private static final EventType TAIL_STRIKE = EventType.getEventType(TailStrikeEvent.class);
+
+    private final String source;
+    private final long minIntervalNs;
+
+    private long nextBatchNs = 0L;
+    private long nextIdleNs = 0L;
+    private long nextMissesNs = 0L;
+    private long nextTailStrikeNs = 0L;
+
+    // stage misses events: names and counters reported by previous event
+    private String[] stageNames;
+    private long[] reportedMisses;
+    private long[] reportedHits;
+    private long reportedNs;
+
+    /**
+     * @param source             processor name
+     * @param maxEventsPerSecond rate limit per event type
+     */
+    public JfrEventsEmitter(final String source, final int maxEventsPerSecond) {
+
+        if (maxEventsPerSecond <= 0) {
+            throw new IllegalArgumentException("maxEventsPerSecond must be > 0");
+        }
+
+        this.source = source;
+        this.minIntervalNs = 1_000_000_000L / maxEventsPerSecond;
+    }
+
+    /**
+     * @return started event, or null if disabled or rate-limited
+     */
+    public BatchProcessedEvent beginBatch() {
+        if (!BATCH_PROCESSED.isEnabled()) {
+            return null;
+        }
+        final long now = System.nanoTime();
+        if (now < nextBatchNs) {
+            return null;
+        }
+        nextBatchNs = now + minIntervalNs;
+        final BatchProcessedEvent event = new BatchProcessedEvent();
+        event.begin();
+        return event;
+    }
+
+    public void commitBatch(final BatchProcessedEvent event, final long messages, final long words) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.processor = source;
+            event.messages = messages;
+            event.words = words;
+            event.commit();
+        }
+    }
+
+    /**
+     * @return idle period start time, or NOT_RECORDING if idle events are disabled
+     */
+    public long beginIdle() {
+        return IDLE_PERIOD.isEnabled() ? System.nanoTime() : NOT_RECORDING;
+    }
+
+    /**
+     * Short idle periods are ignored without allocation and without using rate limit,
+     * so long stalls are still recorded under load.
+     *
+     * @param idleStartNs value returned by beginIdle
+     * @param spins       wait strategy polls which did not find new messages
+     */
+    public void commitIdle(final long idleStartNs, final long spins) {
+        if (idleStartNs == NOT_RECORDING) {
+            return;
+        }
+        final long now = System.nanoTime();
+        final long idleTime = now - idleStartNs;
+        if (idleTime < IDLE_THRESHOLD_NS || now < nextIdleNs) {
+            return;
+        }
+        nextIdleNs = now + minIntervalNs;
+        final IdlePeriodEvent event = new IdlePeriodEvent();
+        event.processor = source;
+        event.idleTime = idleTime;
+        event.spins = spins;
+        event.commit();
+    }
+
+    /**
+     * @return started event, or null if disabled or rate-limited
+     */
+    public TailStrikeEvent beginTailStrike() {
+        if (!TAIL_STRIKE.isEnabled()) {
+            return null;
+        }
+        final long now = System.nanoTime();
+        if (now < nextTailStrikeNs) {
+            return null;
+        }
+        nextTailStrikeNs = now + minIntervalNs;
+        final TailStrikeEvent event = new TailStrikeEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * @param ringOccupancy  unreleased fraction of the ring buffer (0..1)
+     * @param wordsToRelease words processors had to release before the claim could proceed
+     */
+    public void commitTailStrike(final TailStrikeEvent event, final double ringOccupancy, final long wordsToRelease) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.ringOccupancy = ringOccupancy;
+            event.wordsToRelease = wordsToRelease;
+            event.commit();
+        }
+    }
+
+    /**
+     * Report misses of stages which were missing since previous report (cumulative counters, indexed by stage)
+     */
+    public void emitStageMisses(final long[] missCounters, final long[] hitCounters) {
+        if (!STAGE_MISSES.isEnabled()) {
+            return;
+        }
+        final long now = System.nanoTime();
+        if (now < nextMissesNs) {
+            return;
+        }
+        nextMissesNs = now + minIntervalNs;
+
+        if (stageNames == null) {
+            // first call - start reporting period
+            stageNames = new String[missCounters.length];
+            for (int i = 0; i < stageNames.length; i++) {
+                stageNames[i] = source + "." + i;
+            }
+            reportedMisses = missCounters.clone();
+            reportedHits = hitCounters.clone();
+            reportedNs = now;
+            return;
+        }
+
+        for (int i = 0; i < missCounters.length; i++) {
+            final long misses = missCounters[i] - reportedMisses[i];
+            if (misses != 0) {
+                final StageMissesEvent event = new StageMissesEvent();
+                event.stage = stageNames[i];
+                event.misses = misses;
+                event.hits = hitCounters[i] - reportedHits[i];
+                event.period = now - reportedNs;
+                event.commit();
+            }
+            reportedMisses[i] = missCounters[i];
+            reportedHits[i] = hitCounters[i];
+        }
+        reportedNs = now;
+    }
+}
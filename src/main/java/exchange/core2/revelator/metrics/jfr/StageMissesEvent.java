@@ -0,0 +1,32 @@
+package exchange.core2.revelator.metrics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Pipelined stage misses (stage was not ready to process message) accumulated since previous event of the same stage
+ */
+@Name("exchange.core2.revelator.StageMisses")
+@Label("Stage Misses")
+@Category("Revelator")
+@Description("Pipelined stage misses and hits since previous event")
+@StackTrace(false)
+public final class StageMissesEvent extends jdk.jfr.Event {
+
+    @Label("Stage")
+    public String stage;
+
+    @Label("Misses")
+    public long misses;
+
+    @Label("Hits")
+    public long hits;
+
+    @Label("Period")
+    @Timespan(Timespan.NANOSECONDS)
+    public long period;
+}
@@ -0,0 +1,28 @@
+package exchange.core2.revelator.metrics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Percentage;
+import jdk.jfr.StackTrace;
+
+/**
+ * Publisher waiting for processors to free ring buffer space (event duration - waiting time)
+ */
+@Name("exchange.core2.revelator.TailStrike")
+@Label("Tail Strike")
+@Category("Revelator")
+@Description("Publisher blocked because ring buffer is full")
+@StackTrace(false)
+public final class TailStrikeEvent extends jdk.jfr.Event {
+
+    @Label("Ring Occupancy")
+    @Description("Unreleased part of the ring buffer when publisher started waiting")
+    @Percentage
+    public double ringOccupancy;
+
+    @Label("Words To Release")
+    @Description("Words processors had to release before the claim could proceed")
+    public long wordsToRelease;
+}
@@ -1,25 +1,58 @@
 package exchange.core2.revelator.processors;
 
+import exchange.core2.revelator.RevelatorConfig;
 import exchange.core2.revelator.fences.AggregatingMinFence;
 import exchange.core2.revelator.fences.IFence;
+import exchange.core2.revelator.fences.MinFenceTree;
 import exchange.core2.revelator.fences.SingleWriterFence;
+import exchange.core2.revelator.processors.elastic.ElasticFlowProcessor;
+import exchange.core2.revelator.processors.journal.JournalConfig;
+import exchange.core2.revelator.processors.journal.JournalingFlowProcessor;
+import exchange.core2.revelator.processors.pipelined.PipelinedFlowProcessor;
+import exchange.core2.revelator.processors.pipelined.PipelinedFlowSession;
+import exchange.core2.revelator.processors.pipelined.PipelinedStageHandler;
+import exchange.core2.revelator.processors.pipelined.SchedulingMode;
 import exchange.core2.revelator.processors.simple.SimpleFlowProcessor;
 import exchange.core2.revelator.processors.simple.SimpleMessageHandler;
+import exchange.core2.revelator.waitstrategies.WaitStrategyType;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.function.LongToIntFunction;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 public class ProcessorsFactories {
 
     public static IFlowProcessorsFactory single(final SimpleMessageHandler handler) {
+        return single(handler, null);
+    }
+
+    /**
+     * @param waitStrategyType processor wait strategy, null - use RevelatorParameters default
+     */
+    public static IFlowProcessorsFactory single(final SimpleMessageHandler handler,
+                                                final WaitStrategyType waitStrategyType) {
+
+        return single(handler, waitStrategyType, ReleasePolicy.BATCH_END);
+    }
+
+    /**
+     * @param waitStrategyType processor wait strategy, null - use RevelatorParameters default
+     * @param releasePolicy    when to release processed messages inside a large batch
+     */
+    public static IFlowProcessorsFactory single(final SimpleMessageHandler handler,
+                                                final WaitStrategyType waitStrategyType,
+                                                final ReleasePolicy releasePolicy) {
 
         return (inboundFence, config) -> {
             final SimpleFlowProcessor simpleFlowProcessor = new SimpleFlowProcessor(
                     handler,
                     inboundFence,
-                    config);
+                    config,
+                    resolve(waitStrategyType, config),
+                    releasePolicy);
 
             return new IFlowProcessorsFactory.ProcessorsChain(
                     List.of(simpleFlowProcessor),
@@ -28,6 +61,14 @@ public class ProcessorsFactories {
     }
 
     public static IFlowProcessorsFactory parallel(final Collection<SimpleMessageHandler> handlers) {
+        return parallel(handlers, null);
+    }
+
+    /**
+     * @param waitStrategyType processors wait strategy, null - use RevelatorParameters default
+     */
+    public static IFlowProcessorsFactory parallel(final Collection<SimpleMessageHandler> handlers,
+                                                  final WaitStrategyType waitStrategyType) {
 
         return (inboundFence, config) -> {
 
@@ -36,7 +77,8 @@ public class ProcessorsFactories {
                     .map(handler -> new SimpleFlowProcessor(
                             handler,
                             inboundFence,
-                            config))
+                            config,
+                            resolve(waitStrategyType, config)))
                     .collect(Collectors.toList());
 
             // preparing releasing fences
@@ -51,6 +93,25 @@ public class ProcessorsFactories {
     }
 
     public static IFlowProcessorsFactory chain(final List<SimpleMessageHandler> handlers) {
+        return chain(handlers, null);
+    }
+
+    /**
+     * @param waitStrategyType processors wait strategy, null - use RevelatorParameters default
+     */
+    public static IFlowProcessorsFactory chain(final List<SimpleMessageHandler> handlers,
+                                               final WaitStrategyType waitStrategyType) {
+
+        return chain(handlers, waitStrategyType, ReleasePolicy.BATCH_END);
+    }
+
+    /**
+     * @param waitStrategyType processors wait strategy, null - use RevelatorParameters default
+     * @param releasePolicy    when processors release messages to the next processor inside a large batch
+     */
+    public static IFlowProcessorsFactory chain(final List<SimpleMessageHandler> handlers,
+                                               final WaitStrategyType waitStrategyType,
+                                               final ReleasePolicy releasePolicy) {
 
         return (inboundFence, config) -> {
 
@@ -62,7 +123,9 @@ public class ProcessorsFactories {
                 final SimpleFlowProcessor processor = new SimpleFlowProcessor(
                         handler,
                         lastFence,
-                        config);
+                        config,
+                        resolve(waitStrategyType, config),
+                        releasePolicy);
 
                 processors.add(processor);
 
@@ -75,4 +138,340 @@ public class ProcessorsFactories {
         };
     }
 
+    public static IFlowProcessorsFactory sharded(final LongToIntFunction shardFunction,
+                                                 final List<SimpleMessageHandler> handlers) {
+        return sharded(shardFunction, handlers, (WaitStrategyType) null);
+    }
+
+    /**
+     * Parallel workers sharing the same ring, each handler only receives messages of its own shard
+     * (control messages are received by all shards). Messages of the same shard are processed in order.
+     * Produced chain is ShardedProcessorsChain.
+     *
+     * @param shardFunction    maps correlationId into shard number (0..handlers.size()-1)
+     * @param waitStrategyType processors wait strategy, null - use RevelatorParameters default
+     */
+    public static IFlowProcessorsFactory sharded(final LongToIntFunction shardFunction,
+                                                 final List<SimpleMessageHandler> handlers,
+                                                 final WaitStrategyType waitStrategyType) {
+
+        return sharded(shardFunction, handlers, waitStrategyType, 0);
+    }
+
+    /**
+     * Sharded workers with configurable aggregation of releasing fence.
+     * With many shards (wide fan-in) followers can read a single MinFenceTree root maintained by the shards,
+     * instead of reading every shard fence on each poll.
+     *
+     * @param shardFunction    maps correlationId into shard number (0..handlers.size()-1)
+     * @param waitStrategyType processors wait strategy, null - use RevelatorParameters default
+     * @param treeFanOut       MinFenceTree group size, 0 - linear AggregatingMinFence
+     */
+    public static IFlowProcessorsFactory sharded(final LongToIntFunction shardFunction,
+                                                 final List<SimpleMessageHandler> handlers,
+                                                 final WaitStrategyType waitStrategyType,
+                                                 final int treeFanOut) {
+
+        return (inboundFence, config) -> createShards(shardFunction, handlers, waitStrategyType, treeFanOut, inboundFence, config);
+    }
+
+    /**
+     * Sharded workers followed by single handler, which handles each message as soon as shard owning it has processed it
+     * (not waiting for other shards)
+     *
+     * @param shardFunction    maps correlationId into shard number (0..handlers.size()-1)
+     * @param waitStrategyType processors wait strategy, null - use RevelatorParameters default
+     */
+    public static IFlowProcessorsFactory sharded(final LongToIntFunction shardFunction,
+                                                 final List<SimpleMessageHandler> handlers,
+                                                 final SimpleMessageHandler nextHandler,
+                                                 final WaitStrategyType waitStrategyType) {
+
+        return (inboundFence, config) -> {
+
+            final ShardedProcessorsChain shards = createShards(shardFunction, handlers, waitStrategyType, 0, inboundFence, config);
+
+            // reading headers right after publishing, handling after owning shard
+            final SimpleFlowProcessor nextProcessor = new SimpleFlowProcessor(
+                    nextHandler,
+                    inboundFence,
+                    shards.createShardedFence(),
+                    config,
+                    resolve(waitStrategyType, config));
+
+            final List<IFlowProcessor> processors = new ArrayList<>(shards.getProcessors());
+            processors.add(nextProcessor);
+
+            // lagging shards can still be reading headers released by next processor
+            return new IFlowProcessorsFactory.ProcessorsChain(
+                    processors,
+                    new AggregatingMinFence(new IFence[]{nextProcessor.getReleasingFence(), shards.getReleasingFence()}));
+        };
+    }
+
+    private static ShardedProcessorsChain createShards(final LongToIntFunction shardFunction,
+                                                      final List<SimpleMessageHandler> handlers,
+                                                      final WaitStrategyType waitStrategyType,
+                                                      final int treeFanOut,
+                                                      final IFence inboundFence,
+                                                      final RevelatorConfig config) {
+
+        final List<IFlowProcessor> processors = new ArrayList<>();
+        final SingleWriterFence[] shardFences = new SingleWriterFence[handlers.size()];
+
+        for (int shardId = 0; shardId < handlers.size(); shardId++) {
+
+            final SimpleFlowProcessor processor = new SimpleFlowProcessor(
+                    handlers.get(shardId),
+                    inboundFence,
+                    config,
+                    resolve(waitStrategyType, config),
+                    shardFunction,
+                    shardId);
+
+            processors.add(processor);
+            shardFences[shardId] = processor.getReleasingFence();
+        }
+
+        final IFence releasingFence = treeFanOut > 0
+                ? new MinFenceTree(List.of(shardFences), treeFanOut)
+                : new AggregatingMinFence(shardFences);
+
+        return new ShardedProcessorsChain(processors, shardFences, shardFunction, releasingFence);
+    }
+
+    public static IFlowProcessorsFactory elastic(final List<SimpleMessageHandler> handlers,
+                                                 final long lagThreshold) {
+        return elastic(handlers, lagThreshold, ElasticFlowProcessor.DEFAULT_SLICE_MESSAGES, null);
+    }
+
+    /**
+     * Elastic stage: core worker (first handler) always runs, spike workers (remaining handlers) are woken up
+     * only when stage lag exceeds lagThreshold. Messages order is not preserved.
+     *
+     * @param lagThreshold     lag (in words) between inbound and releasing fences which wakes up spike workers
+     * @param sliceMessages    maximum number of messages taken by a worker at once
+     * @param waitStrategyType core worker wait strategy, null - use RevelatorParameters default
+     */
+    public static IFlowProcessorsFactory elastic(final List<SimpleMessageHandler> handlers,
+                                                 final long lagThreshold,
+                                                 final int sliceMessages,
+                                                 final WaitStrategyType waitStrategyType) {
+
+        return (inboundFence, config) -> {
+            final ElasticFlowProcessor elasticFlowProcessor = new ElasticFlowProcessor(
+                    handlers,
+                    inboundFence,
+                    config,
+                    resolve(waitStrategyType, config),
+                    lagThreshold,
+                    sliceMessages);
+
+            return new IFlowProcessorsFactory.ProcessorsChain(
+                    elasticFlowProcessor.getWorkers(),
+                    elasticFlowProcessor.getReleasingFence());
+        };
+    }
+
+    public static <S extends PipelinedFlowSession> IFlowProcessorsFactory pipelined(
+            final List<PipelinedStageHandler<S>> handlers,
+            final Supplier<S> sessionsFactory) {
+
+        return pipelined(handlers, sessionsFactory, PipelinedFlowProcessor.DEFAULT_PIPELINE_SIZE, null);
+    }
+
+    /**
+     * Single PipelinedFlowProcessor running all stages in one thread
+     *
+     * @param pipelineSize     maximum number of sessions in flight (must be power of 2)
+     * @param waitStrategyType processor wait strategy, null - use RevelatorParameters default
+     */
+    public static <S extends PipelinedFlowSession> IFlowProcessorsFactory pipelined(
+            final List<PipelinedStageHandler<S>> handlers,
+            final Supplier<S> sessionsFactory,
+            final int pipelineSize,
+            final WaitStrategyType waitStrategyType) {
+
+        return pipelined(handlers, sessionsFactory, pipelineSize, SchedulingMode.STATIC, waitStrategyType);
+    }
+
+    /**
+     * Single PipelinedFlowProcessor running all stages in one thread
+     *
+     * @param pipelineSize     maximum number of sessions in flight (must be power of 2)
+     * @param schedulingMode   static or adaptive stage work weights
+     * @param waitStrategyType processor wait strategy, null - use RevelatorParameters default
+     */
+    public static <S extends PipelinedFlowSession> IFlowProcessorsFactory pipelined(
+            final List<PipelinedStageHandler<S>> handlers,
+            final Supplier<S> sessionsFactory,
+            final int pipelineSize,
+            final SchedulingMode schedulingMode,
+            final WaitStrategyType waitStrategyType) {
+
+        return pipelined(handlers, sessionsFactory, pipelineSize, schedulingMode, ReleasePolicy.BATCH_END, waitStrategyType);
+    }
+
+    /**
+     * Single PipelinedFlowProcessor running all stages in one thread
+     *
+     * @param pipelineSize     maximum number of sessions in flight (must be power of 2)
+     * @param schedulingMode   static or adaptive stage work weights
+     * @param releasePolicy    bounded staleness of releasing fence while pipeline has sessions in flight
+     * @param waitStrategyType processor wait strategy, null - use RevelatorParameters default
+     */
+    public static <S extends PipelinedFlowSession> IFlowProcessorsFactory pipelined(
+            final List<PipelinedStageHandler<S>> handlers,
+            final Supplier<S> sessionsFactory,
+            final int pipelineSize,
+            final SchedulingMode schedulingMode,
+            final ReleasePolicy releasePolicy,
+            final WaitStrategyType waitStrategyType) {
+
+        return (inboundFence, config) -> {
+            final PipelinedFlowProcessor<S> pipelinedFlowProcessor = new PipelinedFlowProcessor<>(
+                    handlers,
+                    sessionsFactory,
+                    inboundFence,
+                    config,
+                    resolve(waitStrategyType, config),
+                    pipelineSize,
+                    schedulingMode,
+                    releasePolicy);
+
+            return new IFlowProcessorsFactory.ProcessorsChain(
+                    List.of(pipelinedFlowProcessor),
+                    pipelinedFlowProcessor.getReleasingFence());
+        };
+    }
+
+    /**
+     * PipelinedFlowProcessor with another topology attached after one of its stages.
+     * Branch receives messages as soon as that stage processed them, in parallel with remaining stages.
+     * Message is released when both pipeline and branch processed it.
+     *
+     * @param stageIdx         index of the stage branch is attached to
+     * @param branch           topology (simple, pipelined or any other) processing messages after the stage
+     * @param releasePolicy    bounded staleness of pipeline releasing fence while pipeline has sessions in flight
+     * @param waitStrategyType pipeline wait strategy, null - use RevelatorParameters default
+     */
+    public static <S extends PipelinedFlowSession> IFlowProcessorsFactory pipelinedWithBranch(
+            final List<PipelinedStageHandler<S>> handlers,
+            final Supplier<S> sessionsFactory,
+            final int stageIdx,
+            final IFlowProcessorsFactory branch,
+            final ReleasePolicy releasePolicy,
+            final WaitStrategyType waitStrategyType) {
+
+        if (stageIdx < 0 || stageIdx >= handlers.size()) {
+            throw new IllegalArgumentException("stageIdx should be in range [0, " + handlers.size() + ")");
+        }
+
+        return (inboundFence, config) -> {
+            final PipelinedFlowProcessor<S> pipelinedFlowProcessor = new PipelinedFlowProcessor<>(
+                    handlers,
+                    sessionsFactory,
+                    inboundFence,
+                    config,
+                    resolve(waitStrategyType, config),
+                    PipelinedFlowProcessor.DEFAULT_PIPELINE_SIZE,
+                    SchedulingMode.STATIC,
+                    releasePolicy);
+
+            final IFlowProcessorsFactory.ProcessorsChain branchChain = branch.createProcessors(
+                    pipelinedFlowProcessor.getStageFence(stageIdx),
+                    config);
+
+            final List<IFlowProcessor> processors = new ArrayList<>();
+            processors.add(pipelinedFlowProcessor);
+            processors.addAll(branchChain.getProcessors());
+
+            return new IFlowProcessorsFactory.ProcessorsChain(
+                    processors,
+                    new AggregatingMinFence(List.of(pipelinedFlowProcessor.getReleasingFence(), branchChain.getReleasingFence())));
+        };
+    }
+
+    /**
+     * Chain of topologies (simple, pipelined or any other), each one only sees messages released by previous one.
+     */
+    public static IFlowProcessorsFactory sequence(final IFlowProcessorsFactory... stages) {
+
+        return (inboundFence, config) -> {
+
+            final List<IFlowProcessor> processors = new ArrayList<>();
+            IFence lastFence = inboundFence;
+
+            for (IFlowProcessorsFactory stage : stages) {
+
+                final IFlowProcessorsFactory.ProcessorsChain stageChain = stage.createProcessors(lastFence, config);
+
+                processors.addAll(stageChain.getProcessors());
+
+                lastFence = stageChain.getReleasingFence();
+            }
+
+            return new IFlowProcessorsFactory.ProcessorsChain(
+                    processors,
+                    lastFence);
+        };
+    }
+
+    /**
+     * Topologies (simple, pipelined or any other) processing same messages in parallel,
+     * message is released when all of them processed it.
+     */
+    public static IFlowProcessorsFactory group(final IFlowProcessorsFactory... stages) {
+
+        return (inboundFence, config) -> {
+
+            final List<IFlowProcessor> processors = new ArrayList<>();
+            final IFence[] releasingFences = new IFence[stages.length];
+
+            for (int i = 0; i < stages.length; i++) {
+
+                final IFlowProcessorsFactory.ProcessorsChain stageChain = stages[i].createProcessors(inboundFence, config);
+
+                processors.addAll(stageChain.getProcessors());
+
+                releasingFences[i] = stageChain.getReleasingFence();
+            }
+
+            return new IFlowProcessorsFactory.ProcessorsChain(
+                    processors,
+                    new AggregatingMinFence(releasingFences));
+        };
+    }
+
+    /**
+     * Journaling processor followed by downstream processors, which only see messages after they are durable.
+     */
+    public static IFlowProcessorsFactory journaling(final JournalConfig journalConfig,
+                                                    final IFlowProcessorsFactory downstream) {
+
+        return (inboundFence, config) -> {
+
+            final JournalingFlowProcessor journalingProcessor = new JournalingFlowProcessor(
+                    journalConfig,
+                    inboundFence,
+                    config);
+
+            final IFlowProcessorsFactory.ProcessorsChain downstreamChain = downstream.createProcessors(
+                    journalingProcessor.getReleasingFence(),
+                    config);
+
+            final List<IFlowProcessor> processors = new ArrayList<>();
+            processors.add(journalingProcessor);
+            processors.addAll(downstreamChain.getProcessors());
+
+            return new IFlowProcessorsFactory.ProcessorsChain(
+                    processors,
+                    downstreamChain.getReleasingFence());
+        };
+    }
+
+    private static WaitStrategyType resolve(final WaitStrategyType waitStrategyType, final RevelatorConfig config) {
+        return waitStrategyType != null ? waitStrategyType : config.getDefaultWaitStrategyType();
+    }
+
 }
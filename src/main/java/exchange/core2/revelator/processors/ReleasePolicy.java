@@ -0,0 +1,76 @@
+package exchange.core2.revelator.processors;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * When processor publishes its progress to the next stage while handling a large batch.
+ * By default releasing fence is only updated at the end of the batch, so with a large spike the next stage is idle
+ * until the whole spike is processed. Progressive release breaks batch into smaller pieces,
+ * so followers can start catching up earlier (at a cost of extra fence writes).
+ */
+public final class ReleasePolicy {
+
+    public enum Type {
+        BATCH_END,
+        MESSAGES,
+        WORDS,
+        TIME
+    }
+
+    public static final ReleasePolicy BATCH_END = new ReleasePolicy(Type.BATCH_END, 0L);
+
+    private final Type type;
+    private final long threshold;
+
+    private ReleasePolicy(final Type type, final long threshold) {
+        this.type = type;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Release after every N messages
+     */
+    public static ReleasePolicy everyMessages(final int messages) {
+        if (messages < 1) {
+            throw new IllegalArgumentException("messages should be positive");
+        }
+        return new ReleasePolicy(Type.MESSAGES, messages);
+    }
+
+    /**
+     * Release after every N words (including headers)
+     */
+    public static ReleasePolicy everyWords(final long words) {
+        if (words < 1) {
+            throw new IllegalArgumentException("words should be positive");
+        }
+        return new ReleasePolicy(Type.WORDS, words);
+    }
+
+    /**
+     * Release if time passed since last release exceeds interval
+     */
+    public static ReleasePolicy interval(final long interval, final TimeUnit timeUnit) {
+        final long intervalNs = timeUnit.toNanos(interval);
+        if (intervalNs < 1) {
+            throw new IllegalArgumentException("interval should be positive");
+        }
+        return new ReleasePolicy(Type.TIME, intervalNs);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return messages, words or nanoseconds, depending on type
+     */
+    public long getThreshold() {
+        return threshold;
+    }
+
+    @Override
+    public String toString() {
+        return "ReleasePolicy{" + type + (type == Type.BATCH_END ? "" : " " + threshold) + '}';
+    }
+}
@@ -0,0 +1,61 @@
+package exchange.core2.revelator.processors;
+
+import exchange.core2.revelator.fences.AggregatingMinFence;
+import exchange.core2.revelator.fences.CachingMinFence;
+import exchange.core2.revelator.fences.IFence;
+import exchange.core2.revelator.fences.ShardedFence;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongToIntFunction;
+
+/**
+ * Sharded workers: releasing fence is a minimum of all shards (safe for any next stage),
+ * next stage aware of sharding can wait only for the shard relevant to each message using createShardedFence().
+ */
+public final class ShardedProcessorsChain extends IFlowProcessorsFactory.ProcessorsChain {
+
+    private final IFence[] shardFences;
+    private final LongToIntFunction shardFunction;
+
+    public ShardedProcessorsChain(final List<IFlowProcessor> processors,
+                                  final IFence[] shardFences,
+                                  final LongToIntFunction shardFunction) {
+
+        this(processors, shardFences, shardFunction, new AggregatingMinFence(shardFences));
+    }
+
+    /**
+     * @param releasingFence minimum of all shards (AggregatingMinFence, MinFenceTree or other aggregation)
+     */
+    public ShardedProcessorsChain(final List<IFlowProcessor> processors,
+                                  final IFence[] shardFences,
+                                  final LongToIntFunction shardFunction,
+                                  final IFence releasingFence) {
+
+        super(processors, releasingFence);
+        this.shardFences = shardFences;
+        this.shardFunction = shardFunction;
+    }
+
+    /**
+     * ShardedFence is not thread-safe - each consumer should create its own instance
+     */
+    public ShardedFence createShardedFence() {
+        final long[] lastKnown = new long[shardFences.length];
+        Arrays.fill(lastKnown, -1);
+        return new ShardedFence(shardFences, shardFunction, lastKnown);
+    }
+
+    /**
+     * Minimum of all shards for a single consumer, reading only shards which can limit progress.
+     * CachingMinFence is not thread-safe - each consumer should create its own instance
+     */
+    public CachingMinFence createCachingMinFence() {
+        return new CachingMinFence(shardFences);
+    }
+
+    public int getShardsNum() {
+        return shardFences.length;
+    }
+}
@@ -0,0 +1,251 @@
+package exchange.core2.revelator.processors;
+
+import exchange.core2.revelator.RevelatorConfig;
+import exchange.core2.revelator.fences.AggregatingMinFence;
+import exchange.core2.revelator.fences.IFence;
+import exchange.core2.revelator.processors.simple.SimpleFlowProcessor;
+import exchange.core2.revelator.processors.simple.SimpleMessageHandler;
+import exchange.core2.revelator.waitstrategies.WaitStrategyType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Declarative DAG of named stages, for example:
+ * <pre>
+ * TopologyBuilder.create()
+ *     .stage("journal", journaling)
+ *     .stage("replicate", replication)
+ *     .stage("risk", ProcessorsFactories.sharded(shardFunction, riskHandlers), "journal", "replicate")
+ *     .keyed("matching", matchingHandler, "risk")
+ *     .stage("results", resultsFactory, "matching")
+ *     .stage("marketData", marketDataFactory, "matching")
+ *     .build();
+ * </pre>
+ * Each stage reads only the minimal set of fences: dependency implied by another dependency is dropped
+ * (it is always ahead of dependent stage anyway), single remaining fence is used directly,
+ * few are joined with AggregatingMinFence. Releasing fence of the topology is a minimum of the stages
+ * no one depends on.
+ * <p>
+ * Stages must be declared after their dependencies, so cycles are not possible.
+ */
+public final class TopologyBuilder {
+
+    private final Map<String, StageDef> stages = new LinkedHashMap<>();
+
+    private TopologyBuilder() {
+    }
+
+    public static TopologyBuilder create() {
+        return new TopologyBuilder();
+    }
+
+    /**
+     * @param name      unique stage name
+     * @param factory   stage topology (simple, pipelined, sharded or any other)
+     * @param dependsOn stages which should process message before this stage, none - stage reads published messages
+     */
+    public TopologyBuilder stage(final String name,
+                                 final IFlowProcessorsFactory factory,
+                                 final String... dependsOn) {
+
+        addStage(new StageDef(name, factory, null, null, null, Arrays.asList(dependsOn)));
+        return this;
+    }
+
+    /**
+     * Stage following sharded stage, handling each message as soon as shard owning it has processed it
+     * (using ShardedFence instead of waiting for all shards).
+     * Dependent stages only rely on the owning shard too.
+     *
+     * @param shardedStage stage created by ProcessorsFactories.sharded(...)
+     */
+    public TopologyBuilder keyed(final String name,
+                                 final SimpleMessageHandler handler,
+                                 final String shardedStage) {
+
+        return keyed(name, handler, shardedStage, null);
+    }
+
+    /**
+     * @param shardedStage     stage created by ProcessorsFactories.sharded(...)
+     * @param waitStrategyType processor wait strategy, null - use RevelatorParameters default
+     */
+    public TopologyBuilder keyed(final String name,
+                                 final SimpleMessageHandler handler,
+                                 final String shardedStage,
+                                 final WaitStrategyType waitStrategyType) {
+
+        addStage(new StageDef(name, null, handler, waitStrategyType, shardedStage, List.of(shardedStage)));
+        return this;
+    }
+
+    public IFlowProcessorsFactory build() {
+
+        if (stages.isEmpty()) {
+            throw new IllegalStateException("No stages declared");
+        }
+
+        // stages which are guaranteed to process message before each stage
+        final Map<String, Set<String>> ancestors = new HashMap<>();
+        for (final StageDef stage : stages.values()) {
+            final Set<String> stageAncestors = new HashSet<>();
+            if (stage.shardedStage != null) {
+                // only owning shard processed message, sharded stage itself can still be behind
+                stageAncestors.addAll(ancestors.get(stage.shardedStage));
+            } else {
+                for (final String dep : stage.dependsOn) {
+                    stageAncestors.add(dep);
+                    stageAncestors.addAll(ancestors.get(dep));
+                }
+            }
+            ancestors.put(stage.name, stageAncestors);
+        }
+
+        // drop dependencies implied by other dependencies
+        final Map<String, List<String>> fencesToRead = new HashMap<>();
+        for (final StageDef stage : stages.values()) {
+            if (stage.shardedStage == null) {
+                fencesToRead.put(stage.name, reduce(stage.dependsOn, ancestors));
+            }
+        }
+
+        final Set<String> dominated = ancestors.values().stream()
+                .flatMap(Set::stream)
+                .collect(Collectors.toSet());
+
+        final List<String> sinks = stages.keySet().stream()
+                .filter(name -> !dominated.contains(name))
+                .collect(Collectors.toList());
+
+        final List<StageDef> orderedStages = new ArrayList<>(stages.values());
+
+        return (inboundFence, config) -> {
+
+            final List<IFlowProcessor> processors = new ArrayList<>();
+            final Map<String, IFence> stageInboundFences = new HashMap<>();
+            final Map<String, IFlowProcessorsFactory.ProcessorsChain> chains = new HashMap<>();
+
+            for (final StageDef stage : orderedStages) {
+
+                final IFlowProcessorsFactory.ProcessorsChain chain;
+
+                if (stage.shardedStage != null) {
+                    chain = createKeyed(stage, chains.get(stage.shardedStage), stageInboundFences.get(stage.shardedStage), config);
+                } else {
+                    final IFence stageInboundFence = join(fencesToRead.get(stage.name), chains, inboundFence);
+                    stageInboundFences.put(stage.name, stageInboundFence);
+                    chain = stage.factory.createProcessors(stageInboundFence, config);
+                }
+
+                chains.put(stage.name, chain);
+                processors.addAll(chain.getProcessors());
+            }
+
+            return new IFlowProcessorsFactory.ProcessorsChain(
+                    processors,
+                    join(sinks, chains, inboundFence));
+        };
+    }
+
+    private void addStage(final StageDef stage) {
+
+        if (stages.containsKey(stage.name)) {
+            throw new IllegalArgumentException("Duplicate stage name: " + stage.name);
+        }
+
+        for (final String dep : stage.dependsOn) {
+            if (!stages.containsKey(dep)) {
+                throw new IllegalArgumentException("Stage " + stage.name + " depends on unknown stage " + dep
+                        + " (dependencies should be declared first)");
+            }
+        }
+
+        if (stage.shardedStage != null && stages.get(stage.shardedStage).shardedStage != null) {
+            throw new IllegalArgumentException("Keyed stage " + stage.name + " should follow sharded stage, not keyed " + stage.shardedStage);
+        }
+
+        stages.put(stage.name, stage);
+    }
+
+    private static List<String> reduce(final List<String> dependsOn, final Map<String, Set<String>> ancestors) {
+
+        final List<String> reduced = new ArrayList<>();
+        for (final String dep : dependsOn) {
+            final boolean implied = dependsOn.stream()
+                    .anyMatch(other -> !other.equals(dep) && ancestors.get(other).contains(dep));
+            if (!implied && !reduced.contains(dep)) {
+                reduced.add(dep);
+            }
+        }
+        return reduced;
+    }
+
+    private static IFence join(final List<String> stageNames,
+                               final Map<String, IFlowProcessorsFactory.ProcessorsChain> chains,
+                               final IFence inboundFence) {
+
+        if (stageNames.isEmpty()) {
+            return inboundFence;
+        } else if (stageNames.size() == 1) {
+            return chains.get(stageNames.get(0)).getReleasingFence();
+        } else {
+            return new AggregatingMinFence(stageNames.stream()
+                    .map(name -> chains.get(name).getReleasingFence())
+                    .collect(Collectors.toList()));
+        }
+    }
+
+    private static IFlowProcessorsFactory.ProcessorsChain createKeyed(final StageDef stage,
+                                                                      final IFlowProcessorsFactory.ProcessorsChain shardedChain,
+                                                                      final IFence shardedInboundFence,
+                                                                      final RevelatorConfig config) {
+
+        if (!(shardedChain instanceof ShardedProcessorsChain)) {
+            throw new IllegalStateException("Keyed stage " + stage.name + " requires sharded stage " + stage.shardedStage
+                    + ", but it produced " + shardedChain.getClass().getSimpleName());
+        }
+
+        // reading headers right after shards can read them, handling after owning shard
+        final SimpleFlowProcessor processor = new SimpleFlowProcessor(
+                stage.keyedHandler,
+                shardedInboundFence,
+                ((ShardedProcessorsChain) shardedChain).createShardedFence(),
+                config,
+                stage.waitStrategyType != null ? stage.waitStrategyType : config.getDefaultWaitStrategyType());
+
+        return new IFlowProcessorsFactory.ProcessorsChain(List.of(processor), processor.getReleasingFence());
+    }
+
+    private static final class StageDef {
+
+        private final String name;
+        private final IFlowProcessorsFactory factory;
+        private final SimpleMessageHandler keyedHandler;
+        private final WaitStrategyType waitStrategyType;
+        private final String shardedStage;
+        private final List<String> dependsOn;
+
+        private StageDef(final String name,
+                         final IFlowProcessorsFactory factory,
+                         final SimpleMessageHandler keyedHandler,
+                         final WaitStrategyType waitStrategyType,
+                         final String shardedStage,
+                         final List<String> dependsOn) {
+
+            this.name = name;
+            this.factory = factory;
+            this.keyedHandler = keyedHandler;
+            this.waitStrategyType = waitStrategyType;
+            this.shardedStage = shardedStage;
+            this.dependsOn = dependsOn;
+        }
+    }
+}
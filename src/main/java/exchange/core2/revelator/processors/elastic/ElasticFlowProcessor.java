@@ -0,0 +1,415 @@
+package exchange.core2.revelator.processors.elastic;
+
+import exchange.core2.revelator.HeaderFormat;
+import exchange.core2.revelator.Revelator;
+import exchange.core2.revelator.RevelatorConfig;
+import exchange.core2.revelator.buffers.RingBuffer;
+import exchange.core2.revelator.fences.IFence;
+import exchange.core2.revelator.fences.SingleWriterFence;
+import exchange.core2.revelator.processors.IFlowProcessor;
+import exchange.core2.revelator.processors.simple.SimpleMessageHandler;
+import exchange.core2.revelator.waitstrategies.IWaitStrategy;
+import exchange.core2.revelator.waitstrategies.WaitStrategyType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Elastic stage: core worker always runs, spike workers are parked until lag between inbound fence and
+ * releasing fence exceeds the threshold.
+ * <p>
+ * Core worker splits available messages into slices (up to sliceMessages messages each) and publishes them into
+ * a small slices queue. Any worker (including core) takes next slice and processes it with its own handler,
+ * so slices are processed concurrently and can complete out of order.
+ * Core worker is the only writer of releasing fence - it advances it over contiguous prefix of completed slices.
+ * Spike workers go back to sleep when lag drains below half of the threshold.
+ * <p>
+ * Handlers should not depend on messages order (decoding, validation, enrichment, etc).
+ * Control messages (snapshot, shutdown) are barriers - all preceding slices are completed first.
+ */
+public final class ElasticFlowProcessor implements IFlowProcessor {
+
+    public static final int DEFAULT_SLICE_MESSAGES = 64;
+
+    private static final Logger log = LoggerFactory.getLogger(ElasticFlowProcessor.class);
+
+    private static final int SLICES_QUEUE_SIZE = 256; // should be be 2^N
+
+    private final SimpleMessageHandler coreHandler;
+    private final boolean coreBatchAware;
+    private final List<SpikeWorker> spikeWorkers;
+
+    private final IFence inboundFence;
+    private final SingleWriterFence releasingFence = new SingleWriterFence();
+
+    private final long indexMask;
+    private final RingBuffer buffer;
+
+    private final int headerSize;
+    private final boolean compactHeader;
+
+    private final IWaitStrategy waitStrategy;
+    private final IWaitStrategy blockingWaitStrategy;
+
+    private final IFence recoveryFence;
+    private final Executor snapshotExecutor;
+
+    private final long lagThreshold;
+    private final int sliceMessages;
+
+    // slices queue: written by core worker only, slot is reused only after slice is released
+    private final long[] sliceStarts = new long[SLICES_QUEUE_SIZE];
+    private final long[] sliceEnds = new long[SLICES_QUEUE_SIZE];
+    private final AtomicLongArray sliceDone = new AtomicLongArray(SLICES_QUEUE_SIZE);
+    private final AtomicLong publishedSlices = new AtomicLong();
+    private final AtomicLong takenSlices = new AtomicLong();
+
+    private volatile boolean spike = false;
+    private volatile boolean shutdown = false;
+
+    private long spikesCounter = 0L;
+
+    /**
+     * @param handlers      one handler per worker, first one is used by core worker
+     * @param lagThreshold  lag (in words) between inbound and releasing fences which wakes up spike workers
+     * @param sliceMessages maximum number of messages in one slice
+     */
+    public ElasticFlowProcessor(final List<SimpleMessageHandler> handlers,
+                                final IFence inboundFence,
+                                final RevelatorConfig config,
+                                final WaitStrategyType waitStrategyType,
+                                final long lagThreshold,
+                                final int sliceMessages) {
+
+        if (handlers.isEmpty()) {
+            throw new IllegalArgumentException("At least one handler required");
+        }
+
+        if (sliceMessages < 1) {
+            throw new IllegalArgumentException("sliceMessages should be positive");
+        }
+
+        this.coreHandler = handlers.get(0);
+        this.coreBatchAware = SimpleMessageHandler.isBatchAware(coreHandler);
+        this.inboundFence = inboundFence;
+        this.indexMask = config.getIndexMask();
+        this.buffer = config.getBuffer();
+        this.headerSize = config.getHeaderSize();
+        this.compactHeader = config.getHeaderFormat() == HeaderFormat.COMPACT;
+        this.waitStrategy = config.createWaitStrategy(waitStrategyType);
+        this.blockingWaitStrategy = config.getBlockingWaitStrategy();
+        this.recoveryFence = config.getRecoveryFence();
+        this.snapshotExecutor = config.getSnapshotExecutor();
+        this.lagThreshold = lagThreshold;
+        this.sliceMessages = sliceMessages;
+
+        for (int i = 0; i < SLICES_QUEUE_SIZE; i++) {
+            sliceDone.set(i, -1L);
+        }
+
+        final List<SpikeWorker> workers = new ArrayList<>();
+        for (int i = 1; i < handlers.size(); i++) {
+            workers.add(new SpikeWorker(handlers.get(i)));
+        }
+        this.spikeWorkers = Collections.unmodifiableList(workers);
+    }
+
+    /**
+     * @return core worker followed by spike workers - each one requires its own thread
+     */
+    public List<IFlowProcessor> getWorkers() {
+        final List<IFlowProcessor> workers = new ArrayList<>();
+        workers.add(this);
+        workers.addAll(spikeWorkers);
+        return workers;
+    }
+
+    @Override
+    public void run() {
+
+        long parsePosition = 0L; // next message to put into a slice
+        long releasedPosition = -1L;
+        long releasedSlices = 0L;
+
+        while (true) {
+
+            final long published = publishedSlices.get();
+
+            long availableSeq;
+            if (releasedSlices == published && parsePosition == inboundFence.getAcquire(parsePosition)) {
+                // nothing to do - lag is drained, wait for new messages
+                if (spike) {
+                    spike = false;
+                }
+                while ((availableSeq = waitStrategy.waitFor(parsePosition, inboundFence)) <= parsePosition) {
+                    // spin
+                }
+            } else {
+                availableSeq = inboundFence.getAcquire(parsePosition);
+            }
+
+            // split available messages into slices while there is space in the queue
+            long newPublished = published;
+            boolean controlMessage = false;
+            while (parsePosition < availableSeq && newPublished - releasedSlices < SLICES_QUEUE_SIZE && !controlMessage) {
+
+                final long sliceStart = parsePosition;
+                int messages = 0;
+
+                while (parsePosition < availableSeq) {
+
+                    final long index = parsePosition & indexMask;
+                    final long header1 = buffer.getLong(index);
+
+                    if (header1 == 0L) {
+                        // padding - skip until end of the buffer
+                        parsePosition = (parsePosition | indexMask) + 1;
+                        continue;
+                    }
+
+                    final byte msgType = (byte) ((header1 >>> 56) & 0x1F);
+                    if (msgType == Revelator.MSG_TYPE_POISON_PILL || msgType == Revelator.MSG_TYPE_SNAPSHOT) {
+                        controlMessage = true;
+                        break;
+                    }
+
+                    parsePosition += headerSize + (int) buffer.getLong(index + headerSize - 1);
+
+                    if (++messages == sliceMessages) {
+                        break;
+                    }
+                }
+
+                if (parsePosition > sliceStart) {
+                    final int slot = (int) newPublished & (SLICES_QUEUE_SIZE - 1);
+                    sliceStarts[slot] = sliceStart;
+                    sliceEnds[slot] = parsePosition;
+                    newPublished++;
+                }
+            }
+
+            if (newPublished != published) {
+                publishedSlices.set(newPublished);
+            }
+
+            // wake up spike workers if lag is too large, put them back to sleep when lag drained
+            final long lag = availableSeq - releasedPosition;
+            if (!spike && lag > lagThreshold && !spikeWorkers.isEmpty()) {
+                spike = true;
+                spikesCounter++;
+//                log.debug("spike started, lag={}", lag);
+                spikeWorkers.forEach(SpikeWorker::wakeUp);
+            } else if (spike && lag <= (lagThreshold >> 1)) {
+                spike = false;
+//                log.debug("spike finished, lag={}", lag);
+            }
+
+            // do some work
+            takeSlice(coreHandler, coreBatchAware);
+
+            // advance releasing fence over completed slices
+            final long releasedBefore = releasedSlices;
+            while (releasedSlices < newPublished) {
+                final int slot = (int) releasedSlices & (SLICES_QUEUE_SIZE - 1);
+                if (sliceDone.get(slot) != releasedSlices) {
+                    break;
+                }
+                releasedPosition = sliceEnds[slot];
+                releasedSlices++;
+            }
+
+            if (releasedSlices != releasedBefore) {
+                releasingFence.setRelease(releasedPosition);
+                blockingWaitStrategy.signalAllWhenBlocking();
+            }
+
+            // control message is processed when all preceding slices are completed
+            if (controlMessage && releasedSlices == newPublished) {
+
+                final long index = parsePosition & indexMask;
+                final long header1 = buffer.getLong(index);
+                final byte msgType = (byte) ((header1 >>> 56) & 0x1F);
+
+                if (msgType == Revelator.MSG_TYPE_POISON_PILL) {
+
+                    log.debug("Elastic processor shutdown (publishing positionSeq={}+{}), spikes: {}", parsePosition, headerSize, spikesCounter);
+                    shutdown = true;
+                    spikeWorkers.forEach(SpikeWorker::wakeUp);
+
+                    releasingFence.setRelease(parsePosition + headerSize);
+                    blockingWaitStrategy.signalAllWhenBlocking();
+
+                    coreHandler.onShutdown();
+                    return;
+                }
+
+                // snapshot - all workers are idle (no slices in progress)
+                if (parsePosition >= recoveryFence.getAcquire(parsePosition)) {
+                    final long snapshotId = header1 & 0x00FF_FFFF_FFFF_FFFFL;
+                    takeSnapshot(coreHandler, snapshotId, parsePosition);
+                    for (final SpikeWorker worker : spikeWorkers) {
+                        takeSnapshot(worker.handler, snapshotId, parsePosition);
+                    }
+                }
+
+                parsePosition += headerSize + (int) buffer.getLong(index + headerSize - 1);
+                releasedPosition = parsePosition;
+                releasingFence.setRelease(releasedPosition);
+                blockingWaitStrategy.signalAllWhenBlocking();
+            }
+        }
+    }
+
+    private void takeSnapshot(final SimpleMessageHandler handler, final long snapshotId, final long globalOffset) {
+        final Runnable snapshotTask = handler.onSnapshot(snapshotId, globalOffset);
+        if (snapshotTask != null) {
+            snapshotExecutor.execute(snapshotTask);
+        }
+    }
+
+    /**
+     * Take next published slice (if any) and process it
+     *
+     * @return true if slice was processed
+     */
+    private boolean takeSlice(final SimpleMessageHandler handler, final boolean batchAware) {
+
+        long sliceIdx;
+        do {
+            sliceIdx = takenSlices.get();
+            if (sliceIdx >= publishedSlices.get()) {
+                return false;
+            }
+        } while (!takenSlices.compareAndSet(sliceIdx, sliceIdx + 1));
+
+        final int slot = (int) sliceIdx & (SLICES_QUEUE_SIZE - 1);
+        processSlice(handler, batchAware, sliceStarts[slot], sliceEnds[slot]);
+        sliceDone.set(slot, sliceIdx);
+        return true;
+    }
+
+    private void processSlice(final SimpleMessageHandler handler,
+                              final boolean batchAware,
+                              final long start,
+                              final long end) {
+
+        // recovered messages are not passed to side-effecting handler
+        final long handlerBoundary = handler.isSideEffecting() ? recoveryFence.getAcquire(start) : -1L;
+
+        if (batchAware) {
+            handler.onBatchStart(start, end);
+        }
+
+        long positionSeq = start;
+        while (positionSeq < end) {
+
+            final long index = positionSeq & indexMask;
+            final long header1 = buffer.getLong(index);
+
+            if (header1 == 0L) {
+                positionSeq = (positionSeq | indexMask) + 1;
+                continue;
+            }
+
+            final long correlationId = header1 & 0x00FF_FFFF_FFFF_FFFFL;
+            final byte msgType = (byte) ((header1 >>> 56) & 0x1F);
+            final long timestamp = compactHeader ? 0L : buffer.getLong(index + 1);
+            final long sizeWord = buffer.getLong(index + headerSize - 1);
+            final int payloadSize = (int) sizeWord;
+            final int userCookie = (int) (sizeWord >>> 32);
+
+            if (positionSeq >= handlerBoundary) {
+                try {
+                    handler.handleMessage(buffer, index + headerSize, payloadSize, timestamp, positionSeq, correlationId, msgType, userCookie);
+                } catch (final Exception ex) {
+                    log.debug("Exception when processing message", ex);
+                    // TODO call custom handler
+                }
+            }
+
+            positionSeq += headerSize + payloadSize;
+        }
+
+        if (batchAware) {
+            handler.onBatchEnd(end);
+        }
+    }
+
+    @Override
+    public SingleWriterFence getReleasingFence() {
+        return releasingFence;
+    }
+
+    public long getSpikesCounter() {
+        return spikesCounter;
+    }
+
+    @Override
+    public String toString() {
+        return "ElasticFlowProcessor{" + coreHandler + " +" + spikeWorkers.size() + " spike workers}";
+    }
+
+    private final class SpikeWorker implements IFlowProcessor {
+
+        private final SimpleMessageHandler handler;
+        private final boolean batchAware;
+
+        private volatile Thread thread;
+
+        private SpikeWorker(final SimpleMessageHandler handler) {
+            this.handler = handler;
+            this.batchAware = SimpleMessageHandler.isBatchAware(handler);
+        }
+
+        @Override
+        public void run() {
+
+            thread = Thread.currentThread();
+
+            while (true) {
+
+                // slices are only taken during spike, otherwise core worker keeps up alone
+                if (spike && takeSlice(handler, batchAware)) {
+                    continue;
+                }
+
+                if (shutdown) {
+                    handler.onShutdown();
+                    return;
+                }
+
+                if (spike) {
+                    Thread.onSpinWait();
+                } else {
+                    // core worker sets spike (or shutdown) flag before unparking, and reads thread after that,
+                    // so wake up can not be lost: either flag is visible here, or unpark permit is granted
+                    LockSupport.park(this);
+                }
+            }
+        }
+
+        private void wakeUp() {
+            final Thread t = thread;
+            if (t != null) {
+                LockSupport.unpark(t);
+            }
+        }
+
+        @Override
+        public SingleWriterFence getReleasingFence() {
+            return releasingFence;
+        }
+
+        @Override
+        public String toString() {
+            return "SpikeWorker{" + handler + '}';
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package exchange.core2.revelator.processors.journal;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+public final class JournalConfig {
+
+    private final Path directory;
+    private final String filePrefix;
+    private final long segmentSize;
+    private final long forceIntervalNs;
+
+    private JournalConfig(final Path directory,
+                          final String filePrefix,
+                          final long segmentSize,
+                          final long forceIntervalNs) {
+
+        this.directory = directory;
+        this.filePrefix = filePrefix;
+        this.segmentSize = segmentSize;
+        this.forceIntervalNs = forceIntervalNs;
+    }
+
+    public static Builder builder(final Path directory) {
+        return new Builder(directory);
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public String getFilePrefix() {
+        return filePrefix;
+    }
+
+    public long getSegmentSize() {
+        return segmentSize;
+    }
+
+    public long getForceIntervalNs() {
+        return forceIntervalNs;
+    }
+
+    @Override
+    public String toString() {
+        return "JournalConfig{" +
+                "directory=" + directory +
+                ", filePrefix='" + filePrefix + '\'' +
+                ", segmentSize=" + segmentSize +
+                ", forceIntervalNs=" + forceIntervalNs +
+                '}';
+    }
+
+    public static final class Builder {
+
+        private final Path directory;
+        private String filePrefix = "journal";
+        private long segmentSize = 256 * 1024 * 1024;
+        private long forceIntervalNs = 0L;
+
+        private Builder(final Path directory) {
+            this.directory = directory;
+        }
+
+        public Builder filePrefix(final String filePrefix) {
+            this.filePrefix = filePrefix;
+            return this;
+        }
+
+        /**
+         * @param segmentSize segment file size in bytes (multiple of 8, up to 1GB), any message must fit into a single segment
+         */
+        public Builder segmentSize(final long segmentSize) {
+            if (segmentSize <= 0 || (segmentSize & 7) != 0 || segmentSize > (1 << 30)) {
+                throw new IllegalArgumentException("segment size must be multiple of 8 and <= 1GB");
+            }
+            this.segmentSize = segmentSize;
+            return this;
+        }
+
+        /**
+         * Group commit window. Journal is always forced when processor caught up with publisher,
+         * otherwise it keeps appending new batches until window expires.
+         *
+         * @param forceInterval 0 - force after every batch
+         */
+        public Builder forceInterval(final long forceInterval, final TimeUnit timeUnit) {
+            this.forceIntervalNs = timeUnit.toNanos(forceInterval);
+            return this;
+        }
+
+        public JournalConfig build() {
+            return new JournalConfig(directory, filePrefix, segmentSize, forceIntervalNs);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package exchange.core2.revelator.processors.journal;
+
+import exchange.core2.revelator.Revelator;
+import org.agrona.IoUtil;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Replays journal segments into Revelator using bulk copies:
+ * messages are stored in the journal exactly as in the ring buffer, so whole ranges of messages are copied
+ * with a single claim and a single publish per block (only message headers are read to find block boundaries).
+ * <p>
+ * Revelator should be created in recovery mode (see RevelatorParameters.recoveryMode),
+ * so side-effecting handlers skip replayed messages. Recovery is completed when replay finishes.
+ * Publishing new messages is only allowed after replay.
+ * <p>
+ * Replay can start right after snapshot control message (see Revelator.requestSnapshot), when handlers state
+ * is loaded from that snapshot, so only journal tail is replayed.
+ * <p>
+ * Message sizes are validated against segment bounds: torn or corrupted segment (e.g. after a crash) fails replay
+ * with IllegalStateException, messages preceding the corrupted one may be already published by that time.
+ */
+public final class JournalReplayer {
+
+    private static final Logger log = LoggerFactory.getLogger(JournalReplayer.class);
+
+    private JournalReplayer() {
+    }
+
+    /**
+     * Replay whole journal
+     *
+     * @return number of replayed messages
+     */
+    public static long replay(final Revelator revelator, final JournalConfig journalConfig) {
+        return replay(revelator, journalConfig, -1L);
+    }
+
+    /**
+     * Replay journal tail, starting after snapshot control message
+     *
+     * @param snapshotId snapshot id (-1 to replay whole journal)
+     * @return number of replayed messages
+     */
+    public static long replay(final Revelator revelator, final JournalConfig journalConfig, final long snapshotId) {
+
+        final List<Path> segments = JournalSegments.findSegments(journalConfig.getDirectory(), journalConfig.getFilePrefix());
+
+        final int maxBlockWords = (int) Math.min(revelator.getBufferSize() >> 2, 1 << 20);
+
+        log.info("Replaying {} journal segments from {} ...", segments.size(), journalConfig.getDirectory());
+        final long startNs = System.nanoTime();
+
+        long messages = 0L;
+        long words = 0L;
+
+        boolean skipping = snapshotId != -1L;
+
+        for (final Path segmentFile : segments) {
+
+            final MappedByteBuffer segment = mapReadOnly(segmentFile);
+            try {
+                final UnsafeBuffer buffer = new UnsafeBuffer(segment);
+                final long address = buffer.addressOffset();
+                final long segmentWords = segment.capacity() >> 3;
+
+                if (segmentWords <= JournalSegments.SEGMENT_HEADER_SIZE || buffer.getLong(0) != JournalSegments.SEGMENT_MAGIC) {
+                    throw new IllegalStateException("Not a journal segment: " + segmentFile);
+                }
+
+                final int headerSize = (int) buffer.getLong(8);
+                if (headerSize != revelator.getHeaderSize()) {
+                    throw new IllegalStateException("Journal header size " + headerSize
+                            + " does not match Revelator header size " + revelator.getHeaderSize());
+                }
+
+                long blockStart = JournalSegments.SEGMENT_HEADER_SIZE;
+                long position = blockStart;
+
+                while (position < segmentWords) {
+
+                    final long header1 = buffer.getLong((int) (position << 3));
+                    final int messageWords;
+                    if (header1 == 0L) {
+                        messageWords = 0;
+                    } else {
+                        // torn or corrupted data must not be trusted - message must end before the terminator word
+                        if (position + headerSize >= segmentWords) {
+                            throw corruptedSegment(segmentFile, position, "message header crosses segment end");
+                        }
+                        final int payloadSize = (int) buffer.getLong((int) ((position + headerSize - 1) << 3));
+                        if (payloadSize < 0 || position + headerSize + payloadSize >= segmentWords) {
+                            throw corruptedSegment(segmentFile, position, "invalid payload size " + payloadSize);
+                        }
+                        messageWords = headerSize + payloadSize;
+                    }
+
+                    if (skipping) {
+                        if (header1 == 0L) {
+                            break;
+                        }
+                        position += messageWords;
+                        blockStart = position;
+                        skipping = !isSnapshotMessage(header1, snapshotId);
+                        continue;
+                    }
+
+                    if (header1 == 0L || position + messageWords - blockStart > maxBlockWords) {
+
+                        // flush block
+                        if (position > blockStart) {
+                            replayBlock(revelator, address + (blockStart << 3), (int) (position - blockStart));
+                            words += position - blockStart;
+                        }
+
+                        if (header1 == 0L) {
+                            break; // end of segment
+                        }
+
+                        if (messageWords > revelator.getBufferSize() >> 1) {
+                            throw new IllegalStateException("Message is too large for replay: " + messageWords + " words");
+                        }
+
+                        blockStart = position;
+                    }
+
+                    position += messageWords;
+                    messages++;
+                }
+
+            } finally {
+                IoUtil.unmap(segment);
+            }
+        }
+
+        if (skipping) {
+            throw new IllegalStateException("Snapshot " + snapshotId + " not found in journal");
+        }
+
+        revelator.completeRecovery();
+
+        final long durationNs = System.nanoTime() - startNs;
+        log.info("Replayed {} messages ({} MB) in {}ms", messages, (words << 3) >> 20, durationNs / 1_000_000);
+
+        return messages;
+    }
+
+    private static IllegalStateException corruptedSegment(final Path segmentFile, final long position, final String reason) {
+        return new IllegalStateException("Corrupted journal segment " + segmentFile + " at word " + position + ": " + reason);
+    }
+
+    private static boolean isSnapshotMessage(final long header1, final long snapshotId) {
+        return (byte) ((header1 >>> 56) & 0x1F) == Revelator.MSG_TYPE_SNAPSHOT
+                && (header1 & 0x00FF_FFFF_FFFF_FFFFL) == snapshotId;
+    }
+
+    private static void replayBlock(final Revelator revelator, final long address, final int words) {
+        final long blockStartSequence = revelator.claimRawBlock(words);
+        revelator.writeRawBlock(blockStartSequence, null, address, words);
+        revelator.publishRawBlock(blockStartSequence, blockStartSequence + words);
+    }
+
+    private static MappedByteBuffer mapReadOnly(final Path file) {
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (final IOException ex) {
+            throw new UncheckedIOException("Can not map journal segment " + file, ex);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package exchange.core2.revelator.processors.journal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Journal segment file layout (all values are 8-bytes words):
+ * <pre>
+ * SEGMENT_MAGIC
+ * message header size (words)
+ * messages, exactly as they are stored in the ring buffer (padding is not written)
+ * 0 - terminator (files are pre-allocated, so unwritten tail is always zero)
+ * </pre>
+ */
+public final class JournalSegments {
+
+    public static final long SEGMENT_MAGIC = 0x5245_564C_4A52_4E31L; // REVLJRN1
+
+    public static final int SEGMENT_HEADER_SIZE = 2;
+
+    private static final String SUFFIX = ".jrn";
+
+    private JournalSegments() {
+    }
+
+    public static Path segmentPath(final Path directory, final String prefix, final int segmentIndex) {
+        return directory.resolve(String.format("%s-%06d%s", prefix, segmentIndex, SUFFIX));
+    }
+
+    /**
+     * @return existing segments ordered by index
+     */
+    public static List<Path> findSegments(final Path directory, final String prefix) {
+
+        if (!Files.isDirectory(directory)) {
+            return List.of();
+        }
+
+        try (final Stream<Path> files = Files.list(directory)) {
+            return files
+                    .filter(f -> isSegment(f, prefix))
+                    .sorted()
+                    .collect(Collectors.toList());
+        } catch (final IOException ex) {
+            throw new UncheckedIOException("Can not list journal directory " + directory, ex);
+        }
+    }
+
+    /**
+     * @return next segment index to write (0 for empty journal)
+     */
+    static int nextSegmentIndex(final Path directory, final String prefix) {
+        final List<Path> segments = findSegments(directory, prefix);
+        if (segments.isEmpty()) {
+            return 0;
+        }
+        final String lastName = segments.get(segments.size() - 1).getFileName().toString();
+        return Integer.parseInt(lastName.substring(prefix.length() + 1, lastName.length() - SUFFIX.length())) + 1;
+    }
+
+    private static boolean isSegment(final Path file, final String prefix) {
+        final String name = file.getFileName().toString();
+        return name.startsWith(prefix + "-")
+                && name.endsWith(SUFFIX)
+                && name.length() == prefix.length() + 1 + 6 + SUFFIX.length();
+    }
+}
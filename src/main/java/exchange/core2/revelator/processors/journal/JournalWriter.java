@@ -0,0 +1,124 @@
+package exchange.core2.revelator.processors.journal;
+
+import org.agrona.IoUtil;
+import org.agrona.UnsafeAccess;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Appends raw words into rolling memory-mapped segment files.
+ * Single-threaded, owned by journaling processor.
+ */
+final class JournalWriter implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(JournalWriter.class);
+
+    private final Path directory;
+    private final String prefix;
+    private final int segmentSize; // bytes
+    private final int headerSize;
+
+    private int segmentIndex;
+    private MappedByteBuffer segment;
+    private final UnsafeBuffer segmentBuffer = new UnsafeBuffer(0L, 0);
+
+    private int writePosition; // bytes
+    private int forcedPosition; // bytes
+
+    JournalWriter(final JournalConfig config, final int headerSize) {
+
+        this.directory = config.getDirectory();
+        this.prefix = config.getFilePrefix();
+        this.segmentSize = (int) config.getSegmentSize();
+        this.headerSize = headerSize;
+
+        try {
+            Files.createDirectories(directory);
+        } catch (final IOException ex) {
+            throw new UncheckedIOException("Can not create journal directory " + directory, ex);
+        }
+
+        this.segmentIndex = JournalSegments.nextSegmentIndex(directory, prefix);
+        openSegment();
+    }
+
+    /**
+     * @return bytes available for messages in current segment (terminator word excluded)
+     */
+    int remaining() {
+        return segmentSize - 8 - writePosition;
+    }
+
+    /**
+     * @return bytes available for messages in empty segment
+     */
+    int capacity() {
+        return segmentSize - 8 - (JournalSegments.SEGMENT_HEADER_SIZE << 3);
+    }
+
+    /**
+     * Copy raw memory region into current segment (caller is responsible for checking remaining space)
+     */
+    void write(final Object srcBase, final long srcAddress, final int bytes) {
+        UnsafeAccess.UNSAFE.copyMemory(srcBase, srcAddress, null, segmentBuffer.addressOffset() + writePosition, bytes);
+        writePosition += bytes;
+    }
+
+    /**
+     * Force written data to the storage device (no-op if nothing was written since previous force).
+     */
+    void force() {
+        if (writePosition != forcedPosition) {
+            segment.force(forcedPosition, writePosition - forcedPosition);
+            forcedPosition = writePosition;
+        }
+    }
+
+    /**
+     * Force and close current segment, start new one.
+     */
+    void roll() {
+        force();
+        IoUtil.unmap(segment);
+        segmentIndex++;
+        openSegment();
+    }
+
+    private void openSegment() {
+
+        final Path file = JournalSegments.segmentPath(directory, prefix, segmentIndex);
+        log.debug("Opening journal segment {}", file);
+
+        try (final RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(segmentSize);
+            segment = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        } catch (final IOException ex) {
+            throw new UncheckedIOException("Can not map journal segment " + file, ex);
+        }
+
+        segmentBuffer.wrap(segment);
+
+        segmentBuffer.putLong(0, JournalSegments.SEGMENT_MAGIC);
+        segmentBuffer.putLong(8, headerSize);
+        writePosition = JournalSegments.SEGMENT_HEADER_SIZE << 3;
+        forcedPosition = 0;
+    }
+
+    @Override
+    public void close() {
+        if (segment != null) {
+            force();
+            IoUtil.unmap(segment);
+            segment = null;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package exchange.core2.revelator.processors.journal;
+
+import exchange.core2.revelator.Revelator;
+import exchange.core2.revelator.RevelatorConfig;
+import exchange.core2.revelator.buffers.RingBuffer;
+import exchange.core2.revelator.fences.IFence;
+import exchange.core2.revelator.fences.SingleWriterFence;
+import exchange.core2.revelator.processors.IFlowProcessor;
+import exchange.core2.revelator.waitstrategies.IWaitStrategy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes published messages directly from the ring buffer into memory-mapped journal segments.
+ * Contiguous runs of messages are copied as single memory blocks, padding is skipped.
+ * <p>
+ * Group commit: journal is forced once per batch (or once per time window, see JournalConfig),
+ * releasing fence is only advanced after force, so any processor gated by this fence sees durable messages only.
+ * <p>
+ * Recovered messages (replayed from journal) are not written again.
+ */
+public final class JournalingFlowProcessor implements IFlowProcessor {
+
+    private static final Logger log = LoggerFactory.getLogger(JournalingFlowProcessor.class);
+
+    private final JournalConfig journalConfig;
+
+    private final IFence inboundFence;
+    private final SingleWriterFence releasingFence = new SingleWriterFence();
+
+    private final long indexMask;
+    private final RingBuffer buffer;
+    private final int headerSize;
+
+    private final IWaitStrategy waitStrategy;
+    private final IWaitStrategy blockingWaitStrategy;
+
+    private final IFence recoveryFence;
+
+    private long journaledMessages = 0L;
+    private long forcesCounter = 0L;
+
+    public JournalingFlowProcessor(final JournalConfig journalConfig,
+                                   final IFence inboundFence,
+                                   final RevelatorConfig config) {
+
+        this.journalConfig = journalConfig;
+        this.inboundFence = inboundFence;
+        this.indexMask = config.getIndexMask();
+        this.buffer = config.getBuffer();
+        this.headerSize = config.getHeaderSize();
+        this.waitStrategy = config.createWaitStrategy(config.getDefaultWaitStrategyType());
+        this.blockingWaitStrategy = config.getBlockingWaitStrategy();
+        this.recoveryFence = config.getRecoveryFence();
+    }
+
+    @Override
+    public void run() {
+
+        final long forceIntervalNs = journalConfig.getForceIntervalNs();
+
+        try (final JournalWriter writer = new JournalWriter(journalConfig, headerSize)) {
+
+            long positionSeq = 0L;
+            long firstUnforcedNs = 0L;
+            boolean unforced = false;
+
+            while (true) {
+
+                long availableSeq;
+                while ((availableSeq = waitStrategy.waitFor(positionSeq, inboundFence)) <= positionSeq) {
+                    // wait strategy can return without progress (interrupted)
+                }
+
+                final long recoveryBoundary = recoveryFence.getAcquire(positionSeq);
+
+                // start of contiguous run of messages (not yet copied)
+                long runStartSeq = positionSeq;
+
+                while (positionSeq < availableSeq) {
+
+                    final long index = positionSeq & indexMask;
+
+                    if (index == 0 && runStartSeq != positionSeq) {
+                        // previous message ended exactly at the end of the buffer
+                        copyRun(writer, runStartSeq, positionSeq);
+                        runStartSeq = positionSeq;
+                    }
+
+                    final long header1 = buffer.getLong(index);
+
+                    if (header1 == 0L) {
+                        // padding - skip until end of the buffer
+                        copyRun(writer, runStartSeq, positionSeq);
+                        positionSeq = (positionSeq | indexMask) + 1;
+                        runStartSeq = positionSeq;
+                        continue;
+                    }
+
+                    final byte msgType = (byte) ((header1 >>> 56) & 0x1F);
+
+                    if (msgType == Revelator.MSG_TYPE_POISON_PILL) {
+                        copyRun(writer, runStartSeq, positionSeq);
+                        writer.force();
+                        log.debug("journal shutdown (journaled {} messages, {} forces)", journaledMessages, forcesCounter);
+                        releasingFence.setRelease(positionSeq + headerSize);
+                        blockingWaitStrategy.signalAllWhenBlocking();
+                        return;
+                    }
+
+                    final int payloadSize = (int) buffer.getLong(index + headerSize - 1);
+                    final int messageBytes = (headerSize + payloadSize) << 3;
+
+                    if (positionSeq < recoveryBoundary) {
+                        // already journaled
+                        copyRun(writer, runStartSeq, positionSeq);
+                        positionSeq += headerSize + payloadSize;
+                        runStartSeq = positionSeq;
+                        continue;
+                    }
+
+                    if (((positionSeq - runStartSeq) << 3) + messageBytes > writer.remaining()) {
+                        copyRun(writer, runStartSeq, positionSeq);
+                        runStartSeq = positionSeq;
+                        if (messageBytes > writer.capacity()) {
+                            throw new IllegalStateException("Message does not fit into journal segment: " + messageBytes + " bytes");
+                        }
+                        writer.roll();
+                    }
+
+                    positionSeq += headerSize + payloadSize;
+                    journaledMessages++;
+                }
+
+                copyRun(writer, runStartSeq, positionSeq);
+
+                // group commit
+                if (!unforced) {
+                    unforced = true;
+                    firstUnforcedNs = forceIntervalNs == 0 ? 0L : System.nanoTime();
+                }
+
+                if (forceIntervalNs == 0
+                        || inboundFence.getAcquire(positionSeq) <= positionSeq
+                        || System.nanoTime() - firstUnforcedNs >= forceIntervalNs) {
+
+                    writer.force();
+                    forcesCounter++;
+                    unforced = false;
+
+                    releasingFence.setRelease(positionSeq);
+                    blockingWaitStrategy.signalAllWhenBlocking();
+                }
+            }
+        }
+    }
+
+    private void copyRun(final JournalWriter writer, final long fromSeq, final long toSeq) {
+        if (toSeq > fromSeq) {
+            writer.write(buffer.getBaseObject(), buffer.getAddress(fromSeq & indexMask), (int) ((toSeq - fromSeq) << 3));
+        }
+    }
+
+    @Override
+    public SingleWriterFence getReleasingFence() {
+        return releasingFence;
+    }
+
+    public long getJournaledMessages() {
+        return journaledMessages;
+    }
+
+    public long getForcesCounter() {
+        return forcesCounter;
+    }
+
+    @Override
+    public String toString() {
+        return "JournalingFlowProcessor{" + journalConfig.getDirectory() + '}';
+    }
+}
@@ -1,15 +1,31 @@
 package exchange.core2.revelator.processors.pipelined;
 
 
+import exchange.core2.revelator.HeaderFormat;
 import exchange.core2.revelator.Revelator;
+import exchange.core2.revelator.RevelatorConfig;
+import exchange.core2.revelator.buffers.RingBuffer;
 import exchange.core2.revelator.fences.IFence;
 import exchange.core2.revelator.fences.SingleWriterFence;
+import exchange.core2.revelator.metrics.MessageTracer;
+import exchange.core2.revelator.metrics.ProcessorCounters;
+import exchange.core2.revelator.metrics.RevelatorCounters;
+import exchange.core2.revelator.metrics.StageLatencyHistograms;
+import exchange.core2.revelator.metrics.StageLatencyRecorder;
+import exchange.core2.revelator.metrics.StageTraceRing;
+import exchange.core2.revelator.metrics.jfr.JfrEventsEmitter;
 import exchange.core2.revelator.processors.IFlowProcessor;
+import exchange.core2.revelator.processors.ReleasePolicy;
+import exchange.core2.revelator.waitstrategies.IWaitStrategy;
+import exchange.core2.revelator.waitstrategies.SpinCounter;
+import exchange.core2.revelator.waitstrategies.WaitStrategyType;
+import org.agrona.concurrent.status.AtomicCounter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Executor;
 import java.util.function.Supplier;
 import java.util.stream.IntStream;
 
@@ -29,46 +45,214 @@ import java.util.stream.IntStream;
  */
 public class PipelinedFlowProcessor<S extends PipelinedFlowSession> implements IFlowProcessor {
 
+    public static final int DEFAULT_PIPELINE_SIZE = 64;
+
+    // adaptive scheduling: each 16th call of the stage is timed, weights retuned each 1024 calls of the stage
+    private static final int SAMPLING_MASK = 15;
+    private static final int RETUNE_MASK = 1023;
+    private static final int MAX_WORK_WEIGHT = 1024;
+    private static final int DEFAULT_MISS_SHIFT = 2;
+    private static final int MAX_MISS_SHIFT = 10;
+
+    // shared-memory counters are updated each 1024 cycles under load, and before waiting for new messages
+    private static final int COUNTERS_UPDATE_MASK = 1023;
+
     private static final long WORK_TRIGGER_MAX_VALUE = Long.MAX_VALUE >> 1;
 
     private static final Logger log = LoggerFactory.getLogger(PipelinedFlowProcessor.class);
 
     private final int numHandlers;
     private final PipelinedStageHandler<S>[] handlers;
-    private final int PIPELINE_SIZE = 64; // should be be 2^N
+    private final int pipelineSize; // should be be 2^N
     private final S[] sessions;
 
     private final IFence inboundFence;
     private final SingleWriterFence releasingFence = new SingleWriterFence();
 
+    // progress of each stage (processed global offset), created on demand for processors running alongside pipeline
+    private final SingleWriterFence[] stageFences;
+
+    // bounded staleness of releasing fence while pipeline is never empty (sustained load)
+    private final ReleasePolicy.Type releaseType;
+    private final long releaseThreshold;
+    private long lastReleasedOffset = -1L;
+    private long messagesSinceRelease = 0L;
+    private long lastReleaseNs = 0L;
+
+    private final long indexMask;
+    private final RingBuffer buffer;
+
+    private final int headerSize;
+    private final boolean compactHeader;
+
+    private final IWaitStrategy waitStrategy;
+    private final IWaitStrategy blockingWaitStrategy;
+
+    private final boolean[] sideEffecting;
+    private final boolean[] batchAware;
+    private final IFence recoveryFence;
 
-    private final int indexMask;
-    private final long[] buffer;
+    private final Executor snapshotExecutor;
 
+    // per-stage latency since publishing, null if disabled
+    private final StageLatencyRecorder[] latencyRecorders;
+
+    // sampled tracing: (correlationId & traceMask) == traceMatch never matches if disabled
+    private final long traceMask;
+    private final long traceMatch;
+    private final StageTraceRing[] traceRings;
+
+    // null if JFR events are disabled
+    private final JfrEventsEmitter jfrEvents;
 
     private final int[] workWeights;
 //    private final int missWeights[];
+    private final int[] missShifts;
 
+    private final boolean adaptive;
+    private final long[] sampledHitNanos;
+    private final long[] sampledHits;
+    private final long[] periodHits;
+    private final long[] periodMisses;
 
-    private long dataSpinCounter = 0;
+
+    // idle iterations of the wait strategy
+    private final SpinCounter dataSpinCounter = new SpinCounter();
     private final long[] missCounters;
+    private final long[] hitCounters;
+    private long batchesCounter = 0L;
+    private long maxBatchSessions = 0L;
+
+    // null if counters are disabled
+    private final ProcessorCounters processorCounters;
+    private final AtomicCounter[] stageHitCounters;
+    private final AtomicCounter[] stageMissCounters;
+
+
+    public PipelinedFlowProcessor(final List<PipelinedStageHandler<S>> handlers,
+                                  final Supplier<S> sessionsFactory,
+                                  final IFence inboundFence,
+                                  final RevelatorConfig config) {
+
+        this(handlers, sessionsFactory, inboundFence, config, config.getDefaultWaitStrategyType());
+    }
+
+    public PipelinedFlowProcessor(final List<PipelinedStageHandler<S>> handlers,
+                                  final Supplier<S> sessionsFactory,
+                                  final IFence inboundFence,
+                                  final RevelatorConfig config,
+                                  final WaitStrategyType waitStrategyType) {
 
+        this(handlers, sessionsFactory, inboundFence, config, waitStrategyType, DEFAULT_PIPELINE_SIZE);
+    }
+
+    /**
+     * @param pipelineSize maximum number of sessions in flight (must be power of 2),
+     *                     deeper pipeline lets stages keep working through bursts at a cost of longer queueing
+     */
+    public PipelinedFlowProcessor(final List<PipelinedStageHandler<S>> handlers,
+                                  final Supplier<S> sessionsFactory,
+                                  final IFence inboundFence,
+                                  final RevelatorConfig config,
+                                  final WaitStrategyType waitStrategyType,
+                                  final int pipelineSize) {
+
+        this(handlers, sessionsFactory, inboundFence, config, waitStrategyType, pipelineSize, SchedulingMode.STATIC);
+    }
 
+    /**
+     * @param pipelineSize   maximum number of sessions in flight (must be power of 2),
+     *                       deeper pipeline lets stages keep working through bursts at a cost of longer queueing
+     * @param schedulingMode static or adaptive stage work weights
+     */
+    public PipelinedFlowProcessor(final List<PipelinedStageHandler<S>> handlers,
+                                  final Supplier<S> sessionsFactory,
+                                  final IFence inboundFence,
+                                  final RevelatorConfig config,
+                                  final WaitStrategyType waitStrategyType,
+                                  final int pipelineSize,
+                                  final SchedulingMode schedulingMode) {
+
+        this(handlers, sessionsFactory, inboundFence, config, waitStrategyType, pipelineSize, schedulingMode, ReleasePolicy.BATCH_END);
+    }
+
+    /**
+     * @param pipelineSize   maximum number of sessions in flight (must be power of 2),
+     *                       deeper pipeline lets stages keep working through bursts at a cost of longer queueing
+     * @param schedulingMode static or adaptive stage work weights
+     * @param releasePolicy  when to release messages processed by last stage while pipeline still has sessions in flight,
+     *                       BATCH_END - only when pipeline is empty
+     */
     @SuppressWarnings("unchecked")
     public PipelinedFlowProcessor(final List<PipelinedStageHandler<S>> handlers,
                                   final Supplier<S> sessionsFactory,
                                   final IFence inboundFence,
-                                  int indexMask,
-                                  long[] buffer) {
+                                  final RevelatorConfig config,
+                                  final WaitStrategyType waitStrategyType,
+                                  final int pipelineSize,
+                                  final SchedulingMode schedulingMode,
+                                  final ReleasePolicy releasePolicy) {
+
+        if (Integer.bitCount(pipelineSize) != 1) {
+            throw new IllegalArgumentException("pipelineSize must be power of 2");
+        }
 
         this.handlers = handlers.toArray(x -> new PipelinedStageHandler[handlers.size()]);
         this.numHandlers = handlers.size();
-        this.sessions = createSessions(sessionsFactory, PIPELINE_SIZE);
+        this.pipelineSize = pipelineSize;
+        this.sessions = createSessions(sessionsFactory, pipelineSize);
         this.workWeights = handlers.stream().mapToInt(PipelinedStageHandler::getHitWorkWeight).toArray();
+        this.missShifts = new int[numHandlers];
+        Arrays.fill(missShifts, DEFAULT_MISS_SHIFT);
+        this.adaptive = schedulingMode == SchedulingMode.ADAPTIVE;
+        this.sampledHitNanos = new long[numHandlers];
+        this.sampledHits = new long[numHandlers];
+        this.periodHits = new long[numHandlers];
+        this.periodMisses = new long[numHandlers];
         this.inboundFence = inboundFence;
-        this.indexMask = indexMask;
-        this.buffer = buffer;
+        this.indexMask = config.getIndexMask();
+        this.buffer = config.getBuffer();
+        this.headerSize = config.getHeaderSize();
+        this.compactHeader = config.getHeaderFormat() == HeaderFormat.COMPACT;
         this.missCounters = new long[handlers.size()];
+        this.hitCounters = new long[handlers.size()];
+        this.waitStrategy = config.createWaitStrategy(waitStrategyType);
+        this.blockingWaitStrategy = config.getBlockingWaitStrategy();
+        this.sideEffecting = new boolean[numHandlers];
+        this.batchAware = new boolean[numHandlers];
+        for (int i = 0; i < numHandlers; i++) {
+            this.sideEffecting[i] = this.handlers[i].isSideEffecting();
+            this.batchAware[i] = PipelinedStageHandler.isBatchAware(this.handlers[i]);
+        }
+        this.recoveryFence = config.getRecoveryFence();
+        this.snapshotExecutor = config.getSnapshotExecutor();
+        final String processorName = config.createProcessorName("pipelined");
+        final StageLatencyHistograms latencyHistograms = config.getStageLatencyHistograms();
+        this.latencyRecorders = latencyHistograms != null ? latencyHistograms.register(processorName, numHandlers) : null;
+        final MessageTracer tracer = config.getMessageTracer();
+        this.traceMask = MessageTracer.sampleMask(tracer);
+        this.traceMatch = MessageTracer.sampleMatch(tracer);
+        this.traceRings = tracer != null
+                ? IntStream.range(0, numHandlers).mapToObj(i -> tracer.registerStage(processorName + "." + i)).toArray(StageTraceRing[]::new)
+                : null;
+        this.jfrEvents = config.createJfrEventsEmitter(processorName);
+        final RevelatorCounters counters = config.getCounters();
+        if (counters != null) {
+            this.processorCounters = new ProcessorCounters(counters, processorName);
+            this.stageHitCounters = new AtomicCounter[numHandlers];
+            this.stageMissCounters = new AtomicCounter[numHandlers];
+            for (int i = 0; i < numHandlers; i++) {
+                stageHitCounters[i] = counters.newCounter(processorName + "." + i + " hits", RevelatorCounters.TYPE_STAGE);
+                stageMissCounters[i] = counters.newCounter(processorName + "." + i + " misses", RevelatorCounters.TYPE_STAGE);
+            }
+        } else {
+            this.processorCounters = null;
+            this.stageHitCounters = null;
+            this.stageMissCounters = null;
+        }
+        this.stageFences = new SingleWriterFence[numHandlers];
+        this.releaseType = releasePolicy.getType();
+        this.releaseThreshold = releasePolicy.getThreshold();
     }
 
     @SuppressWarnings("unchecked")
@@ -82,7 +266,10 @@ public class PipelinedFlowProcessor<S extends PipelinedFlowSession> implements I
     @Override
     public void run() {
 
-        final int pipelineMask = PIPELINE_SIZE - 1;
+        final int pipelineMask = pipelineSize - 1;
+
+        // time policy interval is measured from start (not from 0)
+        lastReleaseNs = System.nanoTime();
 
 
         final long[] handlerWorkTriggers = new long[numHandlers];
@@ -96,6 +283,9 @@ public class PipelinedFlowProcessor<S extends PipelinedFlowSession> implements I
         final long[] handlerSequence = new long[numHandlers];
         for (int i = 0; i < numHandlers; i++) handlerSequence[i] = -1;
 
+        // batch-aware stages: started batch and not finished yet
+        final boolean[] handlerInBatch = new boolean[numHandlers];
+
         long initializerOffset = 0L; // session initializer global offset
         long nextAvailableOffset;
 
@@ -103,23 +293,48 @@ public class PipelinedFlowProcessor<S extends PipelinedFlowSession> implements I
 
         long lastOffsetToRelease = -1L;
 
+        long cycle = 0L;
+
         while (true) {
 
             // always work counter
             workCounter++;
 
+            if ((++cycle & COUNTERS_UPDATE_MASK) == 0) {
+                if (processorCounters != null) {
+                    updateCounters();
+                }
+                if (jfrEvents != null) {
+                    jfrEvents.emitStageMisses(missCounters, hitCounters);
+                }
+            }
+
             // gatingSequence is a barrier to protect sessions queue from wrapping:
-            final long gatingSequence = headSequence + PIPELINE_SIZE;
+            final long gatingSequence = headSequence + pipelineSize;
 
 //            log.info("------- new cycle, tailSequence={} headSequence={} gatingSequence={} ", tailSequence, headSequence, gatingSequence);
 
             if ((tailSequence == headSequence)) {
                 if (isShutdown) {
                     log.info("All sessions processed, processor stopped");
+                    if (processorCounters != null) {
+                        updateCounters();
+                    }
                     return;
                 } else {
                     releasingFence.setRelease(lastOffsetToRelease);
+                    blockingWaitStrategy.signalAllWhenBlocking();
+                    if (releaseType != ReleasePolicy.Type.BATCH_END && lastOffsetToRelease != lastReleasedOffset) {
+                        onReleased(lastOffsetToRelease);
+                    }
                 }
+            } else if (releaseType != ReleasePolicy.Type.BATCH_END
+                    && lastOffsetToRelease != lastReleasedOffset
+                    && isReleaseDue(lastOffsetToRelease)) {
+                // pipeline is never empty under sustained load - release completed messages anyway
+                releasingFence.setRelease(lastOffsetToRelease);
+                blockingWaitStrategy.signalAllWhenBlocking();
+                onReleased(lastOffsetToRelease);
             }
 
             // check for new messages or init new sessions only if there free space in the cyclic sessions buffer
@@ -137,11 +352,14 @@ public class PipelinedFlowProcessor<S extends PipelinedFlowSession> implements I
                 nextAvailableOffset = inboundFence.getAcquire(Long.MIN_VALUE);
 
                 if (tailSequence == headSequence && initializerOffset == nextAvailableOffset) {
-                    while (initializerOffset == (nextAvailableOffset = inboundFence.getAcquire(Long.MIN_VALUE))) {
-//                        Thread.yield();
-                        Thread.onSpinWait();
-//                        LockSupport.parkNanos(1L);
-                        dataSpinCounter++;
+                    if (processorCounters != null) {
+                        updateCounters();
+                    }
+                    final long idleStartNs = jfrEvents != null ? jfrEvents.beginIdle() : JfrEventsEmitter.NOT_RECORDING;
+                    final long spinsBefore = dataSpinCounter.get();
+                    nextAvailableOffset = waitStrategy.waitFor(initializerOffset, inboundFence, dataSpinCounter);
+                    if (idleStartNs != JfrEventsEmitter.NOT_RECORDING) {
+                        jfrEvents.commitIdle(idleStartNs, dataSpinCounter.get() - spinsBefore);
                     }
                 }
 
@@ -157,22 +375,32 @@ public class PipelinedFlowProcessor<S extends PipelinedFlowSession> implements I
 
 //                log.debug("initializerOffset={} nextAvailableOffset={}", initializerOffset, nextAvailableOffset);
 
+                // recovered messages are not passed to side-effecting stages, snapshots are not taken during recovery
+                final long recoveryBoundary = recoveryFence.getAcquire(initializerOffset);
+
                 // parse new messages if there are some
+                final long batchStartSequence = tailSequence;
+                S lastInitializedSession = null;
                 while (initializerOffset < nextAvailableOffset) {
 
 //                    log.debug("NEW SESSION: initializerOffset={} nextAvailableOffset={}", initializerOffset, nextAvailableOffset);
 
 //            log.debug("reading at index={} ({}<{})",(int) (positionSeq & indexMask), positionSeq , availableSeq);
 
-                    final int index = (int) (initializerOffset & indexMask);
+                    final long index = initializerOffset & indexMask;
 
-                    final long header1 = buffer[index];
+                    final long header1 = buffer.getLong(index);
 
 //                    log.debug("header1 = {}", header1);
 
                     if (header1 == 0L) {
                         // empty message - skip until end of the buffer
-                        initializerOffset = (initializerOffset | indexMask) + 1;
+                        final long paddingWords = ((initializerOffset | indexMask) + 1) - initializerOffset;
+                        initializerOffset += paddingWords;
+                        // padding is not a message - exclude it from previous session hint
+                        if (lastInitializedSession != null) {
+                            lastInitializedSession.wordsLeftInBatch = (int) Math.max(0L, lastInitializedSession.wordsLeftInBatch - paddingWords);
+                        }
 //                        log.debug("empty message - skip until end of the buffer");
                         continue;
                     }
@@ -186,8 +414,9 @@ public class PipelinedFlowProcessor<S extends PipelinedFlowSession> implements I
 //                    log.debug("sessionIdx={}", sessionIdx);
                     final S session = sessions[sessionIdx];
 
-                    session.bufferIndex = index + Revelator.MSG_HEADER_SIZE;
+                    session.bufferIndex = index + headerSize;
                     session.correlationId = header1 & 0x00FF_FFFF_FFFF_FFFFL;
+                    session.recovered = initializerOffset < recoveryBoundary;
 
                     final int header2 = (int) (header1 >>> 56);
 
@@ -198,48 +427,48 @@ public class PipelinedFlowProcessor<S extends PipelinedFlowSession> implements I
 
                     // TODO throw shutdown signal exception
 
-                    session.timestamp = buffer[index + 1];
+                    session.timestamp = compactHeader ? 0L : buffer.getLong(index + 1);
 
 //                    log.debug("session.timestamp={}", session.timestamp);
 
-                    final long payloadSize = buffer[index + 2];
-                    session.payloadSize = (int) payloadSize;
+                    final long sizeWord = buffer.getLong(index + headerSize - 1);
+                    session.payloadSize = (int) sizeWord;
+                    session.userCookie = (int) (sizeWord >>> 32);
 
-                    session.globalOffset = initializerOffset + payloadSize + Revelator.MSG_HEADER_SIZE;
+                    session.globalOffset = initializerOffset + session.payloadSize + headerSize;
 //                    log.debug("initializerOffset={} -> globalOffset={}", initializerOffset, session.globalOffset);
 
 
-                    initializerOffset += Revelator.MSG_HEADER_SIZE + session.payloadSize;
+                    initializerOffset += headerSize + session.payloadSize;
 
-                    if (tailSequence == gatingSequence) {
-//                        log.info("gatingSequence reached = {}", gatingSequence);
-//                        session.wordsLeftInBatch = 0;
-                        break;
-                    }
-
-                    // NOTE: (only if wordsLeftInBatch feature is enabled)
-                    // it is very important to write meaningful message after empty message because
-                    // batch-aggregation logic in handlers relies on assumption that last message is always non-empty
-
-//                    session.wordsLeftInBatch = (int) (nextAvailableOffset - initializerOffset);
+                    // NOTE: padding right after the message is excluded from its hint when padding is reached,
+                    // batch-aggregation logic in handlers relies on assumption that last message has 0 words left
+                    session.wordsLeftInBatch = (int) Math.min(nextAvailableOffset - initializerOffset, Integer.MAX_VALUE);
+                    lastInitializedSession = session;
 
                     if (session.messageType == Revelator.MSG_TYPE_POISON_PILL) {
 
                         log.info("Shutdown signal received, processing all remaining sessions...");
+                        session.wordsLeftInBatch = 0;
                         isShutdown = true;
                         break;
                     }
 
-                    if (session.messageType == Revelator.MSG_TYPE_TEST_CONTROL) {
-                        final long data = buffer[index + 3];
-                        if (data == 1073923874826736264L) {
-                            //log.debug("{} spin:{} miss:{}", this, dataSpinCounter, Arrays.toString(missCounters));
-                            Arrays.fill(missCounters, 0L);
-                            dataSpinCounter = 0L;
-                        }
+                    // checked after control messages, otherwise shutdown signal can be missed if it takes last free session
+                    if (tailSequence == gatingSequence) {
+//                        log.info("gatingSequence reached = {}", gatingSequence);
+                        // no more sessions until stages free some space
+                        session.wordsLeftInBatch = 0;
+                        break;
                     }
 
                 }
+
+                final long batchSessions = tailSequence - batchStartSequence;
+                if (batchSessions != 0) {
+                    batchesCounter++;
+                    maxBatchSessions = Math.max(maxBatchSessions, batchSessions);
+                }
             } else {
 //                log.debug("Skip:  space in the cyclic sessions buffer");
             }
@@ -284,24 +513,61 @@ public class PipelinedFlowProcessor<S extends PipelinedFlowSession> implements I
                         final S session = sessions[sessionIdx];
 //                        log.debug("sessionIdx={} go={} t={}", sessionIdx, session.globalOffset, session.timestamp);
 
-                        final boolean success = handlers[handlerIdx].process(session);
+                        if (batchAware[handlerIdx] && !handlerInBatch[handlerIdx]) {
+                            handlers[handlerIdx].onBatchStart();
+                            handlerInBatch[handlerIdx] = true;
+                        }
+
+                        final boolean success;
+                        if (session.messageType == Revelator.MSG_TYPE_SNAPSHOT) {
+                            if (!session.recovered) {
+                                takeSnapshot(handlers[handlerIdx], session);
+                            }
+                            success = true;
+                        } else if (session.recovered && sideEffecting[handlerIdx]) {
+                            success = true;
+                        } else if ((session.correlationId & traceMask) == traceMatch) {
+                            success = processTraced(handlerIdx, session);
+                        } else if (adaptive) {
+                            success = processAdaptive(handlerIdx, session);
+                        } else {
+                            success = handlers[handlerIdx].process(session);
+                        }
 
 //                        log.debug("success={}", success);
 
                         if (success) {
                             // successful processing - move sequence forward and update it
                             handlerSequence[handlerIdx] = sequence;
+                            hitCounters[handlerIdx]++;
+
+                            if (batchAware[handlerIdx] && session.wordsLeftInBatch == 0) {
+                                handlers[handlerIdx].onBatchEnd();
+                                handlerInBatch[handlerIdx] = false;
+                            }
+
+                            // control messages (snapshot, shutdown) are not timestamped
+                            if (latencyRecorders != null && !session.recovered && session.messageType < Revelator.MSG_TYPE_SNAPSHOT) {
+                                latencyRecorders[handlerIdx].record(session.timestamp);
+                            }
+
+                            // stage progress is published immediately (at most once per cycle per stage)
+                            final SingleWriterFence stageFence = stageFences[handlerIdx];
+                            if (stageFence != null) {
+                                stageFence.setRelease(session.globalOffset);
+                            }
 
                             // every time last handler makes progress - update outgoingFence
                             // TODO check if it slows down compared to publishing once-by-batch in disruptor
                             if (handlerIdx == numHandlers - 1) {
 //                                releasingFence.setRelease(session.globalOffset);
                                 lastOffsetToRelease = session.globalOffset;
+                                messagesSinceRelease++;
                             }
 
                         } else {
                             // not - postpone next call by some constant
-                            handlerWorkTriggers[handlerIdx] = workCounter + (workWeight << 2);
+                            handlerWorkTriggers[handlerIdx] = workCounter + (workWeight << missShifts[handlerIdx]);
                             sequence--;
 
                             missCounters[handlerIdx]++;
@@ -337,11 +603,143 @@ public class PipelinedFlowProcessor<S extends PipelinedFlowSession> implements I
 
     }
 
+    private boolean processTraced(final int handlerIdx, final S session) {
+
+        final long entryNs = System.nanoTime();
+        final boolean success = adaptive ? processAdaptive(handlerIdx, session) : handlers[handlerIdx].process(session);
+
+        // only successful attempt is recorded, control messages are not traced
+        if (success && session.messageType < Revelator.MSG_TYPE_SNAPSHOT) {
+            traceRings[handlerIdx].record(session.globalOffset, session.correlationId, session.timestamp, entryNs, System.nanoTime());
+        }
+        return success;
+    }
+
+    private boolean processAdaptive(final int handlerIdx, final S session) {
+
+        final long calls = periodHits[handlerIdx] + periodMisses[handlerIdx] + 1;
+
+        final boolean success;
+        if ((calls & SAMPLING_MASK) == 0) {
+            final long startNs = System.nanoTime();
+            success = handlers[handlerIdx].process(session);
+            if (success) {
+                sampledHitNanos[handlerIdx] += System.nanoTime() - startNs;
+                sampledHits[handlerIdx]++;
+            }
+        } else {
+            success = handlers[handlerIdx].process(session);
+        }
+
+        if (success) {
+            periodHits[handlerIdx]++;
+        } else {
+            periodMisses[handlerIdx]++;
+        }
+
+        if ((calls & RETUNE_MASK) == 0) {
+            retune(handlerIdx);
+        }
+
+        return success;
+    }
+
+    /**
+     * Work weight is stage hit cost relative to the cheapest stage.
+     * Miss penalty grows while stage mostly misses (blocked by something), and shrinks back when it mostly hits.
+     */
+    private void retune(final int handlerIdx) {
+
+        if (sampledHits[handlerIdx] != 0) {
+
+            long minHitCost = Long.MAX_VALUE;
+            for (int i = 0; i < numHandlers; i++) {
+                if (sampledHits[i] != 0) {
+                    minHitCost = Math.min(minHitCost, sampledHitNanos[i] / sampledHits[i]);
+                }
+            }
+
+            final long hitCost = sampledHitNanos[handlerIdx] / sampledHits[handlerIdx];
+            workWeights[handlerIdx] = (int) Math.min(Math.max(hitCost / Math.max(minHitCost, 1L), 1L), MAX_WORK_WEIGHT);
+
+//            log.debug("stage {} hitCost={}ns weight={}", handlerIdx, hitCost, workWeights[handlerIdx]);
+        }
+
+        final long misses = periodMisses[handlerIdx];
+        final long hits = periodHits[handlerIdx];
+        if (misses > hits) {
+            missShifts[handlerIdx] = Math.min(missShifts[handlerIdx] + 1, MAX_MISS_SHIFT);
+        } else if (misses < (hits >> 3)) {
+            missShifts[handlerIdx] = Math.max(missShifts[handlerIdx] - 1, 0);
+        }
+
+        // start next period, keeping half of the history for smoothing
+        sampledHitNanos[handlerIdx] >>= 1;
+        sampledHits[handlerIdx] >>= 1;
+        periodHits[handlerIdx] = 0;
+        periodMisses[handlerIdx] = 0;
+    }
+
+    private void updateCounters() {
+        processorCounters.update(hitCounters[numHandlers - 1], batchesCounter, maxBatchSessions, dataSpinCounter.get());
+        for (int i = 0; i < numHandlers; i++) {
+            stageHitCounters[i].setOrdered(hitCounters[i]);
+            stageMissCounters[i].setOrdered(missCounters[i]);
+        }
+    }
+
+    private boolean isReleaseDue(final long offset) {
+        switch (releaseType) {
+            case MESSAGES:
+                return messagesSinceRelease >= releaseThreshold;
+            case WORDS:
+                return offset - lastReleasedOffset >= releaseThreshold;
+            case TIME:
+                return System.nanoTime() - lastReleaseNs >= releaseThreshold;
+            default:
+                return false;
+        }
+    }
+
+    private void onReleased(final long offset) {
+        lastReleasedOffset = offset;
+        messagesSinceRelease = 0L;
+        if (releaseType == ReleasePolicy.Type.TIME) {
+            lastReleaseNs = System.nanoTime();
+        }
+    }
+
+    private void takeSnapshot(final PipelinedStageHandler<S> handler, final S session) {
+        final long snapshotOffset = session.globalOffset - headerSize - session.payloadSize;
+        final Runnable snapshotTask = handler.onSnapshot(session.correlationId, snapshotOffset);
+        if (snapshotTask != null) {
+            snapshotExecutor.execute(snapshotTask);
+        }
+    }
+
     @Override
     public SingleWriterFence getReleasingFence() {
         return releasingFence;
     }
 
+    /**
+     * Fence tracking global offset of the last message processed by the stage.
+     * Unlike releasing fence it is updated as soon as stage makes progress,
+     * so other processors can work on messages in parallel with remaining stages.
+     * <p>
+     * Should be requested before processor is started.
+     * Consumers of stage fence must be included into the releasing fence of topology,
+     * otherwise messages can be overwritten while they are still reading it.
+     *
+     * @param stageIdx index of the handler
+     */
+    public SingleWriterFence getStageFence(final int stageIdx) {
+        if (stageFences[stageIdx] == null) {
+            stageFences[stageIdx] = new SingleWriterFence();
+        }
+        return stageFences[stageIdx];
+    }
+
 
 //    long waitMessage(final long lastSeq) {
 //        return 0L;
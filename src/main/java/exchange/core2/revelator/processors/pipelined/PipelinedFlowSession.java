@@ -3,7 +3,7 @@ package exchange.core2.revelator.processors.pipelined;
 public class PipelinedFlowSession {
 
     public long globalOffset;
-    public int bufferIndex;
+    public long bufferIndex;
 
     public int payloadSize;
     public byte messageType;
@@ -11,6 +11,10 @@ public class PipelinedFlowSession {
     public long correlationId;
     public int userCookie;
 
-//    public int wordsLeftInBatch;
+    // recovered message (side-effecting stages are skipped)
+    public boolean recovered;
+
+    // words available after this message when session was created (0 - last message of the batch)
+    public int wordsLeftInBatch;
 
 }
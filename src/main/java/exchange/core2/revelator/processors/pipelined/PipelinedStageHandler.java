@@ -12,4 +12,50 @@ public interface PipelinedStageHandler<S extends PipelinedFlowSession> {
 
     int getHitWorkWeight();
 
+    /**
+     * Called before stage processes first session of the batch
+     */
+    default void onBatchStart() {
+    }
+
+    /**
+     * Called after stage successfully processed last session of the batch (session.wordsLeftInBatch == 0),
+     * flush coalesced work here
+     */
+    default void onBatchEnd() {
+    }
+
+    /**
+     * Called from processor thread when snapshot control message reaches this stage (see Revelator.requestSnapshot).
+     * Stage should capture its state consistently and return serialization task,
+     * which will be executed by snapshot executor, off the processor thread.
+     * Not called for recovered messages.
+     *
+     * @return serialization task or null
+     */
+    default Runnable onSnapshot(long snapshotId, long globalOffset) {
+        return null;
+    }
+
+    /**
+     * Side-effecting stages (sending reports, writing journal, etc) are skipped for recovered messages
+     */
+    default boolean isSideEffecting() {
+        return false;
+    }
+
+    /**
+     * Batch callbacks are only called if stage overrides at least one of them
+     * (checked once by processor, so there is no cost for other stages)
+     */
+    static boolean isBatchAware(final PipelinedStageHandler<?> handler) {
+        try {
+            final Class<?> handlerClass = handler.getClass();
+            return handlerClass.getMethod("onBatchStart").getDeclaringClass() != PipelinedStageHandler.class
+                    || handlerClass.getMethod("onBatchEnd").getDeclaringClass() != PipelinedStageHandler.class;
+        } catch (final NoSuchMethodException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
 }
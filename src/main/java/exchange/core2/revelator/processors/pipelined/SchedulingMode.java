@@ -0,0 +1,18 @@
+package exchange.core2.revelator.processors.pipelined;
+
+/**
+ * How PipelinedFlowProcessor decides which stage to call next
+ */
+public enum SchedulingMode {
+
+    /**
+     * Work weights are taken from PipelinedStageHandler.getHitWorkWeight(), fixed penalty after a miss
+     */
+    STATIC,
+
+    /**
+     * Work weights and miss penalties are retuned online from sampled stage hit cost and miss rate,
+     * getHitWorkWeight() is only used as initial value
+     */
+    ADAPTIVE
+}
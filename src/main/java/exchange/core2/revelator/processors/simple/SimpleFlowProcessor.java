@@ -1,13 +1,31 @@
 package exchange.core2.revelator.processors.simple;
 
+import exchange.core2.revelator.HeaderFormat;
 import exchange.core2.revelator.Revelator;
 import exchange.core2.revelator.RevelatorConfig;
+import exchange.core2.revelator.buffers.RingBuffer;
 import exchange.core2.revelator.fences.IFence;
+import exchange.core2.revelator.fences.ShardedFence;
 import exchange.core2.revelator.fences.SingleWriterFence;
+import exchange.core2.revelator.metrics.MessageTracer;
+import exchange.core2.revelator.metrics.ProcessorCounters;
+import exchange.core2.revelator.metrics.RevelatorCounters;
+import exchange.core2.revelator.metrics.StageLatencyHistograms;
+import exchange.core2.revelator.metrics.StageLatencyRecorder;
+import exchange.core2.revelator.metrics.StageTraceRing;
+import exchange.core2.revelator.metrics.jfr.BatchProcessedEvent;
+import exchange.core2.revelator.metrics.jfr.JfrEventsEmitter;
 import exchange.core2.revelator.processors.IFlowProcessor;
+import exchange.core2.revelator.processors.ReleasePolicy;
+import exchange.core2.revelator.waitstrategies.IWaitStrategy;
+import exchange.core2.revelator.waitstrategies.SpinCounter;
+import exchange.core2.revelator.waitstrategies.WaitStrategyType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.Executor;
+import java.util.function.LongToIntFunction;
+
 public final class SimpleFlowProcessor implements IFlowProcessor {
 
     private static final Logger log = LoggerFactory.getLogger(SimpleFlowProcessor.class);
@@ -17,9 +35,54 @@ public final class SimpleFlowProcessor implements IFlowProcessor {
     private final IFence inboundFence;
     private final SingleWriterFence releasingFence = new SingleWriterFence();
 
-    private final int indexMask;
-    private final long[] buffer;
-    private final int bufferSize;
+    private final long indexMask;
+    private final RingBuffer buffer;
+    private final long bufferSize;
+
+    private final int headerSize;
+    private final boolean compactHeader;
+
+    private final IWaitStrategy waitStrategy;
+    private final IWaitStrategy blockingWaitStrategy;
+
+    private final boolean sideEffecting;
+    private final boolean batchAware;
+    private final IFence recoveryFence;
+
+    private final Executor snapshotExecutor;
+
+    // null if stage latency recording is disabled
+    private final StageLatencyRecorder latencyRecorder;
+
+    // sampled tracing: (correlationId & traceMask) == traceMatch never matches if disabled
+    private final long traceMask;
+    private final long traceMatch;
+    private final StageTraceRing traceRing;
+
+    // null if JFR events are disabled
+    private final JfrEventsEmitter jfrEvents;
+
+    // null if counters are disabled
+    private final ProcessorCounters counters;
+    private long messagesProcessed = 0L;
+    private long batchesProcessed = 0L;
+    private long maxBatchMessages = 0L;
+    // idle iterations of the wait strategy
+    private final SpinCounter idleSpins = new SpinCounter();
+
+    // sharded worker: only messages with shardFunction(correlationId) == shardId are passed to handler
+    private final LongToIntFunction shardFunction;
+    private final int shardId;
+
+    // processor after sharded workers: each message waits only for the shard which owns it
+    private final ShardedFence shardedFence;
+
+    // progressive release inside large batches
+    private final ReleasePolicy.Type releaseType;
+    private final long releaseThreshold;
+    private long lastReleasedSeq = 0L;
+    private long messagesSinceRelease = 0L;
+    private long lastReleaseNs = 0L;
 
     private long superCounter;
 
@@ -27,11 +90,92 @@ public final class SimpleFlowProcessor implements IFlowProcessor {
                                final IFence inboundFence,
                                final RevelatorConfig config) {
 
+        this(handler, inboundFence, config, config.getDefaultWaitStrategyType());
+    }
+
+    public SimpleFlowProcessor(final SimpleMessageHandler handler,
+                               final IFence inboundFence,
+                               final RevelatorConfig config,
+                               final WaitStrategyType waitStrategyType) {
+
+        this(handler, inboundFence, config, waitStrategyType, ReleasePolicy.BATCH_END);
+    }
+
+    /**
+     * @param releasePolicy when to release processed messages to the next stage inside a large batch
+     */
+    public SimpleFlowProcessor(final SimpleMessageHandler handler,
+                               final IFence inboundFence,
+                               final RevelatorConfig config,
+                               final WaitStrategyType waitStrategyType,
+                               final ReleasePolicy releasePolicy) {
+
+        this(handler, inboundFence, config, waitStrategyType, null, -1, null, releasePolicy);
+    }
+
+    /**
+     * Sharded worker - skips messages owned by other shards (control messages are always handled)
+     */
+    public SimpleFlowProcessor(final SimpleMessageHandler handler,
+                               final IFence inboundFence,
+                               final RevelatorConfig config,
+                               final WaitStrategyType waitStrategyType,
+                               final LongToIntFunction shardFunction,
+                               final int shardId) {
+
+        this(handler, inboundFence, config, waitStrategyType, shardFunction, shardId, null, ReleasePolicy.BATCH_END);
+    }
+
+    /**
+     * Processor following sharded workers - reads messages as soon as they are published (inboundFence),
+     * and before handling each message waits until shard owning it has processed it (shardedFence)
+     */
+    public SimpleFlowProcessor(final SimpleMessageHandler handler,
+                               final IFence inboundFence,
+                               final ShardedFence shardedFence,
+                               final RevelatorConfig config,
+                               final WaitStrategyType waitStrategyType) {
+
+        this(handler, inboundFence, config, waitStrategyType, null, -1, shardedFence, ReleasePolicy.BATCH_END);
+    }
+
+    private SimpleFlowProcessor(final SimpleMessageHandler handler,
+                                final IFence inboundFence,
+                                final RevelatorConfig config,
+                                final WaitStrategyType waitStrategyType,
+                                final LongToIntFunction shardFunction,
+                                final int shardId,
+                                final ShardedFence shardedFence,
+                                final ReleasePolicy releasePolicy) {
+
         this.handler = handler;
         this.inboundFence = inboundFence;
         this.indexMask = config.getIndexMask();
         this.buffer = config.getBuffer();
         this.bufferSize = config.getBufferSize();
+        this.headerSize = config.getHeaderSize();
+        this.compactHeader = config.getHeaderFormat() == HeaderFormat.COMPACT;
+        this.waitStrategy = config.createWaitStrategy(waitStrategyType);
+        this.blockingWaitStrategy = config.getBlockingWaitStrategy();
+        this.sideEffecting = handler.isSideEffecting();
+        this.batchAware = SimpleMessageHandler.isBatchAware(handler);
+        this.recoveryFence = config.getRecoveryFence();
+        this.snapshotExecutor = config.getSnapshotExecutor();
+        final String processorName = config.createProcessorName("simple");
+        final StageLatencyHistograms latencyHistograms = config.getStageLatencyHistograms();
+        this.latencyRecorder = latencyHistograms != null ? latencyHistograms.register(processorName, 1)[0] : null;
+        final MessageTracer tracer = config.getMessageTracer();
+        this.traceMask = MessageTracer.sampleMask(tracer);
+        this.traceMatch = MessageTracer.sampleMatch(tracer);
+        this.traceRing = tracer != null ? tracer.registerStage(processorName) : null;
+        this.jfrEvents = config.createJfrEventsEmitter(processorName);
+        final RevelatorCounters revelatorCounters = config.getCounters();
+        this.counters = revelatorCounters != null ? new ProcessorCounters(revelatorCounters, processorName) : null;
+        this.shardFunction = shardFunction;
+        this.shardId = shardId;
+        this.shardedFence = shardedFence;
+        this.releaseType = releasePolicy.getType();
+        this.releaseThreshold = releasePolicy.getThreshold();
     }
 
     @Override
@@ -39,34 +183,46 @@ public final class SimpleFlowProcessor implements IFlowProcessor {
 
         long positionSeq = 0L;
 
+        // time policy interval is measured from start (not from 0)
+        lastReleaseNs = System.nanoTime();
+
         while (true) {
 
-            long availableSeq;
-            int c = 0;
-            while ((availableSeq = inboundFence.getAcquire(positionSeq)) <= positionSeq) {
-                Thread.onSpinWait();
-//                LockSupport.parkNanos(1L);
-//                    if (c++ == 100) {
-//                        Thread.yield();
-//                        c = 0;
-//                    }
-//                for (int i = 0; i < 40; i++) {
-//                    superCounter = (superCounter << 1) + superCounter;
-//                }
-//                superCounter += System.nanoTime();
+            // idle period starts if there are no new messages before calling wait strategy (which can block)
+            final long idleStartNs = jfrEvents != null && inboundFence.getAcquire(positionSeq) <= positionSeq
+                    ? jfrEvents.beginIdle()
+                    : JfrEventsEmitter.NOT_RECORDING;
+            final long idleSpinsBefore = idleSpins.get();
+
+            final long availableSeq = waitStrategy.waitFor(positionSeq, inboundFence, idleSpins);
 
+            if (idleStartNs != JfrEventsEmitter.NOT_RECORDING) {
+                jfrEvents.commitIdle(idleStartNs, idleSpins.get() - idleSpinsBefore);
             }
 
+            final long batchStartSeq = positionSeq;
+            final BatchProcessedEvent batchEvent = jfrEvents != null ? jfrEvents.beginBatch() : null;
+
 //        log.debug("Handle batch bufAddr={} positionSeq={} availableSeq={}", bufferAddr, positionSeq, availableSeq);
 
+            // recovered messages are not passed to side-effecting handler, snapshots are not taken during recovery
+            final long recoveryBoundary = recoveryFence.getAcquire(positionSeq);
+            final long handlerBoundary = sideEffecting ? recoveryBoundary : -1L;
+
+            if (batchAware) {
+                handler.onBatchStart(positionSeq, availableSeq);
+            }
+
+            long batchMessages = 0L;
+
             while (positionSeq < availableSeq) {
 
 //            log.debug("positionSeq={} availableSeq={}", positionSeq, availableSeq);
 //            log.debug("reading at index={} ({}<{})",(int) (positionSeq & indexMask), positionSeq , availableSeq);
 
-                final int index = (int) (positionSeq & indexMask);
+                final long index = positionSeq & indexMask;
 
-                final long header1 = buffer[index];
+                final long header1 = buffer.getLong(index);
 
 //                log.debug("SIMPLE positionSeq={} availableSeq={} header1={}", positionSeq, availableSeq, header1);
 
@@ -91,8 +247,16 @@ public final class SimpleFlowProcessor implements IFlowProcessor {
 
                 if (msgType == Revelator.MSG_TYPE_POISON_PILL) {
 
-                    log.debug("processor shutdown (received msgType={}, publishing positionSeq={}+{})", msgType, positionSeq, Revelator.MSG_HEADER_SIZE);
-                    releasingFence.setRelease(positionSeq + Revelator.MSG_HEADER_SIZE);
+                    log.debug("processor shutdown (received msgType={}, publishing positionSeq={}+{})", msgType, positionSeq, headerSize);
+                    if (batchAware) {
+                        handler.onBatchEnd(positionSeq);
+                    }
+                    releasingFence.setRelease(positionSeq + headerSize);
+                    blockingWaitStrategy.signalAllWhenBlocking();
+
+                    if (counters != null) {
+                        updateCounters(batchMessages);
+                    }
 
                     handler.onShutdown();
                     return;
@@ -102,28 +266,66 @@ public final class SimpleFlowProcessor implements IFlowProcessor {
 //            log.debug("{}", String.format("msgSizeLongsCompact=%X", msgSizeLongsCompact));
 //            log.debug("{}", String.format("msgType=%X", msgType));
 
-                    final long timestamp = buffer[index + 1];
-//            log.debug("timestamp={}", timestamp);
-
-                    // payload size in longs
-                    final int payloadSize = (int) buffer[index + 2];
+                    // payload size in longs (low 32 bits) and user cookie (high 32 bits) - always last header word
+                    final long sizeWord = buffer.getLong(index + headerSize - 1);
+                    final int payloadSize = (int) sizeWord;
 //                log.debug("custom payloadSize={}", payloadSize);
 
-                    final int indexMsg = index + Revelator.MSG_HEADER_SIZE;
+                    if (shardFunction != null
+                            && msgType != Revelator.MSG_TYPE_SNAPSHOT
+                            && shardFunction.applyAsInt(correlationId) != shardId) {
+                        // owned by another shard - skip without reading the rest of the message
+                        positionSeq += headerSize + payloadSize;
+                        // otherwise shard which only skips messages never releases inside a batch
+                        releaseInsideBatchIfDue(positionSeq, availableSeq);
+                        continue;
+                    }
+
+                    final int userCookie = (int) (sizeWord >>> 32);
+
+                    final long timestamp = compactHeader ? 0L : buffer.getLong(index + 1);
+//            log.debug("timestamp={}", timestamp);
+
+                    final long indexMsg = index + headerSize;
                     if (indexMsg + payloadSize > bufferSize) {
-                        throw new IllegalStateException("Failed to decode message: headerSize=" + Revelator.MSG_HEADER_SIZE
+                        throw new IllegalStateException("Failed to decode message: headerSize=" + headerSize
                                 + " payloadSize=" + payloadSize
                                 + " correlationId=" + correlationId
                                 + " unexpected " + (indexMsg + payloadSize - bufferSize) + " bytes");
                     }
 
+                    if (shardedFence != null) {
+                        awaitShard(msgType, correlationId, positionSeq + headerSize + payloadSize);
+                    }
+
+                    batchMessages++;
+
 
                     try {
 //                log.debug("Handle message messageStartAddress={} -> offsetInBuf={} payloadSize={}",
 //                        messageStartAddress, headerStartAddress - bufferAddr, payloadSize);
 
 //                Thread.sleep(1);
-                        handler.handleMessage(buffer, indexMsg, payloadSize, timestamp, positionSeq, correlationId, msgType);
+                        if (msgType == Revelator.MSG_TYPE_SNAPSHOT) {
+                            if (positionSeq >= recoveryBoundary) {
+                                final Runnable snapshotTask = handler.onSnapshot(correlationId, positionSeq);
+                                if (snapshotTask != null) {
+                                    snapshotExecutor.execute(snapshotTask);
+                                }
+                            }
+                        } else if (positionSeq >= handlerBoundary) {
+                            if ((correlationId & traceMask) != traceMatch) {
+                                handler.handleMessage(buffer, indexMsg, payloadSize, timestamp, positionSeq, correlationId, msgType, userCookie);
+                            } else {
+                                final long entryNs = System.nanoTime();
+                                handler.handleMessage(buffer, indexMsg, payloadSize, timestamp, positionSeq, correlationId, msgType, userCookie);
+                                traceRing.record(positionSeq + headerSize + payloadSize, correlationId, timestamp, entryNs, System.nanoTime());
+                            }
+                            // recovered messages carry timestamps of the original run
+                            if (latencyRecorder != null && positionSeq >= recoveryBoundary) {
+                                latencyRecorder.record(timestamp);
+                            }
+                        }
 //                log.debug("DONE");
                     } catch (final Exception ex) {
                         log.debug("Exception when processing batch", ex);
@@ -134,18 +336,105 @@ public final class SimpleFlowProcessor implements IFlowProcessor {
 
 //                    releasingFence.setRelease(positionSeq);
 
-                    positionSeq += Revelator.MSG_HEADER_SIZE + payloadSize;
+                    positionSeq += headerSize + payloadSize;
+
+                    releaseInsideBatchIfDue(positionSeq, availableSeq);
                 }
 
 //                releasingFence.setRelease(positionSeq);
             }
 
+            if (batchAware) {
+                handler.onBatchEnd(availableSeq);
+            }
+
 //            log.debug("RELEASE {}", availableSeq);
             releasingFence.setRelease(availableSeq);
+            blockingWaitStrategy.signalAllWhenBlocking();
+
+            if (counters != null) {
+                updateCounters(batchMessages);
+            }
+
+            if (batchEvent != null) {
+                jfrEvents.commitBatch(batchEvent, batchMessages, availableSeq - batchStartSeq);
+            }
+
+            if (releaseType != ReleasePolicy.Type.BATCH_END) {
+                onReleased(availableSeq);
+            }
         }
 
     }
 
+    /**
+     * Break large batch if release policy says so - let next stage start catching up
+     */
+    private void releaseInsideBatchIfDue(final long positionSeq, final long availableSeq) {
+        if (releaseType != ReleasePolicy.Type.BATCH_END && positionSeq < availableSeq && isReleaseDue(positionSeq)) {
+            if (batchAware) {
+                handler.onBatchEnd(positionSeq);
+            }
+            releasingFence.setRelease(positionSeq);
+            blockingWaitStrategy.signalAllWhenBlocking();
+            if (batchAware) {
+                handler.onBatchStart(positionSeq, availableSeq);
+            }
+        }
+    }
+
+    private boolean isReleaseDue(final long positionSeq) {
+
+        final boolean due;
+        switch (releaseType) {
+            case MESSAGES:
+                due = ++messagesSinceRelease >= releaseThreshold;
+                break;
+            case WORDS:
+                due = positionSeq - lastReleasedSeq >= releaseThreshold;
+                break;
+            case TIME:
+                due = System.nanoTime() - lastReleaseNs >= releaseThreshold;
+                break;
+            default:
+                due = false;
+        }
+
+        if (due) {
+            onReleased(positionSeq);
+        }
+        return due;
+    }
+
+    private void onReleased(final long positionSeq) {
+        lastReleasedSeq = positionSeq;
+        messagesSinceRelease = 0L;
+        if (releaseType == ReleasePolicy.Type.TIME) {
+            lastReleaseNs = System.nanoTime();
+        }
+    }
+
+    private void updateCounters(final long batchMessages) {
+        messagesProcessed += batchMessages;
+        batchesProcessed++;
+        maxBatchMessages = Math.max(maxBatchMessages, batchMessages);
+        counters.update(messagesProcessed, batchesProcessed, maxBatchMessages, idleSpins.get());
+    }
+
+    private void awaitShard(final byte msgType, final long correlationId, final long messageEndSeq) {
+        if (msgType == Revelator.MSG_TYPE_SNAPSHOT) {
+            // snapshot is consistent only after all shards processed preceding messages
+            if (shardedFence.getForAll() < messageEndSeq) {
+                waitStrategy.waitFor(messageEndSeq - 1, shardedFence.viewForAll());
+            }
+        } else {
+            if (shardedFence.getForId(correlationId) < messageEndSeq) {
+                // waitFor returns once fence moved beyond position, i.e. reached messageEndSeq
+                waitStrategy.waitFor(messageEndSeq - 1, shardedFence.viewForId(correlationId));
+            }
+        }
+    }
+
     public SingleWriterFence getReleasingFence() {
         return releasingFence;
     }
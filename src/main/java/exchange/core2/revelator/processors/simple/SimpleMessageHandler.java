@@ -1,22 +1,81 @@
 package exchange.core2.revelator.processors.simple;
 
+import exchange.core2.revelator.buffers.RingBuffer;
+
 public interface SimpleMessageHandler {
 
     /**
      * Allows batching
      * Can have wrapping
      *
+     * @param buffer  ring buffer (use buffer.getLong(index + i) to read payload, no bounds checks)
+     * @param index   payload start index in the buffer (message is never wrapped)
      * @param msgSize messageSize
+     * @param timestamp  message timestamp (always 0 for COMPACT header format)
+     * @param userCookie custom 4 bytes value provided by publisher when claiming the message
      */
-    void handleMessage(long[] buffer, // TODO use off-heap memory region
-                       int index,
+    void handleMessage(RingBuffer buffer,
+                       long index,
                        int msgSize,
                        long timestamp,
                        long globalOffset,
                        long correlationId,
-                       byte msgType);
+                       byte msgType,
+                       int userCookie);
+
+    /**
+     * Called before first message of the batch (all messages available at once).
+     * Remaining words hint for each message: batchEndOffset - globalOffset (including message itself).
+     *
+     * @param batchStartOffset global offset of the first message
+     * @param batchEndOffset   global offset after the last message
+     */
+    default void onBatchStart(long batchStartOffset, long batchEndOffset) {
+    }
+
+    /**
+     * Called after last message of the batch, before messages are released to the next stage
+     * (flush coalesced work here)
+     *
+     * @param batchEndOffset global offset after the last message
+     */
+    default void onBatchEnd(long batchEndOffset) {
+    }
 
     default void onShutdown() {
     }
 
+    /**
+     * Called from processor thread when snapshot control message is received (see Revelator.requestSnapshot).
+     * Handler should capture its state consistently (all messages before globalOffset are processed, none after)
+     * and return serialization task, which will be executed by snapshot executor, off the processor thread.
+     * Not called for recovered messages.
+     *
+     * @return serialization task or null
+     */
+    default Runnable onSnapshot(long snapshotId, long globalOffset) {
+        return null;
+    }
+
+    /**
+     * Side-effecting handlers (sending reports, writing journal, etc) are not called for recovered messages
+     */
+    default boolean isSideEffecting() {
+        return false;
+    }
+
+    /**
+     * Batch callbacks are only called if handler overrides at least one of them
+     * (checked once by processor, so there is no cost for other handlers)
+     */
+    static boolean isBatchAware(final SimpleMessageHandler handler) {
+        try {
+            final Class<?> handlerClass = handler.getClass();
+            return handlerClass.getMethod("onBatchStart", long.class, long.class).getDeclaringClass() != SimpleMessageHandler.class
+                    || handlerClass.getMethod("onBatchEnd", long.class).getDeclaringClass() != SimpleMessageHandler.class;
+        } catch (final NoSuchMethodException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
 }
@@ -0,0 +1,93 @@
+package exchange.core2.revelator.waitstrategies;
+
+import exchange.core2.revelator.fences.IFence;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Blocks waiting thread on a condition until signalled by publisher or by a processor releasing messages.
+ * <p>
+ * Lock is only taken on the signalling side when some thread is actually blocked (similar to LiteBlockingWaitStrategy
+ * in Disruptor), so the cost for publisher is a single read when nobody is waiting.
+ * Publisher does not perform StoreLoad fence before checking for waiters, so wake up can be missed in rare cases -
+ * that is why waiting thread never blocks longer than maxBlockNanos.
+ * <p>
+ * All blocking waiters of a Revelator instance share the same object (see RevelatorConfig).
+ */
+public final class BlockingWaitStrategy implements IWaitStrategy {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition processorNotifyCondition = lock.newCondition();
+    private final AtomicBoolean signalNeeded = new AtomicBoolean(false);
+
+    private final long maxBlockNanos;
+
+    public BlockingWaitStrategy(final long maxBlockNanos) {
+        this.maxBlockNanos = maxBlockNanos;
+    }
+
+    public BlockingWaitStrategy() {
+        this(TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    @Override
+    public long waitFor(final long position, final IFence fence, final SpinCounter spinCounter) {
+
+        long available = fence.getAcquire(position);
+        if (available > position) {
+            return available;
+        }
+
+        long spins = 1L;
+
+        lock.lock();
+        try {
+            while (true) {
+                // full fence, so publisher will see waiting request
+                signalNeeded.getAndSet(true);
+
+                if ((available = fence.getAcquire(position)) > position) {
+                    return available;
+                }
+
+                processorNotifyCondition.awaitNanos(maxBlockNanos);
+
+                if ((available = fence.getAcquire(position)) > position) {
+                    return available;
+                }
+
+                spins++;
+            }
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return fence.getAcquire(position);
+        } finally {
+            lock.unlock();
+            if (spinCounter != null) {
+                spinCounter.add(spins);
+            }
+        }
+    }
+
+    @Override
+    public void signalAllWhenBlocking() {
+        if (signalNeeded.get() && signalNeeded.getAndSet(false)) {
+            lock.lock();
+            try {
+                processorNotifyCondition.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BlockingWaitStrategy{" +
+                "maxBlockNanos=" + maxBlockNanos +
+                '}';
+    }
+}
@@ -0,0 +1,28 @@
+package exchange.core2.revelator.waitstrategies;
+
+import exchange.core2.revelator.fences.IFence;
+
+/**
+ * Lowest latency, but burns the whole core while waiting.
+ */
+public final class BusySpinWaitStrategy implements IWaitStrategy {
+
+    @Override
+    public long waitFor(final long position, final IFence fence, final SpinCounter spinCounter) {
+        long available;
+        long spins = 0L;
+        while ((available = fence.getAcquire(position)) <= position) {
+            spins++;
+            Thread.onSpinWait();
+        }
+        if (spinCounter != null) {
+            spinCounter.add(spins);
+        }
+        return available;
+    }
+
+    @Override
+    public String toString() {
+        return "BusySpinWaitStrategy";
+    }
+}
@@ -0,0 +1,40 @@
+package exchange.core2.revelator.waitstrategies;
+
+import exchange.core2.revelator.fences.IFence;
+
+/**
+ * Strategy of waiting for a fence progress (used by processors for inbound fence, and by publisher for releasing fence).
+ * <p>
+ * Implementations keep waiting state in local variables, so one instance can be shared between threads.
+ */
+public interface IWaitStrategy {
+
+    /**
+     * Wait until fence value becomes greater than specified position.
+     *
+     * @param position - last known position
+     * @param fence    - fence to wait for
+     * @return fence value (greater than position)
+     */
+    default long waitFor(long position, IFence fence) {
+        return waitFor(position, fence, null);
+    }
+
+    /**
+     * Wait until fence value becomes greater than specified position, counting idle iterations.
+     *
+     * @param position    - last known position
+     * @param fence       - fence to wait for
+     * @param spinCounter - receives number of fence polls which did not find progress (can be null)
+     * @return fence value (greater than position)
+     */
+    long waitFor(long position, IFence fence, SpinCounter spinCounter);
+
+    /**
+     * Wake up threads blocked in waitFor (only relevant for blocking strategies).
+     * Called by the publisher after publishing messages, and by processors after releasing them.
+     */
+    default void signalAllWhenBlocking() {
+    }
+
+}
@@ -0,0 +1,67 @@
+package exchange.core2.revelator.waitstrategies;
+
+import exchange.core2.revelator.fences.IFence;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Spins, then yields, then parks the thread with exponentially growing period (up to maxParkNanos).
+ * Suitable for background stages which should not occupy a core while idle.
+ */
+public final class ProgressiveParkWaitStrategy implements IWaitStrategy {
+
+    private final int spinTries;
+    private final int yieldTries;
+    private final long minParkNanos;
+    private final long maxParkNanos;
+
+    public ProgressiveParkWaitStrategy(final int spinTries,
+                                       final int yieldTries,
+                                       final long minParkNanos,
+                                       final long maxParkNanos) {
+
+        this.spinTries = spinTries;
+        this.yieldTries = yieldTries;
+        this.minParkNanos = minParkNanos;
+        this.maxParkNanos = maxParkNanos;
+    }
+
+    public ProgressiveParkWaitStrategy() {
+        this(100, 10, 1L, 1_000_000L);
+    }
+
+    @Override
+    public long waitFor(final long position, final IFence fence, final SpinCounter spinCounter) {
+        long available;
+        int counter = 0;
+        long parkNanos = minParkNanos;
+        long spins = 0L;
+        while ((available = fence.getAcquire(position)) <= position) {
+            spins++;
+            if (counter < spinTries) {
+                counter++;
+                Thread.onSpinWait();
+            } else if (counter < spinTries + yieldTries) {
+                counter++;
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(parkNanos);
+                parkNanos = Math.min(parkNanos << 1, maxParkNanos);
+            }
+        }
+        if (spinCounter != null) {
+            spinCounter.add(spins);
+        }
+        return available;
+    }
+
+    @Override
+    public String toString() {
+        return "ProgressiveParkWaitStrategy{" +
+                "spinTries=" + spinTries +
+                ", yieldTries=" + yieldTries +
+                ", minParkNanos=" + minParkNanos +
+                ", maxParkNanos=" + maxParkNanos +
+                '}';
+    }
+}
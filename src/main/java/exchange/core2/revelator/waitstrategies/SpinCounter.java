@@ -0,0 +1,18 @@
+package exchange.core2.revelator.waitstrategies;
+
+/**
+ * Accumulates idle iterations (fence polls which did not find progress) of a single waiting thread.
+ * Wait strategies count iterations locally and add them once, when the wait is over.
+ */
+public final class SpinCounter {
+
+    private long spins = 0L;
+
+    public void add(final long spins) {
+        this.spins += spins;
+    }
+
+    public long get() {
+        return spins;
+    }
+}
@@ -0,0 +1,47 @@
+package exchange.core2.revelator.waitstrategies;
+
+import exchange.core2.revelator.fences.IFence;
+
+/**
+ * Busy spins for a number of iterations, then yields the thread on every iteration.
+ * Good compromise when there are a bit more busy threads than cores.
+ */
+public final class SpinYieldWaitStrategy implements IWaitStrategy {
+
+    private final int spinTries;
+
+    public SpinYieldWaitStrategy(final int spinTries) {
+        this.spinTries = spinTries;
+    }
+
+    public SpinYieldWaitStrategy() {
+        this(100);
+    }
+
+    @Override
+    public long waitFor(final long position, final IFence fence, final SpinCounter spinCounter) {
+        long available;
+        int counter = spinTries;
+        long spins = 0L;
+        while ((available = fence.getAcquire(position)) <= position) {
+            spins++;
+            if (counter > 0) {
+                counter--;
+                Thread.onSpinWait();
+            } else {
+                Thread.yield();
+            }
+        }
+        if (spinCounter != null) {
+            spinCounter.add(spins);
+        }
+        return available;
+    }
+
+    @Override
+    public String toString() {
+        return "SpinYieldWaitStrategy{" +
+                "spinTries=" + spinTries +
+                '}';
+    }
+}
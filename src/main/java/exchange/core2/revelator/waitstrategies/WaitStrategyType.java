@@ -0,0 +1,16 @@
+package exchange.core2.revelator.waitstrategies;
+
+public enum WaitStrategyType {
+
+    BUSY_SPIN,
+
+    SPIN_THEN_YIELD,
+
+    PROGRESSIVE_PARK,
+
+    /**
+     * Shared between all blocking waiters of the Revelator instance (see RevelatorConfig)
+     */
+    BLOCKING
+
+}
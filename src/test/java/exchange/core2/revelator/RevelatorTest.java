@@ -1,7 +1,1975 @@
 package exchange.core2.revelator;
 
+import exchange.core2.revelator.buffers.IRingBufferFactory;
+import exchange.core2.revelator.buffers.RingBuffer;
+import exchange.core2.revelator.buffers.RingBufferFactories;
+import exchange.core2.revelator.fences.CachingMinFence;
+import exchange.core2.revelator.fences.MinFenceTree;
+import exchange.core2.revelator.fences.MultiProducerFence;
+import exchange.core2.revelator.fences.SingleWriterFence;
+import exchange.core2.revelator.loadtest.ArrivalMode;
+import exchange.core2.revelator.loadtest.BurstProfiles;
+import exchange.core2.revelator.loadtest.LoadTestConfig;
+import exchange.core2.revelator.loadtest.LoadTestHarness;
+import exchange.core2.revelator.loadtest.LoadTestStepResult;
+import exchange.core2.revelator.loadtest.LoadTestTopology;
+import exchange.core2.revelator.loadtest.MessageSizeDistributions;
+import exchange.core2.revelator.metrics.ILagListener;
+import exchange.core2.revelator.metrics.LagMonitorConfig;
+import exchange.core2.revelator.metrics.LagSample;
+import exchange.core2.revelator.metrics.MessageTrace;
+import exchange.core2.revelator.metrics.MessageTracer;
+import exchange.core2.revelator.metrics.RevelatorCounters;
+import exchange.core2.revelator.metrics.jfr.BatchProcessedEvent;
+import exchange.core2.revelator.metrics.jfr.IdlePeriodEvent;
+import exchange.core2.revelator.metrics.jfr.JfrEventsEmitter;
+import exchange.core2.revelator.metrics.jfr.TailStrikeEvent;
+import exchange.core2.revelator.processors.IFlowProcessorsFactory;
+import exchange.core2.revelator.processors.ProcessorsFactories;
+import exchange.core2.revelator.processors.ReleasePolicy;
+import exchange.core2.revelator.processors.TopologyBuilder;
+import exchange.core2.revelator.processors.journal.JournalConfig;
+import exchange.core2.revelator.processors.journal.JournalReplayer;
+import exchange.core2.revelator.processors.journal.JournalSegments;
+import exchange.core2.revelator.processors.pipelined.PipelinedFlowSession;
+import exchange.core2.revelator.processors.pipelined.PipelinedStageHandler;
+import exchange.core2.revelator.processors.pipelined.SchedulingMode;
+import exchange.core2.revelator.processors.simple.SimpleMessageHandler;
+import exchange.core2.revelator.utils.AffinityThreadFactory;
+import exchange.core2.revelator.waitstrategies.WaitStrategyType;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
 public class RevelatorTest {
 
+    private static final byte MSG_TYPE_DATA = 1;
+
+    @Test
+    public void shouldDeliverMessagesFromMultipleProducersInClaimOrder() {
+
+        final int producersNum = 4;
+        final int messagesPerProducer = 200_000;
+
+        final long[] lastSeqByProducer = new long[producersNum];
+        final long[] expectedLastSeq = new long[producersNum];
+        final long[] checksumByProducer = new long[producersNum];
+        final long[] expectedChecksum = new long[producersNum];
+
+        final Revelator revelator = Revelator.create(
+                RevelatorParameters.builder()
+                        .bufferSize(16 * 1024)
+                        .producerType(RevelatorParameters.ProducerType.MULTI)
+                        .build(),
+                ProcessorsFactories.single((buffer, index, msgSize, timestamp, globalOffset, correlationId, msgType, userCookie) -> {
+                    if (msgType == MSG_TYPE_DATA) {
+                        final int producerId = (int) buffer.getLong(index);
+                        final long seq = buffer.getLong(index + 1);
+                        // messages from the same producer must be observed in claim order
+                        assertEquals(lastSeqByProducer[producerId] + 1, seq);
+                        lastSeqByProducer[producerId] = seq;
+                        for (int i = 2; i < msgSize; i++) {
+                            checksumByProducer[producerId] += buffer.getLong(index + i);
+                        }
+                    }
+                }),
+                new AffinityThreadFactory(AffinityThreadFactory.ThreadAffinityMode.NO_AFFINITY));
+
+        revelator.start();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(producersNum);
+        final List<CompletableFuture<Void>> futures = IntStream.range(0, producersNum)
+                .mapToObj(producerId -> CompletableFuture.runAsync(() -> {
+                    long checksum = 0L;
+                    for (int seq = 1; seq <= messagesPerProducer; seq++) {
+                        // variable size messages to exercise wrapping
+                        final int size = 2 + (seq % 9);
+                        final long claimSeq = revelator.claimSingleMessage(size, System.nanoTime(), seq, MSG_TYPE_DATA);
+                        revelator.writeLongData(claimSeq, 0, producerId);
+                        revelator.writeLongData(claimSeq, 1, seq);
+                        for (int i = 2; i < size; i++) {
+                            final long value = seq * 31L + i;
+                            revelator.writeLongData(claimSeq, i, value);
+                            checksum += value;
+                        }
+                        revelator.publish(claimSeq, claimSeq + size);
+                    }
+                    expectedChecksum[producerId] = checksum;
+                    expectedLastSeq[producerId] = messagesPerProducer;
+                }, executor))
+                .collect(Collectors.toList());
+
+        futures.forEach(CompletableFuture::join);
+        executor.shutdown();
+
+        revelator.stopAsync().join();
+
+        assertArrayEquals(expectedLastSeq, lastSeqByProducer);
+        assertArrayEquals(expectedChecksum, checksumByProducer);
+    }
+
+    @Test
+    public void shouldDeliverMessagesWithOffHeapBuffer() throws Exception {
+        checkBufferBackend(RingBufferFactories.offHeap(true));
+    }
+
+    @Test
+    public void shouldDeliverMessagesWithMappedFileBuffer() throws Exception {
+        final Path file = Files.createTempFile("revelator-ring", ".dat");
+        try {
+            checkBufferBackend(RingBufferFactories.mappedFile(file, true));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void shouldDeliverMessagesWithBlockingWaitStrategies() throws Exception {
+
+        final int messagesNum = 100_000;
+        final long[] checksums = new long[2];
+
+        final Revelator revelator = Revelator.create(
+                RevelatorParameters.builder()
+                        .bufferSize(4 * 1024)
+                        .publisherWaitStrategy(WaitStrategyType.BLOCKING)
+                        .processorsWaitStrategy(WaitStrategyType.BLOCKING)
+                        .build(),
+                ProcessorsFactories.chain(List.of(
+                        (buffer, index, msgSize, timestamp, globalOffset, correlationId, msgType, userCookie) -> {
+                            if (msgType == MSG_TYPE_DATA) checksums[0] += correlationId;
+                        },
+                        (buffer, index, msgSize, timestamp, globalOffset, correlationId, msgType, userCookie) -> {
+                            if (msgType == MSG_TYPE_DATA) checksums[1] += buffer.getLong(index);
+                        })),
+                new AffinityThreadFactory(AffinityThreadFactory.ThreadAffinityMode.NO_AFFINITY));
+
+        revelator.start();
+
+        long expectedChecksum = 0L;
+        for (int seq = 0; seq < messagesNum; seq++) {
+            final long claimSeq = revelator.claimSingleMessage(1, 0L, seq, MSG_TYPE_DATA);
+            revelator.writeLongData(claimSeq, 0, seq);
+            revelator.publish(claimSeq + 1);
+            expectedChecksum += seq;
+            if (seq % 1000 == 0) {
+                // let processors fall asleep
+                LockSupport.parkNanos(100_000L);
+            }
+        }
+
+        revelator.close();
+
+        assertEquals(expectedChecksum, checksums[0]);
+        assertEquals(expectedChecksum, checksums[1]);
+    }
+
+    @Test
+    public void shouldDeliverMessagesWithCompactHeader() throws Exception {
+
+        final int messagesNum = 100_000;
+        final long[] lastSeq = {-1L};
+        final long[] checksum = new long[1];
+
+        final Revelator revelator = Revelator.create(
+                RevelatorParameters.builder()
+                        .bufferSize(4 * 1024)
+                        .headerFormat(HeaderFormat.COMPACT)
+                        .build(),
+                ProcessorsFactories.single((buffer, index, msgSize, timestamp, globalOffset, correlationId, msgType, userCookie) -> {
+                    if (msgType == MSG_TYPE_DATA) {
+                        assertEquals(lastSeq[0] + 1, correlationId);
+                        assertEquals(0L, timestamp);
+                        assertEquals(msgSize, correlationId % 7);
+                        assertEquals((int) (correlationId * 31), userCookie);
+                        lastSeq[0] = correlationId;
+                        for (int i = 0; i < msgSize; i++) {
+                            checksum[0] += buffer.getLong(index + i);
+                        }
+                    }
+                }),
+                new AffinityThreadFactory(AffinityThreadFactory.ThreadAffinityMode.NO_AFFINITY));
+
+        assertEquals(2, revelator.getHeaderSize());
+
+        revelator.start();
+
+        final BatchClaim batch = new BatchClaim(8);
+        long expectedChecksum = 0L;
+        int seq = 0;
+        while (seq < messagesNum) {
+            if (seq % 3 == 0) {
+                final int size = seq % 7;
+                final long claimSeq = revelator.claimSingleMessage(size, 123L, seq, MSG_TYPE_DATA, seq * 31);
+                for (int i = 0; i < size; i++) {
+                    revelator.writeLongData(claimSeq, i, seq + i);
+                    expectedChecksum += seq + i;
+                }
+                revelator.publish(claimSeq + size);
+                seq++;
+            } else {
+                batch.reset();
+                for (int m = 0; m < 5; m++) {
+                    final int s = seq + m;
+                    batch.add(s % 7, 123L, s, MSG_TYPE_DATA, s * 31);
+                }
+                revelator.claimBatch(batch);
+                for (int m = 0; m < 5; m++) {
+                    final long claimSeq = batch.getPayloadPosition(m);
+                    for (int i = 0; i < batch.getPayloadSize(m); i++) {
+                        revelator.writeLongData(claimSeq, i, seq + m + i);
+                        expectedChecksum += seq + m + i;
+                    }
+                }
+                revelator.publishBatch(batch);
+                seq += 5;
+            }
+        }
+
+        revelator.close();
+
+        assertEquals(seq - 1, lastSeq[0]);
+        assertEquals(expectedChecksum, checksum[0]);
+    }
+
+    @Test
+    public void shouldRejectTryClaimWhenBufferIsFull() throws Exception {
+        checkTryClaim(RevelatorParameters.ProducerType.SINGLE);
+    }
+
+    @Test
+    public void shouldRejectTryClaimWhenBufferIsFullMultiProducer() throws Exception {
+        checkTryClaim(RevelatorParameters.ProducerType.MULTI);
+    }
+
+    private void checkTryClaim(final RevelatorParameters.ProducerType producerType) throws Exception {
+
+        final int bufferSize = 1024;
+        final int payloadSize = 5;
+        final CountDownLatch processorGate = new CountDownLatch(1);
+        final long[] processed = new long[1];
+
+        final Revelator revelator = Revelator.create(
+                RevelatorParameters.builder()
+                        .bufferSize(bufferSize)
+                        .producerType(producerType)
+                        .build(),
+                ProcessorsFactories.single((buffer, index, msgSize, timestamp, globalOffset, correlationId, msgType, userCookie) -> {
+                    if (msgType == MSG_TYPE_DATA) {
+                        try {
+                            processorGate.await();
+                        } catch (InterruptedException ex) {
+                            throw new RuntimeException(ex);
+                        }
+                        assertEquals(processed[0], correlationId);
+                        processed[0]++;
+                    }
+                }),
+                new AffinityThreadFactory(AffinityThreadFactory.ThreadAffinityMode.NO_AFFINITY));
+
+        revelator.start();
+
+        assertEquals(bufferSize, revelator.remainingCapacity());
+
+        // processor is stuck on the first message - fill the buffer until rejected
+        long published = 0;
+        long claimSeq;
+        while ((claimSeq = revelator.tryClaimSingleMessage(payloadSize, 0L, published, MSG_TYPE_DATA)) != Revelator.CLAIM_FAILED) {
+            revelator.writeLongData(claimSeq, 0, published);
+            revelator.publish(claimSeq, claimSeq + payloadSize);
+            published++;
+        }
+
+        final int fullMessageSize = payloadSize + revelator.getHeaderSize();
+        assertEquals(bufferSize / fullMessageSize, published);
+        assertTrue(revelator.remainingCapacity() < fullMessageSize);
+        assertEquals(Revelator.CLAIM_FAILED, revelator.tryClaimSingleMessage(payloadSize, 0L, published, MSG_TYPE_DATA));
+
+        processorGate.countDown();
+
+        // processor is released - try claim eventually succeeds again (including wrapping)
+        for (int i = 0; i < 1000; i++) {
+            // capacity is a lower bound (including padding) - claim within it never fails
+            final boolean fits = revelator.remainingCapacity() >= fullMessageSize;
+            while ((claimSeq = revelator.tryClaimSingleMessage(payloadSize, 0L, published, MSG_TYPE_DATA)) == Revelator.CLAIM_FAILED) {
+                assertFalse(fits);
+                Thread.onSpinWait();
+            }
+            revelator.publish(claimSeq, claimSeq + payloadSize);
+            published++;
+        }
+
+        revelator.close();
+
+        assertEquals(published, processed[0]);
+    }
+
+    @Test
+    public void shouldJournalMessagesBeforeDownstreamProcessing() throws Exception {
+
+        final Path dir = Files.createTempDirectory("revelator-journal");
+        try {
+            final int messagesNum = 50_000;
+            final long[] checksum = new long[1];
+            final JournalConfig journalConfig = JournalConfig.builder(dir)
+                    .segmentSize(64 * 1024)
+                    .build();
+
+            final Revelator revelator = Revelator.create(
+                    RevelatorParameters.builder()
+                            .bufferSize(4 * 1024)
+                            .build(),
+                    ProcessorsFactories.journaling(
+                            journalConfig,
+                            ProcessorsFactories.single((buffer, index, msgSize, timestamp, globalOffset, correlationId, msgType, userCookie) -> {
+                                if (msgType == MSG_TYPE_DATA) {
+                                    checksum[0] += correlationId;
+                                }
+                            })),
+                    new AffinityThreadFactory(AffinityThreadFactory.ThreadAffinityMode.NO_AFFINITY));
+
+            revelator.start();
+
+            long expectedChecksum = 0L;
+            for (int seq = 0; seq < messagesNum; seq++) {
+                final int size = seq % 11;
+                final long claimSeq = revelator.claimSingleMessage(size, seq, seq, MSG_TYPE_DATA);
+                for (int i = 0; i < size; i++) {
+                    revelator.writeLongData(claimSeq, i, seq + i);
+                }
+                revelator.publish(claimSeq + size);
+                expectedChecksum += seq;
+            }
+
+            revelator.close();
+
+            assertEquals(expectedChecksum, checksum[0]);
+
+            // read journal back: all messages in order, no padding
+            final List<Path> segments = JournalSegments.findSegments(dir, journalConfig.getFilePrefix());
+            assertTrue(segments.size() > 1);
+
+            long seq = 0;
+            for (final Path segment : segments) {
+                final LongBuffer words = ByteBuffer.wrap(Files.readAllBytes(segment)).order(ByteOrder.nativeOrder()).asLongBuffer();
+                assertEquals(JournalSegments.SEGMENT_MAGIC, words.get(0));
+                assertEquals(Revelator.MSG_HEADER_SIZE, words.get(1));
+                int pos = JournalSegments.SEGMENT_HEADER_SIZE;
+                long header;
+                while ((header = words.get(pos)) != 0L) {
+                    assertEquals(seq, header & 0x00FF_FFFF_FFFF_FFFFL);
+                    assertEquals(seq, words.get(pos + 1));
+                    final int size = (int) words.get(pos + 2);
+                    assertEquals(seq % 11, size);
+                    for (int i = 0; i < size; i++) {
+                        assertEquals(seq + i, words.get(pos + Revelator.MSG_HEADER_SIZE + i));
+                    }
+                    pos += Revelator.MSG_HEADER_SIZE + size;
+                    seq++;
+                }
+            }
+            assertEquals(messagesNum, seq);
+
+        } finally {
+            try (final Stream<Path> files = Files.list(dir)) {
+                files.forEach(f -> f.toFile().delete());
+            }
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void shouldReplayJournalSkippingSideEffectingHandlers() throws Exception {
+
+        final Path dir = Files.createTempDirectory("revelator-replay");
+        try {
+            final JournalConfig journalConfig = JournalConfig.builder(dir)
+                    .segmentSize(64 * 1024)
+                    .build();
+
+            final int journaledNum = 30_000;
+            final int newNum = 1_000;
+
+            // first run - write journal
+            final Revelator revelator1 = Revelator.create(
+                    RevelatorParameters.builder().bufferSize(4 * 1024).build(),
+                    ProcessorsFactories.journaling(journalConfig, ProcessorsFactories.single((buffer, index, msgSize, timestamp, globalOffset, correlationId, msgType, userCookie) -> {
+                    })),
+                    new AffinityThreadFactory(AffinityThreadFactory.ThreadAffinityMode.NO_AFFINITY));
+            revelator1.start();
+            final long journaledChecksum = publishSequence(revelator1, 0, journaledNum);
+            revelator1.close();
+
+            // second run - replay journal then continue with new messages
+            final long[] stateChecksum = new long[1];
+            final long[] stateCounter = new long[1];
+            final long[] sideEffectsCounter = new long[1];
+
+            final SimpleMessageHandler stateHandler = (buffer, index, msgSize, timestamp, globalOffset, correlationId, msgType, userCookie) -> {
+                if (msgType == MSG_TYPE_DATA) {
+                    assertEquals(stateCounter[0], correlationId);
+                    stateCounter[0]++;
+                    for (int i = 0; i < msgSize; i++) {
+                        stateChecksum[0] += buffer.getLong(index + i);
+                    }
+                }
+            };
+
+            final SimpleMessageHandler sideEffectingHandler = new SimpleMessageHandler() {
+                @Override
+                public void handleMessage(RingBuffer buffer, long index, int msgSize, long timestamp, long globalOffset, long correlationId, byte msgType, int userCookie) {
+                    if (msgType == MSG_TYPE_DATA) {
+                        assertTrue(correlationId >= journaledNum);
+                        sideEffectsCounter[0]++;
+                    }
+                }
+
+                @Override
+                public boolean isSideEffecting() {
+                    return true;
+                }
+            };
+
+            final Revelator revelator2 = Revelator.create(
+                    RevelatorParameters.builder().bufferSize(4 * 1024).recoveryMode(true).build(),
+                    ProcessorsFactories.journaling(journalConfig, ProcessorsFactories.chain(List.of(stateHandler, sideEffectingHandler))),
+                    new AffinityThreadFactory(AffinityThreadFactory.ThreadAffinityMode.NO_AFFINITY));
+            revelator2.start();
+
+            assertEquals(journaledNum, JournalReplayer.replay(revelator2, journalConfig));
+
+            final long newChecksum = publishSequence(revelator2, journaledNum, newNum);
+            revelator2.close();
+
+            assertEquals(journaledNum + newNum, stateCounter[0]);
+            assertEquals(journaledChecksum + newChecksum, stateChecksum[0]);
+            assertEquals(newNum, sideEffectsCounter[0]);
+
+            // replayed messages are not journaled again
+            assertEquals(journaledNum + newNum, countJournaledMessages(dir, journalConfig.getFilePrefix()));
+
+        } finally {
+            try (final Stream<Path> files = Files.list(dir)) {
+                files.forEach(f -> f.toFile().delete());
+            }
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void shouldRestoreFromSnapshotAndReplayJournalTail() throws Exception {
+
+        final Path dir = Files.createTempDirectory("revelator-snapshot");
+        try {
+            final JournalConfig journalConfig = JournalConfig.builder(dir)
+                    .segmentSize(64 * 1024)
+                    .build();
+
+            final int beforeSnapshotNum = 20_000;
+            final int afterSnapshotNum = 5_000;
+            final long snapshotId = 7L;
+
+            // first run - journal, take snapshot in the middle
+            final CountingHandler handler1 = new CountingHandler(0L, 0L);
+
+            final Revelator revelator1 = Revelator.create(
+                    RevelatorParameters.builder().bufferSize(4 * 1024).build(),
+                    ProcessorsFactories.journaling(journalConfig, ProcessorsFactories.single(handler1)),
+                    new AffinityThreadFactory(AffinityThreadFactory.ThreadAffinityMode.NO_AFFINITY));
+            revelator1.start();
+
+            final long checksumBefore = publishSequence(revelator1, 0, beforeSnapshotNum);
+            revelator1.requestSnapshot(snapshotId);
+            final long checksumAfter = publishSequence(revelator1, beforeSnapshotNum, afterSnapshotNum);
+            revelator1.close();
+
+            final long[] snapshot = handler1.snapshot.get(5, TimeUnit.SECONDS);
+            assertEquals(beforeSnapshotNum, snapshot[0]);
+            assertEquals(checksumBefore, snapshot[1]);
+
+            // second run - load snapshot, replay tail only
+            final CountingHandler handler2 = new CountingHandler(snapshot[0], snapshot[1]);
+
+            final Revelator revelator2 = Revelator.create(
+                    RevelatorParameters.builder().bufferSize(4 * 1024).recoveryMode(true).build(),
+                    ProcessorsFactories.single(handler2),
+                    new AffinityThreadFactory(AffinityThreadFactory.ThreadAffinityMode.NO_AFFINITY));
+            revelator2.start();
+
+            assertEquals(afterSnapshotNum, JournalReplayer.replay(revelator2, journalConfig, snapshotId));
+            revelator2.close();
+
+            assertEquals(beforeSnapshotNum + afterSnapshotNum, handler2.counter);
+            assertEquals(checksumBefore + checksumAfter, handler2.checksum);
+            // no snapshots during recovery
+            assertFalse(handler2.snapshot.isDone());
+
+        } finally {
+            try (final Stream<Path> files = Files.list(dir)) {
+                files.forEach(f -> f.toFile().delete());
+            }
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void shouldFailReplayOfCorruptedJournal() throws Exception {
+
+        // size word pointing beyond segment end
+        checkCorruptedJournalReplay((channel, position) -> channel.write(wordBytes(Integer.MAX_VALUE), (position + Revelator.MSG_HEADER_SIZE - 1) << 3));
+
+        // negative size
+        checkCorruptedJournalReplay((channel, position) -> channel.write(wordBytes(-1L), (position + Revelator.MSG_HEADER_SIZE - 1) << 3));
+
+        // torn tail - segment ends in the middle of message header
+        checkCorruptedJournalReplay((channel, position) -> channel.truncate((position + 1) << 3));
+    }
+
+    private interface SegmentCorruption {
+        void apply(FileChannel channel, long messagePosition) throws IOException;
+    }
+
+    private static ByteBuffer wordBytes(final long value) {
+        return ByteBuffer.allocate(8).order(ByteOrder.nativeOrder()).putLong(0, value);
+    }
+
+    private void checkCorruptedJournalReplay(final SegmentCorruption corruption) throws Exception {
+
+        final Path dir = Files.createTempDirectory("revelator-corrupted");
+        try {
+            final JournalConfig journalConfig = JournalConfig.builder(dir)
+                    .segmentSize(64 * 1024)
+                    .build();
+
+            final Revelator revelator1 = Revelator.create(
+                    RevelatorParameters.builder().bufferSize(4 * 1024).build(),
+                    ProcessorsFactories.journaling(journalConfig, ProcessorsFactories.single((buffer, index, msgSize, timestamp, globalOffset, correlationId, msgType, userCookie) -> {
+                    })),
+                    new AffinityThreadFactory(AffinityThreadFactory.ThreadAffinityMode.NO_AFFINITY));
+            revelator1.start();
+            publishSequence(revelator1, 0, 200);
+            revelator1.close();
+
+            // corrupt 100th message of the first segment
+            final Path segment = JournalSegments.findSegments(dir, journalConfig.getFilePrefix()).get(0);
+            final LongBuffer words = ByteBuffer.wrap(Files.readAllBytes(segment)).order(ByteOrder.nativeOrder()).asLongBuffer();
+            int position = JournalSegments.SEGMENT_HEADER_SIZE;
+            for (int i = 0; i < 100; i++) {
+                position += Revelator.MSG_HEADER_SIZE + (int) words.get(position + Revelator.MSG_HEADER_SIZE - 1);
+            }
+            try (final FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+                corruption.apply(channel, position);
+            }
+
+            final Revelator revelator2 = Revelator.create(
+                    RevelatorParameters.builder().bufferSize(4 * 1024).recoveryMode(true).build(),
+                    ProcessorsFactories.single((buffer, index, msgSize, timestamp, globalOffset, correlationId, msgType, userCookie) -> {
+                    }),
+                    new AffinityThreadFactory(AffinityThreadFactory.ThreadAffinityMode.NO_AFFINITY));
+            revelator2.start();
+
+            final IllegalStateException ex = assertThrows(IllegalStateException.class, () -> JournalReplayer.replay(revelator2, journalConfig));
+            assertTrue(ex.getMessage(), ex.getMessage().startsWith("Corrupted journal segment"));
+
+            revelator2.close();
+
+        } finally {
+            try (final Stream<Path> files = Files.list(dir)) {
+                files.forEach(f -> f.toFile().delete());
+            }
+            Files.delete(dir);
+        }
+    }
+
+    private static final class CountingHandler implements SimpleMessageHandler {
+
+        private long counter;
+        private long checksum;
+        private final CompletableFuture<long[]> snapshot = new CompletableFuture<>();
+
+        private CountingHandler(final long counter, final long checksum) {
+            this.counter = counter;
+            this.checksum = checksum;
+        }
+
+        @Override
+        public void handleMessage(RingBuffer buffer, long index, int msgSize, long timestamp, long globalOffset, long correlationId, byte msgType, int userCookie) {
+            if (msgType == MSG_TYPE_DATA) {
+                assertEquals(counter, correlationId);
+                counter++;
+                for (int i = 0; i < msgSize; i++) {
+                    checksum += buffer.getLong(index + i);
+                }
+            }
+        }
+
+        @Override
+        public Runnable onSnapshot(long snapshotId, long globalOffset) {
+            // capture state in processor thread, complete in snapshot executor
+            final long[] state = {counter, checksum};
+            return () -> snapshot.complete(state);
+        }
+    }
+
+    /**
+     * @return checksum of published messages
+     */
+    private static long publishSequence(final Revelator revelator, final int fromSeq, final int messagesNum) {
+        long checksum = 0L;
+        for (int seq = fromSeq; seq < fromSeq + messagesNum; seq++) {
+            final int size = seq % 11;
+            final long claimSeq = revelator.claimSingleMessage(size, seq, seq, MSG_TYPE_DATA);
+            for (int i = 0; i < size; i++) {
+                revelator.writeLongData(claimSeq, i, seq * 3L + i);
+                checksum += seq * 3L + i;
+            }
+            revelator.publish(claimSeq + size);
+        }
+        return checksum;
+    }
+
+    private static long countJournaledMessages(final Path dir, final String prefix) throws Exception {
+        long messages = 0;
+        for (final Path segment : JournalSegments.findSegments(dir, prefix)) {
+            final LongBuffer words = ByteBuffer.wrap(Files.readAllBytes(segment)).order(ByteOrder.nativeOrder()).asLongBuffer();
+            int pos = JournalSegments.SEGMENT_HEADER_SIZE;
+            while (words.get(pos) != 0L) {
+                pos += Revelator.MSG_HEADER_SIZE + (int) words.get(pos + Revelator.MSG_HEADER_SIZE - 1);
+                messages++;
+            }
+        }
+        return messages;
+    }
+
+    private void checkBufferBackend(final IRingBufferFactory bufferFactory) throws Exception {
+
+        final int messagesNum = 100_000;
+        final long[] checksum = new long[1];
+        final long[] processed = new long[1];
+
+        final Revelator revelator = Revelator.create(
+                RevelatorParameters.builder()
+                        .bufferSize(8 * 1024)
+                        .bufferFactory(bufferFactory)
+                        .build(),
+                ProcessorsFactories.single((buffer, index, msgSize, timestamp, globalOffset, correlationId, msgType, userCookie) -> {
+                    if (msgType == MSG_TYPE_DATA) {
+                        for (int i = 0; i < msgSize; i++) {
+                            checksum[0] += buffer.getLong(index + i);
+                        }
+                        processed[0]++;
+                    }
+                }),
+                new AffinityThreadFactory(AffinityThreadFactory.ThreadAffinityMode.NO_AFFINITY));
+
+        revelator.start();
+
+        long expectedChecksum = 0L;
+        for (int seq = 0; seq < messagesNum; seq++) {
+            final int size = seq % 13;
+            final long claimSeq = revelator.claimSingleMessage(size, 0L, seq, MSG_TYPE_DATA);
+            for (int i = 0; i < size; i++) {
+                final long value = seq * 17L + i;
+                revelator.writeLongData(claimSeq, i, value);
+                expectedChecksum += value;
+            }
+            revelator.publish(claimSeq + size);
+        }
+
+        revelator.close();
+        // second close must not release buffer memory again
+        revelator.close();
+
+        assertEquals(messagesNum, processed[0]);
+        assertEquals(expectedChecksum, checksum[0]);
+    }
+
+    @Test
+    public void shouldStopPipelinedProcessorWhenShutdownSignalTakesLastFreeSession() throws Exception {
+
+        final int pipelineSize = 4;
+
+        // shutdown signal lands into every position of the sessions window, including the last free session
+        for (int messagesNum = 0; messagesNum < pipelineSize * 2; messagesNum++) {
+
+            final CountDownLatch stagesGate = new CountDownLatch(1);
+
+            final PipelinedStageHandler<PipelinedFlowSession> stage = new PipelinedStageHandler<>() {
+                @Override
+                public boolean process(final PipelinedFlowSession session) {
+                    // keep sessions in flight until shutdown signal is initialized
+                    return stagesGate.getCount() == 0;
+                }
+
+                @Override
+                public int getHitWorkWeight() {
+                    return 1;
+                }
+            };
+
+            final Revelator revelator = Revelator.create(
+                    RevelatorParameters.builder()
+                            .bufferSize(4 * 1024)
+                            .build(),
+                    ProcessorsFactories.pipelined(List.of(stage), PipelinedFlowSession::new, pipelineSize, null),
+                    new AffinityThreadFactory(AffinityThreadFactory.ThreadAffinityMode.NO_AFFINITY));
+
+            revelator.start();
+
+            for (int seq = 0; seq < messagesNum; seq++) {
+                final long claimSeq = revelator.claimSingleMessage(1, 0L, seq, MSG_TYPE_DATA);
+                revelator.writeLongData(claimSeq, 0, seq);
+                revelator.publish(claimSeq + 1);
+            }
+
+            final CompletableFuture<Void> stopped = revelator.stopAsync();
+            Thread.sleep(10);
+            stagesGate.countDown();
+
+            stopped.get(5, TimeUnit.SECONDS);
+            revelator.close();
+        }
+    }
+
+    @Test
+    public void shouldProcessMixedSimpleAndPipelinedTopology() throws Exception {
+
+        final int messagesNum = 100_000;
+        final long[] simpleProcessed = new long[1];
+        final long[] outOfOrder = new long[1];
+        final long[] checksum = new long[1];
+
+        final List<PipelinedStageHandler<PipelinedFlowSession>> stages = List.of(
+                new PipelinedStageHandler<>() {
+                    long lastCorrelationId = -1L;
+
+                    @Override
+                    public boolean process(final PipelinedFlowSession session) {
+                        if (session.messageType == MSG_TYPE_DATA) {
+                            // upstream simple processor must have handled this message already
+                            if (session.correlationId != lastCorrelationId + 1 || simpleProcessed[0] <= session.correlationId) {
+                                outOfOrder[0]++;
+                            }
+                            lastCorrelationId = session.correlationId;
+                        }
+                        return true;
+                    }
+
+                    @Override
+                    public int getHitWorkWeight() {
+                        return 1;
+                    }
+                },
+                new PipelinedStageHandler<>() {
+                    @Override
+                    public boolean process(final PipelinedFlowSession session) {
+                        if (session.messageType == MSG_TYPE_DATA) {
+                            checksum[0] += session.correlationId;
+                        }
+                        return true;
+                    }
+
+                    @Override
+                    public int getHitWorkWeight() {
+                        return 2;
+                    }
+                });
+
+        final Revelator revelator = Revelator.create(
+                RevelatorParameters.builder()
+                        .bufferSize(4 * 1024)
+                        .build(),
+                ProcessorsFactories.sequence(
+                        ProcessorsFactories.single((buffer, index, msgSize, timestamp, globalOffset, correlationId, msgType, userCookie) -> {
+                            if (msgType == MSG_TYPE_DATA) {
+                                simpleProcessed[0]++;
+                            }
+                        }),
+                        ProcessorsFactories.pipelined(stages, PipelinedFlowSession::new, 256, null)),
+                new AffinityThreadFactory(AffinityThreadFactory.ThreadAffinityMode.NO_AFFINITY));
+
+        revelator.start();
+
+        for (int seq = 0; seq < messagesNum; seq++) {
+            final long claimSeq = revelator.claimSingleMessage(1, 0L, seq, MSG_TYPE_DATA);
+            revelator.writeLongData(claimSeq, 0, seq);
+            revelator.publish(claimSeq + 1);
+        }
+
+        revelator.close();
+
+        assertEquals(messagesNum, simpleProcessed[0]);
+        assertEquals(0L, outOfOrder[0]);
+        assertEquals((long) messagesNum * (messagesNum - 1) / 2, checksum[0]);
+    }
+
+    @Test
+    public void shouldRecordLatencyOfEveryStage() throws Exception {
+
+        final int messagesNum = 50_000;
+
+        final PipelinedStageHandler<PipelinedFlowSession> stage = new PipelinedStageHandler<>() {
+            @Override
+            public boolean process(final PipelinedFlowSession session) {
+                return true;
+            }
+
+            @Override
+            public int getHitWorkWeight() {
+                return 1;
+            }
+        };
+
+        final Revelator revelator = Revelator.create(
+                RevelatorParameters.builder()
+                        .bufferSize(4 * 1024)
+                        .stageLatency(true)
+                        .build(),
+                ProcessorsFactories.sequence(
+                        ProcessorsFactories.single((buffer, index, msgSize, timestamp, globalOffset, correlationId, msgType, userCookie) -> {
+                        }),
+                        ProcessorsFactories.pipelined(List.of(stage, stage), PipelinedFlowSession::new)),
+                new AffinityThreadFactory(AffinityThreadFactory.ThreadAffinityMode.NO_AFFINITY));
+
+        revelator.start();
+
+        for (int seq = 0; seq < messagesNum; seq++) {
+            final long claimSeq = revelator.claimSingleMessage(1, System.nanoTime(), seq, MSG_TYPE_DATA);
+            revelator.writeLongData(claimSeq, 0, seq);
+            revelator.publish(claimSeq + 1);
+        }
+
+        revelator.close();
+
+        final Map<String, Histogram> histograms = revelator.getStageLatencyHistograms().getIntervalHistograms();
+        assertEquals(List.of("simple-0", "pipelined-1.0", "pipelined-1.1"), List.copyOf(histograms.keySet()));
+        histograms.values().forEach(h -> assertEquals(messagesNum, h.getTotalCount()));
+
+        // next interval is empty, but still written as tagged histogram for each stage
+        final ByteArrayOutputStream log = new ByteArrayOutputStream();
+        revelator.getStageLatencyHistograms().writeIntervalHistograms(new HistogramLogWriter(new PrintStream(log)));
+        assertTrue(log.toString().contains("Tag=pipelined-1.1,"));
+        assertEquals(0L, revelator.getStageLatencyHistograms().getIntervalHistograms().get("simple-0").getTotalCount());
+    }
+
+    @Test
+    public void shouldTraceSampledMessagesThroughAllStages() throws Exception {
+
+        final int messagesNum = 4096;
+        final int sampleRate = 16;
+
+        final PipelinedStageHandler<PipelinedFlowSession> stage = new PipelinedStageHandler<>() {
+            @Override
+            public boolean process(final PipelinedFlowSession session) {
+                return true;
+            }
+
+            @Override
+            public int getHitWorkWeight() {
+                return 1;
+            }
+        };
+
+        final Revelator revelator = Revelator.create(
+                RevelatorParameters.builder()
+                        .bufferSize(4 * 1024)
+                        .messageTracing(sampleRate, 1024)
+                        .build(),
+                ProcessorsFactories.sequence(
+                        ProcessorsFactories.single((buffer, index, msgSize, timestamp, globalOffset, correlationId, msgType, userCookie) -> {
+                        }),
+                        ProcessorsFactories.pipelined(List.of(stage, stage), PipelinedFlowSession::new)),
+                new AffinityThreadFactory(AffinityThreadFactory.ThreadAffinityMode.NO_AFFINITY));
+
+        revelator.start();
+
+        for (int seq = 0; seq < messagesNum; seq++) {
+            final long claimSeq = revelator.claimSingleMessage(1, seq, seq, MSG_TYPE_DATA);
+            revelator.writeLongData(claimSeq, 0, seq);
+            revelator.publish(claimSeq + 1);
+        }
+
+        revelator.close();
+
+        final MessageTracer tracer = revelator.getMessageTracer();
+        assertEquals(List.of("simple-0", "pipelined-1.0", "pipelined-1.1"), tracer.getStageNames());
+
+        final List<MessageTrace> traces = tracer.collect();
+        assertEquals(messagesNum / sampleRate, traces.size());
+
+        for (final MessageTrace trace : traces) {
+            assertEquals(0L, trace.getCorrelationId() % sampleRate);
+            assertEquals(trace.getCorrelationId(), trace.getTimestamp());
+            assertEquals((trace.getCorrelationId() + 1) * (Revelator.MSG_HEADER_SIZE + 1), trace.getGlobalOffset());
+            assertTrue(trace.isComplete());
+            // pipelined processor can see the message only after simple processor released it
+            assertTrue(trace.getEntryNs(1) >= trace.getExitNs(0));
+            assertTrue(trace.getEntryNs(2) >= trace.getExitNs(1));
+        }
+
+        final Map<String, Histogram> histograms = tracer.createHistograms(traces);
+        assertEquals(List.of("simple-0", "pipelined-1.0", "pipelined-1.1", "total"), List.copyOf(histograms.keySet()));
+        histograms.values().forEach(h -> assertEquals(messagesNum / sampleRate, h.getTotalCount()));
+
+        final ByteArrayOutputStream csv = new ByteArrayOutputStream();
+        tracer.writeCsv(traces, new PrintStream(csv));
+        final String[] lines = csv.toString().split("\n");
+        assertEquals(traces.size() + 1, lines.length);
+        assertTrue(lines[0].startsWith("globalOffset,correlationId,timestamp,total_ns,simple-0_start_ns,simple-0_service_ns"));
+        assertTrue(lines[1].startsWith("4,0,0,"));
+    }
+
+    @Test
+    public void shouldEmitJfrEvents() throws Exception {
+
+        final int messagesNum = 20_000;
+        final Path recordingFile = Files.createTempFile("revelator", ".jfr");
+
+        final Revelator revelator = Revelator.create(
+                RevelatorParameters.builder()
+                        .bufferSize(4 * 1024)
+                        .jfrEvents(100_000)
+                        .build(),
+                ProcessorsFactories.single((buffer, index, msgSize, timestamp, globalOffset, correlationId, msgType, userCookie) -> {
+                    if (correlationId % 1000 == 0) {
+                        // let publisher fill the ring buffer
+                        LockSupport.parkNanos(1_000_000L);
+                    }
+                }),
+                new AffinityThreadFactory(AffinityThreadFactory.ThreadAffinityMode.NO_AFFINITY));
+
+        try (final Recording recording = new Recording()) {
+            recording.enable(BatchProcessedEvent.class);
+            recording.enable(TailStrikeEvent.class);
+            recording.enable(IdlePeriodEvent.class);
+            recording.start();
+
+            revelator.start();
+
+            // processor is idle until first message
+            Thread.sleep(10);
+
+            for (int seq = 0; seq < messagesNum; seq++) {
+                final long claimSeq = revelator.claimSingleMessage(1, 0L, seq, MSG_TYPE_DATA);
+                revelator.writeLongData(claimSeq, 0, seq);
+                revelator.publish(claimSeq + 1);
+            }
+
+            revelator.close();
+            recording.stop();
+            recording.dump(recordingFile);
+        }
+
+        final Map<String, Long> eventsCount = new HashMap<>();
+        long batchMessages = 0L;
+        for (final RecordedEvent event : RecordingFile.readAllEvents(recordingFile)) {
+            eventsCount.merge(event.getEventType().getName(), 1L, Long::sum);
+            if (event.getEventType().getName().equals("exchange.core2.revelator.BatchProcessed")) {
+                assertEquals("simple-0", event.getString("processor"));
+                assertTrue(event.getLong("messages") > 0);
+                batchMessages += event.getLong("messages");
+            } else if (event.getEventType().getName().equals("exchange.core2.revelator.IdlePeriod")) {
+                assertTrue(event.getLong("idleTime") >= JfrEventsEmitter.IDLE_THRESHOLD_NS);
+                assertTrue(event.getLong("spins") > 0);
+            } else if (event.getEventType().getName().equals("exchange.core2.revelator.TailStrike")) {
+                assertTrue(event.getDouble("ringOccupancy") > 0.5);
+            }
+        }
+        Files.delete(recordingFile);
+
+        assertTrue(eventsCount.containsKey("exchange.core2.revelator.BatchProcessed"));
+        assertTrue(eventsCount.containsKey("exchange.core2.revelator.TailStrike"));
+        assertTrue(eventsCount.containsKey("exchange.core2.revelator.IdlePeriod"));
+        assertTrue(batchMessages <= messagesNum);
+    }
+
+    @Test
+    public void shouldRunLoadTestStepsForEveryTopology() throws Exception {
+
+        for (final LoadTestTopology topology : LoadTestTopology.values()) {
+
+            final Path outputDir = Files.createTempDirectory("revelator-loadtest");
+
+            final LoadTestConfig config = LoadTestConfig.builder()
+                    .topology(topology, 3)
+                    .bufferSize(64 * 1024)
+                    .processorsWaitStrategy(WaitStrategyType.SPIN_THEN_YIELD)
+                    .messageSize(MessageSizeDistributions.bimodal(2, 40, 0.1))
+                    .burstProfile(BurstProfiles.bursts(16))
+                    .arrivalMode(ArrivalMode.OPEN_LOOP)
+                    .tpsRamp(100_000, 300_000, 100_000)
+                    .messagesPerStep(20_000)
+                    .latencySampleRate(4)
+                    .outputDir(outputDir)
+                    .build();
+
+            final List<LoadTestStepResult> results = new LoadTestHarness(config).run();
+
+            assertEquals(3, results.size());
+            final long expectedSamples = (topology == LoadTestTopology.PARALLEL ? 3 : 1) * 20_000L / 4;
+            for (final LoadTestStepResult result : results) {
+                assertEquals(20_000, result.getMessages());
+                assertEquals(topology.toString(), expectedSamples, result.getLatency().getTotalCount());
+            }
+
+            final List<String> summary = Files.readAllLines(outputDir.resolve(LoadTestHarness.SUMMARY_FILE));
+            assertEquals(4, summary.size());
+            assertTrue(summary.get(0).startsWith("step,targetTps,achievedTps,messages,tailStrikes,samples"));
+            assertTrue(summary.get(3).startsWith("2,300000,"));
+
+            final String histogramLog = Files.readString(outputDir.resolve(LoadTestHarness.HISTOGRAM_LOG_FILE));
+            assertTrue(histogramLog.contains("Tag=step-2,"));
+        }
+    }
+
+    @Test
+    public void shouldPublishCountersIntoMappedFile() throws Exception {
+
+        final int messagesNum = 50_000;
+        final Path countersFile = Files.createTempFile("revelator", ".counters");
+
+        final List<PipelinedStageHandler<PipelinedFlowSession>> stages = List.of(
+                new PipelinedStageHandler<>() {
+                    @Override
+                    public boolean process(final PipelinedFlowSession session) {
+                        return true;
+                    }
+
+                    @Override
+                    public int getHitWorkWeight() {
+                        return 1;
+                    }
+                },
+                new PipelinedStageHandler<>() {
+                    long attempts = 0L;
+
+                    @Override
+                    public boolean process(final PipelinedFlowSession session) {
+                        // miss every second attempt
+                        return (attempts++ & 1) == 0;
+                    }
+
+                    @Override
+                    public int getHitWorkWeight() {
+                        return 1;
+                    }
+                });
+
+        final Revelator revelator = Revelator.create(
+                RevelatorParameters.builder()
+                        .bufferSize(4 * 1024)
+                        .countersFile(countersFile)
+                        .build(),
+                ProcessorsFactories.sequence(
+                        ProcessorsFactories.single((buffer, index, msgSize, timestamp, globalOffset, correlationId, msgType, userCookie) -> {
+                        }),
+                        ProcessorsFactories.pipelined(stages, PipelinedFlowSession::new)),
+                new AffinityThreadFactory(AffinityThreadFactory.ThreadAffinityMode.NO_AFFINITY));
+
+        revelator.start();
+
+        // processors are spinning until first message
+        Thread.sleep(10);
+
+        for (int seq = 0; seq < messagesNum; seq++) {
+            final long claimSeq = revelator.claimSingleMessage(1, 0L, seq, MSG_TYPE_DATA);
+            revelator.writeLongData(claimSeq, 0, seq);
+            revelator.publish(claimSeq + 1);
+        }
+
+        final long tailStrikes = revelator.getTailStrike();
+        revelator.close();
+
+        // external reader maps the file independently
+        final Map<String, Long> values = new HashMap<>();
+        RevelatorCounters.mapReader(countersFile).forEach((value, counterId, label) -> values.put(label, value));
+
+        assertEquals(tailStrikes, (long) values.get("publisher tail strikes"));
+
+        assertEquals(messagesNum, (long) values.get("simple-0 messages"));
+        assertTrue(values.get("simple-0 batches") > 0);
+        assertTrue(values.get("simple-0 max batch size") > 0);
+        assertTrue(values.get("simple-0 idle spins") > 0);
+        assertTrue(values.get("pipelined-1 idle spins") > 0);
+
+        // shutdown signal also passes all stages
+        assertEquals(messagesNum + 1, (long) values.get("pipelined-1 messages"));
+        assertEquals(messagesNum + 1, (long) values.get("pipelined-1.0 hits"));
+        assertEquals(messagesNum + 1, (long) values.get("pipelined-1.1 hits"));
+        assertEquals(0L, (long) values.get("pipelined-1.0 misses"));
+        assertTrue(values.get("pipelined-1.1 misses") > 0);
+
+        Files.delete(countersFile);
+    }
+
+    @Test
+    public void shouldReportBacklogOfLaggingStage() throws Exception {
+
+        final int messagesNum = 1000;
+        final CountDownLatch slowStageLatch = new CountDownLatch(1);
+        final List<String> laggingStages = new CopyOnWriteArrayList<>();
+        final AtomicLong occupancyAlarms = new AtomicLong();
+
+        final LagMonitorConfig monitorConfig = LagMonitorConfig.builder()
+                .interval(1, TimeUnit.HOURS) // samples are taken by test
+                .stageBacklogThreshold(1000)
+                .ringOccupancyThreshold(0.05)
+                .listener(new ILagListener() {
+                    @Override
+                    public void onStageBacklog(LagSample.StageLag stageLag, LagSample sample) {
+                        laggingStages.add(stageLag.getName());
+                    }
+
+                    @Override
+                    public void onRingOccupancy(LagSample sample) {
+                        occupancyAlarms.incrementAndGet();
+                    }
+                })
+                .build();
+
+        final Revelator revelator = Revelator.create(
+                RevelatorParameters.builder()
+                        .bufferSize(64 * 1024)
+                        .lagMonitor(monitorConfig)
+                        .build(),
+                ProcessorsFactories.chain(List.of(
+                        (buffer, index, msgSize, timestamp, globalOffset, correlationId, msgType, userCookie) -> {
+                        },
+                        (buffer, index, msgSize, timestamp, globalOffset, correlationId, msgType, userCookie) -> {
+                            try {
+                                slowStageLatch.await();
+                            } catch (InterruptedException ex) {
+                                throw new RuntimeException(ex);
+                            }
+                        })),
+                new AffinityThreadFactory(AffinityThreadFactory.ThreadAffinityMode.NO_AFFINITY));
+
+        revelator.start();
+
+        for (int seq = 0; seq < messagesNum; seq++) {
+            final long claimSeq = revelator.claimSingleMessage(2, 0L, seq, MSG_TYPE_DATA);
+            revelator.writeLongData(claimSeq, 0, seq);
+            revelator.writeLongData(claimSeq, 1, seq);
+            revelator.publish(claimSeq + 2);
+        }
+
+        final long publishedWords = messagesNum * (Revelator.MSG_HEADER_SIZE + 2L);
+
+        LagSample sample;
+        do {
+            sample = revelator.getLagMonitor().sample();
+        } while (sample.getStages().get(0).getBacklogWords() != 0L);
+
+        assertEquals(publishedWords, sample.getInboundPosition());
+        assertEquals(Revelator.MSG_HEADER_SIZE + 2.0, sample.getAverageMessageSize(), 0.0001);
+        assertEquals((double) publishedWords / (64 * 1024), sample.getRingOccupancy(), 0.0001);
+
+        // second processor is blocked on the first message of the batch
+        final LagSample.StageLag slowStage = sample.getStages().get(1);
+        assertEquals("PROC-1", slowStage.getName());
+        assertEquals(publishedWords, slowStage.getBacklogWords());
+        assertEquals(messagesNum, slowStage.getBacklogMessages());
+        assertEquals(Long.MAX_VALUE, slowStage.getTimeToDrainNs());
+        assertEquals(sample, revelator.getLagMonitor().getLastSample());
+
+        assertTrue(laggingStages.contains("PROC-1"));
+        assertEquals(1L, occupancyAlarms.get());
+
+        slowStageLatch.countDown();
+        revelator.close();
+    }
+
+    @Test
+    public void shouldProcessAllMessagesWithAdaptiveScheduling() throws Exception {
+
+        final int messagesNum = 200_000;
+        final long[] outOfOrder = new long[1];
+        final long[] checksum = new long[1];
+
+        final List<PipelinedStageHandler<PipelinedFlowSession>> stages = List.of(
+                new PipelinedStageHandler<>() {
+                    long attempts = 0L;
+
+                    @Override
+                    public boolean process(final PipelinedFlowSession session) {
+                        // stage often is not ready (like waiting for another fence)
+                        return ++attempts % 3 != 0;
+                    }
+
+                    @Override
+                    public int getHitWorkWeight() {
+                        return 1;
+                    }
+                },
+                new PipelinedStageHandler<>() {
+                    long lastCorrelationId = -1L;
+
+                    @Override
+                    public boolean process(final PipelinedFlowSession session) {
+                        if (session.messageType == MSG_TYPE_DATA) {
+                            if (session.correlationId != lastCorrelationId + 1) {
+                                outOfOrder[0]++;
+                            }
+                            lastCorrelationId = session.correlationId;
+                            checksum[0] += session.correlationId;
+                        }
+                        return true;
+                    }
+
+                    @Override
+                    public int getHitWorkWeight() {
+                        return 1;
+                    }
+                });
+
+        final Revelator revelator = Revelator.create(
+                RevelatorParameters.builder()
+                        .bufferSize(4 * 1024)
+                        .build(),
+                ProcessorsFactories.pipelined(stages, PipelinedFlowSession::new, 64, SchedulingMode.ADAPTIVE, null),
+                new AffinityThreadFactory(AffinityThreadFactory.ThreadAffinityMode.NO_AFFINITY));
+
+        revelator.start();
+
+        for (int seq = 0; seq < messagesNum; seq++) {
+            final long claimSeq = revelator.claimSingleMessage(1, 0L, seq, MSG_TYPE_DATA);
+            revelator.writeLongData(claimSeq, 0, seq);
+            revelator.publish(claimSeq + 1);
+        }
+
+        revelator.close();
+
+        assertEquals(0L, outOfOrder[0]);
+        assertEquals((long) messagesNum * (messagesNum - 1) / 2, checksum[0]);
+    }
+
+    @Test
+    public void shouldOverlapBranchWithRemainingPipelineStages() throws Exception {
+
+        final int messagesNum = 100_000;
+        final AtomicLong branchProcessed = new AtomicLong(-1L);
+        final long[] branchChecksum = new long[1];
+        final long[] lastStageChecksum = new long[1];
+
+        final List<PipelinedStageHandler<PipelinedFlowSession>> stages = List.of(
+                new PipelinedStageHandler<>() {
+                    @Override
+                    public boolean process(final PipelinedFlowSession session) {
+                        return true;
+                    }
+
+                    @Override
+                    public int getHitWorkWeight() {
+                        return 1;
+                    }
+                },
+                new PipelinedStageHandler<>() {
+                    @Override
+                    public boolean process(final PipelinedFlowSession session) {
+                        // can not complete until branch processed same message - would never happen if branch waited for pipeline tail
+                        if (session.messageType == MSG_TYPE_DATA) {
+                            if (branchProcessed.get() < session.correlationId) {
+                                return false;
+                            }
+                            lastStageChecksum[0] += session.correlationId;
+                        }
+                        return true;
+                    }
+
+                    @Override
+                    public int getHitWorkWeight() {
+                        return 1;
+                    }
+                });
+
+        final Revelator revelator = Revelator.create(
+                RevelatorParameters.builder()
+                        .bufferSize(4 * 1024)
+                        .build(),
+                ProcessorsFactories.pipelinedWithBranch(
+                        stages,
+                        PipelinedFlowSession::new,
+                        0,
+                        ProcessorsFactories.single((buffer, index, msgSize, timestamp, globalOffset, correlationId, msgType, userCookie) -> {
+                            if (msgType == MSG_TYPE_DATA) {
+                                branchChecksum[0] += correlationId;
+                                branchProcessed.set(correlationId);
+                            }
+                        }),
+                        ReleasePolicy.everyMessages(16),
+                        null),
+                new AffinityThreadFactory(AffinityThreadFactory.ThreadAffinityMode.NO_AFFINITY));
+
+        revelator.start();
+
+        for (int seq = 0; seq < messagesNum; seq++) {
+            final long claimSeq = revelator.claimSingleMessage(1, 0L, seq, MSG_TYPE_DATA);
+            revelator.writeLongData(claimSeq, 0, seq);
+            revelator.publish(claimSeq + 1);
+        }
+
+        revelator.close();
+
+        final long expectedChecksum = (long) messagesNum * (messagesNum - 1) / 2;
+        assertEquals(expectedChecksum, branchChecksum[0]);
+        assertEquals(expectedChecksum, lastStageChecksum[0]);
+    }
+
+    @Test
+    public void shouldProcessShardsInPerAccountOrder() throws Exception {
+
+        final int messagesNum = 200_000;
+        final int accountsNum = 64;
+        final int shardsNum = 4;
+
+        // written only by owning shard, read by next handler after shard fence
+        final long[] lastSeqByAccount = new long[accountsNum];
+        final long[] shardViolations = new long[shardsNum];
+        final long[] shardProcessed = new long[shardsNum];
+        final long[] nextViolations = new long[1];
+        final long[] nextProcessed = new long[1];
+
+        final List<SimpleMessageHandler> shardHandlers = IntStream.range(0, shardsNum)
+                .mapToObj(shardId -> (SimpleMessageHandler) (buffer, index, msgSize, timestamp, globalOffset, correlationId, msgType, userCookie) -> {
+                    if (msgType == MSG_TYPE_DATA) {
+                        final long seq = buffer.getLong(index);
+                        final int account = (int) correlationId;
+                        if (account % shardsNum != shardId || seq <= lastSeqByAccount[account]) {
+                            shardViolations[shardId]++;
+                        }
+                        lastSeqByAccount[account] = seq;
+                        shardProcessed[shardId]++;
+                    }
+                })
+                .collect(Collectors.toList());
+
+        final Revelator revelator = Revelator.create(
+                RevelatorParameters.builder()
+                        .bufferSize(4 * 1024)
+                        .build(),
+                ProcessorsFactories.sharded(
+                        correlationId -> (int) (correlationId % shardsNum),
+                        shardHandlers,
+                        (buffer, index, msgSize, timestamp, globalOffset, correlationId, msgType, userCookie) -> {
+                            if (msgType == MSG_TYPE_DATA) {
+                                // owning shard must have processed this message already
+                                if (lastSeqByAccount[(int) correlationId] < buffer.getLong(index)) {
+                                    nextViolations[0]++;
+                                }
+                                nextProcessed[0]++;
+                            }
+                        },
+                        null),
+                new AffinityThreadFactory(AffinityThreadFactory.ThreadAffinityMode.NO_AFFINITY));
+
+        revelator.start();
+
+        for (int seq = 1; seq <= messagesNum; seq++) {
+            final long claimSeq = revelator.claimSingleMessage(1, 0L, (seq * 7L) % accountsNum, MSG_TYPE_DATA);
+            revelator.writeLongData(claimSeq, 0, seq);
+            revelator.publish(claimSeq + 1);
+        }
+
+        revelator.close();
+
+        assertEquals(messagesNum, nextProcessed[0]);
+        assertEquals(0L, nextViolations[0]);
+        assertEquals(messagesNum, LongStream.of(shardProcessed).sum());
+        assertArrayEquals(new long[shardsNum], shardViolations);
+    }
+
+    @Test
+    public void shouldReleaseShardsThroughMinFenceTree() throws Exception {
+
+        final int messagesNum = 200_000;
+        final int accountsNum = 64;
+        final int shardsNum = 8;
+
+        final long[] lastSeqByAccount = new long[accountsNum];
+        final long[] violations = new long[1];
+        final long[] processed = new long[1];
+
+        final List<SimpleMessageHandler> shardHandlers = IntStream.range(0, shardsNum)
+                .mapToObj(shardId -> (SimpleMessageHandler) (buffer, index, msgSize, timestamp, globalOffset, correlationId, msgType, userCookie) -> {
+                    if (msgType == MSG_TYPE_DATA) {
+                        lastSeqByAccount[(int) correlationId] = buffer.getLong(index);
+                    }
+                })
+                .collect(Collectors.toList());
+
+        final Revelator revelator = Revelator.create(
+                RevelatorParameters.builder()
+                        .bufferSize(4 * 1024)
+                        .build(),
+                ProcessorsFactories.sequence(
+                        // 3 levels tree
+                        ProcessorsFactories.sharded(correlationId -> (int) (correlationId % shardsNum), shardHandlers, null, 2),
+                        ProcessorsFactories.single((buffer, index, msgSize, timestamp, globalOffset, correlationId, msgType, userCookie) -> {
+                            if (msgType == MSG_TYPE_DATA) {
+                                // all shards must have processed this message already
+                                if (lastSeqByAccount[(int) correlationId] < buffer.getLong(index)) {
+                                    violations[0]++;
+                                }
+                                processed[0]++;
+                            }
+                        })),
+                new AffinityThreadFactory(AffinityThreadFactory.ThreadAffinityMode.NO_AFFINITY));
+
+        revelator.start();
+
+        for (int seq = 1; seq <= messagesNum; seq++) {
+            final long claimSeq = revelator.claimSingleMessage(1, 0L, (seq * 7L) % accountsNum, MSG_TYPE_DATA);
+            revelator.writeLongData(claimSeq, 0, seq);
+            revelator.publish(claimSeq + 1);
+        }
+
+        revelator.close();
+
+        assertEquals(messagesNum, processed[0]);
+        assertEquals(0L, violations[0]);
+    }
+
+    @Test
+    public void shouldAggregateMinimumWithCachingAndTreeFences() {
+
+        final List<SingleWriterFence> fences = IntStream.range(0, 5)
+                .mapToObj(i -> new SingleWriterFence())
+                .collect(Collectors.toList());
+
+        final CachingMinFence cachingMinFence = new CachingMinFence(fences);
+        final MinFenceTree minFenceTree = new MinFenceTree(fences, 2);
+
+        assertEquals(3, minFenceTree.getLevels());
+        assertEquals(-1L, cachingMinFence.getAcquire(-1L));
+        assertEquals(-1L, minFenceTree.getAcquire(-1L));
+
+        for (int i = 0; i < fences.size(); i++) {
+            fences.get(i).setRelease(100L + i);
+        }
+        assertEquals(100L, cachingMinFence.getAcquire(-1L));
+        assertEquals(100L, minFenceTree.getAcquire(-1L));
+
+        // laggard moves to another fence
+        fences.get(0).setRelease(200L);
+        assertEquals(101L, cachingMinFence.getAcquire(100L));
+        assertEquals(101L, minFenceTree.getAcquire(100L));
+
+        fences.get(1).setRelease(150L);
+        fences.get(2).setRelease(160L);
+        fences.get(3).setRelease(170L);
+        assertEquals(104L, cachingMinFence.getAcquire(101L));
+        assertEquals(104L, minFenceTree.getAcquire(101L));
+
+        fences.get(4).setRelease(300L);
+        assertEquals(150L, cachingMinFence.getAcquire(104L));
+        assertEquals(150L, minFenceTree.getAcquire(104L));
+    }
+
+    @Test
+    public void shouldIgnoreMultiProducerMarkersFromNextBufferCycle() {
+
+        final MultiProducerFence fence = new MultiProducerFence(16);
+
+        fence.publish(0, 4);
+        fence.publish(4, 8);
+        assertEquals(8L, fence.getAcquire(-1L));
+
+        // reader which does not gate publishers: message of the next cycle lands into the slot of position 8,
+        // while messages between them are not published yet
+        fence.publish(24, 28);
+        assertEquals(8L, fence.getAcquire(8L));
+        assertEquals(8L, fence.getVolatile());
+    }
+
+    @Test
+    public void shouldProcessMessagesInDeclaredTopologyOrder() throws Exception {
+
+        final int messagesNum = 200_000;
+        final int accountsNum = 64;
+        final int shardsNum = 2;
+
+        // last seq processed by journal(0), replicate(1), matching(2)
+        final AtomicLongArray lastSeq = new AtomicLongArray(3);
+        final long[] lastSeqByAccount = new long[accountsNum];
+        final long[] violations = new long[5];
+        final long[] processed = new long[2];
+
+        final List<SimpleMessageHandler> riskHandlers = IntStream.range(0, shardsNum)
+                .mapToObj(shardId -> (SimpleMessageHandler) (buffer, index, msgSize, timestamp, globalOffset, correlationId, msgType, userCookie) -> {
+                    if (msgType == MSG_TYPE_DATA) {
+                        final long seq = buffer.getLong(index);
+                        if (lastSeq.get(0) < seq || lastSeq.get(1) < seq) {
+                            violations[0]++;
+                        }
+                        lastSeqByAccount[(int) correlationId] = seq;
+                    }
+                })
+                .collect(Collectors.toList());
+
+        final IFlowProcessorsFactory topology = TopologyBuilder.create()
+                .stage("journal", ProcessorsFactories.single((buffer, index, msgSize, timestamp, globalOffset, correlationId, msgType, userCookie) -> {
+                    if (msgType == MSG_TYPE_DATA) lastSeq.set(0, buffer.getLong(index));
+                }))
+                .stage("replicate", ProcessorsFactories.single((buffer, index, msgSize, timestamp, globalOffset, correlationId, msgType, userCookie) -> {
+                    if (msgType == MSG_TYPE_DATA) lastSeq.set(1, buffer.getLong(index));
+                }))
+                .stage("risk", ProcessorsFactories.sharded(correlationId -> (int) (correlationId % shardsNum), riskHandlers), "journal", "replicate")
+                .keyed("matching", (buffer, index, msgSize, timestamp, globalOffset, correlationId, msgType, userCookie) -> {
+                    if (msgType == MSG_TYPE_DATA) {
+                        final long seq = buffer.getLong(index);
+                        if (lastSeqByAccount[(int) correlationId] < seq || lastSeq.get(0) < seq) {
+                            violations[1]++;
+                        }
+                        lastSeq.set(2, seq);
+                    }
+                }, "risk")
+                .stage("results", ProcessorsFactories.single((buffer, index, msgSize, timestamp, globalOffset, correlationId, msgType, userCookie) -> {
+                    if (msgType == MSG_TYPE_DATA) {
+                        if (lastSeq.get(2) < buffer.getLong(index)) violations[2]++;
+                        processed[0]++;
+                    }
+                }), "matching", "journal")
+                .stage("marketData", ProcessorsFactories.single((buffer, index, msgSize, timestamp, globalOffset, correlationId, msgType, userCookie) -> {
+                    if (msgType == MSG_TYPE_DATA) {
+                        if (lastSeq.get(2) < buffer.getLong(index)) violations[3]++;
+                        processed[1]++;
+                    }
+                }), "matching")
+                .build();
+
+        final Revelator revelator = Revelator.create(
+                RevelatorParameters.builder()
+                        .bufferSize(4 * 1024)
+                        .build(),
+                topology,
+                new AffinityThreadFactory(AffinityThreadFactory.ThreadAffinityMode.NO_AFFINITY));
+
+        revelator.start();
+
+        for (int seq = 1; seq <= messagesNum; seq++) {
+            final long claimSeq = revelator.claimSingleMessage(1, 0L, (seq * 7L) % accountsNum, MSG_TYPE_DATA);
+            revelator.writeLongData(claimSeq, 0, seq);
+            revelator.publish(claimSeq + 1);
+        }
+
+        revelator.close();
+
+        assertArrayEquals(new long[5], violations);
+        assertArrayEquals(new long[]{messagesNum, messagesNum}, processed);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectUndeclaredTopologyDependency() {
+        TopologyBuilder.create()
+                .stage("matching", ProcessorsFactories.single((buffer, index, msgSize, timestamp, globalOffset, correlationId, msgType, userCookie) -> {
+                }), "risk");
+    }
+
+    @Test
+    public void shouldProcessSpikesWithElasticWorkers() throws Exception {
+
+        final int workersNum = 4;
+        final int messagesNum = 300_000;
+        final long[] processed = new long[workersNum];
+        final long[] checksums = new long[workersNum];
+
+        final List<SimpleMessageHandler> handlers = IntStream.range(0, workersNum)
+                .mapToObj(workerId -> (SimpleMessageHandler) (buffer, index, msgSize, timestamp, globalOffset, correlationId, msgType, userCookie) -> {
+                    if (msgType == MSG_TYPE_DATA) {
+                        checksums[workerId] += buffer.getLong(index);
+                        processed[workerId]++;
+                    }
+                })
+                .collect(Collectors.toList());
+
+        final long[] nextChecksum = new long[1];
+
+        final Revelator revelator = Revelator.create(
+                RevelatorParameters.builder()
+                        .bufferSize(16 * 1024)
+                        .build(),
+                ProcessorsFactories.sequence(
+                        ProcessorsFactories.elastic(handlers, 1024, 16, null),
+                        // next stage must see every message only after elastic stage processed it
+                        ProcessorsFactories.single((buffer, index, msgSize, timestamp, globalOffset, correlationId, msgType, userCookie) -> {
+                            if (msgType == MSG_TYPE_DATA) {
+                                nextChecksum[0] += buffer.getLong(index);
+                            }
+                        })),
+                new AffinityThreadFactory(AffinityThreadFactory.ThreadAffinityMode.NO_AFFINITY));
+
+        revelator.start();
+
+        long expectedChecksum = 0L;
+        for (int seq = 0; seq < messagesNum; seq++) {
+            final long claimSeq = revelator.claimSingleMessage(1 + seq % 5, 0L, seq, MSG_TYPE_DATA);
+            revelator.writeLongData(claimSeq, 0, seq * 3L);
+            revelator.publish(claimSeq + 1 + seq % 5);
+            expectedChecksum += seq * 3L;
+            if (seq % 50_000 == 0) {
+                // quiet period - spike workers go to sleep
+                Thread.sleep(20);
+            }
+        }
+
+        revelator.close();
+
+        assertEquals(messagesNum, LongStream.of(processed).sum());
+        assertEquals(expectedChecksum, LongStream.of(checksums).sum());
+        assertEquals(expectedChecksum, nextChecksum[0]);
+    }
+
+    @Test
+    public void shouldKeepSpikeWorkersParkedBelowLagThreshold() throws Exception {
+
+        final int workersNum = 3;
+        final int messagesNum = 50_000;
+        final long[] processed = new long[workersNum];
+
+        final List<SimpleMessageHandler> handlers = IntStream.range(0, workersNum)
+                .mapToObj(workerId -> (SimpleMessageHandler) (buffer, index, msgSize, timestamp, globalOffset, correlationId, msgType, userCookie) -> {
+                    if (msgType == MSG_TYPE_DATA) {
+                        processed[workerId]++;
+                    }
+                })
+                .collect(Collectors.toList());
+
+        // lag can never exceed buffer size
+        final Revelator revelator = Revelator.create(
+                RevelatorParameters.builder()
+                        .bufferSize(16 * 1024)
+                        .build(),
+                ProcessorsFactories.elastic(handlers, 32 * 1024, 16, null),
+                new AffinityThreadFactory(AffinityThreadFactory.ThreadAffinityMode.NO_AFFINITY));
+
+        revelator.start();
+
+        for (int seq = 0; seq < messagesNum; seq++) {
+            final long claimSeq = revelator.claimSingleMessage(1, 0L, seq, MSG_TYPE_DATA);
+            revelator.writeLongData(claimSeq, 0, seq);
+            revelator.publish(claimSeq + 1);
+            if (seq % 10_000 == 0) {
+                // quiet periods longer than any park timeout
+                Thread.sleep(20);
+            }
+        }
+
+        revelator.close();
+
+        assertEquals(messagesNum, processed[0]);
+        for (int i = 1; i < workersNum; i++) {
+            assertEquals(0L, processed[i]);
+        }
+    }
+
+    @Test
+    public void shouldNotifyHandlersAboutBatches() throws Exception {
+
+        final int messagesNum = 100_000;
+        final long[] simpleStats = new long[4]; // batches started, ended, messages, violations
+        final long[] pipelinedStats = new long[4];
+
+        final SimpleMessageHandler simpleHandler = new SimpleMessageHandler() {
+            long batchEnd = -1L;
+
+            @Override
+            public void handleMessage(RingBuffer buffer, long index, int msgSize, long timestamp, long globalOffset,
+                                      long correlationId, byte msgType, int userCookie) {
+                // remaining words hint always includes message itself
+                if (batchEnd == -1L || batchEnd - globalOffset < msgSize) {
+                    simpleStats[3]++;
+                }
+                simpleStats[2]++;
+            }
+
+            @Override
+            public void onBatchStart(long batchStartOffset, long batchEndOffset) {
+                if (batchEnd != -1L || batchEndOffset <= batchStartOffset) {
+                    simpleStats[3]++;
+                }
+                batchEnd = batchEndOffset;
+                simpleStats[0]++;
+            }
+
+            @Override
+            public void onBatchEnd(long batchEndOffset) {
+                // last batch ends earlier - at shutdown signal
+                if (batchEndOffset > batchEnd) {
+                    simpleStats[3]++;
+                }
+                batchEnd = -1L;
+                simpleStats[1]++;
+            }
+        };
+
+        final PipelinedStageHandler<PipelinedFlowSession> stage = new PipelinedStageHandler<>() {
+            boolean inBatch = false;
+
+            @Override
+            public boolean process(final PipelinedFlowSession session) {
+                if (!inBatch) {
+                    pipelinedStats[3]++;
+                }
+                pipelinedStats[2]++;
+                return true;
+            }
+
+            @Override
+            public int getHitWorkWeight() {
+                return 1;
+            }
+
+            @Override
+            public void onBatchStart() {
+                if (inBatch) {
+                    pipelinedStats[3]++;
+                }
+                inBatch = true;
+                pipelinedStats[0]++;
+            }
+
+            @Override
+            public void onBatchEnd() {
+                inBatch = false;
+                pipelinedStats[1]++;
+            }
+        };
+
+        final Revelator revelator = Revelator.create(
+                RevelatorParameters.builder()
+                        .bufferSize(4 * 1024)
+                        .build(),
+                ProcessorsFactories.sequence(
+                        ProcessorsFactories.single(simpleHandler),
+                        ProcessorsFactories.pipelined(List.of(stage), PipelinedFlowSession::new)),
+                new AffinityThreadFactory(AffinityThreadFactory.ThreadAffinityMode.NO_AFFINITY));
+
+        revelator.start();
+
+        for (int seq = 0; seq < messagesNum; seq++) {
+            final int size = seq % 7;
+            final long claimSeq = revelator.claimSingleMessage(size, 0L, seq, MSG_TYPE_DATA);
+            revelator.publish(claimSeq + size);
+        }
+
+        revelator.close();
+
+        assertEquals(messagesNum, simpleStats[2]);
+        assertEquals(simpleStats[0], simpleStats[1]);
+        assertEquals(0L, simpleStats[3]);
+
+        // pipelined stage also receives shutdown signal session
+        assertEquals(messagesNum + 1, pipelinedStats[2]);
+        assertEquals(pipelinedStats[0], pipelinedStats[1]);
+        assertEquals(0L, pipelinedStats[3]);
+    }
+
+    @Test
+    public void shouldReleaseProgressivelyInsideLargeBatch() throws Exception {
+
+        final int messagesNum = 5_000;
+        final long[] firstStageBatches = new long[1];
+        final long[] secondStageBatches = new long[1];
+        final long[] lastSeq = {-1L};
+        final long[] outOfOrder = new long[1];
+
+        final SimpleMessageHandler firstStage = new SimpleMessageHandler() {
+            @Override
+            public void handleMessage(RingBuffer buffer, long index, int msgSize, long timestamp, long globalOffset,
+                                      long correlationId, byte msgType, int userCookie) {
+            }
+
+            @Override
+            public void onBatchEnd(long batchEndOffset) {
+                firstStageBatches[0]++;
+            }
+        };
+
+        final SimpleMessageHandler secondStage = new SimpleMessageHandler() {
+            @Override
+            public void handleMessage(RingBuffer buffer, long index, int msgSize, long timestamp, long globalOffset,
+                                      long correlationId, byte msgType, int userCookie) {
+                if (msgType == MSG_TYPE_DATA) {
+                    if (correlationId != lastSeq[0] + 1) {
+                        outOfOrder[0]++;
+                    }
+                    lastSeq[0] = correlationId;
+                }
+            }
+
+            @Override
+            public void onBatchStart(long batchStartOffset, long batchEndOffset) {
+                secondStageBatches[0]++;
+            }
+        };
+
+        final Revelator revelator = Revelator.create(
+                RevelatorParameters.builder()
+                        .bufferSize(64 * 1024)
+                        .build(),
+                ProcessorsFactories.chain(List.of(firstStage, secondStage), null, ReleasePolicy.everyMessages(100)),
+                new AffinityThreadFactory(AffinityThreadFactory.ThreadAffinityMode.NO_AFFINITY));
+
+        // whole spike is available to the first stage as a single batch
+        for (int seq = 0; seq < messagesNum; seq++) {
+            final long claimSeq = revelator.claimSingleMessage(1, 0L, seq, MSG_TYPE_DATA);
+            revelator.publish(claimSeq + 1);
+        }
+
+        revelator.start();
+        revelator.close();
+
+        assertEquals(messagesNum - 1, lastSeq[0]);
+        assertEquals(0L, outOfOrder[0]);
+        assertTrue(firstStageBatches[0] >= messagesNum / 100);
+        assertTrue(secondStageBatches[0] > 1);
+    }
+
+    @Test
+    public void shouldMeasureFirstReleaseIntervalFromStart() throws Exception {
+
+        final int messagesNum = 5_000;
+        final List<Long> firstStageBatchEnds = new CopyOnWriteArrayList<>();
+
+        final SimpleMessageHandler firstStage = new SimpleMessageHandler() {
+            @Override
+            public void handleMessage(RingBuffer buffer, long index, int msgSize, long timestamp, long globalOffset,
+                                      long correlationId, byte msgType, int userCookie) {
+            }
+
+            @Override
+            public void onBatchEnd(long batchEndOffset) {
+                firstStageBatchEnds.add(batchEndOffset);
+            }
+        };
+
+        final Revelator revelator = Revelator.create(
+                RevelatorParameters.builder()
+                        .bufferSize(64 * 1024)
+                        .build(),
+                ProcessorsFactories.chain(
+                        List.of(firstStage, (buffer, index, msgSize, timestamp, globalOffset, correlationId, msgType, userCookie) -> {
+                        }),
+                        null,
+                        ReleasePolicy.interval(1, TimeUnit.MINUTES)),
+                new AffinityThreadFactory(AffinityThreadFactory.ThreadAffinityMode.NO_AFFINITY));
+
+        // whole spike is available to the first stage as a single batch
+        long spikeEnd = 0L;
+        for (int seq = 0; seq < messagesNum; seq++) {
+            final long claimSeq = revelator.claimSingleMessage(1, 0L, seq, MSG_TYPE_DATA);
+            revelator.publish(claimSeq + 1);
+            spikeEnd = claimSeq + 1;
+        }
+
+        revelator.start();
+        revelator.close();
+
+        // interval has not passed since start - batch is not broken
+        assertFalse(firstStageBatchEnds.isEmpty());
+        for (final long batchEnd : firstStageBatchEnds) {
+            assertTrue(batchEnd >= spikeEnd);
+        }
+    }
+
+    @Test
+    public void shouldDeliverBatchesWithPaddingInside() throws Exception {
+        checkBatches(RevelatorParameters.ProducerType.SINGLE);
+    }
+
+    @Test
+    public void shouldDeliverBatchesWithPaddingInsideMultiProducer() throws Exception {
+        checkBatches(RevelatorParameters.ProducerType.MULTI);
+    }
+
+    private void checkBatches(final RevelatorParameters.ProducerType producerType) throws Exception {
+
+        final int batchesNum = 20_000;
+        final long[] lastSeq = {-1L};
+        final long[] checksum = new long[1];
+
+        final Revelator revelator = Revelator.create(
+                RevelatorParameters.builder()
+                        .bufferSize(4 * 1024)
+                        .producerType(producerType)
+                        .build(),
+                ProcessorsFactories.single((buffer, index, msgSize, timestamp, globalOffset, correlationId, msgType, userCookie) -> {
+                    if (msgType == MSG_TYPE_DATA) {
+                        assertEquals(lastSeq[0] + 1, correlationId);
+                        lastSeq[0] = correlationId;
+                        for (int i = 0; i < msgSize; i++) {
+                            checksum[0] += buffer.getLong(index + i);
+                        }
+                    }
+                }),
+                new AffinityThreadFactory(AffinityThreadFactory.ThreadAffinityMode.NO_AFFINITY));
+
+        revelator.start();
+
+        final BatchClaim batch = new BatchClaim(64);
+        long seq = 0L;
+        long expectedChecksum = 0L;
+        for (int b = 0; b < batchesNum; b++) {
+            batch.reset();
+            final int messagesNum = 1 + b % 37;
+            for (int m = 0; m < messagesNum; m++) {
+                batch.add((b + m) % 11, 0L, seq++, MSG_TYPE_DATA);
+            }
+
+            revelator.claimBatch(batch);
+
+            for (int m = 0; m < messagesNum; m++) {
+                final long claimSeq = batch.getPayloadPosition(m);
+                for (int i = 0; i < batch.getPayloadSize(m); i++) {
+                    final long value = claimSeq * 7 + i;
+                    revelator.writeLongData(claimSeq, i, value);
+                    expectedChecksum += value;
+                }
+            }
+
+            revelator.publishBatch(batch);
+        }
+
+        revelator.close();
 
+        assertEquals(seq - 1, lastSeq[0]);
+        assertEquals(expectedChecksum, checksum[0]);
+    }
 
 }
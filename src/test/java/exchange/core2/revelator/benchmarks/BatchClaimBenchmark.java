@@ -0,0 +1,96 @@
+package exchange.core2.revelator.benchmarks;
+
+import exchange.core2.revelator.BatchClaim;
+import exchange.core2.revelator.Revelator;
+import exchange.core2.revelator.RevelatorParameters;
+import exchange.core2.revelator.processors.ProcessorsFactories;
+import exchange.core2.revelator.utils.AffinityThreadFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishing N messages: per-message claim+publish vs single batch claim and publish.
+ * One operation = N messages.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-exports=java.base/jdk.internal.vm.annotation=ALL-UNNAMED")
+@State(Scope.Thread)
+public class BatchClaimBenchmark {
+
+    private static final byte MSG_TYPE = 1;
+
+    @Param({"10", "200"})
+    public int batchSize;
+
+    @Param({"6"})
+    public int msgSize;
+
+    @Param({"SINGLE", "MULTI"})
+    public RevelatorParameters.ProducerType producerType;
+
+    private Revelator revelator;
+
+    private BatchClaim batch;
+
+    @Setup
+    public void setup() {
+        revelator = Revelator.create(
+                RevelatorParameters.builder()
+                        .bufferSize(1024 * 1024)
+                        .producerType(producerType)
+                        .build(),
+                ProcessorsFactories.single((buffer, index, msgSize, timestamp, globalOffset, correlationId, msgType, userCookie) -> {
+                }),
+                new AffinityThreadFactory(AffinityThreadFactory.ThreadAffinityMode.NO_AFFINITY));
+
+        revelator.start();
+
+        batch = new BatchClaim(batchSize);
+    }
+
+    @TearDown
+    public void tearDown() {
+        revelator.stopAsync().join();
+    }
+
+    @Benchmark
+    public long perMessage() {
+        final long timestamp = System.nanoTime();
+        long positionPlusSize = 0L;
+        for (int m = 0; m < batchSize; m++) {
+            final long claimSeq = revelator.claimSingleMessage(msgSize, timestamp, m, MSG_TYPE);
+            for (int i = 0; i < msgSize; i++) {
+                revelator.writeLongData(claimSeq, i, i);
+            }
+            positionPlusSize = claimSeq + msgSize;
+            revelator.publish(claimSeq, positionPlusSize);
+        }
+        return positionPlusSize;
+    }
+
+    @Benchmark
+    public long batch() {
+        final long timestamp = System.nanoTime();
+        batch.reset();
+        for (int m = 0; m < batchSize; m++) {
+            batch.add(msgSize, timestamp, m, MSG_TYPE);
+        }
+
+        revelator.claimBatch(batch);
+
+        for (int m = 0; m < batchSize; m++) {
+            final long claimSeq = batch.getPayloadPosition(m);
+            for (int i = 0; i < msgSize; i++) {
+                revelator.writeLongData(claimSeq, i, i);
+            }
+        }
+
+        revelator.publishBatch(batch);
+        return batch.getEndPosition();
+    }
+
+}
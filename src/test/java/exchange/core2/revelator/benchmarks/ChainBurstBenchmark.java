@@ -0,0 +1,115 @@
+package exchange.core2.revelator.benchmarks;
+
+import exchange.core2.revelator.Revelator;
+import exchange.core2.revelator.RevelatorParameters;
+import exchange.core2.revelator.fences.IFence;
+import exchange.core2.revelator.processors.IFlowProcessorsFactory;
+import exchange.core2.revelator.processors.ProcessorsFactories;
+import exchange.core2.revelator.processors.ReleasePolicy;
+import exchange.core2.revelator.processors.simple.SimpleMessageHandler;
+import exchange.core2.revelator.utils.AffinityThreadFactory;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * End-to-end time of a large spike passing through chained SimpleFlowProcessors, depending on release policy.
+ * With BATCH_END policy each stage waits until previous one processed the whole spike,
+ * progressive release lets stages work on the spike concurrently.
+ * <p>
+ * One operation = publish spike and wait until last stage processed all of it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-exports=java.base/jdk.internal.vm.annotation=ALL-UNNAMED")
+@State(Scope.Benchmark)
+public class ChainBurstBenchmark {
+
+    private static final byte MSG_TYPE = 1;
+
+    @Param({"BATCH_END", "MESSAGES_64", "MESSAGES_1024", "WORDS_4096", "TIME_10US"})
+    public String releasePolicy;
+
+    @Param({"2", "4"})
+    public int stagesNum;
+
+    @Param({"50000"})
+    public int burstSize;
+
+    @Param({"2"})
+    public int msgSize;
+
+    @Param({"20"})
+    public int stageWorkTokens;
+
+    private Revelator revelator;
+    private IFence releasingFence;
+
+    @Setup
+    public void setup() {
+
+        final List<SimpleMessageHandler> handlers = IntStream.range(0, stagesNum)
+                .mapToObj(i -> (SimpleMessageHandler) (buffer, index, msgSize, timestamp, globalOffset, correlationId, msgType, userCookie)
+                        -> Blackhole.consumeCPU(stageWorkTokens))
+                .collect(Collectors.toList());
+
+        final IFlowProcessorsFactory chain = ProcessorsFactories.chain(handlers, null, parsePolicy(releasePolicy));
+
+        final IFlowProcessorsFactory factory = (inboundFence, config) -> {
+            final IFlowProcessorsFactory.ProcessorsChain processorsChain = chain.createProcessors(inboundFence, config);
+            releasingFence = processorsChain.getReleasingFence();
+            return processorsChain;
+        };
+
+        revelator = Revelator.create(
+                RevelatorParameters.builder()
+                        .bufferSize(1024 * 1024)
+                        .build(),
+                factory,
+                new AffinityThreadFactory(AffinityThreadFactory.ThreadAffinityMode.NO_AFFINITY));
+
+        revelator.start();
+    }
+
+    @TearDown
+    public void tearDown() {
+        revelator.stopAsync().join();
+    }
+
+    @Benchmark
+    public long burst() {
+        long positionPlusSize = 0L;
+        for (int i = 0; i < burstSize; i++) {
+            final long claimSeq = revelator.claimSingleMessage(msgSize, 0L, i, MSG_TYPE);
+            positionPlusSize = claimSeq + msgSize;
+            revelator.publish(positionPlusSize);
+        }
+        while (releasingFence.getVolatile() < positionPlusSize) {
+            Thread.onSpinWait();
+        }
+        return positionPlusSize;
+    }
+
+    private static ReleasePolicy parsePolicy(final String policy) {
+        switch (policy) {
+            case "BATCH_END":
+                return ReleasePolicy.BATCH_END;
+            case "MESSAGES_64":
+                return ReleasePolicy.everyMessages(64);
+            case "MESSAGES_1024":
+                return ReleasePolicy.everyMessages(1024);
+            case "WORDS_4096":
+                return ReleasePolicy.everyWords(4096);
+            case "TIME_10US":
+                return ReleasePolicy.interval(10, TimeUnit.MICROSECONDS);
+            default:
+                throw new IllegalArgumentException("Unknown release policy: " + policy);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package exchange.core2.revelator.benchmarks;
+
+import exchange.core2.revelator.HeaderFormat;
+import exchange.core2.revelator.Revelator;
+import exchange.core2.revelator.RevelatorParameters;
+import exchange.core2.revelator.processors.ProcessorsFactories;
+import exchange.core2.revelator.utils.AffinityThreadFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Claim+publish cost for single-writer and multi-producer modes (one no-op consumer).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-exports=java.base/jdk.internal.vm.annotation=ALL-UNNAMED")
+public class ClaimPublishBenchmark {
+
+    private static final byte MSG_TYPE = 1;
+
+    @State(Scope.Benchmark)
+    public static class RevelatorState {
+
+        @Param({"SINGLE", "MULTI"})
+        public RevelatorParameters.ProducerType producerType;
+
+        @Param({"STANDARD", "COMPACT"})
+        public HeaderFormat headerFormat;
+
+        @Param({"6"})
+        public int msgSize;
+
+        public Revelator revelator;
+
+        @Setup
+        public void setup() {
+            revelator = createStartedRevelator(producerType, headerFormat);
+        }
+
+        @TearDown
+        public void tearDown() {
+            revelator.stopAsync().join();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class MultiProducerState {
+
+        @Param({"6"})
+        public int msgSize;
+
+        public Revelator revelator;
+
+        @Setup
+        public void setup() {
+            revelator = createStartedRevelator(RevelatorParameters.ProducerType.MULTI, HeaderFormat.STANDARD);
+        }
+
+        @TearDown
+        public void tearDown() {
+            revelator.stopAsync().join();
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long oneProducer(final RevelatorState state) {
+        return claimAndPublish(state.revelator, state.msgSize);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public long twoProducers(final MultiProducerState state) {
+        return claimAndPublish(state.revelator, state.msgSize);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long fourProducers(final MultiProducerState state) {
+        return claimAndPublish(state.revelator, state.msgSize);
+    }
+
+    private static Revelator createStartedRevelator(final RevelatorParameters.ProducerType producerType,
+                                                    final HeaderFormat headerFormat) {
+
+        final Revelator revelator = Revelator.create(
+                RevelatorParameters.builder()
+                        .bufferSize(1024 * 1024)
+                        .producerType(producerType)
+                        .headerFormat(headerFormat)
+                        .build(),
+                ProcessorsFactories.single((buffer, index, msgSize, timestamp, globalOffset, correlationId, msgType, userCookie) -> {
+                }),
+                new AffinityThreadFactory(AffinityThreadFactory.ThreadAffinityMode.NO_AFFINITY));
+
+        revelator.start();
+        return revelator;
+    }
+
+    private static long claimAndPublish(final Revelator revelator, final int msgSize) {
+        final long claimSeq = revelator.claimSingleMessage(msgSize, System.nanoTime(), 1L, MSG_TYPE);
+        for (int i = 0; i < msgSize; i++) {
+            revelator.writeLongData(claimSeq, i, i);
+        }
+        final long positionPlusSize = claimSeq + msgSize;
+        revelator.publish(claimSeq, positionPlusSize);
+        return positionPlusSize;
+    }
+
+}
@@ -0,0 +1,134 @@
+package exchange.core2.revelator.benchmarks;
+
+import exchange.core2.revelator.fences.AggregatingMinFence;
+import exchange.core2.revelator.fences.IFence;
+import exchange.core2.revelator.fences.ShardedFence;
+import exchange.core2.revelator.fences.SingleWriterFence;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fences read cost: SingleWriterFence access modes (uncontended and with concurrent writer),
+ * AggregatingMinFence and ShardedFence depending on number of underlying fences.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-exports=java.base/jdk.internal.vm.annotation=ALL-UNNAMED")
+public class FenceBenchmark {
+
+    @State(Scope.Group)
+    public static class SingleFenceState {
+
+        public final SingleWriterFence fence = new SingleWriterFence();
+        public long value = 0L;
+    }
+
+    @State(Scope.Thread)
+    public static class MultipleFencesState {
+
+        @Param({"1", "2", "4", "8", "16", "32"})
+        public int fencesNum;
+
+        public AggregatingMinFence minFence;
+        public ShardedFence shardedFence;
+        public long id = 0L;
+
+        @Setup
+        public void setup() {
+            final SingleWriterFence[] fences = new SingleWriterFence[fencesNum];
+            for (int i = 0; i < fencesNum; i++) {
+                fences[i] = new SingleWriterFence();
+                fences[i].setRelease(1000L + i);
+            }
+
+            minFence = new AggregatingMinFence(Arrays.copyOf(fences, fencesNum, IFence[].class));
+
+            final long[] lastKnown = new long[fencesNum];
+            Arrays.fill(lastKnown, -1);
+            shardedFence = new ShardedFence(fences, id -> (int) (id % fencesNum), lastKnown);
+        }
+    }
+
+    @Benchmark
+    @Group("uncontendedAcquire")
+    public long uncontendedGetAcquire(final SingleFenceState state) {
+        return state.fence.getAcquire(0L);
+    }
+
+    @Benchmark
+    @Group("uncontendedVolatile")
+    public long uncontendedGetVolatile(final SingleFenceState state) {
+        return state.fence.getVolatile();
+    }
+
+    @Benchmark
+    @Group("uncontendedOpaque")
+    public long uncontendedGetOpaque(final SingleFenceState state) {
+        return state.fence.getOpaque();
+    }
+
+    @Benchmark
+    @Group("contendedAcquire")
+    @GroupThreads(1)
+    public long contendedAcquireReader(final SingleFenceState state) {
+        return state.fence.getAcquire(0L);
+    }
+
+    @Benchmark
+    @Group("contendedAcquire")
+    @GroupThreads(1)
+    public void contendedAcquireWriter(final SingleFenceState state) {
+        state.fence.setRelease(state.value++);
+    }
+
+    @Benchmark
+    @Group("contendedVolatile")
+    @GroupThreads(1)
+    public long contendedVolatileReader(final SingleFenceState state) {
+        return state.fence.getVolatile();
+    }
+
+    @Benchmark
+    @Group("contendedVolatile")
+    @GroupThreads(1)
+    public void contendedVolatileWriter(final SingleFenceState state) {
+        state.fence.setRelease(state.value++);
+    }
+
+    @Benchmark
+    @Group("contendedOpaque")
+    @GroupThreads(1)
+    public long contendedOpaqueReader(final SingleFenceState state) {
+        return state.fence.getOpaque();
+    }
+
+    @Benchmark
+    @Group("contendedOpaque")
+    @GroupThreads(1)
+    public void contendedOpaqueWriter(final SingleFenceState state) {
+        state.fence.setRelease(state.value++);
+    }
+
+    /**
+     * All fences are ahead of lastKnown - full scan
+     */
+    @Benchmark
+    public long aggregatingMinFenceAcquire(final MultipleFencesState state) {
+        return state.minFence.getAcquire(0L);
+    }
+
+    @Benchmark
+    public long aggregatingMinFenceVolatile(final MultipleFencesState state) {
+        return state.minFence.getVolatile();
+    }
+
+    @Benchmark
+    public long shardedFence(final MultipleFencesState state) {
+        return state.shardedFence.getForId(state.id++);
+    }
+
+}
@@ -0,0 +1,110 @@
+package exchange.core2.revelator.benchmarks;
+
+import exchange.core2.revelator.Revelator;
+import exchange.core2.revelator.RevelatorParameters;
+import exchange.core2.revelator.processors.ProcessorsFactories;
+import exchange.core2.revelator.processors.journal.JournalConfig;
+import exchange.core2.revelator.processors.journal.JournalReplayer;
+import exchange.core2.revelator.utils.AffinityThreadFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Replaying multi-GB journal into a fresh Revelator (single processor reading every message).
+ * One operation = full journal replay.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "--add-exports=java.base/jdk.internal.vm.annotation=ALL-UNNAMED")
+@State(Scope.Benchmark)
+public class JournalReplayBenchmark {
+
+    private static final byte MSG_TYPE = 1;
+
+    @Param({"2048"})
+    public int journalSizeMb;
+
+    @Param({"6"})
+    public int msgSize;
+
+    private Path journalDir;
+    private JournalConfig journalConfig;
+
+    private Revelator revelator;
+    private long checksum;
+
+    @Setup(Level.Trial)
+    public void writeJournal() throws Exception {
+
+        journalDir = Files.createTempDirectory("revelator-replay-bench");
+        journalConfig = JournalConfig.builder(journalDir)
+                .forceInterval(10, TimeUnit.MILLISECONDS)
+                .build();
+
+        final Revelator writer = Revelator.create(
+                RevelatorParameters.builder().bufferSize(1024 * 1024).build(),
+                ProcessorsFactories.journaling(journalConfig, ProcessorsFactories.single((buffer, index, msgSize, timestamp, globalOffset, correlationId, msgType, userCookie) -> {
+                })),
+                new AffinityThreadFactory(AffinityThreadFactory.ThreadAffinityMode.NO_AFFINITY));
+
+        writer.start();
+
+        final long messagesNum = ((long) journalSizeMb << 20) / ((msgSize + writer.getHeaderSize()) << 3);
+        for (long seq = 0; seq < messagesNum; seq++) {
+            final long claimSeq = writer.claimSingleMessage(msgSize, 0L, seq, MSG_TYPE);
+            for (int i = 0; i < msgSize; i++) {
+                writer.writeLongData(claimSeq, i, seq + i);
+            }
+            writer.publish(claimSeq + msgSize);
+        }
+
+        writer.close();
+    }
+
+    @Setup(Level.Invocation)
+    public void createRevelator() {
+
+        revelator = Revelator.create(
+                RevelatorParameters.builder()
+                        .bufferSize(4 * 1024 * 1024)
+                        .recoveryMode(true)
+                        .build(),
+                ProcessorsFactories.single((buffer, index, msgSize, timestamp, globalOffset, correlationId, msgType, userCookie) -> {
+                    for (int i = 0; i < msgSize; i++) {
+                        checksum += buffer.getLong(index + i);
+                    }
+                }),
+                new AffinityThreadFactory(AffinityThreadFactory.ThreadAffinityMode.NO_AFFINITY));
+
+        revelator.start();
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeRevelator() throws Exception {
+        revelator.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteJournal() throws IOException {
+        try (final Stream<Path> files = Files.list(journalDir)) {
+            files.forEach(f -> f.toFile().delete());
+        }
+        Files.delete(journalDir);
+    }
+
+    @Benchmark
+    public long replay() {
+        final long messages = JournalReplayer.replay(revelator, journalConfig);
+        // wait until processor handles all replayed messages
+        revelator.stopAsync().join();
+        return messages + checksum;
+    }
+
+}
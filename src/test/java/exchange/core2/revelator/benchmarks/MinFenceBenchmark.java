@@ -0,0 +1,141 @@
+package exchange.core2.revelator.benchmarks;
+
+import exchange.core2.revelator.fences.AggregatingMinFence;
+import exchange.core2.revelator.fences.CachingMinFence;
+import exchange.core2.revelator.fences.IFence;
+import exchange.core2.revelator.fences.MinFenceTree;
+import exchange.core2.revelator.fences.SingleWriterFence;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Wide fan-in aggregation: linear AggregatingMinFence vs CachingMinFence (laggard + last known values)
+ * vs MinFenceTree (maintained by writers).
+ * <p>
+ * poll - consumer cost while background thread keeps advancing all fences (cache lines are constantly invalidated),
+ * release - writer cost of releasing a fence, which is not free for the tree.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-exports=java.base/jdk.internal.vm.annotation=ALL-UNNAMED")
+public class MinFenceBenchmark {
+
+    public enum Aggregation {
+        LINEAR,
+        CACHED,
+        TREE
+    }
+
+    @State(Scope.Thread)
+    public static class PollState {
+
+        @Param({"4", "16", "32"})
+        public int fanIn;
+
+        @Param({"LINEAR", "CACHED", "TREE"})
+        public Aggregation aggregation;
+
+        @Param({"4"})
+        public int treeFanOut;
+
+        public IFence minFence;
+        public long lastKnown = -1L;
+
+        private volatile boolean running;
+        private Thread writer;
+
+        @Setup
+        public void setup() {
+            final List<SingleWriterFence> fences = createFences(fanIn);
+            minFence = createMinFence(aggregation, fences, treeFanOut);
+
+            // all fences are owned by single background writer, moving forward evenly
+            running = true;
+            writer = new Thread(() -> {
+                long value = 0L;
+                while (running) {
+                    value++;
+                    for (final SingleWriterFence fence : fences) {
+                        fence.setRelease(value);
+                        Thread.onSpinWait();
+                    }
+                }
+            });
+            writer.setDaemon(true);
+            writer.start();
+        }
+
+        @TearDown
+        public void tearDown() throws InterruptedException {
+            running = false;
+            writer.join();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ReleaseState {
+
+        @Param({"4", "16", "32"})
+        public int fanIn;
+
+        @Param({"LINEAR", "CACHED", "TREE"})
+        public Aggregation aggregation;
+
+        @Param({"4"})
+        public int treeFanOut;
+
+        public SingleWriterFence[] fences;
+        public IFence minFence;
+        public long value = 0L;
+        public int idx = 0;
+
+        @Setup
+        public void setup() {
+            final List<SingleWriterFence> fencesList = createFences(fanIn);
+            fences = fencesList.toArray(SingleWriterFence[]::new);
+            minFence = createMinFence(aggregation, fencesList, treeFanOut);
+        }
+    }
+
+    @Benchmark
+    public long poll(final PollState state) {
+        final long seq = state.minFence.getAcquire(state.lastKnown);
+        state.lastKnown = seq;
+        return seq;
+    }
+
+    @Benchmark
+    public void release(final ReleaseState state) {
+        state.fences[state.idx].setRelease(++state.value);
+        if (++state.idx == state.fanIn) {
+            state.idx = 0;
+        }
+    }
+
+    private static List<SingleWriterFence> createFences(final int fanIn) {
+        return IntStream.range(0, fanIn)
+                .mapToObj(i -> new SingleWriterFence())
+                .collect(Collectors.toList());
+    }
+
+    private static IFence createMinFence(final Aggregation aggregation,
+                                         final List<SingleWriterFence> fences,
+                                         final int treeFanOut) {
+        switch (aggregation) {
+            case LINEAR:
+                return new AggregatingMinFence(List.copyOf(fences));
+            case CACHED:
+                return new CachingMinFence(fences);
+            case TREE:
+                return new MinFenceTree(fences, treeFanOut);
+            default:
+                throw new IllegalArgumentException("Unknown aggregation: " + aggregation);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package exchange.core2.revelator.benchmarks;
+
+import exchange.core2.revelator.Revelator;
+import exchange.core2.revelator.RevelatorParameters;
+import exchange.core2.revelator.fences.IFence;
+import exchange.core2.revelator.processors.IFlowProcessorsFactory;
+import exchange.core2.revelator.processors.ProcessorsFactories;
+import exchange.core2.revelator.processors.pipelined.PipelinedFlowSession;
+import exchange.core2.revelator.processors.pipelined.PipelinedStageHandler;
+import exchange.core2.revelator.utils.AffinityThreadFactory;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Single PipelinedFlowProcessor running different number of stages with different pipeline depth.
+ * <p>
+ * publish - publisher throughput (steady load);
+ * burst - time to publish a burst of messages and wait until all of them are processed by last stage.
+ * Deeper pipeline lets stages work on more sessions between fence updates, but message waits longer in the queue.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-exports=java.base/jdk.internal.vm.annotation=ALL-UNNAMED")
+@State(Scope.Benchmark)
+public class PipelinedProcessorBenchmark {
+
+    private static final byte MSG_TYPE = 1;
+
+    @Param({"1", "2", "4", "8"})
+    public int handlersNum;
+
+    @Param({"16", "64", "256", "1024"})
+    public int pipelineSize;
+
+    @Param({"6"})
+    public int msgSize;
+
+    @Param({"10"})
+    public int stageWorkTokens;
+
+    @Param({"512"})
+    public int burstSize;
+
+    private Revelator revelator;
+    private IFence releasingFence;
+
+    @Setup
+    public void setup() {
+
+        final List<PipelinedStageHandler<PipelinedFlowSession>> handlers = IntStream.range(0, handlersNum)
+                .mapToObj(i -> new WorkingStage(stageWorkTokens))
+                .collect(Collectors.toList());
+
+        final IFlowProcessorsFactory pipelined = ProcessorsFactories.pipelined(
+                handlers,
+                PipelinedFlowSession::new,
+                pipelineSize,
+                null);
+
+        // capture releasing fence to detect when burst is fully processed
+        final IFlowProcessorsFactory factory = (inboundFence, config) -> {
+            final IFlowProcessorsFactory.ProcessorsChain chain = pipelined.createProcessors(inboundFence, config);
+            releasingFence = chain.getReleasingFence();
+            return chain;
+        };
+
+        revelator = Revelator.create(
+                RevelatorParameters.builder()
+                        .bufferSize(64 * 1024)
+                        .build(),
+                factory,
+                new AffinityThreadFactory(AffinityThreadFactory.ThreadAffinityMode.NO_AFFINITY));
+
+        revelator.start();
+    }
+
+    @TearDown
+    public void tearDown() {
+        revelator.stopAsync().join();
+    }
+
+    @Benchmark
+    public long publish() {
+        return publishMessage();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    public long burst() {
+        long positionPlusSize = 0L;
+        for (int i = 0; i < burstSize; i++) {
+            positionPlusSize = publishMessage();
+        }
+        while (releasingFence.getVolatile() < positionPlusSize) {
+            Thread.onSpinWait();
+        }
+        return positionPlusSize;
+    }
+
+    private long publishMessage() {
+        final long claimSeq = revelator.claimSingleMessage(msgSize, 0L, 1L, MSG_TYPE);
+        for (int i = 0; i < msgSize; i++) {
+            revelator.writeLongData(claimSeq, i, i);
+        }
+        final long positionPlusSize = claimSeq + msgSize;
+        revelator.publish(positionPlusSize);
+        return positionPlusSize;
+    }
+
+    static final class WorkingStage implements PipelinedStageHandler<PipelinedFlowSession> {
+
+        private final int workTokens;
+
+        WorkingStage(int workTokens) {
+            this.workTokens = workTokens;
+        }
+
+        @Override
+        public boolean process(final PipelinedFlowSession session) {
+            Blackhole.consumeCPU(workTokens);
+            return true;
+        }
+
+        @Override
+        public int getHitWorkWeight() {
+            return 1;
+        }
+    }
+}
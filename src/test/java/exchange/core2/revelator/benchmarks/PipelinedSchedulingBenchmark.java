@@ -0,0 +1,158 @@
+package exchange.core2.revelator.benchmarks;
+
+import exchange.core2.revelator.Revelator;
+import exchange.core2.revelator.RevelatorParameters;
+import exchange.core2.revelator.fences.IFence;
+import exchange.core2.revelator.processors.IFlowProcessorsFactory;
+import exchange.core2.revelator.processors.ProcessorsFactories;
+import exchange.core2.revelator.processors.pipelined.PipelinedFlowProcessor;
+import exchange.core2.revelator.processors.pipelined.PipelinedFlowSession;
+import exchange.core2.revelator.processors.pipelined.PipelinedStageHandler;
+import exchange.core2.revelator.processors.pipelined.SchedulingMode;
+import exchange.core2.revelator.utils.AffinityThreadFactory;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Static vs adaptive stage scheduling of PipelinedFlowProcessor on the same workload:
+ * two stages periodically swap their costs (cheap <-> expensive), third stage often misses (not ready).
+ * Declared hit work weights are equal, so static scheduler relies on wrong weights half of the time.
+ * <p>
+ * One operation = publish a burst of messages and wait until all of them are processed by last stage.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-exports=java.base/jdk.internal.vm.annotation=ALL-UNNAMED")
+@State(Scope.Benchmark)
+public class PipelinedSchedulingBenchmark {
+
+    private static final byte MSG_TYPE = 1;
+
+    @Param({"STATIC", "ADAPTIVE"})
+    public SchedulingMode schedulingMode;
+
+    @Param({"5"})
+    public int cheapTokens;
+
+    @Param({"200"})
+    public int expensiveTokens;
+
+    // messages between stage costs swap
+    @Param({"100000"})
+    public int phaseMessages;
+
+    // missing stage succeeds once per N attempts
+    @Param({"4"})
+    public int missingStageSuccessEvery;
+
+    @Param({"256"})
+    public int burstSize;
+
+    private Revelator revelator;
+    private IFence releasingFence;
+
+    @Setup
+    public void setup() {
+
+        final List<PipelinedStageHandler<PipelinedFlowSession>> handlers = List.of(
+                new DriftingStage(cheapTokens, expensiveTokens, phaseMessages, false),
+                new DriftingStage(cheapTokens, expensiveTokens, phaseMessages, true),
+                new MissingStage(missingStageSuccessEvery));
+
+        final IFlowProcessorsFactory pipelined = ProcessorsFactories.pipelined(
+                handlers,
+                PipelinedFlowSession::new,
+                PipelinedFlowProcessor.DEFAULT_PIPELINE_SIZE,
+                schedulingMode,
+                null);
+
+        final IFlowProcessorsFactory factory = (inboundFence, config) -> {
+            final IFlowProcessorsFactory.ProcessorsChain chain = pipelined.createProcessors(inboundFence, config);
+            releasingFence = chain.getReleasingFence();
+            return chain;
+        };
+
+        revelator = Revelator.create(
+                RevelatorParameters.builder()
+                        .bufferSize(64 * 1024)
+                        .build(),
+                factory,
+                new AffinityThreadFactory(AffinityThreadFactory.ThreadAffinityMode.NO_AFFINITY));
+
+        revelator.start();
+    }
+
+    @TearDown
+    public void tearDown() {
+        revelator.stopAsync().join();
+    }
+
+    @Benchmark
+    public long burst() {
+        long positionPlusSize = 0L;
+        for (int i = 0; i < burstSize; i++) {
+            final long claimSeq = revelator.claimSingleMessage(1, 0L, i, MSG_TYPE);
+            revelator.writeLongData(claimSeq, 0, i);
+            positionPlusSize = claimSeq + 1;
+            revelator.publish(positionPlusSize);
+        }
+        while (releasingFence.getVolatile() < positionPlusSize) {
+            Thread.onSpinWait();
+        }
+        return positionPlusSize;
+    }
+
+    static final class DriftingStage implements PipelinedStageHandler<PipelinedFlowSession> {
+
+        private final int cheapTokens;
+        private final int expensiveTokens;
+        private final int phaseMessages;
+        private final boolean inverted;
+
+        private long processed = 0L;
+
+        DriftingStage(int cheapTokens, int expensiveTokens, int phaseMessages, boolean inverted) {
+            this.cheapTokens = cheapTokens;
+            this.expensiveTokens = expensiveTokens;
+            this.phaseMessages = phaseMessages;
+            this.inverted = inverted;
+        }
+
+        @Override
+        public boolean process(final PipelinedFlowSession session) {
+            final boolean expensivePhase = ((processed++ / phaseMessages) & 1) == 0;
+            Blackhole.consumeCPU(expensivePhase ^ inverted ? expensiveTokens : cheapTokens);
+            return true;
+        }
+
+        @Override
+        public int getHitWorkWeight() {
+            return 1;
+        }
+    }
+
+    static final class MissingStage implements PipelinedStageHandler<PipelinedFlowSession> {
+
+        private final int successEvery;
+        private long attempts = 0L;
+
+        MissingStage(int successEvery) {
+            this.successEvery = successEvery;
+        }
+
+        @Override
+        public boolean process(final PipelinedFlowSession session) {
+            return ++attempts % successEvery == 0;
+        }
+
+        @Override
+        public int getHitWorkWeight() {
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package exchange.core2.revelator.benchmarks;
+
+import exchange.core2.revelator.Revelator;
+import exchange.core2.revelator.RevelatorParameters;
+import exchange.core2.revelator.buffers.RingBuffer;
+import exchange.core2.revelator.processors.IFlowProcessorsFactory;
+import exchange.core2.revelator.processors.ProcessorsFactories;
+import exchange.core2.revelator.processors.simple.SimpleMessageHandler;
+import exchange.core2.revelator.utils.AffinityThreadFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Publisher throughput with SimpleFlowProcessor topologies.
+ * Ring buffer is small, so in steady state publisher is gated by the slowest processor.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-exports=java.base/jdk.internal.vm.annotation=ALL-UNNAMED")
+@State(Scope.Benchmark)
+public class ProcessorsBenchmark {
+
+    private static final byte MSG_TYPE = 1;
+
+    public enum Topology {
+        SINGLE,
+        PARALLEL,
+        CHAIN,
+        SHARDED,
+        ELASTIC
+    }
+
+    @Param({"SINGLE", "PARALLEL", "CHAIN", "SHARDED", "ELASTIC"})
+    public Topology topology;
+
+    @Param({"2", "4"})
+    public int handlersNum;
+
+    @Param({"6"})
+    public int msgSize;
+
+    private Revelator revelator;
+    private long correlationId = 0L;
+
+    @Setup
+    public void setup() {
+
+        final List<SimpleMessageHandler> handlers = IntStream.range(0, handlersNum)
+                .mapToObj(i -> new SummingHandler())
+                .collect(Collectors.toList());
+
+        final IFlowProcessorsFactory factory;
+        switch (topology) {
+            case SINGLE:
+                factory = ProcessorsFactories.single(handlers.get(0));
+                break;
+            case PARALLEL:
+                factory = ProcessorsFactories.parallel(handlers);
+                break;
+            case CHAIN:
+                factory = ProcessorsFactories.chain(handlers);
+                break;
+            case SHARDED:
+                factory = ProcessorsFactories.sharded(id -> (int) (id % handlersNum), handlers);
+                break;
+            case ELASTIC:
+                factory = ProcessorsFactories.elastic(handlers, 4096);
+                break;
+            default:
+                throw new IllegalStateException();
+        }
+
+        revelator = Revelator.create(
+                RevelatorParameters.builder()
+                        .bufferSize(64 * 1024)
+                        .build(),
+                factory,
+                new AffinityThreadFactory(AffinityThreadFactory.ThreadAffinityMode.NO_AFFINITY));
+
+        revelator.start();
+    }
+
+    @TearDown
+    public void tearDown() {
+        revelator.stopAsync().join();
+    }
+
+    @Benchmark
+    public long publish() {
+        final long claimSeq = revelator.claimSingleMessage(msgSize, 0L, correlationId++ & 0xFFFF, MSG_TYPE);
+        for (int i = 0; i < msgSize; i++) {
+            revelator.writeLongData(claimSeq, i, i);
+        }
+        final long positionPlusSize = claimSeq + msgSize;
+        revelator.publish(positionPlusSize);
+        return positionPlusSize;
+    }
+
+    static final class SummingHandler implements SimpleMessageHandler {
+
+        long sum;
+
+        @Override
+        public void handleMessage(RingBuffer buffer,
+                                  long index,
+                                  int msgSize,
+                                  long timestamp,
+                                  long globalOffset,
+                                  long correlationId,
+                                  byte msgType,
+                                  int userCookie) {
+
+            for (int i = 0; i < msgSize; i++) {
+                sum += buffer.getLong(index + i);
+            }
+        }
+    }
+}